@@ -20,6 +20,13 @@ repositories {
   mavenCentral()
 }
 
+sourceSets {
+  main {
+    // The key notation is shared with the engine, to write the keys of the commands as packed ints
+    kotlin.srcDir("../vim-engine/src/main/kotlin/com/maddyhome/idea/vim/key/notation")
+  }
+}
+
 dependencies {
   compileOnly("com.google.devtools.ksp:symbol-processing-api:2.0.0-1.0.24")
   implementation("org.jetbrains.kotlinx:kotlinx-serialization-json-jvm:$kotlinxSerializationVersion") {
@@ -10,5 +10,14 @@ package com.intellij.vim.processors
 
 import kotlinx.serialization.Serializable
 
+/**
+ * A command with all of its keys. The keys are also written as packed ints, see
+ * [com.maddyhome.idea.vim.key.notation.KeyNotation], so that they aren't parsed when the plugin starts
+ */
 @Serializable
-data class CommandBean(val keys: String, val `class`: String, val modes: String)
\ No newline at end of file
+data class CommandBean(
+  val keys: List<String>,
+  val packedKeys: List<List<Int>>,
+  val `class`: String,
+  val modes: String,
+)
\ No newline at end of file
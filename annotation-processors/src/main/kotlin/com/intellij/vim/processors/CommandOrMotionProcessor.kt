@@ -18,6 +18,7 @@ import com.google.devtools.ksp.symbol.KSClassDeclaration
 import com.google.devtools.ksp.symbol.KSFile
 import com.google.devtools.ksp.symbol.KSVisitorVoid
 import com.intellij.vim.annotations.CommandOrMotion
+import com.maddyhome.idea.vim.key.notation.KeyNotation
 import kotlinx.serialization.encodeToString
 import kotlinx.serialization.json.Json
 import java.nio.file.Files
@@ -37,7 +38,7 @@ class CommandOrMotionProcessor(private val environment: SymbolProcessorEnvironme
     Files.createDirectories(generatedDirPath)
 
     val filePath = generatedDirPath.resolve(environment.options["commands_file"]!!)
-    val sortedCommands = commands.sortedWith(compareBy({ it.keys }, { it.`class` }))
+    val sortedCommands = commands.sortedBy { it.`class` }
     val fileContent = json.encodeToString(sortedCommands)
     filePath.writeText(fileContent)
 
@@ -48,11 +49,20 @@ class CommandOrMotionProcessor(private val environment: SymbolProcessorEnvironme
     @OptIn(KspExperimental::class)
     override fun visitClassDeclaration(classDeclaration: KSClassDeclaration, data: Unit) {
       val commandAnnotation = classDeclaration.getAnnotationsByType(CommandOrMotion::class).firstOrNull() ?: return
-      for (key in commandAnnotation.keys) {
-        commands.add(
-          CommandBean(key, classDeclaration.qualifiedName!!.asString(), commandAnnotation.modes.map { it.abbrev }.joinToString(separator = ""))
+      // One bean per command with all of its keys, so that the commands don't have to be grouped again at runtime
+      val keys = commandAnnotation.keys.sorted()
+      commands.add(
+        CommandBean(
+          keys,
+          keys.map { packKeys(it) },
+          classDeclaration.qualifiedName!!.asString(),
+          commandAnnotation.modes.map { it.abbrev }.joinToString(separator = ""),
         )
-      }
+      )
+    }
+
+    private fun packKeys(keys: String): List<Int> {
+      return KeyNotation.packKeys(keys) { error("<Leader> can't be used in the keys of a command: $keys") }.toList()
     }
 
     override fun visitFile(file: KSFile, data: Unit) {
@@ -89,6 +89,12 @@ public class EventFacade {
     editor.getCaretModel().addCaretListener(listener, disposable);
   }
 
+  public void addVisibleAreaListener(@NotNull Editor editor,
+                                     @NotNull VisibleAreaListener listener,
+                                     @NotNull Disposable disposable) {
+    editor.getScrollingModel().addVisibleAreaListener(listener, disposable);
+  }
+
   public void addEditorMouseListener(@NotNull Editor editor,
                                      @NotNull EditorMouseListener listener,
                                      @NotNull Disposable disposable) {
@@ -25,8 +25,7 @@ object RegisterActions {
   }
 
   fun findAction(id: String): EditorActionHandlerBase? {
-    val commandBean = IntellijCommandProvider.getCommands().firstOrNull { it.actionId == id }
-      ?: EngineCommandProvider.getCommands().firstOrNull { it.actionId == id } ?: return null
+    val commandBean = IntellijCommandProvider.getCommand(id) ?: EngineCommandProvider.getCommand(id) ?: return null
     return commandBean.instance
   }
 
@@ -10,13 +10,18 @@
 
 package com.maddyhome.idea.vim.helper
 
+import com.intellij.openapi.application.ModalityState
+import com.intellij.openapi.application.ReadAction
 import com.intellij.openapi.editor.Editor
+import com.intellij.openapi.editor.RangeMarker
+import com.intellij.openapi.editor.VisualPosition
 import com.intellij.openapi.editor.colors.EditorColors
 import com.intellij.openapi.editor.markup.EffectType
 import com.intellij.openapi.editor.markup.HighlighterLayer
 import com.intellij.openapi.editor.markup.HighlighterTargetArea
 import com.intellij.openapi.editor.markup.RangeHighlighter
 import com.intellij.openapi.editor.markup.TextAttributes
+import com.intellij.util.concurrency.AppExecutorUtil
 import com.maddyhome.idea.vim.api.VimEditor
 import com.maddyhome.idea.vim.api.globalOptions
 import com.maddyhome.idea.vim.api.injector
@@ -28,6 +33,9 @@ import com.maddyhome.idea.vim.newapi.vim
 import org.jetbrains.annotations.Contract
 import java.awt.Font
 import java.util.*
+import kotlin.collections.ArrayDeque
+import kotlin.math.max
+import kotlin.math.min
 
 internal fun updateSearchHighlights(
   pattern: String?,
@@ -35,7 +43,7 @@ internal fun updateSearchHighlights(
   showHighlights: Boolean,
   forceUpdate: Boolean,
 ) {
-  updateSearchHighlights(null, pattern, 1, shouldIgnoreSmartCase, showHighlights, -1, null, true, forceUpdate)
+  updateSearchHighlights(null, pattern, 1, shouldIgnoreSmartCase, showHighlights, -1, null, true, forceUpdate) { null }
 }
 
 internal fun updateIncsearchHighlights(
@@ -46,12 +54,7 @@ internal fun updateIncsearchHighlights(
   caretOffset: Int,
   searchRange: LineRange?,
 ): Int {
-  val searchStartOffset = if (searchRange != null && searchRange.startLine < editor.document.lineCount) {
-    editor.vim.getLineStartOffset(searchRange.startLine)
-  }
-  else {
-    caretOffset
-  }
+  val searchStartOffset = getIncsearchStartOffset(editor, caretOffset, searchRange)
   val showHighlights = injector.options(editor.vim).hlsearch
   return updateSearchHighlights(
     editor.vim,
@@ -63,7 +66,120 @@ internal fun updateIncsearchHighlights(
     searchRange,
     forwards,
     false
-  )
+  ) {
+    findIncsearchMatch(editor.vim, pattern, count1, showHighlights, searchStartOffset, searchRange, forwards) {
+      injector.messages.showStatusBarMessage(editor.vim, it)
+    }
+  }
+}
+
+/**
+ * Updates the incsearch highlights like [updateIncsearchHighlights], but searches for the current match in a
+ * background read action, so that typing a pattern doesn't block the editor on large documents
+ *
+ * A new update cancels the one still running for the same editor. Only the highlights are updated on the EDT, once
+ * the current match is known. Unit tests update the highlights immediately.
+ *
+ * @param isExpired       Whether the update is no longer wanted, e.g. because the Ex entry panel has been closed
+ * @param onCurrentMatch  Called on the EDT with the offset of the current match, or -1 if there isn't one
+ */
+internal fun updateIncsearchHighlightsInBackground(
+  editor: Editor,
+  pattern: String,
+  count1: Int,
+  forwards: Boolean,
+  caretOffset: Int,
+  searchRange: LineRange?,
+  isExpired: () -> Boolean,
+  onCurrentMatch: (Int) -> Unit,
+) {
+  val showHighlights = injector.options(editor.vim).hlsearch
+  // There is nothing to search for if the pattern is empty, or if the current match is kept because the pattern hasn't
+  // changed (e.g. when editing the offset of `/foo/e+1`)
+  if (injector.application.isUnitTest() || pattern.isEmpty() || showHighlights && pattern == editor.vimLastSearch) {
+    onCurrentMatch(updateIncsearchHighlights(editor, pattern, count1, forwards, caretOffset, searchRange))
+    return
+  }
+
+  val searchStartOffset = getIncsearchStartOffset(editor, caretOffset, searchRange)
+  ReadAction.nonBlocking<Pair<TextRange?, List<String?>>> {
+    // The status bar can only be updated on the EDT, so the messages of the search are shown once it is done
+    val messages = mutableListOf<String?>()
+    val match = findIncsearchMatch(
+      editor.vim,
+      pattern,
+      count1,
+      showHighlights,
+      searchStartOffset,
+      searchRange,
+      forwards,
+    ) { messages.add(it) }
+    Pair(match, messages)
+  }
+    .coalesceBy(editor, INCSEARCH_COALESCE_KEY)
+    .expireWhen { editor.isDisposed || isExpired() }
+    .finishOnUiThread(ModalityState.stateForComponent(editor.component)) { (match, messages) ->
+      messages.forEach { injector.messages.showStatusBarMessage(editor.vim, it) }
+      val currentMatchOffset = updateSearchHighlights(
+        editor.vim,
+        pattern,
+        count1,
+        false,
+        showHighlights,
+        searchStartOffset,
+        searchRange,
+        forwards,
+        false
+      ) { match }
+      onCurrentMatch(currentMatchOffset)
+    }
+    .submit(AppExecutorUtil.getAppExecutorService())
+}
+
+private fun getIncsearchStartOffset(editor: Editor, caretOffset: Int, searchRange: LineRange?): Int {
+  return if (searchRange != null && searchRange.startLine < editor.document.lineCount) {
+    editor.vim.getLineStartOffset(searchRange.startLine)
+  }
+  else {
+    caretOffset
+  }
+}
+
+/**
+ * Finds the current incsearch match, that the caret moves to while the pattern is typed
+ *
+ * This is the part of the incsearch highlights that can search the whole document. It only reads the document, so it
+ * can run in a background read action, and it stops when the read action is cancelled.
+ *
+ * @param showMessage Shows the messages of the search, such as E486. It is called on the thread of the search
+ */
+private fun findIncsearchMatch(
+  editor: VimEditor,
+  pattern: String,
+  count1: Int,
+  showHighlights: Boolean,
+  initialOffset: Int,
+  searchRange: LineRange?,
+  forwards: Boolean,
+  showMessage: (String?) -> Unit,
+): TextRange? {
+  if (showHighlights) {
+    // hlsearch. The current match is found from all the matches in the search range
+    val editorLastLine = editor.lineCount() - 1
+    val searchStartLine = searchRange?.startLine ?: 0
+    if (searchStartLine > editorLastLine) return null
+    val searchEndLine = (searchRange?.endLine ?: editorLastLine).coerceAtMost(editorLastLine)
+    val matches = injector.searchHelper
+      .findAllLazily(editor, pattern, searchStartLine, searchEndLine, shouldIgnoreCase(pattern, false))
+      .onEach { injector.application.checkCanceled() }
+    return findClosestMatch(matches, initialOffset, count1, forwards)
+  }
+
+  // nohlsearch. Only the current match is searched for
+  val searchOptions = EnumSet.of(SearchOptions.WHOLE_FILE)
+  if (injector.globalOptions().wrapscan) searchOptions.add(SearchOptions.WRAP)
+  if (!forwards) searchOptions.add(SearchOptions.BACKWARDS)
+  return injector.searchHelper.findPattern(editor, pattern, initialOffset, count1, searchOptions, showMessage)
 }
 
 internal fun addSubstitutionConfirmationHighlight(editor: Editor, start: Int, end: Int): RangeHighlighter {
@@ -85,6 +201,8 @@ internal fun addSubstitutionConfirmationHighlight(editor: Editor, start: Int, en
 
 /**
  * Refreshes current search highlights for all visible editors
+ *
+ * @param findCurrentMatch Finds the current incsearch match in the current editor, see [findIncsearchMatch]
  */
 private fun updateSearchHighlights(
   currentEditor: VimEditor?,
@@ -96,6 +214,7 @@ private fun updateSearchHighlights(
   searchRange: LineRange?,
   forwards: Boolean,
   forceUpdate: Boolean,
+  findCurrentMatch: () -> TextRange?,
 ): Int {
   var currentEditorCurrentMatchOffset = -1
 
@@ -128,30 +247,23 @@ private fun updateSearchHighlights(
       val searchStartLine = searchRange?.startLine ?: 0
       val searchEndLine = (searchRange?.endLine ?: -1).coerceAtMost(editorLastLine)
       if (searchStartLine <= editorLastLine) {
-        val results =
-          injector.searchHelper.findAll(
-            vimEditor,
-            pattern,
-            searchStartLine,
-            searchEndLine,
-            shouldIgnoreCase(pattern, shouldIgnoreSmartCase)
-          )
-        if (results.isNotEmpty()) {
-          if (editor === currentEditor?.ij) {
-            currentMatchOffset = findClosestMatch(results, initialOffset, count1, forwards)
-          }
-          highlightSearchResults(editor, pattern, results, currentMatchOffset)
+        val ignoreCase = shouldIgnoreCase(pattern, shouldIgnoreSmartCase)
+        if (editor === currentEditor?.ij) {
+          currentMatchOffset = findCurrentMatch()?.startOffset ?: -1
         }
+
+        // Only the matches around the visible area are highlighted. More are highlighted when the editor is scrolled
+        val area = SearchHighlightsArea(pattern, ignoreCase, searchStartLine, searchEndLine)
+        area.currentMatchOffset = currentMatchOffset
+        editor.vimSearchHighlightsArea = area
+        editor.vimIncsearchCurrentMatchOffset = currentMatchOffset
+        updateSearchHighlightsInVisibleArea(editor)
       }
       editor.vimLastSearch = pattern
     } else if (shouldAddCurrentMatchSearchHighlight(pattern, showHighlights, initialOffset)) {
       // nohlsearch + incsearch. Only highlight the current editor
       if (editor === currentEditor?.ij) {
-        val searchOptions = EnumSet.of(SearchOptions.WHOLE_FILE)
-        if (injector.globalOptions().wrapscan) searchOptions.add(SearchOptions.WRAP)
-        if (shouldIgnoreSmartCase) searchOptions.add(SearchOptions.IGNORE_SMARTCASE)
-        if (!forwards) searchOptions.add(SearchOptions.BACKWARDS)
-        val result = injector.searchHelper.findPattern(it, pattern, initialOffset, count1, searchOptions)
+        val result = findCurrentMatch()
         if (result != null) {
           val results = listOf(result)
           highlightSearchResults(editor, pattern, results, result.startOffset)
@@ -185,6 +297,9 @@ private fun shouldRemoveSearchHighlights(editor: Editor, newPattern: String?, hl
 
 private fun removeSearchHighlights(editor: Editor) {
   editor.vimLastSearch = null
+  editor.vimSearchHighlightsArea?.highlighted?.dispose()
+  editor.vimSearchHighlightsArea = null
+  editor.vimSearchHighlightsRenderer = null
   val ehl = editor.vimLastHighlighters ?: return
   for (rh in ehl) {
     editor.markupModel.removeHighlighter(rh)
@@ -200,54 +315,290 @@ private fun shouldAddAllSearchHighlights(editor: Editor, newPattern: String?, hl
   return hlSearch && newPattern != null && newPattern != editor.vimLastSearch && newPattern != ""
 }
 
+/**
+ * Finds the match that the search moves to, from the matches of the whole search range
+ *
+ * The matches are iterated once, and only as far as needed: up to the wanted match when searching forwards, and up to
+ * the initial offset when searching backwards. When the search wraps around, the wanted match is one of the first
+ * [count] matches when searching forwards, or of the last [count] ones when searching backwards, so only these are
+ * kept while the rest of the matches are counted.
+ *
+ * @param matches The matches in document order, with distinct start offsets
+ */
 private fun findClosestMatch(
-  results: List<TextRange>,
+  matches: Sequence<TextRange>,
   initialOffset: Int,
   count: Int,
   forwards: Boolean,
-): Int {
-  if (results.isEmpty() || initialOffset == -1) {
-    return -1
+): TextRange? {
+  if (initialOffset == -1) {
+    return null
   }
 
-  val sortedResults = if (forwards) {
-    results.sortedBy { it.startOffset }
-  } else {
-    results.sortedByDescending { it.startOffset }
+  // Indexes are counted in the search direction, from the first match when searching forwards and from the last one
+  // when searching backwards
+  var total = 0
+  if (forwards) {
+    val firstMatches = ArrayList<TextRange>()
+    var closestIndex = -1
+    for (match in matches) {
+      if (closestIndex == -1 && match.startOffset > initialOffset) closestIndex = total
+      if (closestIndex != -1 && total == closestIndex + count - 1) return match
+      if (total < count) firstMatches.add(match)
+      total++
+    }
+    if (total == 0 || !injector.globalOptions().wrapscan) return null
+    return firstMatches[(closestIndex.coerceAtLeast(0) + count - 1) % total]
   }
-  val closestIndex = if (forwards) {
-    sortedResults.indexOfFirst { it.startOffset > initialOffset }
+
+  // The last count matches iterated so far. Once the initial offset is reached, these are the last count matches
+  // before it
+  val lastMatches = ArrayDeque<TextRange>()
+  var before = -1
+  for (match in matches) {
+    if (match.startOffset >= initialOffset && before == -1) {
+      if (total >= count) return lastMatches.first()
+      before = total
+    }
+    lastMatches.addLast(match)
+    if (lastMatches.size > count) lastMatches.removeFirst()
+    total++
+  }
+  if (before == -1) {
+    if (total >= count) return lastMatches.first()
+    before = total
+  }
+
+  if (total == 0 || !injector.globalOptions().wrapscan) {
+    return null
+  }
+
+  val closestIndex = if (before > 0) total - before else 0
+  val index = (closestIndex + count - 1) % total
+  return lastMatches[total - 1 - index - (total - lastMatches.size)]
+}
+
+/**
+ * The search that hlsearch highlights in an editor, and the lines that are currently highlighted
+ *
+ * Only the matches in the visible lines and a margin around them are highlighted. More lines are highlighted as the
+ * editor is scrolled, and the highlights that end up far from the visible area are removed. See
+ * [updateSearchHighlightsInVisibleArea].
+ *
+ * @param startLine The first line of the search range
+ * @param endLine   The last line of the search range, or -1 for the end of the document
+ */
+internal class SearchHighlightsArea(
+  val pattern: String,
+  val ignoreCase: Boolean,
+  val startLine: Int,
+  val endLine: Int,
+) {
+  /**
+   * The offset of the current incsearch match, or -1
+   */
+  var currentMatchOffset: Int = -1
+
+  /**
+   * The lines whose matches are highlighted, from the start of the first one to the end of the last one, or null if
+   * nothing has been highlighted yet. It is a range marker, so that it follows the changes to the document
+   */
+  var highlighted: RangeMarker? = null
+}
+
+/**
+ * Highlights the matches of the current hlsearch pattern around the visible area of the editor
+ *
+ * The lines that are already highlighted are kept, and only the missing ones are searched. Once the highlighted lines
+ * reach more than [EVICTION_MARGIN_SCREENS] screens away from the visible area, they are trimmed back to the visible
+ * area and its margin.
+ */
+internal fun updateSearchHighlightsInVisibleArea(editor: Editor) {
+  val area = editor.vimSearchHighlightsArea ?: return
+  val document = editor.document
+  val lastLine = editor.vim.lineCount() - 1
+  val searchEndLine = if (area.endLine == -1) lastLine else area.endLine.coerceAtMost(lastLine)
+
+  val visibleLines = getVisibleLines(editor)
+  val screenSize = visibleLines.last - visibleLines.first + 1
+  val wantedLines = max(area.startLine, visibleLines.first - screenSize * HIGHLIGHT_MARGIN_SCREENS)..
+    min(searchEndLine, visibleLines.last + screenSize * HIGHLIGHT_MARGIN_SCREENS)
+  if (wantedLines.isEmpty()) return
+
+  val marker = area.highlighted?.takeIf { it.isValid }
+  val highlightedLines = marker?.let { document.getLineNumber(it.startOffset)..document.getLineNumber(it.endOffset) }
+  var firstHighlightedLine = wantedLines.first
+  var lastHighlightedLine = wantedLines.last
+  if (highlightedLines == null || wantedLines.first > highlightedLines.last + 1 || wantedLines.last < highlightedLines.first - 1) {
+    // Nothing next to the visible area is highlighted, e.g. after jumping to another part of the document
+    removeHighlighters(editor) { true }
+    highlightSearchAreaLines(editor, area, wantedLines.first, wantedLines.last)
   }
   else {
-    sortedResults.indexOfFirst { it.startOffset < initialOffset }
+    if (wantedLines.first < highlightedLines.first) {
+      highlightSearchAreaLines(editor, area, wantedLines.first, highlightedLines.first - 1)
+    }
+    if (wantedLines.last > highlightedLines.last) {
+      highlightSearchAreaLines(editor, area, highlightedLines.last + 1, wantedLines.last)
+    }
+    firstHighlightedLine = min(wantedLines.first, highlightedLines.first)
+    lastHighlightedLine = max(wantedLines.last, highlightedLines.last)
+
+    // Remove the highlights far from the visible area, so that scrolling through a large document doesn't keep them all
+    val evictionMargin = screenSize * EVICTION_MARGIN_SCREENS
+    if (firstHighlightedLine < visibleLines.first - evictionMargin || lastHighlightedLine > visibleLines.last + evictionMargin) {
+      firstHighlightedLine = max(firstHighlightedLine, wantedLines.first)
+      lastHighlightedLine = min(lastHighlightedLine, wantedLines.last)
+      val startOffset = document.getLineStartOffset(firstHighlightedLine)
+      val endOffset = document.getLineEndOffset(lastHighlightedLine)
+      removeHighlighters(editor) { it < startOffset || it > endOffset }
+    }
+    else if (highlightedLines.first == firstHighlightedLine && highlightedLines.last == lastHighlightedLine) {
+      return
+    }
   }
 
-  if (closestIndex == -1 && !injector.globalOptions().wrapscan) {
-    return -1
+  marker?.dispose()
+  area.highlighted = document.createRangeMarker(
+    document.getLineStartOffset(firstHighlightedLine),
+    document.getLineEndOffset(lastHighlightedLine),
+  ).apply {
+    isGreedyToLeft = true
+    isGreedyToRight = true
   }
+}
+
+/**
+ * Returns the lines of the search highlights area that are highlighted, or null if there isn't one
+ */
+internal fun getHighlightedSearchLines(editor: Editor): IntRange? {
+  val marker = editor.vimSearchHighlightsArea?.highlighted?.takeIf { it.isValid } ?: return null
+  return editor.document.getLineNumber(marker.startOffset)..editor.document.getLineNumber(marker.endOffset)
+}
 
-  val nextIndex = closestIndex.coerceAtLeast(0) + (count - 1)
-  if (nextIndex >= sortedResults.size && !injector.globalOptions().wrapscan) {
-    return -1
+private fun highlightSearchAreaLines(editor: Editor, area: SearchHighlightsArea, startLine: Int, endLine: Int) {
+  val results = SearchMatchIndex.getMatches(editor, area.pattern, area.ignoreCase, startLine, endLine)
+  if (results.isNotEmpty()) {
+    highlightSearchResults(editor, area.pattern, results, area.currentMatchOffset)
   }
+}
+
+/**
+ * Removes the highlights of the matches whose start offset matches the predicate
+ */
+private fun removeHighlighters(editor: Editor, predicate: (Int) -> Boolean) {
+  val highlighters = editor.vimLastHighlighters ?: return
+  val renderer = editor.vimSearchHighlightsRenderer
+  highlighters.removeIf {
+    val remove = it !== renderer?.highlighter && predicate(it.startOffset)
+    if (remove) editor.markupModel.removeHighlighter(it)
+    remove
+  }
+  if (renderer != null) {
+    renderer.removeIf(predicate)
+    editor.contentComponent.repaint()
+  }
+}
 
-  return sortedResults[nextIndex % results.size].startOffset
+/**
+ * Returns the logical lines shown in the editor. An editor that isn't shown (e.g. in tests) shows the whole document
+ */
+internal fun getVisibleLines(editor: Editor): IntRange {
+  val lastLine = editor.vim.lineCount() - 1
+  if (EditorHelper.getVisibleArea(editor).height <= 0) return 0..lastLine
+
+  val topLine = editor.visualToLogicalPosition(VisualPosition(EditorHelper.getVisualLineAtTopOfScreen(editor), 0)).line
+  val bottomLine =
+    editor.visualToLogicalPosition(VisualPosition(EditorHelper.getVisualLineAtBottomOfScreen(editor), 0)).line
+  return topLine.coerceAtMost(lastLine)..bottomLine.coerceIn(topLine.coerceAtMost(lastLine), lastLine)
 }
 
+/**
+ * How many matches of an editor can get their own highlighter, before they are all painted by a
+ * [SearchHighlightsRenderer]
+ */
+private const val MAX_SEARCH_HIGHLIGHTERS = 1000
+
+/**
+ * Coalesces the background incsearch updates of an editor, so that a new one cancels the previous one
+ */
+private val INCSEARCH_COALESCE_KEY = Any()
+
+/**
+ * How many screens of lines above and below the visible area are highlighted
+ */
+private const val HIGHLIGHT_MARGIN_SCREENS = 1
+
+/**
+ * How many screens of lines above and below the visible area can stay highlighted, after scrolling away from them
+ */
+private const val EVICTION_MARGIN_SCREENS = 3
+
 internal fun highlightSearchResults(editor: Editor, pattern: String, results: List<TextRange>, currentMatchOffset: Int) {
   var highlighters = editor.vimLastHighlighters
   if (highlighters == null) {
     highlighters = mutableListOf()
     editor.vimLastHighlighters = highlighters
   }
-  for (range in results) {
-    val current = range.startOffset == currentMatchOffset
-    val highlighter = highlightMatch(editor, range.startOffset, range.endOffset, current, pattern)
-    highlighters.add(highlighter)
+
+  val renderer = getSearchHighlightsRenderer(editor, highlighters, highlighters.size + results.size)
+  if (renderer != null) {
+    renderer.addAll(results.filter { it.startOffset != currentMatchOffset })
+    results.find { it.startOffset == currentMatchOffset }?.let {
+      highlighters.add(highlightMatch(editor, it.startOffset, it.endOffset, true, pattern))
+    }
+    editor.contentComponent.repaint()
+  }
+  else {
+    for (range in results) {
+      val current = range.startOffset == currentMatchOffset
+      val highlighter = highlightMatch(editor, range.startOffset, range.endOffset, current, pattern)
+      highlighters.add(highlighter)
+    }
   }
   editor.vimIncsearchCurrentMatchOffset = currentMatchOffset
 }
 
+/**
+ * Returns the renderer that paints the search highlights of the editor, creating it if the editor would have more than
+ * [MAX_SEARCH_HIGHLIGHTERS] highlighters, or null if the matches still get a highlighter each
+ *
+ * When the renderer is created, the highlighters of the matches that are already highlighted are moved to it.
+ */
+private fun getSearchHighlightsRenderer(
+  editor: Editor,
+  highlighters: MutableCollection<RangeHighlighter>,
+  highlighterCount: Int,
+): SearchHighlightsRenderer? {
+  val existing = editor.vimSearchHighlightsRenderer
+  if (existing != null && existing.highlighter.isValid) return existing
+  editor.vimSearchHighlightsRenderer = null
+  if (highlighterCount <= MAX_SEARCH_HIGHLIGHTERS) return null
+
+  val highlighter = editor.markupModel.addRangeHighlighter(
+    null,
+    0,
+    editor.document.textLength,
+    HighlighterLayer.SELECTION - 1,
+    HighlighterTargetArea.EXACT_RANGE,
+  ).apply {
+    isGreedyToLeft = true
+    isGreedyToRight = true
+  }
+  val renderer = SearchHighlightsRenderer(highlighter)
+  highlighter.customRenderer = renderer
+
+  // The current match keeps its highlighter, it's the only one without the search result attributes key
+  val matches = highlighters.filter { it.textAttributesKey == EditorColors.TEXT_SEARCH_RESULT_ATTRIBUTES }
+  highlighters.removeAll(matches.toSet())
+  matches.forEach { editor.markupModel.removeHighlighter(it) }
+  renderer.addAll(matches.filter { it.isValid }.map { TextRange(it.startOffset, it.endOffset) }.sortedBy { it.startOffset })
+
+  highlighters.add(highlighter)
+  editor.vimSearchHighlightsRenderer = renderer
+  return renderer
+}
+
 private fun highlightMatch(editor: Editor, start: Int, end: Int, current: Boolean, tooltip: String): RangeHighlighter {
   val layer = HighlighterLayer.SELECTION - 1
   val targetArea = HighlighterTargetArea.EXACT_RANGE
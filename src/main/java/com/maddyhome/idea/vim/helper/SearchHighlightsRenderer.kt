@@ -0,0 +1,166 @@
+/*
+ * Copyright 2003-2023 The IdeaVim authors
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE.txt file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.maddyhome.idea.vim.helper
+
+import com.intellij.openapi.editor.Editor
+import com.intellij.openapi.editor.colors.EditorColors
+import com.intellij.openapi.editor.event.DocumentEvent
+import com.intellij.openapi.editor.markup.CustomHighlighterOrder
+import com.intellij.openapi.editor.markup.CustomHighlighterRenderer
+import com.intellij.openapi.editor.markup.RangeHighlighter
+import com.maddyhome.idea.vim.common.TextRange
+import java.awt.Graphics
+import java.awt.Point
+
+/**
+ * Paints the search highlights of an editor from a single highlighter, instead of a highlighter per match
+ *
+ * Every highlighter is a range marker that the platform moves on each document change, which makes typing slow once
+ * thousands of matches are highlighted. Past that point, the matches are kept here as sorted arrays of offsets, and
+ * painted by one highlighter that covers the whole document.
+ * [DocumentSearchListener][com.maddyhome.idea.vim.newapi.IjVimSearchGroup.DocumentSearchListener] moves the offsets
+ * when the document changes.
+ *
+ * The current incsearch match still gets its own highlighter, since it's painted differently. The matches painted
+ * here don't get error stripe marks.
+ */
+internal class SearchHighlightsRenderer(
+  /**
+   * The highlighter that paints the matches, covering the whole document
+   */
+  val highlighter: RangeHighlighter,
+) : CustomHighlighterRenderer {
+  private var starts = IntArray(0)
+  private var ends = IntArray(0)
+  private var size = 0
+
+  /**
+   * Adds matches, in document order. Matches that are already painted are skipped
+   */
+  fun addAll(ranges: List<TextRange>) {
+    if (ranges.isEmpty()) return
+
+    val newStarts = IntArray(size + ranges.size)
+    val newEnds = IntArray(size + ranges.size)
+    var i = 0
+    var j = 0
+    var count = 0
+    while (i < size || j < ranges.size) {
+      if (j == ranges.size || i < size && starts[i] <= ranges[j].startOffset) {
+        if (j < ranges.size && starts[i] == ranges[j].startOffset) j++
+        newStarts[count] = starts[i]
+        newEnds[count++] = ends[i++]
+      }
+      else {
+        newStarts[count] = ranges[j].startOffset
+        newEnds[count++] = ranges[j++].endOffset
+      }
+    }
+    starts = newStarts
+    ends = newEnds
+    size = count
+  }
+
+  /**
+   * Removes the matches whose start offset matches the predicate
+   */
+  fun removeIf(predicate: (Int) -> Boolean) {
+    var count = 0
+    for (i in 0 until size) {
+      if (predicate(starts[i])) continue
+      starts[count] = starts[i]
+      ends[count++] = ends[i]
+    }
+    size = count
+  }
+
+  /**
+   * Moves the matches after a document change, and removes the matches that intersect the changed lines, like the
+   * range highlighters of the other matches
+   *
+   * The matches before the changed lines are left alone, so only the end of the arrays is updated.
+   *
+   * @param startLineOffset The start offset of the first changed line
+   * @param endLineOffset   The end offset of the last changed line
+   */
+  fun documentChanged(event: DocumentEvent, startLineOffset: Int, endLineOffset: Int) {
+    val changeEnd = event.offset + event.oldLength
+    val delta = event.newLength - event.oldLength
+    var first = indexOfFirstStartFrom(startLineOffset)
+    while (first > 0 && ends[first - 1] >= startLineOffset) first--
+
+    var count = first
+    for (i in first until size) {
+      var start = starts[i]
+      var end = ends[i]
+      if (start >= changeEnd) {
+        start += delta
+        end += delta
+      }
+      else if (end > event.offset) {
+        // The match overlaps the change
+        continue
+      }
+      if (start <= endLineOffset && end >= startLineOffset) continue
+      starts[count] = start
+      ends[count++] = end
+    }
+    size = count
+  }
+
+  override fun getOrder(): CustomHighlighterOrder = CustomHighlighterOrder.AFTER_BACKGROUND
+
+  override fun paint(editor: Editor, highlighter: RangeHighlighter, g: Graphics) {
+    val clip = g.clipBounds ?: return
+    val color = editor.colorsScheme.getAttributes(EditorColors.TEXT_SEARCH_RESULT_ATTRIBUTES)?.backgroundColor ?: return
+    val document = editor.document
+    // The clip can reach below the last line, and an empty document has no line at all
+    if (size == 0 || document.lineCount == 0) return
+    val lastDocumentLine = document.lineCount - 1
+    val firstLine = editor.xyToLogicalPosition(Point(0, clip.y)).line.coerceIn(0, lastDocumentLine)
+    val lastLine = editor.xyToLogicalPosition(Point(0, clip.y + clip.height)).line.coerceIn(firstLine, lastDocumentLine)
+    val firstOffset = document.getLineStartOffset(firstLine)
+    val lastOffset = document.getLineEndOffset(lastLine)
+
+    g.color = color
+    var i = indexOfFirstStartFrom(firstOffset)
+    while (i > 0 && ends[i - 1] > firstOffset) i--
+    while (i < size && starts[i] <= lastOffset) {
+      paintMatch(editor, g, starts[i], ends[i], clip.x + clip.width)
+      i++
+    }
+  }
+
+  private fun paintMatch(editor: Editor, g: Graphics, start: Int, end: Int, right: Int) {
+    val lineHeight = editor.lineHeight
+    val startPoint = editor.offsetToXY(start)
+    val endPoint = editor.offsetToXY(end)
+    if (startPoint.y == endPoint.y) {
+      g.fillRect(startPoint.x, startPoint.y, endPoint.x - startPoint.x, lineHeight)
+      return
+    }
+
+    // The match spans several visual lines
+    g.fillRect(startPoint.x, startPoint.y, right - startPoint.x, lineHeight)
+    if (endPoint.y - startPoint.y > lineHeight) {
+      g.fillRect(0, startPoint.y + lineHeight, right, endPoint.y - startPoint.y - lineHeight)
+    }
+    g.fillRect(0, endPoint.y, endPoint.x, lineHeight)
+  }
+
+  private fun indexOfFirstStartFrom(offset: Int): Int {
+    var low = 0
+    var high = size
+    while (low < high) {
+      val middle = (low + high) ushr 1
+      if (starts[middle] < offset) low = middle + 1 else high = middle
+    }
+    return low
+  }
+}
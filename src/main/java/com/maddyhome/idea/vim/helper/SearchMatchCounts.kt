@@ -0,0 +1,174 @@
+/*
+ * Copyright 2003-2023 The IdeaVim authors
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE.txt file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.maddyhome.idea.vim.helper
+
+import com.intellij.openapi.editor.Editor
+import com.intellij.openapi.editor.event.DocumentEvent
+import com.intellij.openapi.util.text.StringUtil
+import com.maddyhome.idea.vim.api.VimSearchGroupBase.SearchCount
+import com.maddyhome.idea.vim.api.injector
+import com.maddyhome.idea.vim.helper.SearchMatchIndex.Query
+import com.maddyhome.idea.vim.newapi.vim
+import com.maddyhome.idea.vim.regexp.VimRegex
+import com.maddyhome.idea.vim.regexp.VimRegexException
+import it.unimi.dsi.fastutil.ints.IntArrayList
+import kotlin.math.min
+
+/**
+ * The number of matches of a search pattern on each line of a document, to count the matches after a search
+ *
+ * The counts of the lines are kept between searches, so that `n` doesn't search the whole document again. When the
+ * document is edited, the counts of the changed lines are forgotten and the counts of the lines after them are moved,
+ * so that the next search only searches the changed lines. Searching stops when it takes too long, and the lines that
+ * were searched keep their counts, so that the next search goes on from there.
+ *
+ * Only the counts of a pattern whose matches each fit in a line, and only depend on the text, are kept, since the
+ * matches of each line can then be found on their own.
+ */
+internal class SearchMatchCounts private constructor(
+  private val query: Query,
+  private var modificationStamp: Long,
+  lineCount: Int,
+) {
+  /**
+   * The number of matches that start on each line of the document, or -1 if the line hasn't been searched yet
+   */
+  private val counts = IntArrayList(IntArray(lineCount) { -1 })
+
+  @Synchronized
+  private fun countMatches(editor: Editor, matchOffset: Int, maxCount: Int, deadline: Long): SearchCount {
+    // The lines that haven't been searched yet are searched in runs of consecutive lines
+    var line = 0
+    while (line < counts.size) {
+      if (counts.getInt(line) != -1) {
+        line++
+        continue
+      }
+      var endLine = line
+      while (endLine + 1 < counts.size && counts.getInt(endLine + 1) == -1 && endLine - line + 1 < LINES_PER_SEARCH) {
+        endLine++
+      }
+      countLines(editor, line, endLine)
+      line = endLine + 1
+      if (System.nanoTime() > deadline) return SearchCount.TIMED_OUT
+    }
+
+    val matchLine = editor.document.getLineNumber(matchOffset)
+    var before = 0
+    var total = 0
+    for (i in 0 until counts.size) {
+      if (i == matchLine) before = total
+      total += counts.getInt(i)
+    }
+    val index = findLine(editor, matchLine).indexOfFirst { it.startOffset == matchOffset }
+    val current = if (index >= 0 && before + index <= maxCount) before + index + 1 else 0
+    return SearchCount(current, min(total, maxCount + 1))
+  }
+
+  private fun countLines(editor: Editor, startLine: Int, endLine: Int) {
+    for (line in startLine..endLine) counts.set(line, 0)
+    for (match in findLines(editor, startLine, endLine)) {
+      val line = editor.document.getLineNumber(match.startOffset)
+      counts.set(line, counts.getInt(line) + 1)
+    }
+  }
+
+  private fun findLine(editor: Editor, line: Int) = findLines(editor, line, line)
+
+  private fun findLines(editor: Editor, startLine: Int, endLine: Int) =
+    injector.searchHelper.findAll(editor.vim, query.pattern, startLine, endLine, query.ignoreCase)
+
+  /**
+   * Updates the counts after a change of the document. The counts of the changed lines are forgotten, and the counts
+   * of the lines after them are moved
+   *
+   * @return False if the counts were out of date before the change, and can't be updated
+   */
+  @Synchronized
+  private fun updateAfterChange(event: DocumentEvent): Boolean {
+    if (modificationStamp != event.oldTimeStamp) return false
+    val document = event.document
+    modificationStamp = document.modificationStamp
+
+    val line = document.getLineNumber(event.offset)
+    val oldLines = StringUtil.countNewLines(event.oldFragment)
+    val newLines = StringUtil.countNewLines(event.newFragment)
+    if (newLines > oldLines) {
+      counts.addElements(line + 1, IntArray(newLines - oldLines) { -1 })
+    }
+    else if (oldLines > newLines) {
+      counts.removeElements(line + 1, line + 1 + oldLines - newLines)
+    }
+    if (counts.size != document.lineCount) return false
+    for (changedLine in line..line + newLines) counts.set(changedLine, -1)
+    return true
+  }
+
+  companion object {
+    /**
+     * The most lines that are searched at once, between the checks of the timeout
+     */
+    private const val LINES_PER_SEARCH = 1000
+
+    /**
+     * Counts the matches of the pattern in the document of the editor, and finds the position of the match at the
+     * offset among them
+     *
+     * Only the lines whose counts aren't known yet are searched. Like the search, counting stops after more than
+     * [maxCount] matches, and it stops after the timeout.
+     *
+     * @param timeoutMillis How long the lines are searched
+     * @return The count, or null if the counts of the pattern can't be kept
+     */
+    fun countMatches(
+      editor: Editor,
+      pattern: String,
+      ignoreCase: Boolean,
+      matchOffset: Int,
+      maxCount: Int,
+      timeoutMillis: Long,
+    ): SearchCount? {
+      val deadline = System.nanoTime() + timeoutMillis * 1_000_000
+      if (!isLineLocal(pattern)) return null
+
+      val document = editor.document
+      val query = Query.of(pattern, ignoreCase)
+      val counts = synchronized(SearchMatchCounts) {
+        document.vimSearchMatchCounts
+          ?.takeIf { it.query == query && it.modificationStamp == document.modificationStamp }
+          ?: SearchMatchCounts(query, document.modificationStamp, document.lineCount)
+            .also { document.vimSearchMatchCounts = it }
+      }
+      return counts.countMatches(editor, matchOffset, maxCount, deadline)
+    }
+
+    private fun isLineLocal(pattern: String): Boolean {
+      return try {
+        VimRegex(pattern).isLineLocal
+      } catch (e: VimRegexException) {
+        // The search reports the error
+        false
+      }
+    }
+
+    /**
+     * Updates the counts of the changed document, or forgets them if they can't be updated. The changes of a bulk
+     * update are too many to move the counts for each of them, so the counts are forgotten then
+     */
+    fun documentChanged(event: DocumentEvent) {
+      val document = event.document
+      synchronized(SearchMatchCounts) {
+        val counts = document.vimSearchMatchCounts ?: return
+        if (document.isInBulkUpdate || !counts.updateAfterChange(event)) {
+          document.vimSearchMatchCounts = null
+        }
+      }
+    }
+  }
+}
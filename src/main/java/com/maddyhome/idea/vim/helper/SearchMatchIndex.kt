@@ -0,0 +1,274 @@
+/*
+ * Copyright 2003-2023 The IdeaVim authors
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE.txt file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.maddyhome.idea.vim.helper
+
+import com.intellij.openapi.editor.Document
+import com.intellij.openapi.editor.Editor
+import com.intellij.openapi.editor.event.DocumentEvent
+import com.maddyhome.idea.vim.api.VimEditor
+import com.maddyhome.idea.vim.api.VimSearchGroupBase.SearchCount
+import com.maddyhome.idea.vim.api.globalOptions
+import com.maddyhome.idea.vim.api.injector
+import com.maddyhome.idea.vim.common.TextRange
+import com.maddyhome.idea.vim.newapi.IjVimDocument
+import com.maddyhome.idea.vim.newapi.vim
+import com.maddyhome.idea.vim.regexp.VimRegex
+import com.maddyhome.idea.vim.regexp.VimRegexException
+import kotlin.math.max
+import kotlin.math.min
+
+/**
+ * The matches of a search pattern in a range of lines of a document, shared by all the editors of the document
+ *
+ * Only the lines that are asked for are searched, e.g. the lines around the visible area of an editor, and they are
+ * kept as one range of lines that grows while the editors scroll through the document. Asking for lines away from
+ * that range, or for too many lines with it, starts again from the lines asked for. The matches of more than
+ * [MAX_INDEXED_LINES] lines are never kept. When the document is
+ * edited, [DocumentSearchListener][com.maddyhome.idea.vim.newapi.IjVimSearchGroup.DocumentSearchListener] updates the
+ * matches by searching the changed lines again, so that every editor showing the document doesn't search it again.
+ *
+ * The matches of a pattern that depends on the editor (`\%V`, `\%#`, `\%'m`...) differ between editors, so they are
+ * never kept here. The index is used from background read actions as well as from the EDT, so its state is only
+ * accessed while holding its lock.
+ */
+internal class SearchMatchIndex private constructor(
+  private val query: Query,
+  private var modificationStamp: Long,
+) {
+  /**
+   * The matches that start in the searched lines, in document order
+   */
+  private val matches = ArrayList<TextRange>()
+
+  /**
+   * The start offset of the first searched line, or -1 if no line has been searched yet
+   */
+  private var searchedStartOffset = -1
+
+  /**
+   * The end offset of the last searched line, or -1 if no line has been searched yet
+   */
+  private var searchedEndOffset = -1
+
+  @Synchronized
+  private fun getMatches(editor: Editor, startLine: Int, endLine: Int): List<TextRange> {
+    // Too many lines to keep their matches
+    if (endLine - startLine + 1 > MAX_INDEXED_LINES) return findAll(editor, startLine, endLine)
+
+    val document = editor.document
+    if (searchedStartOffset == -1) {
+      searchLines(editor, startLine, endLine)
+    }
+    else {
+      val searchedStartLine = document.getLineNumber(searchedStartOffset)
+      val searchedEndLine = document.getLineNumber(searchedEndOffset)
+      val firstLine = min(startLine, searchedStartLine)
+      val lastLine = max(endLine, searchedEndLine)
+      val isAway = startLine > searchedEndLine + 1 || endLine < searchedStartLine - 1
+      if (isAway || lastLine - firstLine + 1 > MAX_INDEXED_LINES) {
+        // Away from the searched lines, or too many lines to keep their matches with them
+        matches.clear()
+        searchLines(editor, startLine, endLine)
+      }
+      else {
+        if (startLine < searchedStartLine) {
+          matches.addAll(0, findAll(editor, startLine, searchedStartLine - 1))
+        }
+        if (endLine > searchedEndLine) {
+          matches.addAll(findAll(editor, searchedEndLine + 1, endLine))
+        }
+        searchedStartOffset = document.getLineStartOffset(firstLine)
+        searchedEndOffset = document.getLineEndOffset(lastLine)
+      }
+    }
+
+    val from = indexOfFirstMatchFrom(document.getLineStartOffset(startLine))
+    val to = indexOfFirstMatchFrom(document.getLineEndOffset(endLine) + 1)
+    return ArrayList(matches.subList(from, to))
+  }
+
+  @Synchronized
+  private fun countMatches(document: Document, matchOffset: Int, maxCount: Int): SearchCount? {
+    // Only the matches of the whole document can be counted
+    if (searchedStartOffset != 0 || searchedEndOffset != document.textLength) return null
+    val index = matches.binarySearchBy(matchOffset) { it.startOffset }
+    val current = if (index in 0..maxCount) index + 1 else 0
+    return SearchCount(current, min(matches.size, maxCount + 1))
+  }
+
+  private fun searchLines(editor: Editor, startLine: Int, endLine: Int) {
+    matches.addAll(findAll(editor, startLine, endLine))
+    searchedStartOffset = editor.document.getLineStartOffset(startLine)
+    searchedEndOffset = editor.document.getLineEndOffset(endLine)
+  }
+
+  private fun findAll(editor: Editor, startLine: Int, endLine: Int): List<TextRange> =
+    injector.searchHelper.findAll(editor.vim, query.pattern, startLine, endLine, query.ignoreCase)
+
+  private fun indexOfFirstMatchFrom(offset: Int): Int {
+    val index = matches.binarySearchBy(offset) { it.startOffset }
+    return if (index >= 0) index else -index - 1
+  }
+
+  /**
+   * Updates the matches after a change of the document
+   *
+   * The matches after the change are moved, and the changed lines that were searched are searched again, from the line
+   * before them. The search starts earlier if a match started before these lines, but ran into them. The matches are
+   * updated in place, so only the ones from the changed lines on are touched.
+   *
+   * @return False if the matches were out of date before the change, and can't be updated
+   */
+  @Synchronized
+  private fun updateAfterChange(editor: VimEditor, event: DocumentEvent): Boolean {
+    if (modificationStamp != event.oldTimeStamp) return false
+    val document = event.document
+    modificationStamp = document.modificationStamp
+    if (searchedStartOffset == -1) return true
+
+    val delta = event.newLength - event.oldLength
+    val changeEnd = event.offset + event.oldLength
+    searchedStartOffset = document.getLineStartOffset(document.getLineNumber(movedOffset(searchedStartOffset, event)))
+    searchedEndOffset = document.getLineEndOffset(document.getLineNumber(movedOffset(searchedEndOffset, event)))
+
+    // A match that spans lines can start on the line before the change, and only match now
+    var startOffset = document.getLineStartOffset(max(0, document.getLineNumber(event.offset) - 1))
+    var from = indexOfFirstMatchFrom(startOffset)
+    while (from > 0 && matches[from - 1].endOffset >= startOffset) {
+      from--
+      startOffset = matches[from].startOffset
+    }
+    val startLine = document.getLineNumber(startOffset)
+    from = indexOfFirstMatchFrom(document.getLineStartOffset(startLine))
+
+    // The matches are still at their offsets from before the change
+    val endLine = document.getLineNumber(event.offset + event.newLength)
+    val to = indexOfFirstMatchFrom(max(changeEnd, document.getLineEndOffset(endLine) - delta + 1))
+    if (delta != 0) {
+      for (i in to until matches.size) {
+        matches[i] = TextRange(matches[i].startOffset + delta, matches[i].endOffset + delta)
+      }
+    }
+
+    // Only the searched lines have matches
+    val removed = matches.subList(from, to)
+    removed.clear()
+    val searchStartLine = max(startLine, document.getLineNumber(searchedStartOffset))
+    val searchEndLine = min(endLine, document.getLineNumber(searchedEndOffset))
+    if (searchStartLine <= searchEndLine) {
+      removed.addAll(
+        injector.searchHelper.findAll(editor, query.pattern, searchStartLine, searchEndLine, query.ignoreCase)
+      )
+    }
+    return true
+  }
+
+  private fun movedOffset(offset: Int, event: DocumentEvent): Int = when {
+    offset < event.offset -> offset
+    offset >= event.offset + event.oldLength -> offset + event.newLength - event.oldLength
+    else -> event.offset + event.newLength
+  }
+
+  /**
+   * What was searched for. The global case options are part of it, since they change the matches
+   */
+  internal data class Query(
+    val pattern: String,
+    val ignoreCase: Boolean,
+    val ignorecaseOption: Boolean,
+    val smartcaseOption: Boolean,
+  ) {
+    companion object {
+      fun of(pattern: String, ignoreCase: Boolean): Query =
+        Query(pattern, ignoreCase, injector.globalOptions().ignorecase, injector.globalOptions().smartcase)
+    }
+  }
+
+  companion object {
+    /**
+     * The most lines whose matches are kept for a document
+     */
+    private const val MAX_INDEXED_LINES = 10_000
+
+    /**
+     * Returns the matches of the pattern that start in the given lines of the document of the editor, in document order
+     *
+     * The matches are taken from the index of the document, and only the lines that it doesn't have yet, or whose
+     * matches are out of date, are searched. The search checks for cancellation, so it can run in a background read
+     * action. A pattern that depends on the editor is always searched for in the editor, without the index.
+     */
+    fun getMatches(
+      editor: Editor,
+      pattern: String,
+      ignoreCase: Boolean,
+      startLine: Int,
+      endLine: Int,
+    ): List<TextRange> {
+      if (isEditorDependent(pattern)) {
+        return injector.searchHelper.findAll(editor.vim, pattern, startLine, endLine, ignoreCase)
+      }
+
+      val document = editor.document
+      val query = Query.of(pattern, ignoreCase)
+      val index = synchronized(SearchMatchIndex) {
+        document.vimSearchMatchIndex
+          ?.takeIf { it.query == query && it.modificationStamp == document.modificationStamp }
+          ?: SearchMatchIndex(query, document.modificationStamp).also { document.vimSearchMatchIndex = it }
+      }
+      return index.getMatches(editor, startLine, endLine)
+    }
+
+    /**
+     * Counts the matches of the pattern in the document of the editor, and finds the position of the match at the
+     * offset among them
+     *
+     * Nothing is searched for. The matches are only counted if the index already has the matches of the whole
+     * document, e.g. because the whole document is highlighted. Like the search, counting stops after more than
+     * [maxCount] matches.
+     *
+     * @return The count, or null if the index doesn't have all the matches
+     */
+    fun countMatches(
+      editor: Editor,
+      pattern: String,
+      ignoreCase: Boolean,
+      matchOffset: Int,
+      maxCount: Int,
+    ): SearchCount? {
+      val document = editor.document
+      val query = Query.of(pattern, ignoreCase)
+      val index = synchronized(SearchMatchIndex) { document.vimSearchMatchIndex } ?: return null
+      if (index.query != query || index.modificationStamp != document.modificationStamp) return null
+      return index.countMatches(document, matchOffset, maxCount)
+    }
+
+    private fun isEditorDependent(pattern: String): Boolean {
+      return try {
+        VimRegex(pattern).isPathDependent
+      } catch (e: VimRegexException) {
+        // The search reports the error
+        true
+      }
+    }
+
+    /**
+     * Updates the matches of the changed document, or forgets them if they can't be updated
+     */
+    fun documentChanged(event: DocumentEvent) {
+      val document = event.document
+      synchronized(SearchMatchIndex) {
+        val index = document.vimSearchMatchIndex ?: return
+        val editor = injector.editorGroup.getEditors(IjVimDocument(document)).firstOrNull()
+        if (editor == null || !index.updateAfterChange(editor, event)) {
+          document.vimSearchMatchIndex = null
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,310 @@
+/*
+ * Copyright 2003-2023 The IdeaVim authors
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE.txt file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+@file:JvmName("SubstitutePreviewHelper")
+
+package com.maddyhome.idea.vim.helper
+
+import com.intellij.openapi.application.ModalityState
+import com.intellij.openapi.application.ReadAction
+import com.intellij.openapi.editor.Document
+import com.intellij.openapi.editor.Editor
+import com.intellij.openapi.editor.EditorCustomElementRenderer
+import com.intellij.openapi.editor.Inlay
+import com.intellij.openapi.editor.colors.EditorColors
+import com.intellij.openapi.editor.colors.EditorFontType
+import com.intellij.openapi.editor.markup.EffectType
+import com.intellij.openapi.editor.markup.HighlighterLayer
+import com.intellij.openapi.editor.markup.HighlighterTargetArea
+import com.intellij.openapi.editor.markup.RangeHighlighter
+import com.intellij.openapi.editor.markup.TextAttributes
+import com.intellij.util.concurrency.AppExecutorUtil
+import com.maddyhome.idea.vim.VimPlugin
+import com.maddyhome.idea.vim.api.VimSearchGroupBase
+import com.maddyhome.idea.vim.api.globalOptions
+import com.maddyhome.idea.vim.api.injector
+import com.maddyhome.idea.vim.ex.ranges.LineRange
+import com.maddyhome.idea.vim.newapi.vim
+import com.maddyhome.idea.vim.regexp.VimRegex
+import com.maddyhome.idea.vim.regexp.VimRegexException
+import com.maddyhome.idea.vim.regexp.VimRegexOptions
+import com.maddyhome.idea.vim.regexp.match.VimMatchResult
+import java.awt.Font
+import java.awt.Graphics
+import java.awt.Rectangle
+import kotlin.math.max
+import kotlin.math.min
+
+/**
+ * Previews the substitutions of a `:substitute` command while it's typed, like Neovim's 'inccommand'
+ *
+ * Each match in the visible lines of the range is struck out, and followed by an inlay showing the string that would
+ * replace it. The document isn't changed. The matches are searched for in a background read action, and are kept
+ * between keystrokes: typing the substitute string or the flags only builds the replacement strings again, and
+ * extending a literal pattern only searches again the lines that matched it.
+ */
+internal class SubstitutePreview {
+  /**
+   * The matches found for the last preview, which the next one can reuse
+   */
+  var matches: SubstitutePreviewMatches? = null
+    private set
+
+  private var shownArguments: VimSearchGroupBase.SubstitutePreviewArguments? = null
+  private val highlighters = mutableListOf<RangeHighlighter>()
+  private val inlays = mutableListOf<Inlay<SubstitutePreviewRenderer>>()
+
+  /**
+   * Shows the substitutions of the matches
+   *
+   * If the same matches are already shown, the text of their inlays is updated, rather than adding them all again.
+   */
+  fun show(editor: Editor, arguments: VimSearchGroupBase.SubstitutePreviewArguments, found: SubstitutePreviewMatches?) {
+    if (found == null) {
+      clear(editor)
+      matches = null
+      return
+    }
+
+    val regex = VimRegex(arguments.pattern)
+    val search = VimPlugin.getSearch()
+    val previewed = getPreviewedMatches(editor, found, arguments.doAll)
+    if (found === matches && arguments.doAll == shownArguments?.doAll && inlays.size == previewed.size) {
+      previewed.forEachIndexed { index, match ->
+        val inlay = inlays[index]
+        inlay.renderer.text = search.buildSubstitutePreviewString(regex, match, arguments.substituteString)
+        inlay.update()
+      }
+    }
+    else {
+      clear(editor)
+      for (match in previewed) {
+        val replacement = search.buildSubstitutePreviewString(regex, match, arguments.substituteString)
+        highlighters.add(addStrikeoutHighlight(editor, match.range.startOffset, match.range.endOffset))
+        editor.inlayModel.addInlineElement(match.range.endOffset, true, SubstitutePreviewRenderer(replacement))
+          ?.let { inlays.add(it) }
+      }
+    }
+    matches = found
+    shownArguments = arguments
+  }
+
+  /**
+   * Removes the preview from the editor, but keeps the matches for the next preview
+   */
+  fun clear(editor: Editor) {
+    highlighters.forEach { editor.markupModel.removeHighlighter(it) }
+    highlighters.clear()
+    inlays.forEach { it.dispose() }
+    inlays.clear()
+    shownArguments = null
+  }
+
+  /**
+   * Returns the matches that are substituted: all of them with the `g` flag, otherwise the first one of each line
+   */
+  private fun getPreviewedMatches(
+    editor: Editor,
+    found: SubstitutePreviewMatches,
+    doAll: Boolean,
+  ): List<VimMatchResult.Success> {
+    if (doAll) return found.matches
+    var lastLine = -1
+    return found.matches.filter {
+      val line = editor.document.getLineNumber(it.range.startOffset)
+      (line != lastLine).also { lastLine = line }
+    }
+  }
+}
+
+/**
+ * The matches of a `:substitute` pattern in some lines of a document
+ *
+ * The global case options are part of it, since they change the matches.
+ */
+internal class SubstitutePreviewMatches(
+  val pattern: String,
+  val ignorecaseOption: Boolean,
+  val smartcaseOption: Boolean,
+  val modificationStamp: Long,
+  val lines: IntRange,
+  val matches: List<VimMatchResult.Success>,
+)
+
+/**
+ * Updates the preview of a `:substitute` command being typed, searching for the matches in a background read action
+ *
+ * A new update cancels the one still running for the same editor. Unit tests update the preview immediately.
+ *
+ * @param excmd       The command part of the ex command line, e.g. `s` or `substitute`
+ * @param exarg       The argument to the substitute command, as typed so far
+ * @param searchRange The range of the command. Only its visible lines are previewed
+ * @param isExpired   Whether the update is no longer wanted, e.g. because the Ex entry panel has been closed
+ */
+internal fun updateSubstitutePreviewInBackground(
+  editor: Editor,
+  excmd: String,
+  exarg: String,
+  searchRange: LineRange,
+  isExpired: () -> Boolean,
+) {
+  val arguments = VimPlugin.getSearch().parseSubstitutePreviewArguments(editor.vim, excmd, exarg)
+  val lines = getPreviewLines(editor, searchRange)
+  if (arguments == null || lines == null) {
+    editor.vimSubstitutePreview?.clear(editor)
+    return
+  }
+
+  val preview = editor.vimSubstitutePreview ?: SubstitutePreview().also { editor.vimSubstitutePreview = it }
+  val cached = preview.matches
+  if (injector.application.isUnitTest()) {
+    preview.show(editor, arguments, findSubstitutePreviewMatches(editor, arguments.pattern, lines, cached))
+    return
+  }
+
+  ReadAction.nonBlocking<SubstitutePreviewMatches?> {
+    findSubstitutePreviewMatches(editor, arguments.pattern, lines, cached)
+  }
+    .coalesceBy(editor, SUBSTITUTE_PREVIEW_COALESCE_KEY)
+    .expireWhen { editor.isDisposed || isExpired() }
+    .finishOnUiThread(ModalityState.stateForComponent(editor.component)) { preview.show(editor, arguments, it) }
+    .submit(AppExecutorUtil.getAppExecutorService())
+}
+
+/**
+ * Removes the preview of a `:substitute` command, and forgets its matches
+ */
+internal fun removeSubstitutePreview(editor: Editor) {
+  editor.vimSubstitutePreview?.clear(editor)
+  editor.vimSubstitutePreview = null
+}
+
+/**
+ * Returns the lines of the range that are visible, or null if none of them are
+ */
+private fun getPreviewLines(editor: Editor, searchRange: LineRange): IntRange? {
+  val visibleLines = getVisibleLines(editor)
+  val startLine = max(searchRange.startLine, visibleLines.first)
+  val endLine = min(searchRange.endLine, visibleLines.last)
+  return if (startLine <= endLine) startLine..endLine else null
+}
+
+/**
+ * Finds the matches of the pattern in the lines, reusing the matches of the previous preview when possible
+ *
+ * This only reads the document, so it can run in a background read action.
+ *
+ * @return The matches, or null if the pattern isn't valid
+ */
+private fun findSubstitutePreviewMatches(
+  editor: Editor,
+  pattern: String,
+  lines: IntRange,
+  cached: SubstitutePreviewMatches?,
+): SubstitutePreviewMatches? {
+  val regex = try {
+    VimRegex(pattern)
+  } catch (e: VimRegexException) {
+    return null
+  }
+
+  val ignorecase = injector.globalOptions().ignorecase
+  val smartcase = injector.globalOptions().smartcase
+  val options = enumSetOf<VimRegexOptions>()
+  if (smartcase) options.add(VimRegexOptions.SMART_CASE)
+  if (ignorecase) options.add(VimRegexOptions.IGNORE_CASE)
+
+  val document = editor.document
+  val vimEditor = editor.vim
+  val canReuse = cached != null &&
+    cached.modificationStamp == document.modificationStamp &&
+    cached.ignorecaseOption == ignorecase &&
+    cached.smartcaseOption == smartcase &&
+    lines.first >= cached.lines.first && lines.last <= cached.lines.last
+
+  val matches = try {
+    when {
+      canReuse && cached!!.pattern == pattern -> return cached
+      canReuse && regex.isNarrowerThan(VimRegex(cached!!.pattern)) -> {
+        // A line that matches the longer literal also matches the shorter one, so only these lines are searched
+        cached.matches.asSequence()
+          .map { document.getLineNumber(it.range.startOffset) }
+          .filter { it in lines }
+          .distinct()
+          .flatMap {
+            injector.application.checkCanceled()
+            regex.findAll(vimEditor, document.getLineStartOffset(it), getMaxIndex(document, it), options)
+          }
+          .toList()
+      }
+      else -> regex.findAll(
+        vimEditor,
+        document.getLineStartOffset(lines.first),
+        getMaxIndex(document, lines.last),
+        options,
+      )
+    }
+  } catch (e: VimRegexException) {
+    // The pattern was too expensive
+    return null
+  }
+
+  return SubstitutePreviewMatches(pattern, ignorecase, smartcase, document.modificationStamp, lines, matches)
+}
+
+/**
+ * Returns the offset before which the matches of the line start. A match can start at the end of the line, e.g. `$`
+ */
+private fun getMaxIndex(document: Document, line: Int) = document.getLineEndOffset(line) + 1
+
+private fun addStrikeoutHighlight(editor: Editor, start: Int, end: Int): RangeHighlighter {
+  val attributes = TextAttributes(null, null, editor.colorsScheme.defaultForeground, EffectType.STRIKEOUT, Font.PLAIN)
+  return editor.markupModel.addRangeHighlighter(
+    start,
+    end,
+    HighlighterLayer.SELECTION - 1,
+    attributes,
+    HighlighterTargetArea.EXACT_RANGE,
+  )
+}
+
+/**
+ * Paints the string that would replace a match, after the match
+ */
+internal class SubstitutePreviewRenderer(var text: String) : EditorCustomElementRenderer {
+  override fun calcWidthInPixels(inlay: Inlay<*>): Int {
+    val editor = inlay.editor
+    // Inline inlays can't be empty, so an empty replacement still gets a thin inlay
+    return max(1, editor.contentComponent.getFontMetrics(getFont(editor)).stringWidth(getDisplayText()))
+  }
+
+  override fun paint(inlay: Inlay<*>, g: Graphics, targetRegion: Rectangle, textAttributes: TextAttributes) {
+    val editor = inlay.editor
+    val attributes = editor.colorsScheme.getAttributes(EditorColors.TEXT_SEARCH_RESULT_ATTRIBUTES)
+    attributes?.backgroundColor?.let {
+      g.color = it
+      g.fillRect(targetRegion.x, targetRegion.y, targetRegion.width, targetRegion.height)
+    }
+    g.font = getFont(editor)
+    g.color = attributes?.foregroundColor ?: editor.colorsScheme.defaultForeground
+    g.drawString(getDisplayText(), targetRegion.x, targetRegion.y + editor.ascent)
+  }
+
+  /**
+   * The replacement, with the characters that can't be shown in a single line replaced by visible ones
+   */
+  private fun getDisplayText() = text.replace("\n", "⏎").replace("\u0000", "^@")
+
+  private fun getFont(editor: Editor) = editor.colorsScheme.getFont(EditorFontType.PLAIN)
+}
+
+/**
+ * Coalesces the background updates of the `:substitute` preview of an editor, so that a new one cancels the previous
+ * one
+ */
+private val SUBSTITUTE_PREVIEW_COALESCE_KEY = Any()
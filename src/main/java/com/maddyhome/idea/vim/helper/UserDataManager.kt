@@ -12,6 +12,7 @@
 package com.maddyhome.idea.vim.helper
 
 import com.intellij.openapi.editor.Caret
+import com.intellij.openapi.editor.Document
 import com.intellij.openapi.editor.Editor
 import com.intellij.openapi.editor.RangeMarker
 import com.intellij.openapi.editor.VisualPosition
@@ -109,12 +110,21 @@ internal fun unInitializeEditor(editor: Editor) {
   editor.vimMorePanel = null
   editor.vimExOutput = null
   editor.vimLastHighlighters = null
+  editor.vimSearchHighlightsArea?.highlighted?.dispose()
+  editor.vimSearchHighlightsArea = null
+  editor.vimSearchHighlightsRenderer = null
+  removeSubstitutePreview(editor)
   editor.vimInitialised = false
 }
 
 internal var Editor.vimLastSearch: String? by userData()
 internal var Editor.vimLastHighlighters: MutableCollection<RangeHighlighter>? by userData()
 internal var Editor.vimIncsearchCurrentMatchOffset: Int? by userData()
+internal var Editor.vimSearchHighlightsArea: SearchHighlightsArea? by userData()
+internal var Editor.vimSearchHighlightsRenderer: SearchHighlightsRenderer? by userData()
+internal var Editor.vimSubstitutePreview: SubstitutePreview? by userData()
+internal var Document.vimSearchMatchIndex: SearchMatchIndex? by userData()
+internal var Document.vimSearchMatchCounts: SearchMatchCounts? by userData()
 
 /***
  * @see :help visualmode()
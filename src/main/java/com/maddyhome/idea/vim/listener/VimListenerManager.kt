@@ -15,6 +15,7 @@ import com.intellij.openapi.application.ApplicationManager
 import com.intellij.openapi.diagnostic.Logger
 import com.intellij.openapi.diagnostic.trace
 import com.intellij.openapi.editor.Caret
+import com.intellij.openapi.editor.Document
 import com.intellij.openapi.editor.Editor
 import com.intellij.openapi.editor.EditorFactory
 import com.intellij.openapi.editor.EditorKind
@@ -31,6 +32,8 @@ import com.intellij.openapi.editor.event.EditorMouseListener
 import com.intellij.openapi.editor.event.EditorMouseMotionListener
 import com.intellij.openapi.editor.event.SelectionEvent
 import com.intellij.openapi.editor.event.SelectionListener
+import com.intellij.openapi.editor.event.VisibleAreaEvent
+import com.intellij.openapi.editor.event.VisibleAreaListener
 import com.intellij.openapi.editor.ex.DocumentEx
 import com.intellij.openapi.editor.ex.EditorEventMulticasterEx
 import com.intellij.openapi.editor.ex.FocusChangeListener
@@ -88,6 +91,7 @@ import com.maddyhome.idea.vim.helper.isEndAllowed
 import com.maddyhome.idea.vim.helper.moveToInlayAwareOffset
 import com.maddyhome.idea.vim.helper.resetVimLastColumn
 import com.maddyhome.idea.vim.helper.updateCaretsVisualAttributes
+import com.maddyhome.idea.vim.helper.updateSearchHighlightsInVisibleArea
 import com.maddyhome.idea.vim.helper.vimDisabled
 import com.maddyhome.idea.vim.helper.vimInitialised
 import com.maddyhome.idea.vim.newapi.IjVimEditor
@@ -319,6 +323,7 @@ internal object VimListenerManager {
       eventFacade.addEditorSelectionListener(editor, EditorSelectionHandler, listenersDisposable)
       eventFacade.addComponentMouseListener(editor.contentComponent, ComponentMouseListener, listenersDisposable)
       eventFacade.addCaretListener(editor, EditorCaretHandler, listenersDisposable)
+      eventFacade.addVisibleAreaListener(editor, EditorVisibleAreaHandler, listenersDisposable)
 
       VimPlugin.getEditor().editorCreated(editor)
       VimPlugin.getChange().editorCreated(editor, listenersDisposable)
@@ -375,6 +380,11 @@ internal object VimListenerManager {
       IjVimSearchGroup.DocumentSearchListener.INSTANCE.documentChanged(event)
       IjVimRedrawService.RedrawListener.documentChanged(event)
     }
+
+    override fun bulkUpdateFinished(document: Document) {
+      // The search highlights skip the changes of a bulk update, and are updated once it's finished
+      IjVimSearchGroup.DocumentSearchListener.INSTANCE.bulkUpdateFinished(document)
+    }
   }
 
   /**
@@ -842,6 +852,17 @@ internal object VimListenerManager {
     }
   }
 
+  /**
+   * Visible area listener registered only for editors that we're interested in. Search highlights are only added
+   * around the visible area, so more of them are added when the editor is scrolled.
+   */
+  private object EditorVisibleAreaHandler : VisibleAreaListener {
+    override fun visibleAreaChanged(e: VisibleAreaEvent) {
+      if (e.oldRectangle?.y == e.newRectangle.y && e.oldRectangle?.height == e.newRectangle.height) return
+      updateSearchHighlightsInVisibleArea(e.editor)
+    }
+  }
+
   enum class SelectionSource {
     MOUSE,
     OTHER,
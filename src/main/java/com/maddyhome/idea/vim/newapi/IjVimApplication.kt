@@ -11,6 +11,7 @@ package com.maddyhome.idea.vim.newapi
 import com.intellij.openapi.application.ApplicationManager
 import com.intellij.openapi.application.ModalityState
 import com.intellij.openapi.components.Service
+import com.intellij.openapi.progress.ProgressManager
 import com.intellij.openapi.util.Computable
 import com.intellij.util.ExceptionUtil
 import com.maddyhome.idea.vim.api.VimApplicationBase
@@ -88,6 +89,10 @@ internal class IjVimApplication : VimApplicationBase() {
     return property.toBoolean()
   }
 
+  override fun checkCanceled() {
+    ProgressManager.checkCanceled()
+  }
+
   private fun createKeyEvent(stroke: KeyStroke, component: Component): KeyEvent {
     return KeyEvent(
       component,
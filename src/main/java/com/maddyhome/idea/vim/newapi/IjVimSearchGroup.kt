@@ -13,12 +13,14 @@ import com.intellij.openapi.components.PersistentStateComponent
 import com.intellij.openapi.components.RoamingType
 import com.intellij.openapi.components.State
 import com.intellij.openapi.components.Storage
+import com.intellij.openapi.editor.Document
 import com.intellij.openapi.editor.Editor
 import com.intellij.openapi.editor.event.DocumentEvent
 import com.intellij.openapi.editor.event.DocumentListener
 import com.intellij.openapi.editor.markup.RangeHighlighter
 import com.intellij.openapi.fileEditor.FileEditorManagerEvent
 import com.intellij.openapi.util.Ref
+import com.intellij.util.DocumentUtil
 import com.maddyhome.idea.vim.VimPlugin
 import com.maddyhome.idea.vim.api.ExecutionContext
 import com.maddyhome.idea.vim.api.Options
@@ -29,15 +31,20 @@ import com.maddyhome.idea.vim.api.globalOptions
 import com.maddyhome.idea.vim.api.injector
 import com.maddyhome.idea.vim.common.Direction
 import com.maddyhome.idea.vim.common.Direction.Companion.fromInt
+import com.maddyhome.idea.vim.common.TextRange
 import com.maddyhome.idea.vim.diagnostic.vimLogger
 import com.maddyhome.idea.vim.helper.MessageHelper
+import com.maddyhome.idea.vim.helper.SearchMatchCounts
+import com.maddyhome.idea.vim.helper.SearchMatchIndex
 import com.maddyhome.idea.vim.helper.TestInputModel.Companion.getInstance
 import com.maddyhome.idea.vim.helper.addSubstitutionConfirmationHighlight
+import com.maddyhome.idea.vim.helper.getHighlightedSearchLines
 import com.maddyhome.idea.vim.helper.highlightSearchResults
 import com.maddyhome.idea.vim.helper.isCloseKeyStroke
 import com.maddyhome.idea.vim.helper.shouldIgnoreCase
 import com.maddyhome.idea.vim.helper.updateSearchHighlights
 import com.maddyhome.idea.vim.helper.vimLastHighlighters
+import com.maddyhome.idea.vim.helper.vimSearchHighlightsRenderer
 import com.maddyhome.idea.vim.options.GlobalOptionChangeListener
 import com.maddyhome.idea.vim.ui.ModalEntry
 import com.maddyhome.idea.vim.vimscript.model.functions.handlers.SubmatchFunctionHandler
@@ -45,6 +52,8 @@ import org.jdom.Element
 import org.jetbrains.annotations.Contract
 import org.jetbrains.annotations.TestOnly
 import javax.swing.KeyStroke
+import kotlin.math.max
+import kotlin.math.min
 
 @State(
   name = "VimSearchSettings",
@@ -53,6 +62,11 @@ import javax.swing.KeyStroke
 open class IjVimSearchGroup : VimSearchGroupBase(), PersistentStateComponent<Element> {
   companion object {
     private val logger = vimLogger<IjVimSearchGroup>()
+
+    /**
+     * How many replacements are worth a bulk update of the document
+     */
+    private const val MIN_BULK_REPLACEMENTS = 100
   }
 
   init {
@@ -81,9 +95,14 @@ open class IjVimSearchGroup : VimSearchGroupBase(), PersistentStateComponent<Ele
   ) {
     val pattern = getLastUsedPattern()
     if (pattern != null) {
-      val results = injector.searchHelper.findAll(
-        editor, pattern, startLine, endLine,
-        shouldIgnoreCase(pattern, lastIgnoreSmartCase)
+      // Only the lines around the visible area are highlighted, the others are highlighted when scrolled to
+      val highlightedLines = getHighlightedSearchLines(editor.ij)
+      val firstLine = if (highlightedLines != null) max(startLine, highlightedLines.first) else startLine
+      val lastLine = if (highlightedLines != null) min(endLine, highlightedLines.last) else endLine
+      if (firstLine > lastLine) return
+
+      val results = SearchMatchIndex.getMatches(
+        editor.ij, pattern, shouldIgnoreCase(pattern, lastIgnoreSmartCase), firstLine, lastLine
       )
       highlightSearchResults(editor.ij, pattern, results, -1)
     }
@@ -97,6 +116,21 @@ open class IjVimSearchGroup : VimSearchGroupBase(), PersistentStateComponent<Ele
     updateSearchHighlights(getLastUsedPattern(), lastIgnoreSmartCase, showSearchHighlight, true)
   }
 
+  /**
+   * Counts the matches from the [SearchMatchIndex] of the document when it already has all of them, e.g. because the
+   * whole document is highlighted. Otherwise, the matches are counted with the [SearchMatchCounts] of the document,
+   * which keeps the count of each line and only searches the lines changed since the last search. The document is only
+   * searched again for a pattern that can match across lines.
+   */
+  override fun countSearchMatches(editor: VimEditor, pattern: String, match: TextRange): SearchCount? {
+    val ignoreCase = shouldIgnoreCase(pattern, lastIgnoreSmartCase)
+    return SearchMatchIndex.countMatches(editor.ij, pattern, ignoreCase, match.startOffset, MAX_SEARCH_COUNT)
+      ?: SearchMatchCounts.countMatches(
+        editor.ij, pattern, ignoreCase, match.startOffset, MAX_SEARCH_COUNT, SEARCH_COUNT_TIMEOUT_MS
+      )
+      ?: super.countSearchMatches(editor, pattern, match)
+  }
+
   override fun addSubstitutionConfirmationHighlight(
     editor: VimEditor,
     startOffset: Int,
@@ -127,6 +161,24 @@ open class IjVimSearchGroup : VimSearchGroupBase(), PersistentStateComponent<Ele
     }
   }
 
+  override fun replaceStrings(
+    editor: VimEditor,
+    replacements: List<Pair<TextRange, String>>,
+  ) {
+    val document = (editor as IjVimEditor).editor.document
+    // Each range is replaced on its own, from the last one, so that the marks, bookmarks, breakpoints and folds of
+    // the text between the ranges are kept, and the ranges before it don't move
+    val replaceAll = Runnable {
+      for ((range, newString) in replacements.asReversed()) {
+        document.replaceString(range.startOffset, range.endOffset, newString)
+      }
+    }
+    ApplicationManager.getApplication().runWriteAction {
+      // A bulk update defers the work of the editors and of our listeners to the end, at the cost of a full refresh
+      if (replacements.size > MIN_BULK_REPLACEMENTS) DocumentUtil.executeInBulk(document, replaceAll) else replaceAll.run()
+    }
+  }
+
   @TestOnly
   override fun resetState() {
     super.resetState()
@@ -254,11 +306,21 @@ open class IjVimSearchGroup : VimSearchGroupBase(), PersistentStateComponent<Ele
    */
   class DocumentSearchListener @Contract(pure = true) private constructor() : DocumentListener {
     override fun documentChanged(event: DocumentEvent) {
+      // The counts of the matches of each line are moved, or forgotten in a bulk update
+      SearchMatchCounts.documentChanged(event)
+
+      // The changes of a bulk update are all handled at once, when it's finished
+      if (event.document.isInBulkUpdate) return
+
       // Loop over all local editors for the changed document, across all projects, and update search highlights.
       // Note that the change may have come from a remote guest in Code With Me scenarios (in which case
       // ClientId.current will be a guest ID), but we don't care - we still need to add/remove highlights for the
       // changed text. Make sure we only update local editors, though.
       val document = event.document
+
+      // The matches of the document are shared by its editors, so they're only searched again once
+      SearchMatchIndex.documentChanged(event)
+
       for (vimEditor in injector.editorGroup.getEditors(IjVimDocument(document))) {
         val editor = (vimEditor as IjVimEditor).editor
         var existingHighlighters = editor.vimLastHighlighters ?: continue
@@ -277,10 +339,14 @@ open class IjVimSearchGroup : VimSearchGroupBase(), PersistentStateComponent<Ele
         val startLineOffset = document.getLineStartOffset(startPosition.line)
         val endLineOffset = document.getLineEndOffset(endPosition.line)
 
-        // Remove any highlights that have already been deleted, and remove + clear those that intersect with the change
+        // Remove any highlights that have already been deleted, and remove + clear those that intersect with the change.
+        // The matches painted by a single renderer are moved and cleared the same way
+        val renderer = editor.vimSearchHighlightsRenderer
+        renderer?.documentChanged(event, startLineOffset, endLineOffset)
         val iter = existingHighlighters.iterator()
         while (iter.hasNext()) {
           val highlighter = iter.next()
+          if (highlighter === renderer?.highlighter && highlighter.isValid) continue
           if (!highlighter.isValid) {
             iter.remove()
           } else if (highlighter.textRange.intersects(startLineOffset, endLineOffset)) {
@@ -299,6 +365,14 @@ open class IjVimSearchGroup : VimSearchGroupBase(), PersistentStateComponent<Ele
       }
     }
 
+    override fun bulkUpdateFinished(document: Document) {
+      // The matches and highlights of the document can't be moved, since the individual changes are unknown. Search
+      // again, once for all the editors
+      if (injector.editorGroup.getEditors(IjVimDocument(document)).any { it.ij.vimLastHighlighters != null }) {
+        VimPlugin.getSearch().updateSearchHighlights(true)
+      }
+    }
+
     companion object {
       var INSTANCE: DocumentSearchListener = DocumentSearchListener()
     }
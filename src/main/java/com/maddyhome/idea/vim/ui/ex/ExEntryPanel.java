@@ -26,6 +26,7 @@ import com.maddyhome.idea.vim.action.VimShortcutKeyAction;
 import com.maddyhome.idea.vim.api.*;
 import com.maddyhome.idea.vim.ex.ranges.LineRange;
 import com.maddyhome.idea.vim.helper.SearchHighlightsHelper;
+import com.maddyhome.idea.vim.helper.SubstitutePreviewHelper;
 import com.maddyhome.idea.vim.helper.UiHelper;
 import com.maddyhome.idea.vim.key.interceptors.VimInputInterceptor;
 import com.maddyhome.idea.vim.newapi.IjVimCaret;
@@ -242,7 +243,12 @@ public class ExEntryPanel extends JPanel implements VimCommandLine {
           resetCaretOffset(editor);
         }
 
+        // Drop any incsearch update still running in the background
+        incsearchGeneration++;
         VimPlugin.getSearch().resetIncsearchHighlights();
+        if (!editor.isDisposed()) {
+          SubstitutePreviewHelper.removeSubstitutePreview(editor);
+        }
       }
 
       isReplaceMode = false;
@@ -302,9 +308,15 @@ public class ExEntryPanel extends JPanel implements VimCommandLine {
     }
   };
 
+  /**
+   * Incremented on every change of the incsearch text, so that a background update can tell it's out of date
+   */
+  private volatile int incsearchGeneration = 0;
+
   private final @NotNull DocumentListener incSearchDocumentListener = new DocumentAdapter() {
     @Override
     protected void textChanged(@NotNull DocumentEvent e) {
+      final int generation = ++incsearchGeneration;
       try {
         final Editor editor = entry.getEditor();
 
@@ -318,6 +330,7 @@ public class ExEntryPanel extends JPanel implements VimCommandLine {
           if (searchText.isEmpty()) return;
           final Command command = getIncsearchCommand(searchText);
           if (command == null) {
+            SubstitutePreviewHelper.removeSubstitutePreview(editor);
             return;
           }
           searchCommand = true;
@@ -336,9 +349,16 @@ public class ExEntryPanel extends JPanel implements VimCommandLine {
             // E.g. Highlight `whatever`, type `:%s/foo` + highlight `foo`, delete back to `:%s/` and reset highlights
             // back to `whatever`
             VimPlugin.getSearch().resetIncsearchHighlights();
+            SubstitutePreviewHelper.removeSubstitutePreview(editor);
             resetCaretOffset(editor);
             return;
           }
+
+          // Preview the substitutions once the pattern is complete, like Neovim's 'inccommand'
+          if (command instanceof SubstituteCommand substituteCommand) {
+            SubstitutePreviewHelper.updateSubstitutePreviewInBackground(
+              editor, substituteCommand.getCommand(), argument, searchRange, () -> generation != incsearchGeneration);
+          }
         }
 
         // Get a snapshot of the count for the in progress command, and coerce it to 1. This value will include all
@@ -354,15 +374,19 @@ public class ExEntryPanel extends JPanel implements VimCommandLine {
           final String pattern = searchText.substring(0, pattenEnd);
 
           VimPlugin.getEditor().closeEditorSearchSession(editor);
-          final int matchOffset =
-            SearchHighlightsHelper.updateIncsearchHighlights(editor, pattern, count1, forwards, caretOffset,
-                                                             searchRange);
-          if (matchOffset != -1) {
-            new IjVimCaret(editor.getCaretModel().getPrimaryCaret()).moveToOffset(matchOffset);
-          }
-          else {
-            resetCaretOffset(editor);
-          }
+          // The search runs in the background, and is cancelled if the text changes again before it's finished
+          SearchHighlightsHelper.updateIncsearchHighlightsInBackground(
+            editor, pattern, count1, forwards, caretOffset, searchRange,
+            () -> generation != incsearchGeneration,
+            matchOffset -> {
+              if (matchOffset != -1) {
+                new IjVimCaret(editor.getCaretModel().getPrimaryCaret()).moveToOffset(matchOffset);
+              }
+              else {
+                resetCaretOffset(editor);
+              }
+              return Unit.INSTANCE;
+            });
         }
       }
       catch (Throwable ex) {
@@ -30,6 +30,60 @@ class SearchAgainNextActionTest : VimTestCase() {
     assertStatusLineMessageContains("/ipsum")
   }
 
+  @Test
+  fun `test search next shows position of match`() {
+    doTest(
+      listOf(searchCommand("/ipsum"), "n"),
+      """
+         ${c}Lorem ipsum dolor sit amet,
+         Lorem ipsum dolor sit amet,
+         Lorem ipsum dolor sit amet,
+      """.trimIndent(),
+      """
+         Lorem ipsum dolor sit amet,
+         Lorem ${c}ipsum dolor sit amet,
+         Lorem ipsum dolor sit amet,
+      """.trimIndent(),
+    )
+    assertStatusLineMessageContains("/ipsum [2/3]")
+  }
+
+  @Test
+  fun `test search next counts matches after change`() {
+    doTest(
+      listOf(searchCommand("/ipsum"), "dd", "n"),
+      """
+         ${c}Lorem ipsum dolor sit amet,
+         Lorem ipsum dolor sit amet,
+         Lorem ipsum dolor sit amet,
+      """.trimIndent(),
+      """
+         Lorem ${c}ipsum dolor sit amet,
+         Lorem ipsum dolor sit amet,
+      """.trimIndent(),
+    )
+    assertStatusLineMessageContains("/ipsum [1/2]")
+  }
+
+  @Test
+  fun `test search next counts matches after lines are added`() {
+    doTest(
+      listOf(searchCommand("/ipsum"), "yyp", "n"),
+      """
+         ${c}Lorem ipsum dolor sit amet,
+         Lorem ipsum dolor sit amet,
+         Lorem ipsum dolor sit amet,
+      """.trimIndent(),
+      """
+         Lorem ipsum dolor sit amet,
+         Lorem ${c}ipsum dolor sit amet,
+         Lorem ipsum dolor sit amet,
+         Lorem ipsum dolor sit amet,
+      """.trimIndent(),
+    )
+    assertStatusLineMessageContains("/ipsum [2/4]")
+  }
+
   @Test
   fun `test search next for backwards search updates status line correctly`() {
     doTest(
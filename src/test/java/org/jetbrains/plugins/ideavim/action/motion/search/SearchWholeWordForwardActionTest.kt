@@ -30,6 +30,22 @@ class SearchWholeWordForwardActionTest : VimTestCase() {
     doTest(keys, before, after, Mode.NORMAL())
   }
 
+  @Test
+  fun `test search shows position of match`() {
+    val before = """
+  he${c}llo 1
+  hello 2
+  hello 3
+    """.trimIndent()
+    val after = """
+  hello 1
+  ${c}hello 2
+  hello 3
+    """.trimIndent()
+    doTest("*", before, after, Mode.NORMAL())
+    assertStatusLineMessageContains("[2/3]")
+  }
+
   @Test
   fun `test backward search on empty string`() {
     doTest("*", "", "", Mode.NORMAL())
@@ -114,6 +114,116 @@ class GlobalCommandTest : VimTestCase() {
     )
   }
 
+  @Test
+  fun `test marked lines deleted by the command are skipped`() {
+    doTest(
+      "g/a/.,+1d",
+      """
+        a1
+        a2
+        b
+        a3
+        a4
+        c
+      """.trimIndent(),
+      """
+        b
+        c
+      """.trimIndent(),
+    )
+  }
+
+  @Test
+  fun `test marked lines move with lines inserted by the command`() {
+    doTest(
+      "g/a/t.",
+      """
+        a1
+        b
+        a2
+      """.trimIndent(),
+      """
+        a1
+        a1
+        b
+        a2
+        a2
+      """.trimIndent(),
+    )
+  }
+
+  @Test
+  fun `test delete is undone in one step`() {
+    configureByText(initialText)
+    typeText(commandToKeys("g/it/d"))
+    typeText("u")
+    assertState(initialText)
+  }
+
+  @Test
+  fun `test delete shifts the numbered registers`() {
+    configureByText(initialText)
+    typeText(commandToKeys("g/it/d"))
+    kotlin.test.assertEquals("where it was settled on some sodden sand\n", VimPlugin.getRegister().getRegister('1')?.text)
+    kotlin.test.assertEquals("I found it in a legendary land\n", VimPlugin.getRegister().getRegister('2')?.text)
+  }
+
+  @Test
+  fun `test delete many lines keeps marks of the other lines`() {
+    configureByText("foo\nbar\n".repeat(120))
+    typeText("122G", "l", "ma")
+    typeText(commandToKeys("g/foo/d"))
+    typeText("gg", "`a")
+    assertPosition(60, 1)
+  }
+
+  @Test
+  fun `test move many lines to the top keeps marks of the other lines`() {
+    configureByText("foo\nbar\n".repeat(120))
+    typeText("122G", "l", "ma")
+    typeText(commandToKeys("g/foo/m0"))
+    typeText("gg", "`a")
+    assertPosition(180, 1)
+  }
+
+  @Test
+  fun `test move matching lines to the top`() {
+    doTest(
+      "g/a/m0",
+      """
+        b
+        a1
+        c
+        a2
+      """.trimIndent(),
+      """
+        a2
+        a1
+        b
+        c
+      """.trimIndent(),
+    )
+  }
+
+  @Test
+  fun `test copy matching lines to the end`() {
+    doTest(
+      "g/a/t$",
+      """
+        a1
+        b
+        a2
+      """.trimIndent(),
+      """
+        a1
+        b
+        a2
+        a1
+        a2
+      """.trimIndent(),
+    )
+  }
+
   @Test
   fun `test delete nothing if not found in current line`() {
     doTest(
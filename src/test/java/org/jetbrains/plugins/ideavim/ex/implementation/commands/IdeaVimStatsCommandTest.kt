@@ -0,0 +1,51 @@
+/*
+ * Copyright 2003-2024 The IdeaVim authors
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE.txt file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package org.jetbrains.plugins.ideavim.ex.implementation.commands
+
+import com.maddyhome.idea.vim.api.injector
+import com.maddyhome.idea.vim.diagnostic.LatencyStatistics
+import org.jetbrains.plugins.ideavim.SkipNeovimReason
+import org.jetbrains.plugins.ideavim.TestWithoutNeovim
+import org.jetbrains.plugins.ideavim.VimTestCase
+import org.junit.jupiter.api.Test
+import kotlin.test.assertContains
+import kotlin.test.assertFalse
+
+class IdeaVimStatsCommandTest : VimTestCase() {
+  @TestWithoutNeovim(SkipNeovimReason.NOT_VIM_TESTING)
+  @Test
+  fun `test statistics of typed keys`() {
+    configureByText("${c}Hello World\n")
+    enterCommand("IdeaVimStats reset")
+    typeText("w")
+    enterCommand("IdeaVimStats")
+    val output = injector.outputPanel.getCurrentOutputPanel()?.text ?: ""
+    assertContains(output, "Key consumers")
+    assertContains(output, "CommandConsumer")
+    assertContains(output, "VimMotionWordRightAction")
+  }
+
+  @TestWithoutNeovim(SkipNeovimReason.NOT_VIM_TESTING)
+  @Test
+  fun `test reset clears the statistics`() {
+    configureByText("${c}Hello World\n")
+    typeText("w")
+    enterCommand("IdeaVimStats reset")
+    assertFalse(LatencyStatistics.report().contains("VimMotionWordRightAction"))
+  }
+
+  @TestWithoutNeovim(SkipNeovimReason.NOT_VIM_TESTING)
+  @Test
+  fun `test invalid argument`() {
+    configureByText("${c}Hello World\n")
+    enterCommand("IdeaVimStats foo")
+    assertPluginError(true)
+    assertPluginErrorMessageContains("E474: Invalid argument: foo")
+  }
+}
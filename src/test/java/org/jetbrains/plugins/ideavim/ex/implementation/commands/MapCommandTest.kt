@@ -149,6 +149,16 @@ class MapCommandTest : VimTestCase() {
     )
   }
 
+  @Test
+  fun testUnmapKeepsMappingWithSamePrefix() {
+    configureByText("\n")
+    typeText(commandToKeys("imap abc x"))
+    typeText(commandToKeys("imap abd y"))
+    typeText(commandToKeys("iunmap abc"))
+    typeText(injector.parser.parseKeys("i" + "abd"))
+    assertState("y\n")
+  }
+
   @Test
   fun testNonRecursiveMapping() {
     configureByText("\n")
@@ -67,6 +67,14 @@ class SetCommandTest : VimTestCase() {
     assertCommandOutput("set scrolloff?", "  scrolloff=5")
   }
 
+  @Test
+  fun `test maxmempattern must be positive`() {
+    enterCommand("set maxmempattern=0")
+    assertPluginError(true)
+    assertPluginErrorMessageContains("E487: Argument must be positive: maxmempattern=0")
+    assertEquals(1000, options().maxmempattern)
+  }
+
   @Test
   fun `test toggle option as a number`() {
     enterCommand("set digraph&")   // Local to window. Reset local + per-window "global" value to default: nodigraph
@@ -197,6 +205,7 @@ class SetCommandTest : VimTestCase() {
         |  keymodel=continueselect,stopselect
         |  lookupkeys=<Tab>,<Down>,<Up>,<Enter>,<Left>,<Right>,<C-Down>,<C-Up>,<PageUp>,<PageDown>,<C-J>,<C-Q>
         |  matchpairs=(:),{:},[:]
+        |  maxmempattern=1000
         |noReplaceWithRegister
         |  selection=inclusive
         |  shell=/dummy/path/to/bash
@@ -272,6 +281,7 @@ class SetCommandTest : VimTestCase() {
       |nomatchit
       |  matchpairs=(:),{:},[:]
       |  maxmapdepth=20
+      |  maxmempattern=1000
       |  more
       |nomultiple-cursors
       |noNERDTree
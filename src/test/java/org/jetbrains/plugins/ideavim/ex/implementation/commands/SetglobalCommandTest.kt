@@ -461,6 +461,7 @@ class SetglobalCommandTest : VimTestCase() {
       |  keymodel=continueselect,stopselect
       |  lookupkeys=<Tab>,<Down>,<Up>,<Enter>,<Left>,<Right>,<C-Down>,<C-Up>,<PageUp>,<PageDown>,<C-J>,<C-Q>
       |  matchpairs=(:),{:},[:]
+      |  maxmempattern=1000
       |noReplaceWithRegister
       |  selection=inclusive
       |  shell=/dummy/path/to/bash
@@ -538,6 +539,7 @@ class SetglobalCommandTest : VimTestCase() {
       |nomatchit
       |  matchpairs=(:),{:},[:]
       |  maxmapdepth=20
+      |  maxmempattern=1000
       |  more
       |nomultiple-cursors
       |noNERDTree
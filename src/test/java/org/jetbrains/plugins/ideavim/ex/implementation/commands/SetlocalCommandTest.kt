@@ -514,6 +514,7 @@ class SetlocalCommandTest : VimTestCase() {
       |  keymodel=continueselect,stopselect
       |  lookupkeys=<Tab>,<Down>,<Up>,<Enter>,<Left>,<Right>,<C-Down>,<C-Up>,<PageUp>,<PageDown>,<C-J>,<C-Q>
       |  matchpairs=(:),{:},[:]
+      |  maxmempattern=1000
       |noReplaceWithRegister
       |  selection=inclusive
       |  shell=/dummy/path/to/bash
@@ -591,6 +592,7 @@ class SetlocalCommandTest : VimTestCase() {
       |nomatchit
       |  matchpairs=(:),{:},[:]
       |  maxmapdepth=20
+      |  maxmempattern=1000
       |  more
       |nomultiple-cursors
       |noNERDTree
@@ -593,6 +593,85 @@ class SortCommandTest : VimTestCase() {
       )
     }
 
+    @JvmStatic
+    fun numberTypeSortTestCases(): List<TestCase> {
+      return listOf(
+        TestCase(
+          // hexadecimal, with or without the 0x prefix
+          sortCommand = "sort x",
+          content = """
+            0x1F
+            0xA
+            ff
+            3
+          """.trimIndent(),
+          expected = """
+            3
+            0xA
+            0x1F
+            ff
+          """.trimIndent()
+        ),
+        TestCase(
+          sortCommand = "sort o",
+          content = """
+            17
+            7
+            10
+          """.trimIndent(),
+          expected = """
+            7
+            10
+            17
+          """.trimIndent()
+        ),
+        TestCase(
+          // binary, with or without the 0b prefix
+          sortCommand = "sort b",
+          content = """
+            0b101
+            11
+            0b1
+          """.trimIndent(),
+          expected = """
+            0b1
+            11
+            0b101
+          """.trimIndent()
+        ),
+        TestCase(
+          // lines without a float are sorted as zero
+          sortCommand = "sort f",
+          content = """
+            1.5
+            -2e1
+            0.25
+            none
+          """.trimIndent(),
+          expected = """
+            -2e1
+            none
+            0.25
+            1.5
+          """.trimIndent()
+        ),
+        TestCase(
+          // hexadecimal after the pattern
+          sortCommand = "sort /\\w\\+ / x",
+          content = """
+            id 1f
+            id a
+            id 0x10
+          """.trimIndent(),
+          expected = """
+            id a
+            id 0x10
+            id 1f
+          """.trimIndent()
+        ),
+      )
+    }
+
     @JvmStatic
     fun patternTestCases(): List<TestCase> {
       return listOf(
@@ -833,6 +912,20 @@ class SortCommandTest : VimTestCase() {
     testCase: TestCase,
   ) = assertSort(testCase)
 
+  @ParameterizedTest
+  @MethodSource("numberTypeSortTestCases")
+  fun `test sort on hexadecimal, octal, binary and float numbers`(
+    testCase: TestCase,
+  ) = assertSort(testCase)
+
+  @Test
+  fun `test sort on several kinds of numbers is an error`() {
+    configureByText("b\na")
+    typeText(commandToKeys("sort nx"))
+    assertPluginError(true)
+    assertState("b\na")
+  }
+
   @Test
   fun testSortWithPrecedingWhiteSpace() {
     configureByText(" zee\n c\n a\n b\n whatever")
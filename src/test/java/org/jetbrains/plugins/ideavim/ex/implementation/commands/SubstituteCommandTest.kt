@@ -1328,4 +1328,54 @@ class SubstituteCommandTest : VimTestCase() {
       " comment ",
     )
   }
+
+  @OptionTest(
+    VimOption(TestOptionConstants.smartcase, doesntAffectTest = true),
+    VimOption(TestOptionConstants.ignorecase, doesntAffectTest = true),
+  )
+  @TestWithoutNeovim(reason = SkipNeovimReason.OPTION)
+  fun `test substitute with new lines moves caret to line of last match`() {
+    doTest(
+      exCommand("%s/,/\\r/g"),
+      """
+        ${c}a,b
+        c
+        d,e,f
+      """.trimIndent(),
+      """
+        a
+        b
+        c
+        d
+        ${c}e
+        f
+      """.trimIndent(),
+    )
+  }
+
+  @OptionTest(
+    VimOption(TestOptionConstants.smartcase, doesntAffectTest = true),
+    VimOption(TestOptionConstants.ignorecase, doesntAffectTest = true),
+  )
+  @TestWithoutNeovim(reason = SkipNeovimReason.OPTION)
+  fun `test substitute many matches`() {
+    doTest(
+      exCommand("%s/o/0/g"),
+      "${c}" + "foo\n".repeat(100),
+      "f00\n".repeat(99) + "${c}f00\n",
+    )
+  }
+
+  @OptionTest(
+    VimOption(TestOptionConstants.smartcase, doesntAffectTest = true),
+    VimOption(TestOptionConstants.ignorecase, doesntAffectTest = true),
+  )
+  @TestWithoutNeovim(reason = SkipNeovimReason.OPTION)
+  fun `test substitute many matches keeps marks of unchanged lines`() {
+    configureByText("foo\n".repeat(100) + "bar\n" + "foo\n".repeat(100))
+    typeText("101G", "2l", "ma")
+    enterCommand("%s/o/0/g")
+    typeText("gg", "`a")
+    assertPosition(100, 2)
+  }
 }
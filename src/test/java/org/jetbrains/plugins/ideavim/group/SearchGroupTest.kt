@@ -18,6 +18,7 @@ import com.maddyhome.idea.vim.VimPlugin
 import com.maddyhome.idea.vim.action.motion.search.SearchWholeWordForwardAction
 import com.maddyhome.idea.vim.common.Direction
 import com.maddyhome.idea.vim.helper.RunnableHelper
+import com.maddyhome.idea.vim.helper.SubstitutePreviewRenderer
 import com.maddyhome.idea.vim.newapi.vim
 import com.maddyhome.idea.vim.state.mode.Mode
 import com.maddyhome.idea.vim.state.mode.SelectionType
@@ -1750,6 +1751,95 @@ class SearchGroupTest : VimTestCase() {
     assertPosition(1, 10)
   }
 
+  @Test
+  fun `test incsearch previews substitutions for substitute command`() {
+    configureByText(
+      """I found it in a legendary land
+           |${c}all rocks and lavender and tufted grass,
+           |where it was settled on some sodden sand
+           |hard by the torrent of a mountain pass.
+      """.trimMargin(),
+    )
+    enterCommand("set hlsearch incsearch")
+
+    typeText(":", "%s/and/or")
+
+    assertSubstitutePreview(
+      """I found it in a legendary land«or»
+           |all rocks and«or» lavender and tufted grass,
+           |where it was settled on some sodden sand«or»
+           |hard by the torrent of a mountain pass.
+      """.trimMargin(),
+    )
+  }
+
+  @Test
+  fun `test incsearch previews all substitutions in line for substitute command with g flag`() {
+    configureByText(
+      """I found it in a legendary land
+           |${c}all rocks and lavender and tufted grass,
+           |where it was settled on some sodden sand
+           |hard by the torrent of a mountain pass.
+      """.trimMargin(),
+    )
+    enterCommand("set hlsearch incsearch")
+
+    typeText(":", "2,3s/\\(a\\)nd/\\u\\1/g")
+
+    assertSubstitutePreview(
+      """I found it in a legendary land
+           |all rocks and«A» lavender and«A» tufted grass,
+           |where it was settled on some sodden sand«A»
+           |hard by the torrent of a mountain pass.
+      """.trimMargin(),
+    )
+  }
+
+  @Test
+  fun `test incsearch updates substitute preview while typing substitute string`() {
+    configureByText(
+      """I found it in a legendary land
+           |${c}all rocks and lavender and tufted grass,
+           |where it was settled on some sodden sand
+           |hard by the torrent of a mountain pass.
+      """.trimMargin(),
+    )
+    enterCommand("set hlsearch incsearch")
+
+    typeText(":", "%s/and/o")
+    typeText("r")
+
+    assertSubstitutePreview(
+      """I found it in a legendary land«or»
+           |all rocks and«or» lavender and tufted grass,
+           |where it was settled on some sodden sand«or»
+           |hard by the torrent of a mountain pass.
+      """.trimMargin(),
+    )
+  }
+
+  @Test
+  fun `test cancelling substitute command removes substitute preview`() {
+    configureByText(
+      """I found it in a legendary land
+           |${c}all rocks and lavender and tufted grass,
+           |where it was settled on some sodden sand
+           |hard by the torrent of a mountain pass.
+      """.trimMargin(),
+    )
+    enterCommand("set hlsearch incsearch")
+
+    typeText(":", "%s/and/or", "<Esc>")
+
+    assertSubstitutePreview(
+      """I found it in a legendary land
+           |all rocks and lavender and tufted grass,
+           |where it was settled on some sodden sand
+           |hard by the torrent of a mountain pass.
+      """.trimMargin(),
+    )
+  }
+
   // global
   @Test
   fun `test incsearch highlights for global command with range`() {
@@ -2349,6 +2439,15 @@ class SearchGroupTest : VimTestCase() {
     )
   }
 
+  @Test
+  fun `test highlights are updated after substitute with many matches`() {
+    configureByText("${c}" + "a b\n".repeat(120))
+    enterCommand("set hlsearch")
+    enterSearch("b")
+    enterCommand("%s/b/b b/")
+    assertSearchHighlights("b", "a «b» «b»\n".repeat(120))
+  }
+
   @Test
   fun `test no highlights for unmatched search`() {
     configureByText(
@@ -2853,6 +2952,15 @@ class SearchGroupTest : VimTestCase() {
     return ref.get()
   }
 
+  private fun assertSubstitutePreview(expected: String) {
+    val actual = StringBuilder(fixture.editor.document.text)
+    fixture.editor.inlayModel
+      .getInlineElementsInRange(0, fixture.editor.document.textLength, SubstitutePreviewRenderer::class.java)
+      .sortedByDescending { it.offset }
+      .forEach { actual.insert(it.offset, "«${it.renderer.text}»") }
+    assertEquals(expected, actual.toString())
+  }
+
   private fun assertNoSearchHighlights() {
     assertEquals(0, fixture.editor.markupModel.allHighlighters.size)
   }
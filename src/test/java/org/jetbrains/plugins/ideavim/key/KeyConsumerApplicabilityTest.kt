@@ -0,0 +1,77 @@
+/*
+ * Copyright 2003-2023 The IdeaVim authors
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE.txt file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package org.jetbrains.plugins.ideavim.key
+
+import com.maddyhome.idea.vim.KeyHandler
+import com.maddyhome.idea.vim.KeyProcessResult
+import com.maddyhome.idea.vim.action.motion.mark.MotionMarkAction
+import com.maddyhome.idea.vim.api.injector
+import com.maddyhome.idea.vim.newapi.vim
+import com.maddyhome.idea.vim.state.KeyHandlerState
+import com.maddyhome.idea.vim.state.mode.Mode
+import com.maddyhome.idea.vim.state.mode.SelectionType
+import org.jetbrains.plugins.ideavim.VimTestCase
+import org.junit.jupiter.api.Test
+import javax.swing.KeyStroke
+import kotlin.test.assertFalse
+
+/**
+ * The key handler only tries the consumers that are applicable in the current state, so a consumer must not consume
+ * any key in a state where it isn't applicable
+ */
+class KeyConsumerApplicabilityTest : VimTestCase() {
+  private val modes = listOf(
+    Mode.NORMAL(),
+    Mode.OP_PENDING(),
+    Mode.VISUAL(SelectionType.CHARACTER_WISE),
+    Mode.SELECT(SelectionType.CHARACTER_WISE),
+    Mode.INSERT,
+    Mode.REPLACE,
+    Mode.CMD_LINE(Mode.NORMAL()),
+  )
+
+  @Test
+  fun `test consumers do not consume keys in states where they are not applicable`() {
+    configureByText("${c}foo bar\n")
+    val editor = fixture.editor.vim
+    val keys = injector.parser.parseKeys("0123456789aj\"<Esc><C-C><C-[><Del><CR><BS><C-R><C-K><C-V>")
+    try {
+      for (consumer in KeyHandler.getInstance().getKeyConsumers()) {
+        for (mode in modes) {
+          for (isExpectingCharArgument in listOf(false, true)) {
+            for (isRegisterPending in listOf(false, true)) {
+              if (consumer.isApplicable(mode, isExpectingCharArgument, isRegisterPending)) continue
+              editor.mode = mode
+              for (key in keys) {
+                val builder = KeyProcessResult.SynchronousKeyProcessBuilder(
+                  createState(isExpectingCharArgument, isRegisterPending)
+                )
+                assertFalse(
+                  consumer.consumeKey(key, editor, allowKeyMappings = true, mappingCompleted = false, builder),
+                  "${consumer.javaClass.simpleName} consumed ${injector.parser.toKeyNotation(key)} in $mode, " +
+                    "expecting char argument: $isExpectingCharArgument, register pending: $isRegisterPending",
+                )
+              }
+            }
+          }
+        }
+      }
+    } finally {
+      editor.mode = Mode.NORMAL()
+    }
+  }
+
+  private fun createState(isExpectingCharArgument: Boolean, isRegisterPending: Boolean): KeyHandlerState {
+    val state = KeyHandlerState()
+    // `m` waits for the name of a mark
+    if (isExpectingCharArgument) state.commandBuilder.addAction(MotionMarkAction())
+    if (isRegisterPending) state.commandBuilder.startWaitingForRegister(KeyStroke.getKeyStroke('"'))
+    return state
+  }
+}
@@ -18,6 +18,7 @@ class TestOptionConstants {
     const val ignorecase = "ignorecase"
     const val keymodel = "keymodel"
     const val maxmapdepth = "maxmapdepth"
+    const val maxmempattern = "maxmempattern"
     const val nrformats = "nrformats"
     const val number = "number"
     const val relativenumber = "relativenumber"
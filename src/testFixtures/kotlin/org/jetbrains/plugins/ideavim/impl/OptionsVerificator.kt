@@ -159,6 +159,7 @@ private class OptionsVerificator : BeforeTestExecutionCallback, AfterTestExecuti
       TestOptionConstants.ideatracetime,
       TestIjOptionConstants.ideavimsupport,
       TestOptionConstants.maxmapdepth,
+      TestOptionConstants.maxmempattern,
       TestOptionConstants.number,
       TestOptionConstants.relativenumber,
       TestOptionConstants.scrolljump,
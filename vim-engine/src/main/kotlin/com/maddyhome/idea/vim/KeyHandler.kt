@@ -12,12 +12,17 @@ import com.maddyhome.idea.vim.api.ExecutionContext
 import com.maddyhome.idea.vim.api.VimEditor
 import com.maddyhome.idea.vim.api.globalOptions
 import com.maddyhome.idea.vim.api.injector
+import com.maddyhome.idea.vim.command.Argument
 import com.maddyhome.idea.vim.command.Command
+import com.maddyhome.idea.vim.command.CommandBuilder
 import com.maddyhome.idea.vim.command.CommandFlags
 import com.maddyhome.idea.vim.command.MappingMode
 import com.maddyhome.idea.vim.command.MappingProcessor
 import com.maddyhome.idea.vim.command.OperatorArguments
+import com.maddyhome.idea.vim.diagnostic.LatencyHistogram
+import com.maddyhome.idea.vim.diagnostic.LatencyStatistics
 import com.maddyhome.idea.vim.diagnostic.VimLogger
+import com.maddyhome.idea.vim.diagnostic.measure
 import com.maddyhome.idea.vim.diagnostic.trace
 import com.maddyhome.idea.vim.diagnostic.vimLogger
 import com.maddyhome.idea.vim.impl.state.toMappingMode
@@ -38,7 +43,9 @@ import com.maddyhome.idea.vim.state.KeyHandlerState
 import com.maddyhome.idea.vim.state.VimStateMachine
 import com.maddyhome.idea.vim.state.mode.Mode
 import com.maddyhome.idea.vim.state.mode.ReturnTo
+import com.maddyhome.idea.vim.state.mode.SelectionType
 import com.maddyhome.idea.vim.state.mode.returnTo
+import org.jetbrains.annotations.TestOnly
 import java.lang.ref.WeakReference
 import javax.swing.KeyStroke
 
@@ -52,8 +59,31 @@ import javax.swing.KeyStroke
 class KeyHandler {
   private var editorInFocusReference: WeakReference<VimEditor>? = null
   private val keyConsumers: List<KeyConsumer> = listOf(ModalInputConsumer(), MappingProcessor, CommandCountConsumer(), DeleteCommandConsumer(), EditorResetConsumer(), CharArgumentConsumer(), RegisterConsumer(), DigraphConsumer(), CommandConsumer(), SelectRegisterConsumer(), ModeInputConsumer())
+  private val keyConsumerHistograms: List<LatencyHistogram> = keyConsumers.map {
+    LatencyStatistics.getHistogram(LatencyStatistics.Kind.KEY_CONSUMER, it.javaClass.simpleName)
+  }
+
+  /**
+   * The indices of the key consumers to try, for each kind of mode and state of the command builder
+   *
+   * Most consumers only apply to some modes or states, e.g. while waiting for a register name. The consumers are
+   * fixed, so the tables are only built once, and each key only tries the consumers that apply to the current state.
+   */
+  private val keyConsumerTables: Array<IntArray> = Array(MODE_KINDS.size * 4) { table ->
+    val mode = MODE_KINDS[table / 4]
+    val isExpectingCharArgument = table and 2 != 0
+    val isRegisterPending = table and 1 != 0
+    keyConsumers.indices.filter { keyConsumers[it].isApplicable(mode, isExpectingCharArgument, isRegisterPending) }
+      .toIntArray()
+  }
   private var handleKeyRecursionCount = 0
 
+  /**
+   * The key consumers, in the order they are tried, for the tests of [KeyConsumer.isApplicable]
+   */
+  @TestOnly
+  fun getKeyConsumers(): List<KeyConsumer> = keyConsumers
+
   // KeyHandlerState requires injector.keyGroup to be initialized and that's why we don't create it immediately and have this here
   // TODO figure out a better solution
   private val defaultKeyHandlerState by lazy { KeyHandlerState() }
@@ -145,8 +175,10 @@ class KeyHandler {
 
       handleKeyRecursionCount++
       try {
-        val isProcessed = keyConsumers.any {
-          it.consumeKey(key, editor, allowKeyMappings, mappingCompleted, processBuilder)
+        val isProcessed = getKeyConsumerIndices(editor.mode, processBuilder.state.commandBuilder).any { index ->
+          keyConsumerHistograms[index].measure {
+            keyConsumers[index].consumeKey(key, editor, allowKeyMappings, mappingCompleted, processBuilder)
+          }
         }
         if (isProcessed) {
           logger.trace { "Key was successfully caught by consumer" }
@@ -168,6 +200,20 @@ class KeyHandler {
     }
   }
 
+  private fun getKeyConsumerIndices(mode: Mode, commandBuilder: CommandBuilder): IntArray {
+    val modeKind = when (mode) {
+      is Mode.NORMAL -> 0
+      is Mode.OP_PENDING -> 1
+      is Mode.VISUAL -> 2
+      is Mode.SELECT -> 3
+      Mode.INSERT -> 4
+      Mode.REPLACE -> 5
+      is Mode.CMD_LINE -> 6
+    }
+    val isExpectingCharArgument = commandBuilder.expectedArgumentType === Argument.Type.CHARACTER
+    return keyConsumerTables[modeKind * 4 + (if (isExpectingCharArgument) 2 else 0) + (if (commandBuilder.isRegisterPending) 1 else 0)]
+  }
+
   internal fun finishedCommandPreparation(
     editor: VimEditor,
     context: ExecutionContext,
@@ -238,12 +284,14 @@ class KeyHandler {
       val action: Runnable = ActionRunner(editor, context, command, keyState, operatorArguments)
       val cmdAction = command.action
       val name = cmdAction.id
-      if (type.isWrite) {
-        injector.application.runWriteCommand(editor, name, action, action)
-      } else if (type.isRead) {
-        injector.application.runReadCommand(editor, name, action, action)
-      } else {
-        injector.actionExecutor.executeCommand(editor, action, name, action)
+      LatencyStatistics.getHistogram(LatencyStatistics.Kind.COMMAND, name).measure {
+        if (type.isWrite) {
+          injector.application.runWriteCommand(editor, name, action, action)
+        } else if (type.isRead) {
+          injector.application.runReadCommand(editor, name, action, action)
+        } else {
+          injector.actionExecutor.executeCommand(editor, action, name, action)
+        }
       }
     }
   }
@@ -374,6 +422,19 @@ class KeyHandler {
       return true
     }
 
+    /**
+     * A mode of each kind, in the order of the key consumer tables
+     */
+    private val MODE_KINDS = listOf(
+      Mode.NORMAL(),
+      Mode.OP_PENDING(),
+      Mode.VISUAL(SelectionType.CHARACTER_WISE),
+      Mode.SELECT(SelectionType.CHARACTER_WISE),
+      Mode.INSERT,
+      Mode.REPLACE,
+      Mode.CMD_LINE(Mode.NORMAL()),
+    )
+
     private val instance = KeyHandler()
 
     @JvmStatic
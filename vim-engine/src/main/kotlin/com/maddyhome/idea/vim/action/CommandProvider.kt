@@ -9,13 +9,14 @@
 package com.maddyhome.idea.vim.action
 
 import com.maddyhome.idea.vim.action.change.LazyVimCommand
-import com.maddyhome.idea.vim.api.injector
 import com.maddyhome.idea.vim.command.MappingMode
+import com.maddyhome.idea.vim.key.PackedKeys
 import kotlinx.serialization.ExperimentalSerializationApi
 import kotlinx.serialization.Serializable
 import kotlinx.serialization.json.Json
 import kotlinx.serialization.json.decodeFromStream
 import java.io.InputStream
+import java.util.concurrent.ConcurrentHashMap
 
 /**
  * An interface defining the contract for providers responsible for reading and parsing JSON files.
@@ -26,17 +27,31 @@ import java.io.InputStream
 interface CommandProvider {
   val commandListFileName: String
 
+  /**
+   * Returns the commands of the file
+   *
+   * The file is only read the first time, the commands are kept for the next calls.
+   */
+  fun getCommands(): Collection<LazyVimCommand> = getLoadedCommands().commands
+
+  /**
+   * Returns the command with the given action id, or null if there is none
+   */
+  fun getCommand(actionId: String): LazyVimCommand? = getLoadedCommands().commandsByActionId[actionId]
+
+  private fun getLoadedCommands(): LoadedCommands = loadedCommands.computeIfAbsent(this) { readCommands() }
+
   @OptIn(ExperimentalSerializationApi::class)
-  fun getCommands(): Collection<LazyVimCommand> {
+  private fun readCommands(): LoadedCommands {
     val classLoader = this.javaClass.classLoader
     val commands: List<CommandBean> = Json.decodeFromStream(getFile())
-    return commands
-      .groupBy { it.`class` }
-      .map {
-        val keys = it.value.map { bean -> injector.parser.parseKeys(bean.keys) }.toSet()
-        val modes = it.value.first().modes.map { mode -> MappingMode.parseModeChar(mode) }.toSet()
-        LazyVimCommand(keys, modes, it.key, classLoader)
+    // The keys were packed by the annotation processor, so they are only unpacked here, without parsing them
+    val lazyCommands = commands.map { bean ->
+      val keys = bean.packedKeys.map { packed -> packed.map { PackedKeys.unpack(it) } }.toSet()
+      val modes = bean.modes.map { mode -> MappingMode.parseModeChar(mode) }.toSet()
+      LazyVimCommand(keys, modes, bean.`class`, classLoader)
     }
+    return LoadedCommands(lazyCommands)
   }
 
   private fun getFile(): InputStream {
@@ -45,5 +60,26 @@ interface CommandProvider {
   }
 }
 
+/**
+ * The commands read from the file of a [CommandProvider]
+ */
+private class LoadedCommands(val commands: List<LazyVimCommand>) {
+  // Two commands may have the same action id, the first one is used like before
+  val commandsByActionId: Map<String, LazyVimCommand> = HashMap<String, LazyVimCommand>().also { map ->
+    commands.forEach { map.putIfAbsent(it.actionId, it) }
+  }
+}
+
+private val loadedCommands = ConcurrentHashMap<CommandProvider, LoadedCommands>()
+
+/**
+ * A command with all of its keys, as written by the annotation processor. The keys are written both in key notation
+ * and as packed ints, see [com.maddyhome.idea.vim.key.notation.KeyNotation]
+ */
 @Serializable
-data class CommandBean(val keys: String, val `class`: String, val modes: String)
+data class CommandBean(
+  val keys: List<String>,
+  val packedKeys: List<List<Int>>,
+  val `class`: String,
+  val modes: String,
+)
@@ -28,6 +28,7 @@ open class GlobalOptions(scope: OptionAccessScope): OptionsPropertiesBase(scope)
   var incsearch: Boolean by optionProperty(Options.incsearch)
   val keymodel: StringListOptionValue by optionProperty(Options.keymodel)
   var maxmapdepth: Int by optionProperty(Options.maxmapdepth)
+  var maxmempattern: Int by optionProperty(Options.maxmempattern)
   var more: Boolean by optionProperty(Options.more)
   var operatorfunc: String by optionProperty(Options.operatorfunc)
   var scrolljump: Int by optionProperty(Options.scrolljump)
@@ -127,6 +127,14 @@ object Options {
     )
   )
   val maxmapdepth: NumberOption = addOption(NumberOption("maxmapdepth", GLOBAL, "mmd", 20))
+  val maxmempattern: UnsignedNumberOption = addOption(object : UnsignedNumberOption("maxmempattern", GLOBAL, "mmp", 1000) {
+    override fun checkIfValueValid(value: VimDataType, token: String) {
+      super.checkIfValueValid(value, token)
+      if ((value as VimInt).value < 1) {
+        throw ExException("E487: Argument must be positive: $token")
+      }
+    }
+  })
   val more: ToggleOption = addOption(ToggleOption("more", GLOBAL, "more", true))
   val nrformats: StringListOption = addOption(
     StringListOption("nrformats", LOCAL_TO_BUFFER, "nf", "hex", setOf("octal", "hex", "alpha"))
@@ -27,4 +27,10 @@ interface VimApplication {
   fun currentStackTrace(): String
   fun runAfterGotFocus(runnable: Runnable)
   fun isOctopusEnabled(): Boolean
+
+  /**
+   * Throws if the user cancelled the long-running operation that is currently running on this thread. Hosts that
+   * can't cancel such operations don't need to do anything
+   */
+  fun checkCanceled() {}
 }
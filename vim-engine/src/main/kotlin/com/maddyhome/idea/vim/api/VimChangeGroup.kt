@@ -170,7 +170,7 @@ interface VimChangeGroup {
 
   fun changeNumber(editor: VimEditor, caret: VimCaret, count: Int): Boolean
 
-  fun sortRange(editor: VimEditor, caret: VimCaret, range: LineRange, lineComparator: Comparator<String>, sortOptions: SortOption): Boolean
+  fun sortRange(editor: VimEditor, caret: VimCaret, range: LineRange, sortOptions: SortOption): Boolean
 
   fun reset()
 
@@ -40,6 +40,7 @@ import com.maddyhome.idea.vim.register.RegisterConstants.LAST_INSERTED_TEXT_REGI
 import com.maddyhome.idea.vim.state.mode.Mode
 import com.maddyhome.idea.vim.state.mode.SelectionType
 import com.maddyhome.idea.vim.state.mode.toReturnTo
+import com.maddyhome.idea.vim.vimscript.model.commands.SortKey
 import com.maddyhome.idea.vim.vimscript.model.commands.SortOption
 import org.jetbrains.annotations.NonNls
 import org.jetbrains.annotations.TestOnly
@@ -1353,7 +1354,7 @@ abstract class VimChangeGroupBase : VimChangeGroup {
    * @return true if able to sort the text, false if not
    */
   override fun sortRange(
-    editor: VimEditor, caret: VimCaret, range: LineRange, lineComparator: Comparator<String>,
+    editor: VimEditor, caret: VimCaret, range: LineRange,
     sortOptions: SortOption,
   ): Boolean {
     val startLine = range.startLine
@@ -1367,58 +1368,45 @@ abstract class VimChangeGroupBase : VimChangeGroup {
 
     val selectedText = editor.getText(startOffset, endOffset)
     val lines = selectedText.split("\n")
-    val modifiedLines = sortOptions.pattern?.let {
-      if (sortOptions.sortOnPattern) {
-        extractPatternFromLines(editor, lines, startLine, it)
-      } else {
-        deletePatternFromLines(editor, lines, startLine, it)
-      }
-    } ?: lines
-    val sortedLines = lines.zip(modifiedLines)
-      .sortedWith { l1, l2 -> lineComparator.compare(l1.second, l2.second) }
-      .map {it.first}
-      .toMutableList()
-
-    if (sortOptions.unique) {
-      val iterator = sortedLines.iterator()
-      var previous: String? = null
-      while (iterator.hasNext()) {
-        val current = iterator.next()
-        if (current == previous || sortOptions.ignoreCase && current.equals(previous, ignoreCase = true)) {
-          iterator.remove()
-        } else {
-          previous = current
-        }
+    // The key of each line is computed once, rather than on each comparison
+    val regex = sortOptions.pattern?.let { VimRegex(it) }
+    val sortedLines = Array(lines.size) { i ->
+      val line = lines[i]
+      val keyText = if (regex == null) line else getSortKeyText(editor, regex, line, startLine + i, sortOptions.sortOnPattern)
+      SortedLine(line, sortOptions.getSortKey(keyText))
+    }
+    // The sort is stable, and only runs in parallel for large ranges
+    val keyComparator = sortOptions.keyComparator
+    Arrays.parallelSort(sortedLines) { line1, line2 -> keyComparator.compare(line1.key, line2.key) }
+
+    val result = StringBuilder(selectedText.length)
+    var previous: String? = null
+    for (sortedLine in sortedLines) {
+      val current = sortedLine.text
+      if (sortOptions.unique && previous != null &&
+        (current == previous || sortOptions.ignoreCase && current.equals(previous, ignoreCase = true))) {
+        continue
       }
+      if (previous != null) result.append('\n')
+      result.append(current)
+      previous = current
     }
-    if (sortedLines.isEmpty()) {
-      return false
-    }
-    replaceText(editor, caret, startOffset, endOffset, sortedLines.joinToString("\n"))
+    replaceText(editor, caret, startOffset, endOffset, result.toString())
     return true
   }
 
-  private fun extractPatternFromLines(editor: VimEditor, lines: List<String>, startLine: Int, pattern: String): List<String> {
-    val regex = VimRegex(pattern)
-    return lines.mapIndexed { i: Int, line: String ->
-      val result = regex.findInLine(editor, startLine + i, 0)
-      when (result) {
-        is VimMatchResult.Success -> result.value
-        is VimMatchResult.Failure -> line
-      }
+  /**
+   * Returns the text of the line that is sorted on: the match of the pattern with the `r` flag, otherwise what follows
+   * it. The whole line is used when the pattern doesn't match
+   */
+  private fun getSortKeyText(editor: VimEditor, regex: VimRegex, line: String, lineNumber: Int, sortOnPattern: Boolean): String {
+    return when (val result = regex.findInLine(editor, lineNumber, 0)) {
+      is VimMatchResult.Success -> if (sortOnPattern) result.value else line.substring(result.value.length, line.length)
+      is VimMatchResult.Failure -> line
     }
   }
 
-  private fun deletePatternFromLines(editor: VimEditor, lines: List<String>, startLine: Int, pattern: String): List<String> {
-    val regex = VimRegex(pattern)
-    return lines.mapIndexed { i: Int, line: String ->
-      val result = regex.findInLine(editor, startLine + i, 0)
-      when (result) {
-        is VimMatchResult.Success -> line.substring(result.value.length, line.length)
-        is VimMatchResult.Failure -> line
-      }
-    }
-  }
+  private class SortedLine(val text: String, val key: SortKey)
 
   override fun changeNumber(editor: VimEditor, caret: VimCaret, count: Int): Boolean {
     val nf: List<String> = injector.options(editor).nrformats
@@ -16,6 +16,7 @@ import com.maddyhome.idea.vim.history.VimHistory
 import com.maddyhome.idea.vim.register.RegisterConstants.LAST_COMMAND_REGISTER
 import com.maddyhome.idea.vim.vimscript.model.CommandLineVimLContext
 import com.maddyhome.idea.vim.vimscript.model.ExecutionResult
+import com.maddyhome.idea.vim.vimscript.model.Script
 import com.maddyhome.idea.vim.vimscript.model.VimLContext
 import com.maddyhome.idea.vim.vimscript.model.commands.Command
 import com.maddyhome.idea.vim.vimscript.model.commands.RepeatCommand
@@ -29,14 +30,27 @@ abstract class VimScriptExecutorBase : VimscriptExecutor {
 
   @Throws(ExException::class)
   override fun execute(script: String, editor: VimEditor, context: ExecutionContext, skipHistory: Boolean, indicateErrors: Boolean, vimContext: VimLContext?): ExecutionResult {
+    val myScript = injector.vimscriptParser.parse(script)
+    val finalResult = execute(myScript, editor, context, indicateErrors, vimContext)
+
+    if (!skipHistory) {
+      injector.historyGroup.addEntry(VimHistory.Type.Command, script)
+      if (myScript.units.size == 1 && myScript.units[0] is Command && myScript.units[0] !is RepeatCommand) {
+        injector.registerGroup.storeTextSpecial(LAST_COMMAND_REGISTER, script)
+      }
+    }
+    return finalResult
+  }
+
+  @Throws(ExException::class)
+  override fun execute(script: Script, editor: VimEditor, context: ExecutionContext, indicateErrors: Boolean, vimContext: VimLContext?): ExecutionResult {
     try {
       injector.vimscriptExecutor.executingVimscript = true
       var finalResult: ExecutionResult = ExecutionResult.Success
 
-      val myScript = injector.vimscriptParser.parse(script)
-      myScript.units.forEach { it.vimContext = vimContext ?: myScript }
+      script.units.forEach { it.vimContext = vimContext ?: script }
 
-      for (unit in myScript.units) {
+      for (unit in script.units) {
         try {
           val result = unit.execute(editor, context)
           if (result is ExecutionResult.Error) {
@@ -68,13 +82,6 @@ abstract class VimScriptExecutorBase : VimscriptExecutor {
           }
         }
       }
-
-      if (!skipHistory) {
-        injector.historyGroup.addEntry(VimHistory.Type.Command, script)
-        if (myScript.units.size == 1 && myScript.units[0] is Command && myScript.units[0] !is RepeatCommand) {
-          injector.registerGroup.storeTextSpecial(LAST_COMMAND_REGISTER, script)
-        }
-      }
       return finalResult
     } finally {
       injector.vimscriptExecutor.executingVimscript = false
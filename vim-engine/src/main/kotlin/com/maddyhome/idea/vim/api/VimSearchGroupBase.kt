@@ -68,6 +68,21 @@ abstract class VimSearchGroupBase : VimSearchGroup {
 
     var lastReplaceString: String? = null
 
+    /**
+     * The most matches that are counted after a search
+     */
+    const val MAX_SEARCH_COUNT: Int = 99999
+
+    /**
+     * How long the matches are counted after a search, in milliseconds, like the default timeout of `searchcount()`
+     */
+    const val SEARCH_COUNT_TIMEOUT_MS: Long = 40
+
+    /**
+     * The timeout is checked once every this many counted matches, as well as while searching between them
+     */
+    private const val SEARCH_COUNT_CHECK_INTERVAL = 256
+
     private val CLASS_NAMES: List<String> = listOf(
       "alnum:]",
       "alpha:]",
@@ -156,6 +171,76 @@ abstract class VimSearchGroupBase : VimSearchGroup {
     newString: String,
   )
 
+  /**
+   * Replaces several strings in the editor at once.
+   *
+   * The strings are replaced starting from the last one, so that the offsets of the others stay valid. Implementations
+   * can apply all the replacements as a single update of the document.
+   *
+   * @param editor       The editor where the replacements are to take place.
+   * @param replacements The ranges to replace, in document order and without overlaps, and their new strings.
+   */
+  open fun replaceStrings(
+    editor: VimEditor,
+    replacements: List<Pair<TextRange, String>>,
+  ) {
+    for ((range, newString) in replacements.asReversed()) {
+      replaceString(editor, range.startOffset, range.endOffset, newString)
+    }
+  }
+
+  /**
+   * Counts the matches of a pattern, and finds the position of a match among them, to show them after a search
+   *
+   * The whole document is searched, but counting stops after [MAX_SEARCH_COUNT] matches, or after
+   * [SEARCH_COUNT_TIMEOUT_MS], like Vim does. Implementations can keep the matches between searches, rather than
+   * searching again for every `n`.
+   *
+   * @param editor  The editor to count the matches in
+   * @param pattern The pattern that was searched for
+   * @param match   The match that the search found
+   * @return The count, or null if the matches can't be counted
+   */
+  protected open fun countSearchMatches(editor: VimEditor, pattern: String, match: TextRange): SearchCount? {
+    val options = enumSetOf<VimRegexOptions>()
+    if (injector.globalOptions().smartcase && !lastIgnoreSmartCase) options.add(VimRegexOptions.SMART_CASE)
+    if (injector.globalOptions().ignorecase) options.add(VimRegexOptions.IGNORE_CASE)
+
+    val deadline = System.nanoTime() + SEARCH_COUNT_TIMEOUT_MS * 1_000_000
+    val checkTimeout = {
+      VimRegex.CHECK_CANCELED()
+      if (System.nanoTime() > deadline) throw SearchCountTimeoutException()
+    }
+    var current = 0
+    var total = 0
+    try {
+      for (result in VimRegex(pattern, checkTimeout).findAllLazily(editor, 0, editor.text().length, options)) {
+        total++
+        if (result.range.startOffset == match.startOffset) current = total
+        if (total > MAX_SEARCH_COUNT) break
+        if (total % SEARCH_COUNT_CHECK_INTERVAL == 0) checkTimeout()
+      }
+    } catch (e: VimRegexException) {
+      return null
+    } catch (e: SearchCountTimeoutException) {
+      return SearchCount.TIMED_OUT
+    }
+    return SearchCount(current, total)
+  }
+
+  /**
+   * Whether the position of a match is shown after a search. It isn't while a macro or a script, such as `:normal` or
+   * `:g`, runs the search, since only the last message would be seen, so the matches aren't counted for nothing
+   */
+  protected open fun shouldShowSearchCount(): Boolean {
+    return !injector.macro.isExecutingMacro && !injector.vimscriptExecutor.executingVimscript
+  }
+
+  /**
+   * Thrown when counting the matches after a search takes longer than [SEARCH_COUNT_TIMEOUT_MS]
+   */
+  protected class SearchCountTimeoutException : RuntimeException()
+
   /**
    * Resets the variable that determines whether search highlights should be shown.
    */
@@ -208,7 +293,12 @@ abstract class VimSearchGroupBase : VimSearchGroup {
   // We can't just use VimRegex directly, but need a method to create it with the right values. Perhaps we should move
   // GlobalCommand into VimSearchGroup? processGlobalCommand, just like we've got processSearchCommand and
   // processSubstituteCommand?
-  fun prepareRegex(pat: CharPointer, whichPattern: Int, patternSave: Int): VimRegex {
+  fun prepareRegex(
+    pat: CharPointer,
+    whichPattern: Int,
+    patternSave: Int,
+    checkInterrupted: () -> Unit = VimRegex.CHECK_CANCELED,
+  ): VimRegex {
     var isNewPattern = true
     var pattern: String? = ""
     if (pat.isNul) {
@@ -247,7 +337,7 @@ abstract class VimSearchGroupBase : VimSearchGroup {
     }
     setLastUsedPattern(pattern, patSave, isNewPattern)
 
-    return VimRegex(pattern)
+    return VimRegex(pattern, checkInterrupted)
   }
 
   // TODO I think that this method (and the method above) should be part of the global command
@@ -294,6 +384,34 @@ abstract class VimSearchGroupBase : VimSearchGroup {
 
   data class GlobalCommandArguments(val pattern: CharPointer, val whichPattern: Int, val command: String)
 
+  /**
+   * The position of a match among the matches of a pattern, shown after a search like Vim does without the `S` flag in
+   * 'shortmess'
+   *
+   * @param current The position of the match, starting from 1, or 0 if it isn't known
+   * @param total   The number of matches. Counts above [MAX_SEARCH_COUNT] are shown as `>99999`, and a negative count
+   *                when counting timed out, as `[?/??]`
+   */
+  data class SearchCount(val current: Int, val total: Int) {
+    override fun toString(): String {
+      if (total < 0) return "[?/??]"
+      val currentText = when {
+        current > MAX_SEARCH_COUNT || current == 0 && total > MAX_SEARCH_COUNT -> ">$MAX_SEARCH_COUNT"
+        current == 0 -> "?"
+        else -> current.toString()
+      }
+      val totalText = if (total > MAX_SEARCH_COUNT) ">$MAX_SEARCH_COUNT" else total.toString()
+      return "[$currentText/$totalText]"
+    }
+
+    companion object {
+      /**
+       * The count when counting the matches took too long
+       */
+      val TIMED_OUT: SearchCount = SearchCount(0, -1)
+    }
+  }
+
   /****************************************************************************/
   /* Search related methods                                                   */
   /****************************************************************************/
@@ -679,9 +797,20 @@ abstract class VimSearchGroupBase : VimSearchGroup {
     updateSearchHighlights(true)
 
     if (!doAsk) {
-      performSubstituteInLines(editor, caret, context, parent, regex, pattern, oldLastSubstituteString, line1, line2, 0, hasExpression, substituteString, exceptions, options)
+      try {
+        performSubstituteInLines(editor, caret, context, parent, regex, pattern, oldLastSubstituteString, line1, line2, 0, hasExpression, substituteString, exceptions, options)
+      } catch (e: VimRegexException) {
+        // The pattern was too expensive, or the search was interrupted. Keep the substitutions made so far, like Vim
+        injector.messages.showStatusBarMessage(editor, e.message)
+        return false
+      }
     } else {
-      val lineToNextSubstitute = getNextSubstitute(editor, regex, oldLastSubstituteString, line1, line2, 0, hasExpression, substituteString, options)
+      val lineToNextSubstitute = try {
+        getNextSubstitute(editor, regex, oldLastSubstituteString, line1, line2, 0, hasExpression, substituteString, options)
+      } catch (e: VimRegexException) {
+        injector.messages.showStatusBarMessage(editor, e.message)
+        return false
+      }
       if (lineToNextSubstitute == null) {
         injector.messages.indicateError()
         injector.messages.showStatusBarMessage(null, "E486: Pattern not found: $pattern")
@@ -705,6 +834,61 @@ abstract class VimSearchGroupBase : VimSearchGroup {
     return true
   }
 
+  /**
+   * Runs a `:substitute` command without a range on each of the lines marked by `:global`, all at once
+   *
+   * The command is parsed once, rather than for each line, and all the matches in the lines are replaced together.
+   *
+   * @param lines The marked lines, in ascending order
+   * @return False if the command has to run on each line in turn, e.g. because it asks for confirmation, or its
+   *   substitute string is an expression. Nothing has been substituted then
+   */
+  fun processGlobalSubstituteCommand(
+    editor: VimEditor,
+    caret: VimCaret,
+    lines: List<Int>,
+    excmd: String,
+    exarg: String,
+  ): Boolean {
+    val range = LineRange(lines.first(), lines.first())
+    val substituteCommandParse = parseSubstituteCommand(editor, range, excmd, exarg) ?: return true
+    val pattern = substituteCommandParse.pattern
+    val substituteString = substituteCommandParse.substituteString
+    val hasExpression = substituteString.length >= 2 && substituteString[0] == '\\' && substituteString[1] == '='
+    // A count makes the command substitute in the lines after each marked line
+    if (doAsk || hasExpression || substituteCommandParse.range.endLine != range.endLine) return false
+
+    val options = enumSetOf<VimRegexOptions>()
+    if (injector.globalOptions().smartcase) options.add(VimRegexOptions.SMART_CASE)
+    if (injector.globalOptions().ignorecase) options.add(VimRegexOptions.IGNORE_CASE)
+
+    val regex: VimRegex = try {
+      VimRegex(pattern)
+    } catch (e: VimRegexException) {
+      injector.messages.showStatusBarMessage(editor, e.message)
+      return true
+    }
+
+    val oldLastSubstituteString: String = lastSubstituteString ?: ""
+    if (substituteString != "~") {
+      lastSubstituteString = substituteString
+    }
+
+    setShouldShowSearchHighlights()
+    updateSearchHighlights(true)
+
+    val exceptions: MutableList<ExException> = ArrayList()
+    try {
+      if (!performSubstituteAtOnce(editor, caret, regex, pattern, oldLastSubstituteString, lines, 0, substituteString, exceptions, options)) {
+        lastSubstituteString = oldLastSubstituteString
+        return false
+      }
+    } catch (e: VimRegexException) {
+      injector.messages.showStatusBarMessage(editor, e.message)
+    }
+    return true
+  }
+
   private fun getNextSubstitute(
     editor: VimEditor,
     regex: VimRegex,
@@ -765,6 +949,10 @@ abstract class VimSearchGroupBase : VimSearchGroup {
     exceptions: MutableList<ExException>,
     options: EnumSet<VimRegexOptions>,
   ) {
+    if (!hasExpression && performSubstituteAtOnce(editor, caret, regex, pattern, oldLastSubstituteString, startLine..endLine, startColumn, substituteString, exceptions, options)) {
+      return
+    }
+
     var column = startColumn
     var line = startLine
     var line2 = endLine
@@ -787,6 +975,62 @@ abstract class VimSearchGroupBase : VimSearchGroup {
     postSubstitute(editor, caret, pattern, gotQuit = false, lastMatchLine, exceptions)
   }
 
+  /**
+   * Substitutes all the matches in the lines at once, when the substitute string isn't an expression
+   *
+   * The lines don't have to be contiguous, but must be in ascending order. The search starts at [startColumn] in the
+   * first one.
+   *
+   * All the matches are found first, in the unchanged text, and then replaced together. Like in Vim, the matches are
+   * found in the original text, rather than in the text already changed by the previous substitutions. The caret only
+   * moves once, to the line of the last match.
+   *
+   * @return False if nothing was substituted because a match spans several lines. These matches change the lines that
+   *   are searched next, so they are substituted one by one
+   */
+  private fun performSubstituteAtOnce(
+    editor: VimEditor,
+    caret: VimCaret,
+    regex: VimRegex,
+    pattern: String,
+    oldLastSubstituteString: String,
+    lines: Iterable<Int>,
+    startColumn: Int,
+    substituteString: String,
+    exceptions: MutableList<ExException>,
+    options: EnumSet<VimRegexOptions>,
+  ): Boolean {
+    val replacements = mutableListOf<Pair<TextRange, String>>()
+    var lastMatchLine = -1
+    var column = startColumn
+    for (line in lines) {
+      val lineStartOffset = editor.getLineStartOffset(line)
+      val lineEndOffset = editor.getLineEndOffset(line)
+      while (true) {
+        val (match, newString) = regex.substitute(editor, substituteString, oldLastSubstituteString, line, column, false, options)
+          ?: break
+        val matchRange = match.range
+        if (matchRange.startOffset > lineEndOffset) break
+        if (matchRange.endOffset > lineEndOffset) return false
+
+        replacements.add(matchRange to newString)
+        lastMatchLine = line
+        if (!doAll || matchRange.startOffset == matchRange.endOffset) break
+        column = matchRange.endOffset - lineStartOffset
+      }
+      column = 0
+    }
+
+    if (replacements.isNotEmpty()) {
+      injector.jumpService.saveJumpLocation(editor)
+      replaceStrings(editor, replacements)
+      // The last match has moved down by the lines added before it
+      lastMatchLine += replacements.dropLast(1).sumOf { (_, newString) -> newString.count { it == '\n' } }
+    }
+    postSubstitute(editor, caret, pattern, gotQuit = false, lastMatchLine, exceptions)
+    return true
+  }
+
   private fun performReplace(
     editor: VimEditor,
     caret: VimCaret,
@@ -1042,18 +1286,7 @@ abstract class VimSearchGroupBase : VimSearchGroup {
        * Small incompatibility: vi sees '\n' as end of the command, but in
        * Vim we want to use '\n' to find/substitute a NUL.
        */
-      var substituteStringEndIndex = exarg.length
-      var i = substituteStringStartIndex
-      while (i < exarg.length) {
-        if (exarg[i] == delimiter) {
-          substituteStringEndIndex = i
-          break
-        }
-        else if (exarg[i] == '\\' && (i + 1) < exarg.length) {
-          i++
-        }
-        i++
-      }
+      val substituteStringEndIndex = findEndOfSubstituteString(exarg, delimiter, substituteStringStartIndex)
       sub = exarg.substring(substituteStringStartIndex, substituteStringEndIndex)
       trailingOptionsStartIndex = substituteStringEndIndex + 1
     } else {
@@ -1187,6 +1420,91 @@ abstract class VimSearchGroupBase : VimSearchGroup {
       LineRange(line1, line2)
     )
   }
+
+  /**
+   * Finds the end of the substitute string in the argument of a `:substitute` command
+   *
+   * @return The index of the [delimiter] that ends the substitute string, or the length of the argument if there isn't
+   *   one
+   */
+  private fun findEndOfSubstituteString(exarg: String, delimiter: Char, startIndex: Int): Int {
+    var i = startIndex
+    while (i < exarg.length) {
+      if (exarg[i] == delimiter) return i
+      if (exarg[i] == '\\' && (i + 1) < exarg.length) i++
+      i++
+    }
+    return exarg.length
+  }
+
+  /**
+   * Parses the argument of a `:substitute` command that is still being typed, to preview its substitutions
+   *
+   * Unlike [parseSubstituteCommand], this has no side effects: it doesn't show messages, and the last used pattern,
+   * substitute string and flags are not updated. Only the form with a new pattern is previewed, once the delimiter
+   * after the pattern has been typed, e.g. `/{pattern}/{string}/[flags]`. Expressions (`\=`) are not previewed, since
+   * evaluating them can have side effects.
+   *
+   * @param editor The editor the command is typed for
+   * @param excmd  The command part of the ex command line, e.g. `s` or `substitute`
+   * @param exarg  The argument to the substitute command, as typed so far
+   * @return The pattern, substitute string and flags to preview, or null if there is nothing to preview
+   */
+  fun parseSubstitutePreviewArguments(
+    editor: VimEditor,
+    excmd: String,
+    exarg: String,
+  ): SubstitutePreviewArguments? {
+    if (excmd.isEmpty() || excmd[0] != 's' || exarg.isEmpty()) return null
+    val delimiter = exarg.first()
+    if (delimiter.isWhitespace() || delimiter.isLetterOrDigit() || "\\|\"".contains(delimiter)) return null
+
+    val endOfPattern = findEndOfPattern(exarg, delimiter, 1)
+    if (endOfPattern >= exarg.length || endOfPattern == 1) return null
+    val substituteStringStartIndex = endOfPattern + 1
+    val substituteStringEndIndex = findEndOfSubstituteString(exarg, delimiter, substituteStringStartIndex)
+    val substituteString = exarg.substring(substituteStringStartIndex, substituteStringEndIndex)
+    if (substituteString.startsWith("\\=")) return null
+
+    var doAll = injector.options(editor).gdefault
+    var ignoreCase: Boolean? = null
+    for (i in substituteStringEndIndex + 1 until exarg.length) {
+      when (exarg[i]) {
+        'g' -> doAll = !doAll
+        'i' -> ignoreCase = true
+        'I' -> ignoreCase = false
+        '&', 'c', 'e', 'r', 'p', 'l', '#', 'n' -> {}
+        else -> break
+      }
+    }
+
+    val pattern = exarg.substring(1, endOfPattern)
+    return SubstitutePreviewArguments(
+      when (ignoreCase) {
+        true -> "\\c$pattern"
+        false -> "\\C$pattern"
+        null -> pattern
+      },
+      substituteString,
+      doAll,
+    )
+  }
+
+  /**
+   * Builds the string that would substitute a match, to preview a `:substitute` command
+   */
+  fun buildSubstitutePreviewString(regex: VimRegex, match: VimMatchResult.Success, substituteString: String): String {
+    return regex.substitute(match, substituteString, lastSubstituteString ?: "")
+  }
+
+  /**
+   * The pattern, substitute string and flags of a `:substitute` command being typed
+   *
+   * @param pattern          The pattern, including `\c` or `\C` for the `i` and `I` flags
+   * @param substituteString The substitute string, as typed
+   * @param doAll            Whether all the matches in a line are substituted, rather than the first one. `g` flag
+   */
+  data class SubstitutePreviewArguments(val pattern: String, val substituteString: String, val doAll: Boolean)
   /****************************************************************************/
   /* Helper methods                                                           */
   /****************************************************************************/
@@ -1329,13 +1647,24 @@ abstract class VimSearchGroupBase : VimSearchGroup {
     if (hasEndOffset) searchOptions.add(SearchOptions.WANT_ENDPOS)
 
     val pattern = getLastUsedPattern()
+    val searchMessage = (if (dir === Direction.FORWARDS) "/" else "?") + pattern
     if (!pattern.isNullOrEmpty()) {
-      injector.messages.showStatusBarMessage(editor, (if (dir === Direction.FORWARDS) "/" else "?") + pattern)
+      injector.messages.showStatusBarMessage(editor, searchMessage)
     }
 
     // Uses last pattern. We know this is always set before being called
     val range = injector.searchHelper.findPattern(editor, pattern, startOffsetMutable, count, searchOptions) ?: return null
 
+    // Add the position of the match to the message, e.g. `/foo [12/3456]`, after "search hit BOTTOM" if the search
+    // wrapped
+    if (!pattern.isNullOrEmpty() && shouldShowSearchCount()) {
+      val searchCount = countSearchMatches(editor, pattern, range)
+      if (searchCount != null) {
+        val message = injector.messages.getStatusBarMessage() ?: searchMessage
+        injector.messages.showStatusBarMessage(editor, "$message $searchCount")
+      }
+    }
+
     var res = range.startOffset
     if (offsetIsLineOffset) {
       val line: Int = editor.offsetToBufferPosition(range.startOffset).line
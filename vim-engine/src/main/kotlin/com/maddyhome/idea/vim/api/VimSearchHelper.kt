@@ -170,6 +170,21 @@ fun findNextCamelEnd(chars: CharSequence, startIndex: Int, count: Int): Int?
     searchOptions: EnumSet<SearchOptions>?,
   ): TextRange?
 
+  /**
+   * Find text matching the given pattern, like [findPattern], but pass the messages of the search to [showMessage]
+   * instead of showing them. A search running in a background thread can show them on the EDT once it is done.
+   *
+   * @param showMessage     Receives each message, in the order it would have been shown
+   */
+  fun findPattern(
+    editor: VimEditor,
+    pattern: String?,
+    startOffset: Int,
+    count: Int,
+    searchOptions: EnumSet<SearchOptions>?,
+    showMessage: (String?) -> Unit,
+  ): TextRange?
+
   /**
    * Find all occurrences of the pattern.
    *
@@ -188,6 +203,27 @@ fun findNextCamelEnd(chars: CharSequence, startIndex: Int, count: Int): Int?
     ignoreCase: Boolean
   ): List<TextRange>
 
+  /**
+   * Find all occurrences of the pattern, one at a time.
+   *
+   * The occurrences are only searched for as the sequence is iterated, so callers that only need some of them can
+   * stop early. The sequence must be iterated before the editor changes.
+   *
+   * @param editor      The editor to search in
+   * @param pattern     The pattern to search for
+   * @param startLine   The start line of the range to search for
+   * @param endLine     The end line of the range to search for, or -1 for the whole document
+   * @param ignoreCase  Case sensitive or insensitive searching
+   * @return            A sequence of TextRange objects representing the results, in document order
+   */
+  fun findAllLazily(
+    editor: VimEditor,
+    pattern: String,
+    startLine: Int,
+    endLine: Int,
+    ignoreCase: Boolean
+  ): Sequence<TextRange>
+
   fun findNextCharacterOnLine(
     editor: VimEditor,
     caret: ImmutableVimCaret,
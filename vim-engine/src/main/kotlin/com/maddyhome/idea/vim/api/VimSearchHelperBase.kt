@@ -143,6 +143,36 @@ abstract class VimSearchHelperBase : VimSearchHelper {
     startOffset: Int,
     count: Int,
     searchOptions: EnumSet<SearchOptions>?,
+  ): TextRange? {
+    return findPattern(editor, pattern, startOffset, count, searchOptions) { message ->
+      injector.messages.showStatusBarMessage(editor, message)
+    }
+  }
+
+  override fun findPattern(
+    editor: VimEditor,
+    pattern: String?,
+    startOffset: Int,
+    count: Int,
+    searchOptions: EnumSet<SearchOptions>?,
+    showMessage: (String?) -> Unit,
+  ): TextRange? {
+    // Matching can fail with an error, when the pattern is too expensive or the search is interrupted
+    return try {
+      doFindPattern(editor, pattern, startOffset, count, searchOptions, showMessage)
+    } catch (e: VimRegexException) {
+      showMessage(e.message)
+      null
+    }
+  }
+
+  private fun doFindPattern(
+    editor: VimEditor,
+    pattern: String?,
+    startOffset: Int,
+    count: Int,
+    searchOptions: EnumSet<SearchOptions>?,
+    showMessage: (String?) -> Unit,
   ): TextRange? {
     if (pattern.isNullOrEmpty()) return null
 
@@ -164,26 +194,26 @@ abstract class VimSearchHelperBase : VimSearchHelper {
     val regex = try {
       VimRegex(pattern)
     } catch (e: VimRegexException) {
-      injector.messages.showStatusBarMessage(editor, e.message)
+      showMessage(e.message)
       return null
     }
 
     var result = if (dir === Direction.FORWARDS) {
-      findNextWithWrapscan(editor, regex, startOffset, options, wrap, showMessages)
+      findNextWithWrapscan(editor, regex, startOffset, options, wrap, showMessages, showMessage)
     } else {
-      findPreviousWithWrapscan(editor, regex, startOffset, options, wrap, showMessages)
+      findPreviousWithWrapscan(editor, regex, startOffset, options, wrap, showMessages, showMessage)
     }
 
     if (result is VimMatchResult.Failure) {
       if (wrap) {
         // E486: Pattern not found {0}
-        injector.messages.showStatusBarMessage(editor, injector.messages.message("E486", pattern))
+        showMessage(injector.messages.message("E486", pattern))
       } else if (dir === Direction.FORWARDS) {
         // E385: Search hit BOTTOM without match for: {0}
-        injector.messages.showStatusBarMessage(editor, injector.messages.message(Msg.E385, pattern))
+        showMessage(injector.messages.message(Msg.E385, pattern))
       } else {
         // E385: Search hit TOP without match for: {0}
-        injector.messages.showStatusBarMessage(editor, injector.messages.message(Msg.E384, pattern))
+        showMessage(injector.messages.message(Msg.E384, pattern))
       }
       return null
     }
@@ -195,21 +225,21 @@ abstract class VimSearchHelperBase : VimSearchHelper {
       val nextOffset = (result as VimMatchResult.Success).range.startOffset
       result =
         if (dir === Direction.FORWARDS) {
-          findNextWithWrapscan(editor, regex, nextOffset, options, wrap, showMessages)
+          findNextWithWrapscan(editor, regex, nextOffset, options, wrap, showMessages, showMessage)
         }
         else {
-          findPreviousWithWrapscan(editor, regex, nextOffset, options, wrap, showMessages)
+          findPreviousWithWrapscan(editor, regex, nextOffset, options, wrap, showMessages, showMessage)
         }
       if (result is VimMatchResult.Failure) {
         // We know this isn't pattern not found...
         if (searchOptions.contains(SearchOptions.SHOW_MESSAGES)) {
           if (dir === Direction.FORWARDS) {
             // E385: Search hit BOTTOM without match for: {0}
-            injector.messages.showStatusBarMessage(editor, injector.messages.message(Msg.E385, pattern))
+            showMessage(injector.messages.message(Msg.E385, pattern))
           }
           else {
             // E385: Search hit TOP without match for: {0}
-            injector.messages.showStatusBarMessage(editor, injector.messages.message(Msg.E384, pattern))
+            showMessage(injector.messages.message(Msg.E384, pattern))
           }
         }
         return null
@@ -225,13 +255,14 @@ abstract class VimSearchHelperBase : VimSearchHelper {
     startIndex: Int,
     options: EnumSet<VimRegexOptions>,
     wrapscan: Boolean,
-    showMessages: Boolean
+    showMessages: Boolean,
+    showMessage: (String?) -> Unit,
   ): VimMatchResult {
     val result = regex.findNext(editor, startIndex, options)
     if (result is VimMatchResult.Failure && wrapscan) {
       if (showMessages) {
         // search hit BOTTOM, continuing at TOP
-        injector.messages.showStatusBarMessage(editor, injector.messages.message("message.search.hit.bottom"))
+        showMessage(injector.messages.message("message.search.hit.bottom"))
       }
       // Start searching from the start of the file, but accept a match at the start offset
       val newOptions = options.clone().also { it.add(VimRegexOptions.CAN_MATCH_START_LOCATION) }
@@ -247,12 +278,13 @@ abstract class VimSearchHelperBase : VimSearchHelper {
     options: EnumSet<VimRegexOptions>,
     wrapscan: Boolean,
     showMessages: Boolean,
+    showMessage: (String?) -> Unit,
   ): VimMatchResult {
     val result = regex.findPrevious(editor, startIndex, options)
     if (result is VimMatchResult.Failure && wrapscan) {
       if (showMessages) {
         // search hit TOP, continuing at BOTTOM
-        injector.messages.showStatusBarMessage(editor, injector.messages.message("message.search.hit.top"))
+        showMessage(injector.messages.message("message.search.hit.top"))
       }
       return regex.findPrevious(editor, editor.fileSize().toInt() - 1, options)
     }
@@ -266,21 +298,50 @@ abstract class VimSearchHelperBase : VimSearchHelper {
     endLine: Int,
     ignoreCase: Boolean,
   ): List<TextRange> {
-    val options = enumSetOf<VimRegexOptions>()
-    if (injector.globalOptions().smartcase) options.add(VimRegexOptions.SMART_CASE)
-    if (injector.globalOptions().ignorecase) options.add(VimRegexOptions.IGNORE_CASE)
-    val regex = try {
-      VimRegex(pattern)
+    return try {
+      val regex = VimRegex(pattern)
+      regex.findAll(
+        editor,
+        editor.getLineStartOffset(startLine),
+        getFindAllMaxIndex(editor, endLine),
+        getFindAllOptions()
+      ).map { it.range }
     } catch (e: VimRegexException) {
       injector.messages.showStatusBarMessage(editor, e.message)
-      return emptyList()
+      emptyList()
     }
-      return regex.findAll(
+  }
+
+  override fun findAllLazily(
+    editor: VimEditor,
+    pattern: String,
+    startLine: Int,
+    endLine: Int,
+    ignoreCase: Boolean,
+  ): Sequence<TextRange> = sequence {
+    try {
+      val regex = VimRegex(pattern)
+      val matches = regex.findAllLazily(
         editor,
         editor.getLineStartOffset(startLine),
-        editor.getLineEndOffset(if (endLine == -1) editor.lineCount() - 1 else endLine) + 1,
-        options
-      ).map { it.range }
+        getFindAllMaxIndex(editor, endLine),
+        getFindAllOptions()
+      )
+      for (match in matches) yield(match.range)
+    } catch (e: VimRegexException) {
+      injector.messages.showStatusBarMessage(editor, e.message)
+    }
+  }
+
+  private fun getFindAllMaxIndex(editor: VimEditor, endLine: Int): Int {
+    return editor.getLineEndOffset(if (endLine == -1) editor.lineCount() - 1 else endLine) + 1
+  }
+
+  private fun getFindAllOptions(): EnumSet<VimRegexOptions> {
+    val options = enumSetOf<VimRegexOptions>()
+    if (injector.globalOptions().smartcase) options.add(VimRegexOptions.SMART_CASE)
+    if (injector.globalOptions().ignorecase) options.add(VimRegexOptions.IGNORE_CASE)
+    return options
   }
 
   private fun doFindNext(
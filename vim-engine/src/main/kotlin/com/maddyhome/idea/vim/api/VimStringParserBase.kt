@@ -8,6 +8,9 @@
 
 package com.maddyhome.idea.vim.api
 
+import com.maddyhome.idea.vim.key.PackedKeyList
+import com.maddyhome.idea.vim.key.PackedKeys
+import com.maddyhome.idea.vim.key.notation.KeyNotation
 import com.maddyhome.idea.vim.vimscript.model.datatypes.VimString
 import org.jetbrains.annotations.Contract
 import org.jetbrains.annotations.NonNls
@@ -100,88 +103,12 @@ abstract class VimStringParserBase : VimStringParser {
   }
 
   override fun parseKeys(string: String): List<KeyStroke> {
-    val result: MutableList<KeyStroke> = ArrayList()
-    var specialKeyStart = '<'
-    var state = KeyParserState.INIT
-    var specialKeyBuilder = StringBuilder()
-    for (element in string) {
-      when (state) {
-        KeyParserState.INIT -> when (element) {
-          '\\' -> state = KeyParserState.ESCAPE
-          '<', '«' -> {
-            specialKeyStart = element
-            state = KeyParserState.SPECIAL
-            specialKeyBuilder = StringBuilder()
-          }
-          else -> {
-            val stroke: KeyStroke = if (element == '\t' || element == '\n') {
-              KeyStroke.getKeyStroke(element.code, 0)
-            } else if (isControlCharacter(element)) {
-              KeyStroke.getKeyStroke(element.code + 'A'.code - 1, InputEvent.CTRL_DOWN_MASK)
-            } else {
-              KeyStroke.getKeyStroke(element)
-            }
-            result.add(stroke)
-          }
-        }
-        KeyParserState.ESCAPE -> {
-          state = KeyParserState.INIT
-          if (element != '\\') {
-            result.add(KeyStroke.getKeyStroke('\\'))
-          }
-          result.add(KeyStroke.getKeyStroke(element))
-        }
-        KeyParserState.SPECIAL -> if (element == '>' || element == '»') {
-          state = KeyParserState.INIT
-          val specialKeyName = specialKeyBuilder.toString()
-          val lower = specialKeyName.lowercase(Locale.getDefault())
-          require("sid" != lower) { "<$specialKeyName> is not supported" }
-          if ("comma" == lower) {
-            result.add(KeyStroke.getKeyStroke(','))
-          } else if ("nop" != lower) {
-            val leader = parseMapLeader(specialKeyName)
-            val specialKey = parseSpecialKey(specialKeyName, 0)
-            if (leader != null) {
-              result.addAll(leader)
-            } else if (specialKey != null && specialKeyName.length > 1) {
-              result.add(specialKey)
-            } else {
-              result.add(KeyStroke.getKeyStroke('<'))
-              result.addAll(stringToKeys(specialKeyName))
-              result.add(KeyStroke.getKeyStroke('>'))
-            }
-          }
-        } else {
-          // e.g. move '<-2<CR> - the first part does not belong to any special key
-          if (element == '<' || element == '«') {
-            result.add(KeyStroke.getKeyStroke(specialKeyStart))
-            result.addAll(stringToKeys(specialKeyBuilder.toString()))
-            specialKeyBuilder = StringBuilder()
-          } else {
-            specialKeyBuilder.append(element)
-          }
-        }
-      }
-    }
-    if (state == KeyParserState.ESCAPE) {
-      result.add(KeyStroke.getKeyStroke('\\'))
-    } else if (state == KeyParserState.SPECIAL) {
-      result.add(KeyStroke.getKeyStroke(specialKeyStart))
-      result.addAll(stringToKeys(specialKeyBuilder.toString()))
-    }
-    return result
+    return KeyNotation.packKeys(string, ::getMapLeader).map { PackedKeys.unpack(it) }
   }
 
-  private fun parseMapLeader(s: String): List<KeyStroke>? {
-    if ("leader".equals(s, ignoreCase = true)) {
-      val mapLeader: Any? = injector.variableService.getGlobalVariableValue("mapleader")
-      return if (mapLeader is VimString) {
-        stringToKeys(mapLeader.value)
-      } else {
-        stringToKeys("\\")
-      }
-    }
-    return null
+  private fun getMapLeader(): String {
+    val mapLeader: Any? = injector.variableService.getGlobalVariableValue("mapleader")
+    return if (mapLeader is VimString) mapLeader.value else "\\"
   }
 
 //  override fun parseKeysSet(@NonNls vararg keys: String): Set<List<KeyStroke>> = List(keys.size) {
@@ -189,22 +116,8 @@ abstract class VimStringParserBase : VimStringParser {
 //  }.toSet()
 
   override fun stringToKeys(string: @NonNls String): List<KeyStroke> {
-    val res: MutableList<KeyStroke> = ArrayList()
-    for (element in string) {
-      if (isControlCharacter(element) && element.code != 10) {
-        if (element.code == 0) {
-          // J is a special case, it's keycode is 0 because keycode 10 is reserved by \n
-          res.add(KeyStroke.getKeyStroke('J'.code, InputEvent.CTRL_DOWN_MASK))
-        } else if (element == '\t') {
-          res.add(KeyStroke.getKeyStroke('\t'))
-        } else {
-          res.add(KeyStroke.getKeyStroke(element.code + 'A'.code - 1, InputEvent.CTRL_DOWN_MASK))
-        }
-      } else {
-        res.add(KeyStroke.getKeyStroke(element))
-      }
-    }
-    return res
+    // Control characters are packed as the control key of the letter, except for \t and \n
+    return PackedKeyList.fromText(string)
   }
 
   private fun isControlCharacter(c: Char): Boolean {
@@ -239,8 +152,8 @@ abstract class VimStringParserBase : VimStringParser {
       KeyEvent.VK_F10 -> "f10"
       KeyEvent.VK_F11 -> "f11"
       KeyEvent.VK_F12 -> "f12"
-      VK_PLUG -> "plug"
-      VK_ACTION -> "action"
+      KeyNotation.VK_PLUG -> "plug"
+      KeyNotation.VK_ACTION -> "action"
       KeyEvent.VK_NUMPAD0 -> "k0"
       KeyEvent.VK_NUMPAD1 -> "k1"
       KeyEvent.VK_NUMPAD2 -> "k2"
@@ -418,7 +331,7 @@ abstract class VimStringParserBase : VimStringParser {
             result.append(specialKeyBuilder)
           }
           if (c == '>') {
-            val specialKey = parseSpecialKey(specialKeyBuilder.toString(), 0)
+            val specialKey = KeyNotation.packSpecialKey(specialKeyBuilder.toString(), 0)?.let { PackedKeys.unpack(it) }
             if (specialKey != null) {
               var keyCode = specialKey.keyCode
               if (specialKey.keyCode == 0) {
@@ -471,115 +384,4 @@ abstract class VimStringParserBase : VimStringParser {
     }
     return null
   }
-
-  // See https://vimdoc.sourceforge.net/htmldoc/intro.html#key-notation
-  private fun parseSpecialKey(s: String, modifiers: Int): KeyStroke? {
-    val lower = s.lowercase(Locale.getDefault())
-    val keyCode = getVimKeyName(lower)
-    val typedChar = getVimTypedKeyName(lower)
-    if (keyCode != null) {
-      return KeyStroke.getKeyStroke(keyCode, modifiers)
-    } else if (typedChar != null) {
-      return getTypedOrPressedKeyStroke(typedChar, modifiers)
-    } else if (lower.startsWith(CMD_PREFIX)) {
-      return parseSpecialKey(s.substring(CMD_PREFIX.length), modifiers or InputEvent.META_DOWN_MASK)
-    } else if (lower.startsWith(META_PREFIX)) {
-      // Meta and alt prefixes are the same thing. See the key notation of vim
-      return parseSpecialKey(s.substring(META_PREFIX.length), modifiers or InputEvent.ALT_DOWN_MASK)
-    } else if (lower.startsWith(ALT_PREFIX)) {
-      return parseSpecialKey(s.substring(ALT_PREFIX.length), modifiers or InputEvent.ALT_DOWN_MASK)
-    } else if (lower.startsWith(CTRL_PREFIX)) {
-      return parseSpecialKey(s.substring(CTRL_PREFIX.length), modifiers or InputEvent.CTRL_DOWN_MASK)
-    } else if (lower.startsWith(SHIFT_PREFIX)) {
-      return parseSpecialKey(s.substring(SHIFT_PREFIX.length), modifiers or InputEvent.SHIFT_DOWN_MASK)
-    } else if (s.length == 1) {
-      return getTypedOrPressedKeyStroke(s[0], modifiers)
-    }
-    return null
-  }
-
-  private fun getVimKeyName(lower: @NonNls String?): Int? {
-    return when (lower) {
-      "cr", "enter", "return" -> KeyEvent.VK_ENTER
-      "ins", "insert" -> KeyEvent.VK_INSERT
-      "home" -> KeyEvent.VK_HOME
-      "end" -> KeyEvent.VK_END
-      "pageup" -> KeyEvent.VK_PAGE_UP
-      "pagedown" -> KeyEvent.VK_PAGE_DOWN
-      "del", "delete" -> KeyEvent.VK_DELETE
-      "esc" -> KeyEvent.VK_ESCAPE
-      "bs", "backspace" -> KeyEvent.VK_BACK_SPACE
-      "tab" -> KeyEvent.VK_TAB
-      "up" -> KeyEvent.VK_UP
-      "down" -> KeyEvent.VK_DOWN
-      "left" -> KeyEvent.VK_LEFT
-      "right" -> KeyEvent.VK_RIGHT
-      "f1" -> KeyEvent.VK_F1
-      "f2" -> KeyEvent.VK_F2
-      "f3" -> KeyEvent.VK_F3
-      "f4" -> KeyEvent.VK_F4
-      "f5" -> KeyEvent.VK_F5
-      "f6" -> KeyEvent.VK_F6
-      "f7" -> KeyEvent.VK_F7
-      "f8" -> KeyEvent.VK_F8
-      "f9" -> KeyEvent.VK_F9
-      "f10" -> KeyEvent.VK_F10
-      "f11" -> KeyEvent.VK_F11
-      "f12" -> KeyEvent.VK_F12
-      "plug" -> VK_PLUG
-      "action" -> VK_ACTION
-      "k0" -> KeyEvent.VK_NUMPAD0
-      "k1" -> KeyEvent.VK_NUMPAD1
-      "k2" -> KeyEvent.VK_NUMPAD2
-      "k3" -> KeyEvent.VK_NUMPAD3
-      "k4" -> KeyEvent.VK_NUMPAD4
-      "k5" -> KeyEvent.VK_NUMPAD5
-      "k6" -> KeyEvent.VK_NUMPAD6
-      "k7" -> KeyEvent.VK_NUMPAD7
-      "k8" -> KeyEvent.VK_NUMPAD8
-      "k9" -> KeyEvent.VK_NUMPAD9
-      "khome" -> KeyEvent.VK_HOME
-      "kend" -> KeyEvent.VK_END
-      "kdown" -> KeyEvent.VK_KP_DOWN
-      "kup" -> KeyEvent.VK_KP_UP
-      "kleft" -> KeyEvent.VK_KP_LEFT
-      "kright" -> KeyEvent.VK_KP_RIGHT
-      "undo" -> KeyEvent.VK_UNDO
-      else -> null
-    }
-  }
-
-  private fun getVimTypedKeyName(lower: String): Char? {
-    return when (lower) {
-      "space" -> ' '
-      "bar" -> '|'
-      "bslash" -> '\\'
-      "lt" -> '<'
-      else -> null
-    }
-  }
-
-  private fun getTypedOrPressedKeyStroke(c: Char, modifiers: Int): KeyStroke {
-    return if (modifiers == 0) {
-      KeyStroke.getKeyStroke(c)
-    } else if (modifiers == InputEvent.SHIFT_DOWN_MASK && Character.isLetter(c)) {
-      KeyStroke.getKeyStroke(Character.toUpperCase(c))
-    } else {
-      KeyStroke.getKeyStroke(Character.toUpperCase(c).code, modifiers)
-    }
-  }
-
-  private enum class KeyParserState {
-    INIT, ESCAPE, SPECIAL
-  }
-
-  private companion object {
-    private const val CMD_PREFIX = "d-"
-    private const val META_PREFIX = "m-"
-    private const val ALT_PREFIX = "a-"
-    private const val CTRL_PREFIX = "c-"
-    private const val SHIFT_PREFIX = "s-"
-    private const val VK_PLUG = KeyEvent.CHAR_UNDEFINED.code - 1
-    private const val VK_ACTION = KeyEvent.CHAR_UNDEFINED.code - 2
-  }
 }
@@ -9,6 +9,7 @@
 package com.maddyhome.idea.vim.api
 
 import com.maddyhome.idea.vim.vimscript.model.ExecutionResult
+import com.maddyhome.idea.vim.vimscript.model.Script
 import com.maddyhome.idea.vim.vimscript.model.VimLContext
 import java.io.File
 
@@ -35,6 +36,18 @@ interface VimscriptExecutor {
     vimContext: VimLContext? = null,
   ): ExecutionResult
 
+  /**
+   * Executes a script that has already been parsed, e.g. a command that runs again and again. It isn't added to the
+   * history
+   */
+  fun execute(
+    script: Script,
+    editor: VimEditor,
+    context: ExecutionContext,
+    indicateErrors: Boolean = true,
+    vimContext: VimLContext? = null,
+  ): ExecutionResult
+
   fun executeFile(
     file: File,
     editor: VimEditor,
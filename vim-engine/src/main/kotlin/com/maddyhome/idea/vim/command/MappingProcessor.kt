@@ -19,6 +19,7 @@ import com.maddyhome.idea.vim.diagnostic.trace
 import com.maddyhome.idea.vim.diagnostic.vimLogger
 import com.maddyhome.idea.vim.impl.state.toMappingMode
 import com.maddyhome.idea.vim.key.KeyConsumer
+import com.maddyhome.idea.vim.key.KeyMappingCursor
 import com.maddyhome.idea.vim.key.KeyMappingLayer
 import com.maddyhome.idea.vim.key.MappingInfoLayer
 import com.maddyhome.idea.vim.state.KeyHandlerState
@@ -59,11 +60,15 @@ object MappingProcessor: KeyConsumer {
     val mapping = injector.keyGroup.getKeyMappingLayer(mappingMode)
     log.trace { "Get keys for mapping mode. mode = $mappingMode" }
 
+    // The position of the keys typed so far is kept between keys, so only the new key is looked up
+    val cursor = mapping.getCursor(mappingState.keyList, mappingState.mappingCursor)
+    mappingState.mappingCursor = cursor
+
     // Returns true if any of these methods handle the key. False means that the key is unrelated to mapping and should
     // be processed as normal.
     val mappingProcessed =
-      handleUnfinishedMappingSequence(keyProcessResultBuilder, mapping, mappingCompleted) ||
-        handleCompleteMappingSequence(keyProcessResultBuilder, mapping, key) ||
+      handleUnfinishedMappingSequence(keyProcessResultBuilder, mapping, cursor, mappingCompleted) ||
+        handleCompleteMappingSequence(keyProcessResultBuilder, mapping, cursor, key) ||
         handleAbandonedMappingSequence(keyProcessResultBuilder)
     log.debug { "Finish mapping processing. Return $mappingProcessed" }
 
@@ -82,6 +87,7 @@ object MappingProcessor: KeyConsumer {
   private fun handleUnfinishedMappingSequence(
     processBuilder: KeyProcessResult.KeyProcessResultBuilder,
     mapping: KeyMappingLayer,
+    cursor: KeyMappingCursor,
     mappingCompleted: Boolean,
   ): Boolean {
     log.trace("processing unfinished mappings...")
@@ -95,7 +101,7 @@ object MappingProcessor: KeyConsumer {
     // mapping is a prefix, it will get evaluated when the next character is entered.
     // Note that currentlyUnhandledKeySequence is the same as the state after commandState.getMappingKeys().add(key). It
     // would be nice to tidy ths up
-    if (!mapping.isPrefix(processBuilder.state.mappingState.keys)) {
+    if (!mapping.isPrefix(processBuilder.state.mappingState.keyList, cursor)) {
       log.debug("There are no mappings that start with the current sequence. Returning false.")
       return false
     }
@@ -156,12 +162,13 @@ object MappingProcessor: KeyConsumer {
   private fun handleCompleteMappingSequence(
     processBuilder: KeyProcessResult.KeyProcessResultBuilder,
     mapping: KeyMappingLayer,
+    cursor: KeyMappingCursor,
     key: KeyStroke,
   ): Boolean {
     log.trace("Processing complete mapping sequence...")
     // The current sequence isn't a prefix, check to see if it's a completed sequence.
     val mappingState = processBuilder.state.mappingState
-    val currentMappingInfo = mapping.getLayer(mappingState.keys)
+    val currentMappingInfo = mapping.getLayer(mappingState.keyList, cursor)
     var mappingInfo = currentMappingInfo
     if (mappingInfo == null) {
       log.trace("Haven't found any mapping info for the given sequence. Trying to apply mapping to a subsequence.")
@@ -12,6 +12,8 @@ import com.maddyhome.idea.vim.api.globalOptions
 import com.maddyhome.idea.vim.api.injector
 import com.maddyhome.idea.vim.diagnostic.trace
 import com.maddyhome.idea.vim.diagnostic.vimLogger
+import com.maddyhome.idea.vim.key.KeyMappingCursor
+import com.maddyhome.idea.vim.key.PackedKeyList
 import java.awt.event.ActionListener
 import javax.swing.KeyStroke
 import javax.swing.Timer
@@ -42,7 +44,17 @@ class MappingState: Cloneable {
     get() = keyList.isNotEmpty()
 
   private var timer = VimTimer(injector.globalOptions().timeoutlen)
-  private var keyList = mutableListOf<KeyStroke>()
+
+  /**
+   * The keys typed so far, as a list for the lookups in the mappings. The keys are kept packed
+   */
+  internal var keyList = PackedKeyList()
+    private set
+
+  /**
+   * The position of [keyList] in the mappings, so that the next key is a single lookup. It's reset with the keys
+   */
+  internal var mappingCursor: KeyMappingCursor? = null
 
   init {
     timer.isRepeats = false
@@ -67,7 +79,8 @@ class MappingState: Cloneable {
 
   fun detachKeys(): List<KeyStroke> {
     val currentKeys = keyList
-    keyList = mutableListOf()
+    keyList = PackedKeyList()
+    mappingCursor = null
     return currentKeys
   }
 
@@ -75,6 +88,7 @@ class MappingState: Cloneable {
     LOG.trace("Reset mapping sequence")
     stopMappingTimer()
     keyList.clear()
+    mappingCursor = null
     // NOTE: We intentionally don't reset mapping mode here
   }
 
@@ -102,7 +116,8 @@ class MappingState: Cloneable {
     val result = MappingState()
     result.timer = timer
     result.mapDepth = mapDepth
-    result.keyList = keyList.toMutableList()
+    result.keyList = PackedKeyList(keyList)
+    result.mappingCursor = mappingCursor
     return result
   }
 
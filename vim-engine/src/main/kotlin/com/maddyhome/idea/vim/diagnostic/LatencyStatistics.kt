@@ -0,0 +1,176 @@
+/*
+ * Copyright 2003-2023 The IdeaVim authors
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE.txt file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.maddyhome.idea.vim.diagnostic
+
+import jdk.jfr.Category
+import jdk.jfr.Description
+import jdk.jfr.Event
+import jdk.jfr.Label
+import jdk.jfr.Name
+import java.util.*
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * The time spent in each key consumer, command and Ex command, shown by `:IdeaVimStats`
+ *
+ * Each measure costs two calls to [System.nanoTime] and the update of a histogram, so the statistics are always
+ * collected. The time of a measure includes the nested ones, e.g. the commands executed by a mapping. Each measure is
+ * also emitted as a [VimLatencyEvent] while a flight recording with this event enabled is running.
+ */
+object LatencyStatistics {
+  enum class Kind(val title: String) {
+    KEY_CONSUMER("Key consumers"),
+    COMMAND("Commands"),
+    EX_COMMAND("Ex commands"),
+  }
+
+  private val histograms = EnumMap<Kind, ConcurrentHashMap<String, LatencyHistogram>>(Kind::class.java).apply {
+    Kind.entries.forEach { put(it, ConcurrentHashMap()) }
+  }
+
+  /**
+   * Returns the histogram of the latencies of the given key consumer, command or Ex command
+   *
+   * The histograms are kept for the whole session. Resetting the statistics only clears them, so the histograms of
+   * the key consumers can be looked up once.
+   */
+  fun getHistogram(kind: Kind, name: String): LatencyHistogram {
+    return histograms[kind]!!.computeIfAbsent(name) { LatencyHistogram(kind, it) }
+  }
+
+  fun reset() {
+    histograms.values.forEach { byName -> byName.values.forEach { it.clear() } }
+  }
+
+  /**
+   * Returns a table of the statistics, with the slowest entries of each kind first
+   */
+  fun report(): String {
+    return buildString {
+      for (kind in Kind.entries) {
+        val snapshots = histograms[kind]!!.values.map { it.snapshot() }.filter { it.count > 0 }
+        if (snapshots.isEmpty()) continue
+        if (isNotEmpty()) appendLine()
+        appendLine(kind.title)
+        appendLine(String.format(Locale.ROOT, ROW_FORMAT, "Name", "Count", "Total ms", "Mean µs", "p50 µs", "p99 µs", "Max µs"))
+        for (snapshot in snapshots.sortedByDescending { it.totalNanos }) {
+          appendLine(
+            String.format(
+              Locale.ROOT,
+              ROW_FORMAT,
+              snapshot.name,
+              snapshot.count,
+              String.format(Locale.ROOT, "%.1f", snapshot.totalNanos / 1_000_000.0),
+              String.format(Locale.ROOT, "%.1f", snapshot.totalNanos / 1000.0 / snapshot.count),
+              "<" + snapshot.percentileMicros(0.5),
+              "<" + snapshot.percentileMicros(0.99),
+              snapshot.maxNanos / 1000,
+            ),
+          )
+        }
+      }
+      if (isEmpty()) append("No statistics")
+    }.trimEnd()
+  }
+
+  private const val ROW_FORMAT = "%-40s %8s %10s %9s %8s %8s %8s"
+}
+
+/**
+ * A histogram of latencies, with a bucket for each power of two of microseconds
+ */
+class LatencyHistogram internal constructor(val kind: LatencyStatistics.Kind, val name: String) {
+  private var count = 0L
+  private var totalNanos = 0L
+  private var maxNanos = 0L
+  private val buckets = LongArray(BUCKETS)
+
+  @Synchronized
+  fun record(nanos: Long) {
+    count++
+    totalNanos += nanos
+    if (nanos > maxNanos) maxNanos = nanos
+    buckets[bucketIndex(nanos / 1000)]++
+  }
+
+  @Synchronized
+  internal fun clear() {
+    count = 0
+    totalNanos = 0
+    maxNanos = 0
+    buckets.fill(0)
+  }
+
+  @Synchronized
+  internal fun snapshot(): Snapshot = Snapshot(name, count, totalNanos, maxNanos, buckets.copyOf())
+
+  internal class Snapshot(
+    val name: String,
+    val count: Long,
+    val totalNanos: Long,
+    val maxNanos: Long,
+    private val buckets: LongArray,
+  ) {
+    /**
+     * Returns the upper bound, in microseconds, of the bucket that contains the given fraction of the latencies
+     */
+    fun percentileMicros(fraction: Double): Long {
+      val threshold = Math.ceil(count * fraction).toLong().coerceAtLeast(1)
+      var seen = 0L
+      for ((index, bucketCount) in buckets.withIndex()) {
+        seen += bucketCount
+        if (seen >= threshold) return 1L shl index
+      }
+      return 1L shl (BUCKETS - 1)
+    }
+  }
+
+  private companion object {
+    private const val BUCKETS = 32
+
+    /**
+     * Bucket 0 is for less than 1µs, and bucket i for [2^(i-1), 2^i) µs
+     */
+    private fun bucketIndex(micros: Long): Int = (64 - java.lang.Long.numberOfLeadingZeros(micros)).coerceAtMost(BUCKETS - 1)
+  }
+}
+
+/**
+ * Measures the time of the action in the histogram, and emits it as a JFR event
+ */
+inline fun <T> LatencyHistogram.measure(action: () -> T): T {
+  val event = VimLatencyEvent()
+  event.begin()
+  val start = System.nanoTime()
+  try {
+    return action()
+  } finally {
+    record(System.nanoTime() - start)
+    event.end()
+    if (event.shouldCommit()) {
+      event.kind = kind.title
+      event.name = name
+      event.commit()
+    }
+  }
+}
+
+@Name("com.maddyhome.idea.vim.Latency")
+@Label("IdeaVim Latency")
+@Category("IdeaVim")
+@Description("Time spent by IdeaVim in a key consumer, a command or an Ex command")
+class VimLatencyEvent : Event() {
+  @Label("Kind")
+  @JvmField
+  var kind: String? = null
+
+  @Label("Name")
+  @JvmField
+  var name: String? = null
+}
@@ -10,9 +10,18 @@ package com.maddyhome.idea.vim.key
 
 import com.maddyhome.idea.vim.KeyProcessResult
 import com.maddyhome.idea.vim.api.VimEditor
+import com.maddyhome.idea.vim.state.mode.Mode
 import javax.swing.KeyStroke
 
 interface KeyConsumer {
+  /**
+   * Whether the consumer may consume some key in this mode and state of the command builder
+   *
+   * [com.maddyhome.idea.vim.KeyHandler] only tries the consumers that may consume a key in the current state, so this
+   * must be true unless [consumeKey] would return false for every key.
+   */
+  fun isApplicable(mode: Mode, isExpectingCharArgument: Boolean, isRegisterPending: Boolean): Boolean = true
+
   /**
    * @return true if consumed key and could do something meaningful wit it
    */
@@ -10,39 +10,47 @@ package com.maddyhome.idea.vim.key
 import com.maddyhome.idea.vim.api.injector
 import com.maddyhome.idea.vim.extension.ExtensionHandler
 import com.maddyhome.idea.vim.vimscript.model.expressions.Expression
-import java.util.function.Consumer
-import java.util.stream.Collectors
 import javax.swing.KeyStroke
 
 /**
  * Container for key mappings for some mode
  * Iterable by "from" keys
  *
+ * The mappings are kept in a trie, where the node for some keys has the mapping for these keys, if any, and the nodes
+ * for the keys that can follow them. A sequence of keys is a prefix of a mapping if its node has children. While keys
+ * are typed one at a time, a [KeyMappingCursor] keeps the node of the keys typed so far, so that each new key is a
+ * single child lookup.
+ *
  * @author vlan
  */
 class KeyMapping : Iterable<List<KeyStroke?>?>, KeyMappingLayer {
   /**
-   * Contains all key mapping for some mode.
+   * The root of the trie of all key mappings for some mode. It's the node of the empty sequence of keys
+   */
+  private val root = Node()
+
+  /**
+   * The mappings to keys, indexed by the keys they map to, for [hasmapto] and [getMapTo]
    */
-  private val myKeys: MutableMap<List<KeyStroke>, MappingInfo> = HashMap()
+  private val myKeysByTarget: MutableMap<List<KeyStroke?>, MutableList<ToKeysMappingInfo>> = HashMap()
 
   /**
-   * Set the contains all possible prefixes for mappings.
-   * E.g. if there is mapping for "hello", this set will contain "h", "he", "hel", etc.
-   * Multiset is used to correctly remove the mappings.
+   * Incremented by every change of the mappings, so that the cursors created before it are no longer used
    */
-  private val myPrefixes: MutableMap<List<KeyStroke>, Int> = HashMap()
+  private var modificationCount = 0
+
   override fun iterator(): MutableIterator<List<KeyStroke>> {
-    return ArrayList(myKeys.keys).iterator()
+    return collectMappings { _ -> true }.mapTo(ArrayList()) { it.first }.iterator()
   }
 
   operator fun get(keys: Iterable<KeyStroke>): MappingInfo? {
     // Having a parameter of Iterable allows for a nicer API, because we know when a given list is immutable.
-    // TODO: Should we change this to be a trie?
     assert(keys is List<*>) { "keys must be of type List<KeyStroke>" }
     val keyStrokes = keys as List<KeyStroke>
-    val mappingInfo = myKeys[keys]
-    if (mappingInfo != null) return mappingInfo
+    return findNode(keyStrokes)?.mappingInfo ?: getActionMappingInfo(keyStrokes)
+  }
+
+  private fun getActionMappingInfo(keyStrokes: List<KeyStroke>): MappingInfo? {
     if (keyStrokes.size > 3) {
       if (keyStrokes[0].keyCode == injector.parser.actionKeyStroke.keyCode && keyStrokes[1].keyChar == '(' && keyStrokes[keyStrokes.size - 1].keyChar == ')') {
         val builder = StringBuilder()
@@ -61,8 +69,7 @@ class KeyMapping : Iterable<List<KeyStroke?>?>, KeyMappingLayer {
     extensionHandler: ExtensionHandler,
     recursive: Boolean,
   ) {
-    myKeys[ArrayList(fromKeys)] = ToHandlerMappingInfo(extensionHandler, fromKeys, recursive, owner)
-    fillPrefixes(fromKeys)
+    putMappingInfo(fromKeys, ToHandlerMappingInfo(extensionHandler, fromKeys, recursive, owner))
   }
 
   fun put(
@@ -71,8 +78,7 @@ class KeyMapping : Iterable<List<KeyStroke?>?>, KeyMappingLayer {
     owner: MappingOwner,
     recursive: Boolean,
   ) {
-    myKeys[ArrayList(fromKeys)] = ToKeysMappingInfo(toKeys, fromKeys, recursive, owner)
-    fillPrefixes(fromKeys)
+    putMappingInfo(fromKeys, ToKeysMappingInfo(toKeys, fromKeys, recursive, owner))
   }
 
   fun put(
@@ -82,104 +88,163 @@ class KeyMapping : Iterable<List<KeyStroke?>?>, KeyMappingLayer {
     originalString: String,
     recursive: Boolean,
   ) {
-    myKeys[ArrayList(fromKeys)] =
-      ToExpressionMappingInfo(toExpression, fromKeys, recursive, owner, originalString)
-    fillPrefixes(fromKeys)
+    putMappingInfo(fromKeys, ToExpressionMappingInfo(toExpression, fromKeys, recursive, owner, originalString))
+  }
+
+  private fun putMappingInfo(fromKeys: List<KeyStroke>, mappingInfo: MappingInfo) {
+    var node = root
+    for (key in fromKeys) {
+      node = node.children.getOrPut(key) { Node() }
+    }
+    node.mappingInfo?.let { removeFromTargetIndex(it) }
+    node.mappingInfo = mappingInfo
+    if (mappingInfo is ToKeysMappingInfo) {
+      myKeysByTarget.getOrPut(ArrayList(mappingInfo.toKeys)) { ArrayList(1) }.add(mappingInfo)
+    }
+    modificationCount++
   }
 
-  private fun fillPrefixes(fromKeys: List<KeyStroke>) {
-    val prefix: MutableList<KeyStroke> = ArrayList()
-    val prefixLength = fromKeys.size - 1
-    for (i in 0 until prefixLength) {
-      prefix.add(fromKeys[i])
-      myPrefixes[ArrayList(prefix)] = (myPrefixes[ArrayList(prefix)] ?: 0) + 1
+  private fun removeFromTargetIndex(mappingInfo: MappingInfo) {
+    if (mappingInfo !is ToKeysMappingInfo) return
+    val mappings = myKeysByTarget[mappingInfo.toKeys] ?: return
+    mappings.remove(mappingInfo)
+    if (mappings.isEmpty()) {
+      myKeysByTarget.remove(mappingInfo.toKeys)
     }
   }
 
   fun delete(owner: MappingOwner) {
-    val toRemove = myKeys.entries.stream()
-      .filter { (_, value): Map.Entry<List<KeyStroke>, MappingInfo> -> value.owner == owner }
-      .collect(Collectors.toList())
-    toRemove.forEach(
-      Consumer { (key, value): Map.Entry<List<KeyStroke>, MappingInfo> ->
-        myKeys.remove(
-          key,
-          value,
-        )
-      },
-    )
-    toRemove.map { it.key }.forEach(this::removePrefixes)
+    collectMappings { it.owner == owner }.forEach { delete(it.first) }
   }
 
   fun delete(keys: List<KeyStroke>) {
-    myKeys.remove(keys) ?: return
-    removePrefixes(keys)
+    // The nodes on the path to the mapping, to remove the ones that are no longer needed
+    val path = ArrayList<Node>(keys.size + 1)
+    var node = root
+    path.add(node)
+    for (key in keys) {
+      node = node.children[key] ?: return
+      path.add(node)
+    }
+    val mappingInfo = node.mappingInfo ?: return
+    removeFromTargetIndex(mappingInfo)
+    node.mappingInfo = null
+    for (i in keys.size downTo 1) {
+      val child = path[i]
+      if (child.mappingInfo != null || child.children.isNotEmpty()) break
+      path[i - 1].children.remove(keys[i - 1])
+    }
+    modificationCount++
   }
 
   fun delete() {
-    myKeys.clear()
-    myPrefixes.clear()
-  }
-
-  private fun removePrefixes(keys: List<KeyStroke>) {
-    val prefix: MutableList<KeyStroke> = ArrayList()
-    val prefixLength = keys.size - 1
-    for (i in 0 until prefixLength) {
-      prefix.add(keys[i])
-      val existingCount = myPrefixes[prefix]
-      if (existingCount == 1 || existingCount == null) {
-        myPrefixes.remove(prefix)
-      } else {
-        myPrefixes[prefix] = existingCount - 1
-      }
-    }
+    root.children.clear()
+    myKeysByTarget.clear()
+    modificationCount++
   }
 
   fun getByOwner(owner: MappingOwner): List<Pair<List<KeyStroke>, MappingInfo>> {
-    return myKeys.entries.stream()
-      .filter { (_, value): Map.Entry<List<KeyStroke>, MappingInfo> -> value.owner == owner }
-      .map { (key, value): Map.Entry<List<KeyStroke>, MappingInfo> ->
-        Pair(
-          key,
-          value,
-        )
-      }.collect(Collectors.toList())
+    return collectMappings { it.owner == owner }
+  }
+
+  /**
+   * Returns the mappings that match the filter, with their "from" keys
+   */
+  private fun collectMappings(filter: (MappingInfo) -> Boolean): List<Pair<List<KeyStroke>, MappingInfo>> {
+    val result = ArrayList<Pair<List<KeyStroke>, MappingInfo>>()
+    collectMappings(root, ArrayList(), filter, result)
+    return result
+  }
+
+  private fun collectMappings(
+    node: Node,
+    keys: MutableList<KeyStroke>,
+    filter: (MappingInfo) -> Boolean,
+    result: MutableList<Pair<List<KeyStroke>, MappingInfo>>,
+  ) {
+    node.mappingInfo?.let { if (filter(it)) result.add(Pair(ArrayList(keys), it)) }
+    for ((key, child) in node.children) {
+      keys.add(key)
+      collectMappings(child, keys, filter, result)
+      keys.removeAt(keys.size - 1)
+    }
+  }
+
+  private fun findNode(keys: List<KeyStroke>): Node? {
+    var node = root
+    for (key in keys) {
+      node = node.children[key] ?: return null
+    }
+    return node
   }
 
   override fun isPrefix(keys: Iterable<KeyStroke>): Boolean {
     // Having a parameter of Iterable allows for a nicer API, because we know when a given list is immutable.
-    // Perhaps we should look at changing this to a trie or something?
     assert(keys is List<*>) { "keys must be of type List<KeyStroke>" }
     val keyList = keys as List<KeyStroke>
-    if (keyList.isEmpty()) return false
-    if (myPrefixes.contains(keys)) return true
-    val firstChar = keyList[0].keyCode
-    val lastChar = keyList[keyList.size - 1].keyChar
+    return isPrefix(keyList, getCursor(keyList, null))
+  }
+
+  override fun getCursor(keys: List<KeyStroke>, previous: KeyMappingCursor?): KeyMappingCursor {
+    val node = if (keys.isNotEmpty() && previous != null && previous.owner === this &&
+      previous.modificationCount == modificationCount && previous.depth == keys.size - 1
+    ) {
+      previous.node?.children?.get(keys[keys.size - 1])
+    } else {
+      findNode(keys)
+    }
+    return KeyMappingCursor(this, modificationCount, node, keys.size)
+  }
+
+  override fun isPrefix(keys: List<KeyStroke>, cursor: KeyMappingCursor): Boolean {
+    if (keys.isEmpty()) return false
+    // Empty nodes are removed, so a node with children is always the prefix of a longer mapping
+    if (cursor.node?.children?.isNotEmpty() == true) return true
+    val firstChar = keys[0].keyCode
+    val lastChar = keys[keys.size - 1].keyChar
     return firstChar == injector.parser.actionKeyStroke.keyCode && lastChar != ')'
   }
 
   fun hasmapto(toKeys: List<KeyStroke?>): Boolean {
-    return myKeys.values.stream()
-      .anyMatch { o: MappingInfo? -> o is ToKeysMappingInfo && o.toKeys == toKeys }
+    return myKeysByTarget.containsKey(toKeys)
   }
 
   fun hasmapfrom(fromKeys: List<KeyStroke?>): Boolean {
-    return myKeys.values.stream()
-      .anyMatch { o: MappingInfo? -> o is ToKeysMappingInfo && o.fromKeys == fromKeys }
+    if (fromKeys.any { it == null }) return false
+    @Suppress("UNCHECKED_CAST")
+    return findNode(fromKeys as List<KeyStroke>)?.mappingInfo is ToKeysMappingInfo
   }
 
   fun getMapTo(toKeys: List<KeyStroke?>): List<Pair<List<KeyStroke>, MappingInfo>> {
-    return myKeys.entries.stream()
-      .filter { (_, value): Map.Entry<List<KeyStroke>, MappingInfo> -> value is ToKeysMappingInfo && value.toKeys == toKeys }
-      .map { (key, value): Map.Entry<List<KeyStroke>, MappingInfo> ->
-        Pair(
-          key,
-          value,
-        )
-      }.collect(Collectors.toList())
+    return myKeysByTarget[toKeys]?.map { Pair(it.fromKeys, it) } ?: emptyList()
   }
 
   override fun getLayer(keys: Iterable<KeyStroke>): MappingInfoLayer? {
     return get(keys)
   }
+
+  override fun getLayer(keys: List<KeyStroke>, cursor: KeyMappingCursor): MappingInfoLayer? {
+    return cursor.node?.mappingInfo ?: getActionMappingInfo(keys)
+  }
+
+  /**
+   * A node of the trie of mappings, for the sequence of keys on the path from the root to it
+   */
+  internal class Node {
+    var mappingInfo: MappingInfo? = null
+    val children: MutableMap<KeyStroke, Node> = PackedKeyMap()
+  }
 }
+
+/**
+ * The position of a sequence of keys in the trie of a [KeyMapping]
+ *
+ * It's only valid for the mappings it was created from, and until they are changed. [KeyMapping.getCursor] ignores it
+ * otherwise, and looks up all the keys again.
+ */
+class KeyMappingCursor internal constructor(
+  internal val owner: KeyMappingLayer,
+  internal val modificationCount: Int,
+  internal val node: KeyMapping.Node?,
+  internal val depth: Int,
+)
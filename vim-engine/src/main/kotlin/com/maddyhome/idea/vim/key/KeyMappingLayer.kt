@@ -13,4 +13,22 @@ import javax.swing.KeyStroke
 interface KeyMappingLayer {
   fun isPrefix(keys: Iterable<KeyStroke>): Boolean
   fun getLayer(keys: Iterable<KeyStroke>): MappingInfoLayer?
+
+  /**
+   * Returns the position of the keys in the mappings
+   *
+   * If [previous] is the position of the same keys without the last one, only the last key is looked up. This is the
+   * case while the keys of a mapping are typed one at a time.
+   */
+  fun getCursor(keys: List<KeyStroke>, previous: KeyMappingCursor?): KeyMappingCursor
+
+  /**
+   * Like [isPrefix], for keys whose position was returned by [getCursor]
+   */
+  fun isPrefix(keys: List<KeyStroke>, cursor: KeyMappingCursor): Boolean
+
+  /**
+   * Like [getLayer], for keys whose position was returned by [getCursor]
+   */
+  fun getLayer(keys: List<KeyStroke>, cursor: KeyMappingCursor): MappingInfoLayer?
 }
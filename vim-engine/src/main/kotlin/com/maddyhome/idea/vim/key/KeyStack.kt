@@ -49,7 +49,7 @@ class KeyStack {
 
   fun addKeys(keyStrokes: List<KeyStroke>) {
     LOG.trace { "Got new keys to key stack: $keyStrokes" }
-    stack.addFirst(Frame(keyStrokes))
+    stack.addFirst(Frame(PackedKeyList(keyStrokes)))
   }
 
   fun removeFirst() {
@@ -82,8 +82,11 @@ class KeyStack {
   }
 }
 
+/**
+ * The keys of a frame are kept packed, since macros can put many keys on the stack
+ */
 private class Frame(
-  val keys: List<KeyStroke>,
+  val keys: PackedKeyList,
   var pointer: Int = 0,
 ) {
   fun hasStroke(): Boolean {
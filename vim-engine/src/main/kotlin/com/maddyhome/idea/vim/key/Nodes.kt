@@ -62,7 +62,10 @@ open class CommandPartNode<T>(
   internal val name: String,
   internal val depth: Int) : Node<T> {
 
-  val children = mutableMapOf<KeyStroke, Node<T>>()
+  /**
+   * The children of the node, by their keys. The keys are kept packed, see [PackedKeyMap]
+   */
+  val children: MutableMap<KeyStroke, Node<T>> = PackedKeyMap()
 
   operator fun set(stroke: KeyStroke, node: Node<T>) {
     children[stroke] = node
@@ -0,0 +1,357 @@
+/*
+ * Copyright 2003-2023 The IdeaVim authors
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE.txt file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.maddyhome.idea.vim.key
+
+import com.maddyhome.idea.vim.key.notation.KeyNotation
+import java.awt.event.KeyEvent
+import javax.swing.KeyStroke
+
+/**
+ * Keys packed into an int, for the lists and maps that hold many of them, such as the text of a register
+ *
+ * A typed key keeps its char and a pressed key its key code in the low 16 bits, and the modifiers are kept in the
+ * next 14 bits, see [KeyNotation]. The few keys that don't fit, such as key release strokes, aren't packed. The lists
+ * and maps of packed keys keep them on their own, so there is no global table of them that could grow.
+ *
+ * Getting a [KeyStroke] from AWT takes a global lock, so the key strokes are also cached here. The typed keys of the
+ * common chars are always cached, and the other keys by a hash of their packed int, so that the keys that are used
+ * often are only asked from AWT once.
+ */
+internal object PackedKeys {
+  /**
+   * Returned by [pack] for the keys that don't fit in an int. It's never the packed int of a key
+   */
+  const val NOT_PACKED: Int = -1
+
+  private const val TYPED = KeyNotation.TYPED
+  private const val VALUE_MASK = KeyNotation.VALUE_MASK
+  private const val MODIFIERS_SHIFT = KeyNotation.MODIFIERS_SHIFT
+  private const val MODIFIERS_MASK = KeyNotation.MODIFIERS_MASK
+
+  private const val KEY_CACHE_BITS = 10
+
+  private val typedKeys = arrayOfNulls<KeyStroke>(256)
+  private val cachedKeys = arrayOfNulls<KeyStroke>(1 shl KEY_CACHE_BITS)
+
+  /**
+   * Packs the key, or returns [NOT_PACKED] if it doesn't fit in an int
+   */
+  fun pack(key: KeyStroke): Int {
+    val modifiers = key.modifiers
+    if (!key.isOnKeyRelease && modifiers and MODIFIERS_MASK.inv() == 0) {
+      if (key.keyChar != KeyEvent.CHAR_UNDEFINED && key.keyCode == KeyEvent.VK_UNDEFINED) {
+        return KeyNotation.packTyped(key.keyChar, modifiers)
+      }
+      if (key.keyChar == KeyEvent.CHAR_UNDEFINED && key.keyCode and VALUE_MASK.inv() == 0) {
+        return KeyNotation.packPressed(key.keyCode, modifiers)
+      }
+    }
+    return NOT_PACKED
+  }
+
+  /**
+   * Packs the key of a char of a string, like [com.maddyhome.idea.vim.api.VimStringParser.stringToKeys]
+   */
+  fun packChar(c: Char): Int = KeyNotation.packChar(c)
+
+  fun unpack(packed: Int): KeyStroke {
+    val value = packed and VALUE_MASK
+    val modifiers = (packed ushr MODIFIERS_SHIFT) and MODIFIERS_MASK
+    if (packed and TYPED != 0 && modifiers == 0) return getTypedKey(value.toChar())
+
+    // Racing threads store equal key strokes, so the cache doesn't need a lock. A key that was replaced by another one
+    // with the same hash is asked from AWT again
+    val slot = (packed * -0x61c88647) ushr (Int.SIZE_BITS - KEY_CACHE_BITS)
+    val cached = cachedKeys[slot]
+    if (cached != null && pack(cached) == packed) return cached
+    val key = if (packed and TYPED == 0) {
+      KeyStroke.getKeyStroke(value, modifiers)
+    } else {
+      KeyStroke.getKeyStroke(value.toChar(), modifiers)
+    }
+    cachedKeys[slot] = key
+    return key
+  }
+
+  /**
+   * Returns the char of a typed key, or [KeyEvent.CHAR_UNDEFINED] for other keys
+   */
+  fun getChar(packed: Int): Char {
+    return if (packed and TYPED != 0) (packed and VALUE_MASK).toChar() else KeyEvent.CHAR_UNDEFINED
+  }
+
+  /**
+   * Returns the key typed for the char, without taking the lock of AWT for the common chars
+   */
+  fun getTypedKey(c: Char): KeyStroke {
+    if (c.code >= typedKeys.size) return KeyStroke.getKeyStroke(c)
+    // Racing threads store equal key strokes, so the cache doesn't need a lock
+    return typedKeys[c.code] ?: KeyStroke.getKeyStroke(c).also { typedKeys[c.code] = it }
+  }
+}
+
+/**
+ * A list of keys, kept as packed ints rather than references to [KeyStroke] objects
+ *
+ * The key strokes are only created when the elements are read. [getText] reads the text of the keys without creating
+ * them. The keys that can't be packed are kept in a list of their own, and their index in it is kept instead.
+ */
+internal class PackedKeyList(initialCapacity: Int = 10) : AbstractMutableList<KeyStroke>(), RandomAccess {
+  private var keys = IntArray(initialCapacity)
+  private var unpackedKeys: ArrayList<KeyStroke>? = null
+
+  override var size: Int = 0
+    private set
+
+  constructor(keys: Collection<KeyStroke>) : this(keys.size) {
+    addAll(keys)
+  }
+
+  override fun get(index: Int): KeyStroke = unpack(keys[checkIndex(index)])
+
+  override fun set(index: Int, element: KeyStroke): KeyStroke {
+    val old = get(index)
+    keys[index] = pack(element)
+    return old
+  }
+
+  override fun add(index: Int, element: KeyStroke) {
+    if (index < 0 || index > size) throw IndexOutOfBoundsException("Index: $index, size: $size")
+    ensureCapacity(size + 1)
+    System.arraycopy(keys, index, keys, index + 1, size - index)
+    keys[index] = pack(element)
+    size++
+    modCount++
+  }
+
+  override fun addAll(elements: Collection<KeyStroke>): Boolean {
+    if (elements !is PackedKeyList || elements.unpackedKeys != null) return super.addAll(elements)
+    if (elements.isEmpty()) return false
+    ensureCapacity(size + elements.size)
+    System.arraycopy(elements.keys, 0, keys, size, elements.size)
+    size += elements.size
+    modCount++
+    return true
+  }
+
+  override fun removeAt(index: Int): KeyStroke {
+    val old = get(index)
+    System.arraycopy(keys, index + 1, keys, index, size - index - 1)
+    size--
+    modCount++
+    return old
+  }
+
+  override fun clear() {
+    size = 0
+    unpackedKeys = null
+    modCount++
+  }
+
+  /**
+   * Adds the keys of the chars of the text, like [com.maddyhome.idea.vim.api.VimStringParser.stringToKeys]
+   */
+  fun addText(text: CharSequence) {
+    ensureCapacity(size + text.length)
+    for (c in text) {
+      keys[size++] = PackedKeys.packChar(c)
+    }
+    modCount++
+  }
+
+  /**
+   * Returns the text of the keys, or null if some of them aren't typed keys
+   */
+  fun getText(): String? {
+    val builder = StringBuilder(size)
+    for (i in 0 until size) {
+      val packed = keys[i]
+      val c = if (packed and UNPACKED != 0) unpack(packed).keyChar else PackedKeys.getChar(packed)
+      if (c == KeyEvent.CHAR_UNDEFINED) return null
+      builder.append(c)
+    }
+    return builder.toString()
+  }
+
+  private fun pack(key: KeyStroke): Int {
+    val packed = PackedKeys.pack(key)
+    if (packed != PackedKeys.NOT_PACKED) return packed
+    val unpacked = unpackedKeys ?: ArrayList<KeyStroke>(1).also { unpackedKeys = it }
+    unpacked.add(key)
+    return UNPACKED or (unpacked.size - 1)
+  }
+
+  private fun unpack(packed: Int): KeyStroke {
+    return if (packed and UNPACKED != 0) unpackedKeys!![packed and UNPACKED.inv()] else PackedKeys.unpack(packed)
+  }
+
+  private fun ensureCapacity(capacity: Int) {
+    if (capacity > keys.size) {
+      keys = keys.copyOf(maxOf(capacity, keys.size * 2))
+    }
+  }
+
+  private fun checkIndex(index: Int): Int {
+    if (index < 0 || index >= size) throw IndexOutOfBoundsException("Index: $index, size: $size")
+    return index
+  }
+
+  companion object {
+    /**
+     * Set for the index of a key that isn't packed. Packed keys never have this bit
+     */
+    private const val UNPACKED = 1 shl 31
+
+    fun fromText(text: CharSequence): PackedKeyList = PackedKeyList(text.length).also { it.addText(text) }
+  }
+}
+
+/**
+ * A map from keys, kept as packed ints rather than references to [KeyStroke] objects, for the children of the nodes
+ * of the command and mapping trees
+ *
+ * The packed keys are kept sorted, so that a key is found by a binary search without creating any objects. The keys
+ * that can't be packed are kept in a map of their own.
+ */
+internal class PackedKeyMap<V> : AbstractMutableMap<KeyStroke, V>() {
+  private var packedKeys = IntArray(4)
+  private var packedValues = arrayOfNulls<Any>(4)
+  private var packedSize = 0
+  private var unpackedEntries: HashMap<KeyStroke, V>? = null
+
+  override val size: Int
+    get() = packedSize + (unpackedEntries?.size ?: 0)
+
+  override val entries: MutableSet<MutableMap.MutableEntry<KeyStroke, V>> = EntrySet()
+
+  override fun get(key: KeyStroke): V? {
+    val packed = PackedKeys.pack(key)
+    if (packed == PackedKeys.NOT_PACKED) return unpackedEntries?.get(key)
+    val index = indexOf(packed)
+    return if (index >= 0) valueAt(index) else null
+  }
+
+  override fun containsKey(key: KeyStroke): Boolean {
+    val packed = PackedKeys.pack(key)
+    if (packed == PackedKeys.NOT_PACKED) return unpackedEntries?.containsKey(key) == true
+    return indexOf(packed) >= 0
+  }
+
+  override fun put(key: KeyStroke, value: V): V? {
+    val packed = PackedKeys.pack(key)
+    if (packed == PackedKeys.NOT_PACKED) {
+      return (unpackedEntries ?: HashMap<KeyStroke, V>(1).also { unpackedEntries = it }).put(key, value)
+    }
+    val index = indexOf(packed)
+    if (index >= 0) {
+      val old = valueAt(index)
+      packedValues[index] = value
+      return old
+    }
+    insertAt(-(index + 1), packed, value)
+    return null
+  }
+
+  override fun remove(key: KeyStroke): V? {
+    val packed = PackedKeys.pack(key)
+    if (packed == PackedKeys.NOT_PACKED) return unpackedEntries?.remove(key)
+    val index = indexOf(packed)
+    if (index < 0) return null
+    val old = valueAt(index)
+    removeAt(index)
+    return old
+  }
+
+  override fun clear() {
+    packedValues.fill(null, 0, packedSize)
+    packedSize = 0
+    unpackedEntries = null
+  }
+
+  private fun indexOf(packed: Int): Int = packedKeys.binarySearch(packed, 0, packedSize)
+
+  @Suppress("UNCHECKED_CAST")
+  private fun valueAt(index: Int): V = packedValues[index] as V
+
+  private fun insertAt(index: Int, packed: Int, value: V) {
+    if (packedSize == packedKeys.size) {
+      packedKeys = packedKeys.copyOf(packedSize * 2)
+      packedValues = packedValues.copyOf(packedSize * 2)
+    }
+    System.arraycopy(packedKeys, index, packedKeys, index + 1, packedSize - index)
+    System.arraycopy(packedValues, index, packedValues, index + 1, packedSize - index)
+    packedKeys[index] = packed
+    packedValues[index] = value
+    packedSize++
+  }
+
+  private fun removeAt(index: Int) {
+    System.arraycopy(packedKeys, index + 1, packedKeys, index, packedSize - index - 1)
+    System.arraycopy(packedValues, index + 1, packedValues, index, packedSize - index - 1)
+    packedSize--
+    packedValues[packedSize] = null
+  }
+
+  private inner class EntrySet : AbstractMutableSet<MutableMap.MutableEntry<KeyStroke, V>>() {
+    override val size: Int
+      get() = this@PackedKeyMap.size
+
+    override fun add(element: MutableMap.MutableEntry<KeyStroke, V>): Boolean = throw UnsupportedOperationException()
+
+    override fun iterator(): MutableIterator<MutableMap.MutableEntry<KeyStroke, V>> = EntryIterator()
+  }
+
+  /**
+   * Iterates over the packed keys, in the order of their packed ints, and then over the keys that aren't packed
+   */
+  private inner class EntryIterator : MutableIterator<MutableMap.MutableEntry<KeyStroke, V>> {
+    private var index = 0
+    private var lastIndex = -1
+    private val unpackedIterator = unpackedEntries?.entries?.iterator()
+
+    override fun hasNext(): Boolean = index < packedSize || unpackedIterator?.hasNext() == true
+
+    override fun next(): MutableMap.MutableEntry<KeyStroke, V> {
+      if (index < packedSize) {
+        lastIndex = index
+        return PackedEntry(index++)
+      }
+      lastIndex = -1
+      return unpackedIterator?.next() ?: throw NoSuchElementException()
+    }
+
+    override fun remove() {
+      if (lastIndex >= 0) {
+        removeAt(lastIndex)
+        index = lastIndex
+        lastIndex = -1
+      } else {
+        unpackedIterator?.remove() ?: throw IllegalStateException()
+      }
+    }
+  }
+
+  private inner class PackedEntry(private val index: Int) : MutableMap.MutableEntry<KeyStroke, V> {
+    override val key: KeyStroke = PackedKeys.unpack(packedKeys[index])
+    override val value: V
+      get() = valueAt(index)
+
+    override fun setValue(newValue: V): V {
+      val old = valueAt(index)
+      packedValues[index] = newValue
+      return old
+    }
+
+    override fun equals(other: Any?): Boolean = other is Map.Entry<*, *> && key == other.key && value == other.value
+
+    override fun hashCode(): Int = key.hashCode() xor (value?.hashCode() ?: 0)
+
+    override fun toString(): String = "$key=$value"
+  }
+}
@@ -17,6 +17,7 @@ import com.maddyhome.idea.vim.diagnostic.debug
 import com.maddyhome.idea.vim.diagnostic.trace
 import com.maddyhome.idea.vim.diagnostic.vimLogger
 import com.maddyhome.idea.vim.key.KeyConsumer
+import com.maddyhome.idea.vim.state.mode.Mode
 import java.awt.event.KeyEvent
 import javax.swing.KeyStroke
 
@@ -25,6 +26,10 @@ class CharArgumentConsumer: KeyConsumer {
     private val logger = vimLogger<CharArgumentConsumer>()
   }
 
+  override fun isApplicable(mode: Mode, isExpectingCharArgument: Boolean, isRegisterPending: Boolean): Boolean {
+    return isExpectingCharArgument
+  }
+
   override fun consumeKey(
     key: KeyStroke,
     editor: VimEditor,
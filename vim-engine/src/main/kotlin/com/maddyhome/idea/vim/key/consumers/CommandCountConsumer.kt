@@ -24,6 +24,12 @@ class CommandCountConsumer : KeyConsumer {
     private val logger = vimLogger<CommandCountConsumer>()
   }
 
+  override fun isApplicable(mode: Mode, isExpectingCharArgument: Boolean, isRegisterPending: Boolean): Boolean {
+    // A count is only expected before a command, see CommandBuilder.isExpectingCount
+    return (mode is Mode.NORMAL || mode is Mode.VISUAL || mode is Mode.OP_PENDING) &&
+      !isExpectingCharArgument && !isRegisterPending
+  }
+
   override fun consumeKey(
     key: KeyStroke,
     editor: VimEditor,
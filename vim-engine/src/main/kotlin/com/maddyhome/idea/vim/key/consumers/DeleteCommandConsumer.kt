@@ -23,6 +23,11 @@ class DeleteCommandConsumer : KeyConsumer {
     private val logger = vimLogger<DeleteCommandConsumer>()
   }
 
+  override fun isApplicable(mode: Mode, isExpectingCharArgument: Boolean, isRegisterPending: Boolean): Boolean {
+    return (mode is Mode.NORMAL || mode is Mode.VISUAL || mode is Mode.OP_PENDING) &&
+      !isExpectingCharArgument && !isRegisterPending
+  }
+
   override fun consumeKey(
     key: KeyStroke,
     editor: VimEditor,
@@ -28,6 +28,10 @@ class EditorResetConsumer : KeyConsumer {
     private val logger = vimLogger<EditorResetConsumer>()
   }
 
+  override fun isApplicable(mode: Mode, isExpectingCharArgument: Boolean, isRegisterPending: Boolean): Boolean {
+    return mode is Mode.NORMAL
+  }
+
   override fun consumeKey(
     key: KeyStroke,
     editor: VimEditor,
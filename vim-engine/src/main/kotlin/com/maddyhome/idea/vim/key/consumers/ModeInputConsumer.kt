@@ -23,6 +23,10 @@ class ModeInputConsumer: KeyConsumer {
     private val logger = vimLogger<ModeInputConsumer>()
   }
 
+  override fun isApplicable(mode: Mode, isExpectingCharArgument: Boolean, isRegisterPending: Boolean): Boolean {
+    return mode == Mode.INSERT || mode == Mode.REPLACE || mode is Mode.SELECT || mode is Mode.CMD_LINE
+  }
+
   override fun consumeKey(
     key: KeyStroke,
     editor: VimEditor,
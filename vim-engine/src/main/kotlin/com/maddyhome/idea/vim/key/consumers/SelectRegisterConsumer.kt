@@ -23,6 +23,10 @@ class SelectRegisterConsumer : KeyConsumer {
     private val logger = vimLogger<SelectRegisterConsumer>()
   }
 
+  override fun isApplicable(mode: Mode, isExpectingCharArgument: Boolean, isRegisterPending: Boolean): Boolean {
+    return mode is Mode.NORMAL || mode is Mode.VISUAL
+  }
+
   override fun consumeKey(
     key: KeyStroke,
     editor: VimEditor,
@@ -0,0 +1,246 @@
+/*
+ * Copyright 2003-2023 The IdeaVim authors
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE.txt file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.maddyhome.idea.vim.key.notation
+
+import java.awt.event.InputEvent
+import java.awt.event.KeyEvent
+import java.util.*
+
+/**
+ * The key notation of Vim, such as `<C-W>` or `<Esc>`, and the packed ints of the keys that it stands for
+ *
+ * A packed key is a typed key, with its char, or a pressed key, with its key code, in the low 16 bits. The modifiers
+ * are kept in the next 14 bits, and bit 30 is set for a typed key. See [com.maddyhome.idea.vim.key.PackedKeys].
+ *
+ * This file is also compiled into the annotation processors, which write the keys of the commands as packed ints, so
+ * that they aren't parsed when the plugin starts. So it must only depend on the JDK.
+ */
+object KeyNotation {
+  const val TYPED: Int = 1 shl 30
+  const val VALUE_MASK: Int = 0xFFFF
+  const val MODIFIERS_SHIFT: Int = 16
+  const val MODIFIERS_MASK: Int = 0x3FFF
+
+  const val VK_PLUG: Int = KeyEvent.CHAR_UNDEFINED.code - 1
+  const val VK_ACTION: Int = KeyEvent.CHAR_UNDEFINED.code - 2
+
+  private const val CMD_PREFIX = "d-"
+  private const val META_PREFIX = "m-"
+  private const val ALT_PREFIX = "a-"
+  private const val CTRL_PREFIX = "c-"
+  private const val SHIFT_PREFIX = "s-"
+
+  fun packTyped(c: Char, modifiers: Int = 0): Int = TYPED or (modifiers shl MODIFIERS_SHIFT) or c.code
+
+  fun packPressed(keyCode: Int, modifiers: Int = 0): Int = (modifiers shl MODIFIERS_SHIFT) or keyCode
+
+  /**
+   * Packs the key of a char of a string. Control chars are packed as the control key of the letter, except for \t and
+   * \n
+   */
+  fun packChar(c: Char): Int {
+    return when {
+      // J is a special case, its key code is 0 because key code 10 is reserved by \n
+      c.code == 0 -> packPressed('J'.code, InputEvent.CTRL_DOWN_MASK)
+      c == '\t' || c == '\n' -> packTyped(c)
+      c < ' ' -> packPressed(c.code + 'A'.code - 1, InputEvent.CTRL_DOWN_MASK)
+      else -> packTyped(c)
+    }
+  }
+
+  /**
+   * Packs the keys of a string in key notation, e.g. `<C-W>j`
+   *
+   * @param notation  The keys
+   * @param getLeader Returns the keys of `<Leader>`, as plain text
+   * @throws IllegalArgumentException If the keys use `<SID>`
+   */
+  fun packKeys(notation: String, getLeader: () -> String): IntArray {
+    val result = ArrayList<Int>(notation.length)
+    var specialKeyStart = '<'
+    var state = State.INIT
+    var specialKeyBuilder = StringBuilder()
+    for (element in notation) {
+      when (state) {
+        State.INIT -> when (element) {
+          '\\' -> state = State.ESCAPE
+          '<', '«' -> {
+            specialKeyStart = element
+            state = State.SPECIAL
+            specialKeyBuilder = StringBuilder()
+          }
+          else -> {
+            val key = if (element == '\t' || element == '\n') {
+              packPressed(element.code)
+            } else if (element < ' ') {
+              packPressed(element.code + 'A'.code - 1, InputEvent.CTRL_DOWN_MASK)
+            } else {
+              packTyped(element)
+            }
+            result.add(key)
+          }
+        }
+        State.ESCAPE -> {
+          state = State.INIT
+          if (element != '\\') {
+            result.add(packTyped('\\'))
+          }
+          result.add(packTyped(element))
+        }
+        State.SPECIAL -> if (element == '>' || element == '»') {
+          state = State.INIT
+          val specialKeyName = specialKeyBuilder.toString()
+          val lower = specialKeyName.lowercase(Locale.getDefault())
+          require("sid" != lower) { "<$specialKeyName> is not supported" }
+          if ("comma" == lower) {
+            result.add(packTyped(','))
+          } else if ("leader" == lower) {
+            getLeader().forEach { result.add(packChar(it)) }
+          } else if ("nop" != lower) {
+            val specialKey = packSpecialKey(specialKeyName, 0)
+            if (specialKey != null && specialKeyName.length > 1) {
+              result.add(specialKey)
+            } else {
+              result.add(packTyped('<'))
+              specialKeyName.forEach { result.add(packChar(it)) }
+              result.add(packTyped('>'))
+            }
+          }
+        } else {
+          // e.g. move '<-2<CR> - the first part does not belong to any special key
+          if (element == '<' || element == '«') {
+            result.add(packTyped(specialKeyStart))
+            specialKeyBuilder.forEach { result.add(packChar(it)) }
+            specialKeyBuilder = StringBuilder()
+          } else {
+            specialKeyBuilder.append(element)
+          }
+        }
+      }
+    }
+    if (state == State.ESCAPE) {
+      result.add(packTyped('\\'))
+    } else if (state == State.SPECIAL) {
+      result.add(packTyped(specialKeyStart))
+      specialKeyBuilder.forEach { result.add(packChar(it)) }
+    }
+    return result.toIntArray()
+  }
+
+  /**
+   * Packs the key of a special key name, such as `C-W` or `Esc`, or returns null if the name isn't one
+   */
+  fun packSpecialKey(name: String, modifiers: Int): Int? {
+    val lower = name.lowercase(Locale.getDefault())
+    val keyCode = getKeyCode(lower)
+    val typedChar = getTypedChar(lower)
+    return if (keyCode != null) {
+      packPressed(keyCode, modifiers)
+    } else if (typedChar != null) {
+      packTypedOrPressed(typedChar, modifiers)
+    } else if (lower.startsWith(CMD_PREFIX)) {
+      packSpecialKey(name.substring(CMD_PREFIX.length), modifiers or InputEvent.META_DOWN_MASK)
+    } else if (lower.startsWith(META_PREFIX)) {
+      // Meta and alt prefixes are the same thing. See the key notation of vim
+      packSpecialKey(name.substring(META_PREFIX.length), modifiers or InputEvent.ALT_DOWN_MASK)
+    } else if (lower.startsWith(ALT_PREFIX)) {
+      packSpecialKey(name.substring(ALT_PREFIX.length), modifiers or InputEvent.ALT_DOWN_MASK)
+    } else if (lower.startsWith(CTRL_PREFIX)) {
+      packSpecialKey(name.substring(CTRL_PREFIX.length), modifiers or InputEvent.CTRL_DOWN_MASK)
+    } else if (lower.startsWith(SHIFT_PREFIX)) {
+      packSpecialKey(name.substring(SHIFT_PREFIX.length), modifiers or InputEvent.SHIFT_DOWN_MASK)
+    } else if (name.length == 1) {
+      packTypedOrPressed(name[0], modifiers)
+    } else {
+      null
+    }
+  }
+
+  private fun packTypedOrPressed(c: Char, modifiers: Int): Int {
+    return if (modifiers == 0) {
+      packTyped(c)
+    } else if (modifiers == InputEvent.SHIFT_DOWN_MASK && Character.isLetter(c)) {
+      packTyped(Character.toUpperCase(c))
+    } else {
+      packPressed(Character.toUpperCase(c).code, modifiers)
+    }
+  }
+
+  /**
+   * Returns the key code of a special key name in lower case, such as `esc`, or null if it isn't one
+   */
+  fun getKeyCode(lower: String): Int? {
+    return when (lower) {
+      "cr", "enter", "return" -> KeyEvent.VK_ENTER
+      "ins", "insert" -> KeyEvent.VK_INSERT
+      "home" -> KeyEvent.VK_HOME
+      "end" -> KeyEvent.VK_END
+      "pageup" -> KeyEvent.VK_PAGE_UP
+      "pagedown" -> KeyEvent.VK_PAGE_DOWN
+      "del", "delete" -> KeyEvent.VK_DELETE
+      "esc" -> KeyEvent.VK_ESCAPE
+      "bs", "backspace" -> KeyEvent.VK_BACK_SPACE
+      "tab" -> KeyEvent.VK_TAB
+      "up" -> KeyEvent.VK_UP
+      "down" -> KeyEvent.VK_DOWN
+      "left" -> KeyEvent.VK_LEFT
+      "right" -> KeyEvent.VK_RIGHT
+      "f1" -> KeyEvent.VK_F1
+      "f2" -> KeyEvent.VK_F2
+      "f3" -> KeyEvent.VK_F3
+      "f4" -> KeyEvent.VK_F4
+      "f5" -> KeyEvent.VK_F5
+      "f6" -> KeyEvent.VK_F6
+      "f7" -> KeyEvent.VK_F7
+      "f8" -> KeyEvent.VK_F8
+      "f9" -> KeyEvent.VK_F9
+      "f10" -> KeyEvent.VK_F10
+      "f11" -> KeyEvent.VK_F11
+      "f12" -> KeyEvent.VK_F12
+      "plug" -> VK_PLUG
+      "action" -> VK_ACTION
+      "k0" -> KeyEvent.VK_NUMPAD0
+      "k1" -> KeyEvent.VK_NUMPAD1
+      "k2" -> KeyEvent.VK_NUMPAD2
+      "k3" -> KeyEvent.VK_NUMPAD3
+      "k4" -> KeyEvent.VK_NUMPAD4
+      "k5" -> KeyEvent.VK_NUMPAD5
+      "k6" -> KeyEvent.VK_NUMPAD6
+      "k7" -> KeyEvent.VK_NUMPAD7
+      "k8" -> KeyEvent.VK_NUMPAD8
+      "k9" -> KeyEvent.VK_NUMPAD9
+      "khome" -> KeyEvent.VK_HOME
+      "kend" -> KeyEvent.VK_END
+      "kdown" -> KeyEvent.VK_KP_DOWN
+      "kup" -> KeyEvent.VK_KP_UP
+      "kleft" -> KeyEvent.VK_KP_LEFT
+      "kright" -> KeyEvent.VK_KP_RIGHT
+      "undo" -> KeyEvent.VK_UNDO
+      else -> null
+    }
+  }
+
+  /**
+   * Returns the char of a special key name in lower case that stands for a typed char, such as `space`, or null if it
+   * isn't one
+   */
+  fun getTypedChar(lower: String): Char? {
+    return when (lower) {
+      "space" -> ' '
+      "bar" -> '|'
+      "bslash" -> '\\'
+      "lt" -> '<'
+      else -> null
+    }
+  }
+
+  private enum class State {
+    INIT, ESCAPE, SPECIAL
+  }
+}
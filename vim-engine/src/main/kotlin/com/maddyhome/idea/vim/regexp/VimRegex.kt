@@ -23,6 +23,8 @@ import com.maddyhome.idea.vim.api.VimScrollingModel
 import com.maddyhome.idea.vim.api.VimSelectionModel
 import com.maddyhome.idea.vim.api.VimVisualPosition
 import com.maddyhome.idea.vim.api.VirtualFile
+import com.maddyhome.idea.vim.api.injector
+import com.maddyhome.idea.vim.api.isInjectorInitialized
 import com.maddyhome.idea.vim.common.LiveRange
 import com.maddyhome.idea.vim.common.TextRange
 import com.maddyhome.idea.vim.common.VimEditorReplaceMask
@@ -30,12 +32,11 @@ import com.maddyhome.idea.vim.ex.ExException
 import com.maddyhome.idea.vim.helper.noneOfEnum
 import com.maddyhome.idea.vim.regexp.engine.VimRegexEngine
 import com.maddyhome.idea.vim.regexp.engine.nfa.NFA
-import com.maddyhome.idea.vim.regexp.engine.nfa.matcher.DotMatcher
+import com.maddyhome.idea.vim.regexp.engine.parallel.ParallelLineSearch
+import com.maddyhome.idea.vim.regexp.engine.prefilter.LiteralPrefilter
+import com.maddyhome.idea.vim.regexp.engine.prefilter.LiteralScanner
 import com.maddyhome.idea.vim.regexp.match.VimMatchResult
 import com.maddyhome.idea.vim.regexp.parser.CaseSensitivitySettings
-import com.maddyhome.idea.vim.regexp.parser.VimRegexParser
-import com.maddyhome.idea.vim.regexp.parser.VimRegexParserResult
-import com.maddyhome.idea.vim.regexp.parser.visitors.PatternVisitor
 import com.maddyhome.idea.vim.state.mode.Mode
 import com.maddyhome.idea.vim.state.mode.SelectionType
 import java.util.*
@@ -44,10 +45,20 @@ import java.util.*
  * Represents a compiled Vim pattern. Provides methods to
  * match, replace and split strings in the editor with a pattern.
  *
+ * Compiled patterns are shared through [VimRegexCache], so creating
+ * a VimRegex for a recently used pattern is cheap.
+ *
+ * @param pattern          The pattern to compile
+ * @param checkInterrupted Called from time to time while searching, it throws to stop a search that was interrupted.
+ *                         By default, the search stops when the IDE cancels the operation that runs it
+ *
  * @see :help /pattern
  *
  */
-class VimRegex(pattern: String) {
+class VimRegex @JvmOverloads constructor(
+  pattern: String,
+  private val checkInterrupted: () -> Unit = CHECK_CANCELED,
+) {
   /**
    * TODO: in my opinion only the find() and findAll() methods are necessary.
    *
@@ -78,18 +89,53 @@ class VimRegex(pattern: String) {
    */
   private val hasUpperCase: Boolean
 
+  /**
+   * A literal that every match contains, if the pattern has one
+   */
+  private val prefilter: LiteralPrefilter?
+
+  /**
+   * Whether every match fits in one line and only depends on the text. The matches of each line of such a pattern can
+   * be found on their own, without the rest of the text
+   */
+  val isLineLocal: Boolean
+
+  /**
+   * The only string that the pattern matches, if it only matches a literal string
+   */
+  private val literal: String?
+
+  /**
+   * Whether the matches of the pattern depend on more than the text, e.g. on the cursor, the marks or the visual area
+   * of the editor, or on the groups captured before. The matches of such a pattern can't be reused for another editor
+   */
+  val isPathDependent: Boolean
+    get() = nfa.hasPathDependentMatcher
+
   init {
-    val parseResult = VimRegexParser.parse(pattern)
-
-    when (parseResult) {
-      is VimRegexParserResult.Failure -> throw VimRegexException(parseResult.errorCode.toString())
-      is VimRegexParserResult.Success -> {
-        nfa = PatternVisitor.visit(parseResult.tree)
-        hasUpperCase = PatternVisitor.hasUpperCase
-        nonExactNFA = NFA.fromMatcher(DotMatcher(false)).closure(false).concatenate(nfa)
-        caseSensitivitySettings = parseResult.caseSensitivitySettings
-      }
-    }
+    val compiledPattern = VimRegexCache.getOrCompile(pattern)
+    nfa = compiledPattern.nfa
+    nonExactNFA = compiledPattern.nonExactNFA
+    hasUpperCase = compiledPattern.hasUpperCase
+    caseSensitivitySettings = compiledPattern.caseSensitivitySettings
+    prefilter = compiledPattern.prefilter
+    isLineLocal = compiledPattern.isLineLocal
+    literal = compiledPattern.literal
+  }
+
+  /**
+   * Whether every match of this pattern contains a match of the other pattern, with the same case options
+   *
+   * This is only known when both patterns match a literal string with the same `\c` or `\C` setting, and the string
+   * of this pattern contains the one of the other pattern. The text without a match of the other pattern then can't
+   * have a match of this pattern either.
+   *
+   * @param other The other pattern
+   */
+  fun isNarrowerThan(other: VimRegex): Boolean {
+    val literal = literal ?: return false
+    val otherLiteral = other.literal ?: return false
+    return caseSensitivitySettings == other.caseSensitivitySettings && literal.contains(otherLiteral)
   }
 
   /**
@@ -103,9 +149,15 @@ class VimRegex(pattern: String) {
     editor: VimEditor,
     options: EnumSet<VimRegexOptions> = noneOfEnum()
   ): Boolean {
-    for (line in 0 until editor.lineCount()) {
-      val result = simulateNonExactNFA(editor, editor.getLineStartOffset(line), options)
+    val scanner = literalScanner(editor, options)
+    var line = 0
+    while (line < editor.lineCount()) {
+      checkInterrupted()
+      val index = skipToCandidate(editor, scanner, editor.getLineStartOffset(line))
+      if (index < 0) break
+      val result = simulateNonExactNFA(editor, index, options)
       if (result is VimMatchResult.Success) return true
+      line = editor.offsetToBufferPosition(index).line + 1
     }
 
     /**
@@ -145,8 +197,12 @@ class VimRegex(pattern: String) {
      else startIndex
 
     val lineStartIndex = editor.getLineStartOffset(editor.offsetToBufferPosition(newStartIndex).line)
+    val scanner = literalScanner(editor, options)
     var index = lineStartIndex
     while (index <= editor.text().length) {
+      checkInterrupted()
+      index = skipToCandidate(editor, scanner, index)
+      if (index < 0) break
       val result = simulateNonExactNFA(editor, index, options)
       index = when (result) {
         is VimMatchResult.Success -> {
@@ -200,15 +256,25 @@ class VimRegex(pattern: String) {
     options: EnumSet<VimRegexOptions> = noneOfEnum()
   ): VimMatchResult {
     val startLine = editor.offsetToBufferPosition(startIndex).line
-    val result = findLastMatchInLine(editor, startLine, startIndex - 1, options)
+    val scanner = literalScanner(editor, options)
+    val result = if (canMatchInLine(editor, startLine, startIndex - 1, options)) {
+      findLastMatchInLine(editor, startLine, startIndex - 1, options, scanner)
+    } else {
+      VimMatchResult.Failure(VimRegexErrors.E486)
+    }
     if (result is VimMatchResult.Success && result.range.startOffset < startIndex) {
         // there is a match at this line that starts before the startIndex
         return result
     } else {
-      // try searching in previous lines, line by line until the start of the buffer
-      for (currentLine in startLine - 1 downTo 0) {
-          val previous = findLastMatchInLine(editor, currentLine, options=options)
-          if (previous is VimMatchResult.Success) return previous
+      // try searching in previous lines until the start of the buffer, skipping the lines where no match can start
+      var currentLine = previousCandidateLine(editor, scanner, startLine - 1)
+      while (currentLine >= 0) {
+          checkInterrupted()
+          if (canMatchInLine(editor, currentLine, options = options)) {
+            val previous = findLastMatchInLine(editor, currentLine, options = options, scanner = scanner)
+            if (previous is VimMatchResult.Success) return previous
+          }
+          currentLine = previousCandidateLine(editor, scanner, currentLine - 1)
       }
       // there are no matches in the entire file
       return VimMatchResult.Failure(VimRegexErrors.E486)
@@ -223,12 +289,41 @@ class VimRegex(pattern: String) {
     return findPrevious(VimEditorWrapper(text), startIndex, options)
   }
 
+  /**
+   * Checks whether a match can start at line, at or before maxIndex, by scanning the line backward with the
+   * [ReverseLineScanner] of the NFA. The lines without a match are then skipped without simulating the NFA from their
+   * start, which would run on to the next match, lines later. Only the line with the match is searched forward, since
+   * the last match of a line is the last one of the matches found from its start, that don't overlap.
+   *
+   * @return False if no match can start there, or true if one can, or if the NFA can't be scanned backward
+   */
+  private fun canMatchInLine(
+    editor: VimEditor,
+    line: Int,
+    maxIndex: Int = editor.getLineEndOffset(line),
+    options: EnumSet<VimRegexOptions>,
+  ): Boolean {
+    val reverseScanner = nfa.reverseLineScanner ?: return true
+    val lineStart = editor.getLineStartOffset(line)
+    if (maxIndex < lineStart) return false
+    val lastStart = reverseScanner.findLastStart(
+      editor,
+      lineStart,
+      editor.getLineEndOffset(line),
+      maxIndex,
+      shouldIgnoreCase(options),
+      checkInterrupted,
+    )
+    return lastStart >= 0
+  }
+
   /**
    * Finds the last match that starts at line, before maxIndex
    *
    * @param editor The editor where to look for the match in
    * @param line   The where the match should start
    * @param maxIndex The maximum index (exclusive) where the match should start
+   * @param scanner The scanner of the literal prefilter, or null if the pattern doesn't have one
    *
    * @return The last match found, if any
    */
@@ -236,12 +331,16 @@ class VimRegex(pattern: String) {
     editor: VimEditor,
     line: Int,
     maxIndex: Int = editor.getLineEndOffset(line),
-    options: EnumSet<VimRegexOptions>
+    options: EnumSet<VimRegexOptions>,
+    scanner: LiteralScanner? = null,
   ): VimMatchResult {
     var index = editor.getLineStartOffset(line)
     var prevResult: VimMatchResult = VimMatchResult.Failure(VimRegexErrors.E486)
     val returnEndPosition = options.contains(VimRegexOptions.WANT_END_POSITION)
     while (index <= maxIndex) {
+      checkInterrupted()
+      index = skipToCandidate(editor, scanner, index, maxIndex + 1)
+      if (index < 0) break
       val result = simulateNonExactNFA(editor, index, options)
       when (result) {
         // no more matches in this line, break out of the loop
@@ -264,6 +363,9 @@ class VimRegex(pattern: String) {
    * Returns a sequence of all occurrences of a pattern within
    * the editor, beginning at the specified index
    *
+   * Large texts are split into chunks of lines that are searched concurrently, when none of the matches can span
+   * more than one line.
+   *
    * @param editor     The editor where to look for the match in
    * @param startIndex The index to start the find
    *
@@ -275,17 +377,82 @@ class VimRegex(pattern: String) {
     maxIndex: Int = editor.text().length,
     options: EnumSet<VimRegexOptions> = noneOfEnum()
   ): List<VimMatchResult.Success> {
+    if (isLineLocal && ParallelLineSearch.isWorthIt(startIndex, maxIndex)) {
+      // The chunks are searched on other threads, which must not use the editor, only a snapshot of its text
+      val text = editor.text()
+      return ParallelLineSearch.search(text, startIndex, maxIndex, checkInterrupted) { chunkStart, chunkEnd, checkStopped ->
+        findAllInRange(VimEditorWrapper(text), chunkStart, chunkEnd, options, checkStopped)
+      }
+    }
+    return findAllInRange(editor, startIndex, maxIndex, options, checkInterrupted)
+  }
+
+  internal fun findAll(
+    text: String,
+    startIndex: Int = 0,
+    maxIndex: Int = text.length,
+    options: EnumSet<VimRegexOptions> = noneOfEnum()
+  ): List<VimMatchResult.Success> {
+    return findAll(VimEditorWrapper(text), startIndex, maxIndex, options)
+  }
+
+  /**
+   * Finds all the matches that start between startIndex and maxIndex, in the calling thread
+   */
+  private fun findAllInRange(
+    editor: VimEditor,
+    startIndex: Int,
+    maxIndex: Int,
+    options: EnumSet<VimRegexOptions>,
+    checkInterrupted: () -> Unit,
+  ): List<VimMatchResult.Success> {
+    return findAllLazily(editor, startIndex, maxIndex, options, checkInterrupted).toList()
+  }
+
+  /**
+   * Returns all occurrences of a pattern within the editor, beginning at the specified index, as a sequence that only
+   * looks for the next match when it is needed. Unlike [findAll], the caller can stop early, for example when it only
+   * needs the first few matches, without searching the rest of the editor or keeping all the matches in memory.
+   *
+   * The sequence reads the editor while it is iterated, so it must be iterated before the editor changes. It finds
+   * the same matches as [findAll], in the same order.
+   *
+   * @param editor     The editor where to look for the match in
+   * @param startIndex The index to start the find
+   * @param maxIndex   The index where the find stops. Matches must start before it
+   *
+   * @return A sequence of the matches found in the editor
+   */
+  fun findAllLazily(
+    editor: VimEditor,
+    startIndex: Int = 0,
+    maxIndex: Int = editor.text().length,
+    options: EnumSet<VimRegexOptions> = noneOfEnum()
+  ): Sequence<VimMatchResult.Success> {
+    return findAllLazily(editor, startIndex, maxIndex, options, checkInterrupted)
+  }
+
+  private fun findAllLazily(
+    editor: VimEditor,
+    startIndex: Int,
+    maxIndex: Int,
+    options: EnumSet<VimRegexOptions>,
+    checkInterrupted: () -> Unit,
+  ): Sequence<VimMatchResult.Success> = sequence {
     var index = startIndex
-    val foundMatches: MutableList<VimMatchResult.Success> = emptyList<VimMatchResult.Success>().toMutableList()
+    val scanner = literalScanner(editor, options, checkInterrupted)
     while (index < maxIndex) {
-      val result = simulateNonExactNFA(editor, index, options)
+      checkInterrupted()
+      index = skipToCandidate(editor, scanner, index, maxIndex)
+      if (index < 0) break
+      val result = simulateNonExactNFA(editor, index, options, checkInterrupted)
       when (result) {
         /**
-         * A match was found, add it to foundMatches and increment
+         * A match was found, yield it and increment
          * next index accordingly
          */
         is VimMatchResult.Success -> {
-          foundMatches.add(result)
+          yield(result)
           index = if (result.range.startOffset == result.range.endOffset) result.range.endOffset + 1
           else result.range.endOffset
         }
@@ -294,22 +461,21 @@ class VimRegex(pattern: String) {
          * No match found starting on this index, try searching on next line
          */
         is VimMatchResult.Failure -> {
-          val nextLine = editor.offsetToBufferPosition(index).line + 1
-          if (nextLine >= editor.lineCount()) break
-          index = editor.getLineStartOffset(nextLine)
+          val lineEnd = editor.text().indexOf('\n', index)
+          if (lineEnd < 0) break
+          index = lineEnd + 1
         }
       }
     }
-    return foundMatches
   }
 
-  internal fun findAll(
+  internal fun findAllLazily(
     text: String,
     startIndex: Int = 0,
     maxIndex: Int = text.length,
     options: EnumSet<VimRegexOptions> = noneOfEnum()
-  ): List<VimMatchResult.Success> {
-    return findAll(VimEditorWrapper(text), startIndex, maxIndex, options)
+  ): Sequence<VimMatchResult.Success> {
+    return findAllLazily(VimEditorWrapper(text), startIndex, maxIndex, options)
   }
 
   /**
@@ -366,6 +532,21 @@ class VimRegex(pattern: String) {
     }
   }
 
+  /**
+   * Builds the string that would substitute a match that was already found, e.g. to preview a substitution
+   *
+   * @param match                A match of this pattern
+   * @param substituteString     The string used for substitution. Can contain characters with a special meaning
+   * @param lastSubstituteString The substitution string lastly used.
+   */
+  fun substitute(
+    match: VimMatchResult.Success,
+    substituteString: String,
+    lastSubstituteString: String,
+  ): String {
+    return buildSubstituteString(match, substituteString, lastSubstituteString)
+  }
+
   private fun buildSubstituteString(
     matchResult: VimMatchResult.Success,
     substituteString: String,
@@ -565,20 +746,82 @@ class VimRegex(pattern: String) {
    * @return The resulting match result
    */
   private fun simulateNFA(editor: VimEditor, index: Int = 0, options: EnumSet<VimRegexOptions>): VimMatchResult {
-    return VimRegexEngine.simulate(nfa, editor, index, shouldIgnoreCase(options))
+    return VimRegexEngine.simulate(nfa, editor, index, shouldIgnoreCase(options), checkInterrupted)
   }
 
   /**
    * Simulates the internal non-exact NFA with the determined flags,
    * started on a given index.
    *
-   * @param editor The editor that is used for the simulation
-   * @param index  The index where the simulation should start
+   * @param editor           The editor that is used for the simulation
+   * @param index            The index where the simulation should start
+   * @param checkInterrupted Throws if the simulation should stop
    *
    * @return The resulting match result
    */
-  private fun simulateNonExactNFA(editor: VimEditor, index: Int = 0, options: EnumSet<VimRegexOptions>): VimMatchResult {
-    return VimRegexEngine.simulate(nonExactNFA, editor, index, shouldIgnoreCase(options))
+  private fun simulateNonExactNFA(
+    editor: VimEditor,
+    index: Int = 0,
+    options: EnumSet<VimRegexOptions>,
+    checkInterrupted: () -> Unit = this.checkInterrupted,
+  ): VimMatchResult {
+    return VimRegexEngine.simulate(nonExactNFA, editor, index, shouldIgnoreCase(options), checkInterrupted)
+  }
+
+  /**
+   * Creates a scanner for the literal prefilter of the pattern, if it has one
+   */
+  private fun literalScanner(
+    editor: VimEditor,
+    options: EnumSet<VimRegexOptions>,
+    checkInterrupted: () -> Unit = this.checkInterrupted,
+  ): LiteralScanner? {
+    return prefilter?.scanner(editor.text(), shouldIgnoreCase(options), checkInterrupted)
+  }
+
+  /**
+   * Skips the text that can't contain a match, according to the literal prefilter. Simulating the non-exact NFA from
+   * the returned index, and then from the start of each following line, finds the same matches as doing so from index.
+   *
+   * @param editor   The editor where to look for the match in
+   * @param scanner  The scanner of the literal prefilter, or null if the pattern doesn't have one
+   * @param index    The index where the simulation would start
+   * @param maxIndex The index where the search stops
+   *
+   * @return The index where the simulation should start, or -1 if no match can be found before maxIndex
+   */
+  private fun skipToCandidate(
+    editor: VimEditor,
+    scanner: LiteralScanner?,
+    index: Int,
+    maxIndex: Int = editor.text().length,
+  ): Int {
+    if (scanner == null) return index
+    val candidate = scanner.nextCandidate(index)
+    if (candidate < 0) return -1
+    if (candidate < maxIndex) return candidate
+
+    // A simulation started before maxIndex can still find a match that starts after it, on the same line
+    val lineStart = editor.text().lastIndexOf('\n', candidate - 1) + 1
+    val newIndex = maxOf(index, lineStart)
+    return if (newIndex < maxIndex) newIndex else -1
+  }
+
+  /**
+   * Finds the last line, at or before the given line, where a match can start according to the literal prefilter.
+   * The text is searched backward, so the lines in between are skipped without simulating anything.
+   *
+   * @param editor  The editor where to look for the match in
+   * @param scanner The scanner of the literal prefilter, or null if the pattern doesn't have one
+   * @param line    The last line where a match could start
+   *
+   * @return The line where a match can start, or -1 if there are none
+   */
+  private fun previousCandidateLine(editor: VimEditor, scanner: LiteralScanner?, line: Int): Int {
+    if (scanner == null || line < 0) return line
+    val candidate = scanner.previousCandidate(editor.getLineEndOffset(line))
+    if (candidate < 0) return -1
+    return minOf(line, editor.offsetToBufferPosition(candidate).line)
   }
 
   /**
@@ -593,7 +836,14 @@ class VimRegex(pattern: String) {
     }
   }
 
-  private class VimEditorWrapper(private val text: String): VimEditorBase() {
+  companion object {
+    /**
+     * The default interrupt check of a search, that stops it when the IDE cancels the operation that runs it
+     */
+    val CHECK_CANCELED: () -> Unit = { if (isInjectorInitialized()) injector.application.checkCanceled() }
+  }
+
+  private class VimEditorWrapper(private val text: CharSequence): VimEditorBase() {
     override fun updateMode(mode: Mode) {
       TODO("Not yet implemented")
     }
@@ -725,7 +975,8 @@ class VimRegex(pattern: String) {
         if (currentLine == line) return index
         if (text[index] == '\n') currentLine++
       }
-      return if (line == 0) 0 else -1
+      // the last line is empty when the text ends with a new line (or is empty), and starts at the end of the text
+      return if (line == currentLine) text.length else -1
     }
 
     override fun getLineEndOffset(line: Int): Int {
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2003-2023 The IdeaVim authors
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE.txt file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.maddyhome.idea.vim.regexp
+
+import com.maddyhome.idea.vim.regexp.engine.nfa.NFA
+import com.maddyhome.idea.vim.regexp.engine.nfa.matcher.DotMatcher
+import com.maddyhome.idea.vim.regexp.engine.parallel.ParallelLineSearch
+import com.maddyhome.idea.vim.regexp.engine.prefilter.LiteralPrefilter
+import com.maddyhome.idea.vim.regexp.parser.CaseSensitivitySettings
+import com.maddyhome.idea.vim.regexp.parser.VimRegexParser
+import com.maddyhome.idea.vim.regexp.parser.VimRegexParserResult
+import com.maddyhome.idea.vim.regexp.parser.visitors.PatternVisitor
+
+/**
+ * The result of parsing and compiling a Vim pattern. Once built, it is never
+ * modified, so it can be shared between any number of [VimRegex] instances.
+ *
+ * @param nfa                     The NFA representing the compiled pattern
+ * @param nonExactNFA             The NFA representing the compiled pattern, preceded by anything. Equivalent to ".*pattern"
+ * @param hasUpperCase            Whether the pattern contains any upper case literal character
+ * @param caseSensitivitySettings Case sensitivity settings determined by the parser
+ * @param prefilter               A literal that every match contains, used to skip text that can't match
+ * @param isLineLocal             Whether every match fits in one line and only depends on the text, so that the
+ *                                lines can be searched concurrently
+ * @param literal                 The only string that the pattern matches, if it only matches a literal string
+ */
+internal class CompiledPattern(
+  val nfa: NFA,
+  val nonExactNFA: NFA,
+  val hasUpperCase: Boolean,
+  val caseSensitivitySettings: CaseSensitivitySettings,
+  val prefilter: LiteralPrefilter?,
+  val isLineLocal: Boolean,
+  val literal: String?,
+) {
+  internal companion object {
+    /**
+     * Parses a pattern and builds its NFAs
+     *
+     * @param pattern The Vim pattern that is to be compiled
+     *
+     * @throws VimRegexException if the pattern can't be parsed
+     */
+    internal fun compile(pattern: String): CompiledPattern {
+      return when (val parseResult = VimRegexParser.parse(pattern)) {
+        is VimRegexParserResult.Failure -> throw VimRegexException(parseResult.errorCode.toString())
+        is VimRegexParserResult.Success -> {
+          // PatternVisitor is a stateful singleton, so it must not be used by two threads at once
+          synchronized(PatternVisitor) {
+            val nfa = PatternVisitor.visit(parseResult.tree)
+            val nonExactNFA = NFA.fromMatcher(DotMatcher(false)).closure(false).concatenate(nfa)
+            CompiledPattern(
+              nfa,
+              nonExactNFA,
+              PatternVisitor.hasUpperCase,
+              parseResult.caseSensitivitySettings,
+              LiteralPrefilter.fromNFA(nfa),
+              ParallelLineSearch.canSearch(nonExactNFA),
+              LiteralPrefilter.findLiteral(nfa),
+            )
+          }
+        }
+      }
+    }
+  }
+}
+
+/**
+ * A bounded, least recently used cache of compiled patterns.
+ *
+ * Searching, substituting, `:global` and highlighting all create a new [VimRegex] for the same pattern over and over
+ * again (on every keystroke with 'incsearch', for every visible editor with 'hlsearch', for every `n`...). Parsing the
+ * pattern and building its NFA is expensive, so the result is kept here and reused.
+ *
+ * The key is the pattern text only. Everything that affects compilation (magic level, `\c` and `\C`) is part of the
+ * pattern itself, while 'ignorecase' and 'smartcase' are applied when matching, so the same compiled pattern is valid
+ * for any combination of options.
+ *
+ * Patterns that fail to compile are not cached.
+ * This is a singleton.
+ */
+internal object VimRegexCache {
+  /**
+   * The maximum number of compiled patterns kept in the cache
+   */
+  internal const val MAX_SIZE: Int = 64
+
+  private val cache = object : LinkedHashMap<String, CompiledPattern>(MAX_SIZE, 0.75f, true) {
+    override fun removeEldestEntry(eldest: MutableMap.MutableEntry<String, CompiledPattern>?): Boolean {
+      return size > MAX_SIZE
+    }
+  }
+
+  /**
+   * The number of lookups that found an already compiled pattern
+   */
+  internal var hits: Long = 0
+    private set
+
+  /**
+   * The number of lookups that had to compile the pattern
+   */
+  internal var misses: Long = 0
+    private set
+
+  /**
+   * Returns the compiled pattern, compiling it and storing it in the cache if necessary
+   *
+   * @param pattern The Vim pattern
+   *
+   * @throws VimRegexException if the pattern can't be parsed
+   */
+  internal fun getOrCompile(pattern: String): CompiledPattern {
+    synchronized(cache) {
+      cache[pattern]?.let {
+        hits++
+        return it
+      }
+      misses++
+    }
+
+    // Compile outside the lock, we don't want to block other lookups while parsing
+    val compiled = CompiledPattern.compile(pattern)
+    synchronized(cache) {
+      return cache.getOrPut(pattern) { compiled }
+    }
+  }
+
+  internal val size: Int
+    get() = synchronized(cache) { cache.size }
+
+  internal fun clear() {
+    synchronized(cache) {
+      cache.clear()
+      hits = 0
+      misses = 0
+    }
+  }
+}
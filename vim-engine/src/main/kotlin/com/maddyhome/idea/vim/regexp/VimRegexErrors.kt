@@ -12,6 +12,11 @@ package com.maddyhome.idea.vim.regexp
  * Error codes related to Vim regular expressions
  */
 enum class VimRegexErrors {
+  /**
+   * Pattern uses more memory than 'maxmempattern'
+   */
+  E363,
+
   /**
    * Invalid search string
    */
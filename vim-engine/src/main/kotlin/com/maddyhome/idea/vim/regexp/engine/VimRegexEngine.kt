@@ -12,6 +12,8 @@ import com.maddyhome.idea.vim.api.VimEditor
 import com.maddyhome.idea.vim.regexp.VimRegexErrors
 import com.maddyhome.idea.vim.regexp.engine.nfa.NFA
 import com.maddyhome.idea.vim.regexp.engine.strategies.BacktrackingStrategy
+import com.maddyhome.idea.vim.regexp.engine.strategies.LazyDFAStrategy
+import com.maddyhome.idea.vim.regexp.engine.strategies.PikeVMStrategy
 import com.maddyhome.idea.vim.regexp.engine.strategies.SimulationResult
 import com.maddyhome.idea.vim.regexp.engine.strategies.SimulationStrategy
 import com.maddyhome.idea.vim.regexp.match.VimMatchResult
@@ -29,16 +31,24 @@ internal object VimRegexEngine {
   /**
    * The list of strategies that the engine has available. They should be ordered from less powerful to more powerful.
    */
-  private val strategies: List<SimulationStrategy> = listOf(BacktrackingStrategy())
+  private val strategies: List<SimulationStrategy> = listOf(LazyDFAStrategy(), PikeVMStrategy(), BacktrackingStrategy())
 
   /**
    * Simulate the nfa using the available strategies. The approach used is very simple: start with the least powerful
    * strategy; if this strategy is powerful enough to determine if there is a match, return that match. If it isn't
    * powerful enough, use the next (more powerful) strategy.
+   *
+   * @param checkInterrupted Called from time to time by the strategies, it throws to stop the simulation
    */
-  internal fun simulate(nfa: NFA, editor: VimEditor, startIndex: Int = 0, isCaseInsensitive: Boolean = false): VimMatchResult {
+  internal fun simulate(
+    nfa: NFA,
+    editor: VimEditor,
+    startIndex: Int = 0,
+    isCaseInsensitive: Boolean = false,
+    checkInterrupted: () -> Unit = {},
+  ): VimMatchResult {
     for (strategy in strategies) {
-      val result = strategy.simulate(nfa, editor, startIndex, isCaseInsensitive)
+      val result = strategy.simulate(nfa, editor, startIndex, isCaseInsensitive, checkInterrupted)
       if (result is SimulationResult.Complete) return result.matchResult
     }
     return VimMatchResult.Failure(VimRegexErrors.E486)
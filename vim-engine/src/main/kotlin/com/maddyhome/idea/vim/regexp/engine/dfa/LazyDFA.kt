@@ -0,0 +1,319 @@
+/*
+ * Copyright 2003-2023 The IdeaVim authors
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE.txt file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.maddyhome.idea.vim.regexp.engine.dfa
+
+import com.maddyhome.idea.vim.api.VimCaret
+import com.maddyhome.idea.vim.api.VimEditor
+import com.maddyhome.idea.vim.regexp.engine.nfa.NFA
+import com.maddyhome.idea.vim.regexp.engine.nfa.NFAState
+import com.maddyhome.idea.vim.regexp.engine.nfa.matcher.CharacterMatcher
+import com.maddyhome.idea.vim.regexp.engine.nfa.matcher.CollectionMatcher
+import com.maddyhome.idea.vim.regexp.engine.nfa.matcher.DotMatcher
+import com.maddyhome.idea.vim.regexp.engine.nfa.matcher.EndOfFileMatcher
+import com.maddyhome.idea.vim.regexp.engine.nfa.matcher.EndOfLineMatcher
+import com.maddyhome.idea.vim.regexp.engine.nfa.matcher.EpsilonMatcher
+import com.maddyhome.idea.vim.regexp.engine.nfa.matcher.Matcher
+import com.maddyhome.idea.vim.regexp.engine.nfa.matcher.MatcherResult
+import com.maddyhome.idea.vim.regexp.engine.nfa.matcher.PredicateMatcher
+import com.maddyhome.idea.vim.regexp.engine.nfa.matcher.StartOfLineMatcher
+import com.maddyhome.idea.vim.regexp.match.VimMatchGroupCollection
+import java.util.IdentityHashMap
+
+/**
+ * The result of running a [LazyDFA]
+ */
+internal enum class LazyDFAResult {
+  /**
+   * There is a match starting at the start index
+   */
+  MATCH,
+
+  /**
+   * There is no match starting at the start index
+   */
+  NO_MATCH,
+
+  /**
+   * The DFA gave up, because its cache was thrashing. Some other strategy has to be used
+   */
+  UNKNOWN,
+}
+
+/**
+ * A DFA that is built from a NFA on demand, while it is being run.
+ *
+ * Each DFA state is the set of NFA states that the NFA could be in after reading the text so far. The transitions
+ * of a DFA state are only computed the first time that a character is read from it, and then cached, so the text
+ * is scanned once, in linear time, without ever having to follow more than one path.
+ *
+ * The DFA only tells whether there is a match. It doesn't know which path led to it, so it can't tell the bounds of
+ * the match nor its capture groups.
+ *
+ * Only NFAs whose matchers depend on nothing but the current character and whether it is at the start or end of a line
+ * can be turned into a DFA, see [canBeBuiltFrom]. Whether the current index is at the start of a line is part of the
+ * DFA state, since it only depends on the previous character.
+ *
+ * The cache is not synchronized, so a DFA must only be run by one thread at a time, see [NFA.acquireLazyDFA].
+ *
+ * The number of cached states is capped at [MAX_STATES]. When the cap is reached, the cache is flushed and rebuilt as
+ * needed. If that happens more than [MAX_FLUSHES] times, the DFA is thrashing and is no better than simulating the NFA,
+ * so it gives up for good and always returns [LazyDFAResult.UNKNOWN].
+ *
+ * @param nfa The NFA this DFA is built from. It must not be modified afterward
+ */
+internal class LazyDFA private constructor(private val nfa: NFA) {
+  private val nfaStates: List<NFAState> = nfa.states()
+  private val stateIds: IdentityHashMap<NFAState, Int> = IdentityHashMap<NFAState, Int>().also { ids ->
+    nfaStates.forEachIndexed { id, state -> ids[state] = id }
+  }
+  private val acceptStateId: Int = stateIds.getValue(nfa.acceptState)
+
+  private val caseSensitiveCache = DFAStateCache()
+  private val caseInsensitiveCache = DFAStateCache()
+
+  /**
+   * The number of times that the cache was flushed because it was full
+   */
+  internal var flushes: Int = 0
+    private set
+
+  /**
+   * Whether the DFA gave up because its cache was thrashing
+   */
+  internal val hasGivenUp: Boolean
+    get() = flushes > MAX_FLUSHES
+
+  /**
+   * Runs the DFA on the text of the editor, starting from the given index.
+   *
+   * @param editor            The editor with the text to run the DFA on
+   * @param startIndex        The index where the match should start
+   * @param isCaseInsensitive Whether the DFA should ignore case
+   * @param checkInterrupted  Called at the start of each line, it throws to stop the run
+   *
+   * @return Whether there is a match starting at the start index
+   */
+  internal fun run(
+    editor: VimEditor,
+    startIndex: Int,
+    isCaseInsensitive: Boolean,
+    checkInterrupted: () -> Unit = {},
+  ): LazyDFAResult {
+    if (hasGivenUp) return LazyDFAResult.UNKNOWN
+
+    val text = editor.text()
+    val cache = if (isCaseInsensitive) caseInsensitiveCache else caseSensitiveCache
+    // None of the supported matchers read the groups or the cursors
+    val groups = VimMatchGroupCollection()
+    val possibleCursors = mutableListOf<VimCaret>()
+
+    val atLineStart = startIndex == 0 || text[startIndex - 1] == '\n'
+    var state = cache.startStates[if (atLineStart) 1 else 0]
+      ?: intern(cache, intArrayOf(stateIds.getValue(nfa.startState)), atLineStart)
+        ?.also { cache.startStates[if (atLineStart) 1 else 0] = it }
+      ?: return LazyDFAResult.UNKNOWN
+
+    var index = startIndex
+    while (index < text.length) {
+      if (state.isDead) return LazyDFAResult.NO_MATCH
+
+      val char = text[index]
+      var next = state.getTransition(char)
+      if (next == null) {
+        val step = step(editor, index, state, groups, isCaseInsensitive, possibleCursors)
+        next = if (step.accepts) ACCEPTING else intern(cache, step.nextStates, char == '\n')
+          ?: return LazyDFAResult.UNKNOWN
+        state.setTransition(char, next)
+      }
+      if (next === ACCEPTING) return LazyDFAResult.MATCH
+
+      state = next
+      index++
+      if (char == '\n') checkInterrupted()
+    }
+
+    // The end of the text is only reached once per run, so there is no point in caching it
+    val step = step(editor, index, state, groups, isCaseInsensitive, possibleCursors)
+    return if (step.accepts) LazyDFAResult.MATCH else LazyDFAResult.NO_MATCH
+  }
+
+  /**
+   * Follows all the transitions of the NFA states of a DFA state that don't consume anything at the index, and then
+   * the ones that consume the character at the index.
+   *
+   * @return Whether the accept state was reached before consuming the character, and, if not, the NFA states reached
+   *         after consuming it
+   */
+  private fun step(
+    editor: VimEditor,
+    index: Int,
+    state: DFAState,
+    groups: VimMatchGroupCollection,
+    isCaseInsensitive: Boolean,
+    possibleCursors: MutableList<VimCaret>,
+  ): DFAStep {
+    val visited = BooleanArray(nfaStates.size)
+    val reached = BooleanArray(nfaStates.size)
+    val stack = state.nfaStateIds.toMutableList()
+    while (stack.isNotEmpty()) {
+      val id = stack.removeLast()
+      if (visited[id]) continue
+      visited[id] = true
+      if (id == acceptStateId) return DFAStep(true, IntArray(0))
+
+      for (transition in nfaStates[id].transitions) {
+        val result = transition.matcher.matches(editor, index, groups, isCaseInsensitive, possibleCursors)
+        if (result !is MatcherResult.Success) continue
+        val destId = stateIds.getValue(transition.destState)
+        if (result.consumed == 0) stack.add(destId) else reached[destId] = true
+      }
+    }
+    return DFAStep(false, reached.indices.filter { reached[it] }.toIntArray())
+  }
+
+  /**
+   * Returns the cached DFA state for a set of NFA states, creating it if needed
+   *
+   * @return The DFA state, or null if the DFA gave up
+   */
+  private fun intern(cache: DFAStateCache, nfaStateIds: IntArray, atLineStart: Boolean): DFAState? {
+    val key = DFAStateKey(nfaStateIds, atLineStart)
+    cache.states[key]?.let { return it }
+
+    if (cache.states.size >= MAX_STATES) {
+      // States that are already referenced keep working, they just won't be reused by new transitions
+      cache.flush()
+      flushes++
+      if (hasGivenUp) return null
+    }
+    return DFAState(nfaStateIds).also { cache.states[key] = it }
+  }
+
+  internal companion object {
+    /**
+     * The maximum number of DFA states that are cached, for each case sensitivity
+     */
+    internal const val MAX_STATES: Int = 1000
+
+    /**
+     * The number of times the cache can be flushed before the DFA gives up
+     */
+    internal const val MAX_FLUSHES: Int = 8
+
+    /**
+     * A marker state, reached when the accept state of the NFA is reached before consuming a character
+     */
+    private val ACCEPTING = DFAState(IntArray(0))
+
+    /**
+     * Builds a lazy DFA for a NFA
+     *
+     * @return The DFA, or null if the NFA has matchers that can't be used by a DFA
+     */
+    internal fun fromNFA(nfa: NFA): LazyDFA? {
+      return if (canBeBuiltFrom(nfa)) LazyDFA(nfa) else null
+    }
+
+    /**
+     * Whether a DFA can be built from a NFA. That is the case when it has no assertions, and all of its matchers
+     * only depend on the character at the index, and on whether the index is at the start or end of a line.
+     */
+    internal fun canBeBuiltFrom(nfa: NFA): Boolean {
+      if (nfa.requiresBacktracking) return false
+      return nfa.states().all { state -> state.transitions.all { isSupported(it.matcher) } }
+    }
+
+    private fun isSupported(matcher: Matcher): Boolean {
+      return when (matcher) {
+        is CharacterMatcher,
+        is CollectionMatcher,
+        is DotMatcher,
+        is PredicateMatcher,
+        is EpsilonMatcher,
+        is StartOfLineMatcher,
+        is EndOfLineMatcher,
+        is EndOfFileMatcher -> true
+        else -> false
+      }
+    }
+  }
+}
+
+/**
+ * A state of the DFA, with its lazily computed transitions
+ *
+ * @param nfaStateIds The sorted ids of the NFA states that make up this state
+ */
+private class DFAState(val nfaStateIds: IntArray) {
+  private var asciiTransitions: Array<DFAState?>? = null
+  private var otherTransitions: HashMap<Char, DFAState>? = null
+
+  /**
+   * Whether no NFA state is left, so nothing can ever match from this state
+   */
+  val isDead: Boolean
+    get() = nfaStateIds.isEmpty()
+
+  fun getTransition(char: Char): DFAState? {
+    return if (char.code < ASCII_SIZE) asciiTransitions?.get(char.code)
+    else otherTransitions?.get(char)
+  }
+
+  fun setTransition(char: Char, state: DFAState) {
+    if (char.code < ASCII_SIZE) {
+      val transitions = asciiTransitions ?: arrayOfNulls<DFAState>(ASCII_SIZE).also { asciiTransitions = it }
+      transitions[char.code] = state
+    } else {
+      val transitions = otherTransitions ?: HashMap<Char, DFAState>().also { otherTransitions = it }
+      transitions[char] = state
+    }
+  }
+
+  private companion object {
+    private const val ASCII_SIZE = 128
+  }
+}
+
+/**
+ * The key used to look up DFA states in the cache
+ */
+private class DFAStateKey(val nfaStateIds: IntArray, val atLineStart: Boolean) {
+  private val hash = nfaStateIds.contentHashCode() * 31 + atLineStart.hashCode()
+
+  override fun equals(other: Any?): Boolean {
+    return other is DFAStateKey && other.atLineStart == atLineStart && other.nfaStateIds.contentEquals(nfaStateIds)
+  }
+
+  override fun hashCode(): Int = hash
+}
+
+/**
+ * The cached DFA states for one case sensitivity
+ */
+private class DFAStateCache {
+  val states = HashMap<DFAStateKey, DFAState>()
+
+  /**
+   * The start states, indexed by whether the start index is at the start of a line
+   */
+  val startStates = arrayOfNulls<DFAState>(2)
+
+  fun flush() {
+    states.clear()
+    startStates.fill(null)
+  }
+}
+
+/**
+ * The result of following the transitions of a DFA state for one index
+ *
+ * @param accepts    Whether the accept state was reached before consuming the character at the index
+ * @param nextStates The sorted ids of the NFA states reached after consuming the character at the index
+ */
+private class DFAStep(val accepts: Boolean, val nextStates: IntArray)
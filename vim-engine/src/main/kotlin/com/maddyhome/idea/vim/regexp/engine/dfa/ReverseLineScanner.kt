@@ -0,0 +1,146 @@
+/*
+ * Copyright 2003-2023 The IdeaVim authors
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE.txt file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.maddyhome.idea.vim.regexp.engine.dfa
+
+import com.maddyhome.idea.vim.api.VimCaret
+import com.maddyhome.idea.vim.api.VimEditor
+import com.maddyhome.idea.vim.regexp.engine.nfa.NFA
+import com.maddyhome.idea.vim.regexp.engine.nfa.matcher.Matcher
+import com.maddyhome.idea.vim.regexp.engine.nfa.matcher.MatcherResult
+import com.maddyhome.idea.vim.regexp.engine.parallel.ParallelLineSearch
+import com.maddyhome.idea.vim.regexp.match.VimMatchGroupCollection
+import java.util.IdentityHashMap
+
+/**
+ * Runs a NFA backward over a line, following its transitions in reverse, to find where its matches can start.
+ *
+ * The scan starts at the end of the line with only the accept state, and adds it again at every index, since a match
+ * can end anywhere. When the start state is reached at an index, a match starts there. Every index is visited once, and
+ * the NFA states are tracked as a set, so a line is scanned in linear time, without simulating the NFA from each of
+ * its indexes.
+ *
+ * Only NFAs that a [LazyDFA] could be built from, and that can't match across lines, can be scanned backward, see
+ * [fromNFA]. Their matchers only read the character at the index, or whether the index is at the start or end of a
+ * line, so they can be evaluated in any order.
+ *
+ * The scanner doesn't keep any state between scans, so it can be used by several threads at once.
+ *
+ * @param nfa The NFA that is scanned. It must not be modified afterward
+ */
+internal class ReverseLineScanner private constructor(nfa: NFA) {
+  private val stateCount: Int
+  private val startStateId: Int
+  private val acceptStateId: Int
+
+  /**
+   * For each state, the states with a transition to it, and the matchers of these transitions
+   */
+  private val sources: Array<IntArray>
+  private val sourceMatchers: Array<Array<Matcher>>
+
+  init {
+    val states = nfa.states()
+    val ids = IdentityHashMap<Any, Int>()
+    states.forEachIndexed { id, state -> ids[state] = id }
+    stateCount = states.size
+    startStateId = ids.getValue(nfa.startState)
+    acceptStateId = ids.getValue(nfa.acceptState)
+
+    val incoming = Array(stateCount) { mutableListOf<Pair<Int, Matcher>>() }
+    states.forEachIndexed { id, state ->
+      for (transition in state.transitions) incoming[ids.getValue(transition.destState)].add(id to transition.matcher)
+    }
+    sources = Array(stateCount) { id -> IntArray(incoming[id].size) { incoming[id][it].first } }
+    sourceMatchers = Array(stateCount) { id -> Array(incoming[id].size) { incoming[id][it].second } }
+  }
+
+  /**
+   * Finds the last index where a match can start, in a range of a line
+   *
+   * @param editor            The editor with the text to scan
+   * @param startIndex        The start of the line
+   * @param endIndex          The end of the line, before its line break
+   * @param maxIndex          The last index where the match can start
+   * @param isCaseInsensitive Whether the matchers should ignore case
+   * @param checkInterrupted  Called from time to time while the line is scanned, it throws to stop the scan
+   *
+   * @return The last index where a match starts, at or before maxIndex, or -1 if there is none
+   */
+  internal fun findLastStart(
+    editor: VimEditor,
+    startIndex: Int,
+    endIndex: Int,
+    maxIndex: Int,
+    isCaseInsensitive: Boolean,
+    checkInterrupted: () -> Unit = {},
+  ): Int {
+    val groups = VimMatchGroupCollection()
+    val possibleCursors = mutableListOf<VimCaret>()
+    var current = BooleanArray(stateCount)
+    var next = BooleanArray(stateCount)
+    val stack = IntArray(stateCount)
+
+    var index = endIndex
+    while (true) {
+      // Follows the transitions that don't consume anything, backward from the states reached so far
+      current[acceptStateId] = true
+      var size = 0
+      for (id in 0 until stateCount) if (current[id]) stack[size++] = id
+      while (size > 0) {
+        val id = stack[--size]
+        val matchers = sourceMatchers[id]
+        for (i in matchers.indices) {
+          val source = sources[id][i]
+          if (current[source] || !matchers[i].isEpsilon()) continue
+          if (matchers[i].matches(editor, index, groups, isCaseInsensitive, possibleCursors) is MatcherResult.Success) {
+            current[source] = true
+            stack[size++] = source
+          }
+        }
+      }
+
+      if (current[startStateId] && index <= maxIndex) return index
+      if (index <= startIndex) return -1
+      if ((endIndex - index) and CHECK_INTERVAL_MASK == 0) checkInterrupted()
+
+      // Follows the transitions that consume the character before the index, backward
+      index--
+      next.fill(false)
+      for (id in 0 until stateCount) {
+        if (!current[id]) continue
+        val matchers = sourceMatchers[id]
+        for (i in matchers.indices) {
+          val source = sources[id][i]
+          if (next[source] || matchers[i].isEpsilon()) continue
+          val result = matchers[i].matches(editor, index, groups, isCaseInsensitive, possibleCursors)
+          if (result is MatcherResult.Success && result.consumed == 1) next[source] = true
+        }
+      }
+      val previous = current
+      current = next
+      next = previous
+    }
+  }
+
+  internal companion object {
+    /**
+     * The interrupt is only checked once every this many indexes
+     */
+    private const val CHECK_INTERVAL_MASK = (1 shl 10) - 1
+
+    /**
+     * Builds a reverse scanner for a NFA
+     *
+     * @return The scanner, or null if the NFA can't be scanned backward
+     */
+    internal fun fromNFA(nfa: NFA): ReverseLineScanner? {
+      return if (LazyDFA.canBeBuiltFrom(nfa) && ParallelLineSearch.canSearch(nfa)) ReverseLineScanner(nfa) else null
+    }
+  }
+}
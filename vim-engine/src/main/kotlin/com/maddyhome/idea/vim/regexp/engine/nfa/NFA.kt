@@ -8,8 +8,14 @@
 
 package com.maddyhome.idea.vim.regexp.engine.nfa
 
+import com.maddyhome.idea.vim.regexp.engine.dfa.LazyDFA
+import com.maddyhome.idea.vim.regexp.engine.dfa.ReverseLineScanner
 import com.maddyhome.idea.vim.regexp.engine.nfa.matcher.EpsilonMatcher
 import com.maddyhome.idea.vim.regexp.engine.nfa.matcher.Matcher
+import com.maddyhome.idea.vim.regexp.engine.program.RegexProgram
+import java.util.Collections
+import java.util.IdentityHashMap
+import java.util.concurrent.ConcurrentLinkedQueue
 
 /**
  * Represents a non-deterministic finite automaton.
@@ -25,6 +31,91 @@ internal class NFA private constructor(
   internal var acceptState: NFAState
 ) {
 
+  /**
+   * Whether the NFA has any state with an assertion (lookahead, lookbehind, atomic groups, `\&`),
+   * or any transition with a path dependent matcher (backreferences, cursor, mark and visual area matchers).
+   * These NFAs can only be simulated by strategies that follow a single path at a time.
+   *
+   * This is computed on first use, so it must only be accessed once the NFA is fully built.
+   */
+  internal val requiresBacktracking: Boolean by lazy {
+    states().any { state -> state.assertion != null || state.transitions.any { it.matcher.isPathDependent() } }
+  }
+
+  /**
+   * Whether any transition of the NFA has a path dependent matcher (backreferences, cursor, mark, visual area and
+   * cursor relative line and column matchers), so that its matches depend on more than the text.
+   *
+   * This is computed on first use, so it must only be accessed once the NFA is fully built.
+   */
+  internal val hasPathDependentMatcher: Boolean by lazy {
+    states().any { state -> state.transitions.any { it.matcher.isPathDependent() } }
+  }
+
+  /**
+   * Whether a lazy DFA can be built from this NFA.
+   *
+   * This is computed on first use, so it must only be accessed once the NFA is fully built.
+   */
+  private val canBuildLazyDFA: Boolean by lazy { LazyDFA.canBeBuiltFrom(this) }
+
+  /**
+   * The lazy DFAs of this NFA that aren't running. A DFA caches the states it builds while it runs, so it can only be
+   * run by one thread at a time. Each run takes a DFA from here and gives it back afterward, so the next runs, on any
+   * thread, reuse the states it built. There are only as many DFAs as runs that were ever concurrent, and they are
+   * collected with the NFA.
+   */
+  private val idleLazyDFAs = ConcurrentLinkedQueue<LazyDFA>()
+
+  /**
+   * Takes a lazy DFA of this NFA, that no other thread runs until it is given back with [releaseLazyDFA]
+   *
+   * @return The DFA, or null if the NFA can't be turned into a DFA
+   */
+  internal fun acquireLazyDFA(): LazyDFA? {
+    if (!canBuildLazyDFA) return null
+    return idleLazyDFAs.poll() ?: LazyDFA.fromNFA(this)
+  }
+
+  internal fun releaseLazyDFA(dfa: LazyDFA) {
+    idleLazyDFAs.add(dfa)
+  }
+
+  /**
+   * The scanner that runs this NFA backward over a line, or null if it can't be scanned backward.
+   *
+   * This is computed on first use, so it must only be accessed once the NFA is fully built.
+   */
+  internal val reverseLineScanner: ReverseLineScanner? by lazy { ReverseLineScanner.fromNFA(this) }
+
+  /**
+   * This NFA lowered into a flat program, used by strategies that want to simulate it without allocating per step.
+   *
+   * This is computed on first use, so it must only be accessed once the NFA is fully built.
+   */
+  internal val program: RegexProgram by lazy { RegexProgram.compile(this) }
+
+  /**
+   * Returns all the states that can be reached from the start state, including the states
+   * of assertions, in the order they are first found.
+   */
+  internal fun states(): List<NFAState> {
+    val visited: MutableSet<NFAState> = Collections.newSetFromMap(IdentityHashMap())
+    val result = mutableListOf<NFAState>()
+    val stack = mutableListOf(startState)
+    while (stack.isNotEmpty()) {
+      val state = stack.removeLast()
+      if (!visited.add(state)) continue
+      result.add(state)
+      for (i in state.transitions.lastIndex downTo 0) stack.add(state.transitions[i].destState)
+      state.assertion?.let {
+        stack.add(it.jumpTo)
+        stack.add(it.startState)
+      }
+    }
+    return result
+  }
+
   /**
    * Concatenates the NFA with another NFA. The new NFA accepts inputs
    * that are accepted by the old NFA followed by the other.
@@ -46,4 +46,8 @@ internal class BackreferenceMatcher(private val groupNumber: Int) : Matcher {
   override fun isEpsilon(): Boolean {
     return false
   }
+
+  override fun isPathDependent(): Boolean {
+    return true
+  }
 }
\ No newline at end of file
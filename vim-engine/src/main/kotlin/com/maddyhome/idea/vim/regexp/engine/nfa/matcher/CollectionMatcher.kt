@@ -15,6 +15,11 @@ import com.maddyhome.idea.vim.regexp.match.VimMatchGroupCollection
 /**
  * Matcher used to match against a character collection.
  *
+ * The individual characters and the ranges are compiled into bitsets when the matcher is built: one for case-sensitive
+ * matching, and one with all of them already folded to lower case, for case-insensitive matching. Character classes
+ * are arbitrary predicates, so their results are only precomputed for ASCII characters; other characters still call
+ * the predicates.
+ *
  * @param chars             The individual characters in the collection
  * @param ranges            The ranges of characters in the collection
  * @param isNegated         Whether the Matcher should accept or refuse characters that are in the collection
@@ -22,13 +27,47 @@ import com.maddyhome.idea.vim.regexp.match.VimMatchGroupCollection
  * @param forceNoIgnoreCase If this is set, matching is always case-sensitive
  */
 internal class CollectionMatcher(
-  private val chars: Set<Char> = emptySet(),
-  private val ranges: List<CollectionRange> = emptyList(),
+  chars: Set<Char> = emptySet(),
+  ranges: List<CollectionRange> = emptyList(),
   private val charClasses: List<(Char) -> Boolean> = emptyList(),
   private val isNegated: Boolean = false,
-  private val includesEOL: Boolean = false,
+  val includesEOL: Boolean = false,
   private val forceNoIgnoreCase: Boolean = false
 ) : Matcher {
+  /**
+   * The individual characters and the ranges
+   */
+  private val members: CharBitSet = CharBitSet().apply {
+    for (char in chars) add(char.code)
+    for (range in ranges) addRange(range.start.code, range.end.code)
+  }
+
+  /**
+   * The individual characters and the ranges, folded to lower case. A character is in the collection, ignoring case,
+   * if its lower case is in this set
+   */
+  private val foldedMembers: CharBitSet = CharBitSet().apply {
+    for (char in chars) add(char.lowercaseChar().code)
+    for (range in ranges) addRange(range.start.lowercaseChar().code, range.end.lowercaseChar().code)
+  }
+
+  /**
+   * The ASCII characters accepted by any of the character classes
+   */
+  private val asciiClassMembers: CharBitSet = CharBitSet().apply {
+    for (code in 0 until ASCII_SIZE) if (charClasses.any { it(code.toChar()) }) add(code)
+  }
+
+  /**
+   * The ASCII characters accepted by any of the character classes, ignoring case
+   */
+  private val foldedAsciiClassMembers: CharBitSet = CharBitSet().apply {
+    for (code in 0 until ASCII_SIZE) {
+      val char = code.toChar()
+      if (charClasses.any { it(char.lowercaseChar()) || it(char.uppercaseChar()) }) add(code)
+    }
+  }
+
   override fun matches(
     editor: VimEditor,
     index: Int, groups:
@@ -38,19 +77,56 @@ internal class CollectionMatcher(
   ): MatcherResult {
     if (index >= editor.text().length) return MatcherResult.Failure
 
-    if (!includesEOL && editor.text()[index] == '\n') return MatcherResult.Failure
-    if (includesEOL && editor.text()[index] == '\n') return MatcherResult.Success(1)
-
     val char = editor.text()[index]
-    val result = if (isCaseInsensitive && !forceNoIgnoreCase) (chars.map { it.lowercaseChar() }.contains(char.lowercaseChar()) || ranges.any { it.inRange(char, true) } || charClasses.any { it(char.lowercaseChar()) || it(char.uppercaseChar()) }) == !isNegated
-                 else (chars.contains(char) || ranges.any { it.inRange(char) } || charClasses.any { it(char) }) == !isNegated
-    return if (result) MatcherResult.Success(1)
+    if (char == '\n') return if (includesEOL) MatcherResult.Success(1) else MatcherResult.Failure
+
+    val result = if (isCaseInsensitive && !forceNoIgnoreCase) containsIgnoringCase(char) else contains(char)
+    return if (result != isNegated) MatcherResult.Success(1)
     else MatcherResult.Failure
   }
 
+  private fun contains(char: Char): Boolean {
+    if (members.contains(char.code)) return true
+    if (char.code < ASCII_SIZE) return asciiClassMembers.contains(char.code)
+    return charClasses.any { it(char) }
+  }
+
+  private fun containsIgnoringCase(char: Char): Boolean {
+    if (foldedMembers.contains(char.lowercaseChar().code)) return true
+    if (char.code < ASCII_SIZE) return foldedAsciiClassMembers.contains(char.code)
+    return charClasses.any { it(char.lowercaseChar()) || it(char.uppercaseChar()) }
+  }
+
   override fun isEpsilon(): Boolean {
     return false
   }
+
+  private companion object {
+    private const val ASCII_SIZE = 128
+  }
+}
+
+/**
+ * A set of characters, stored as one bit per character code. It only takes as much memory as its largest character
+ * needs.
+ */
+private class CharBitSet {
+  private var words = LongArray(0)
+
+  fun add(code: Int) {
+    val word = code ushr 6
+    if (word >= words.size) words = words.copyOf(word + 1)
+    words[word] = words[word] or (1L shl code)
+  }
+
+  fun addRange(start: Int, end: Int) {
+    for (code in start..end) add(code)
+  }
+
+  fun contains(code: Int): Boolean {
+    val word = code ushr 6
+    return word < words.size && (words[word] and (1L shl code)) != 0L
+  }
 }
 
 /**
@@ -59,18 +135,4 @@ internal class CollectionMatcher(
  * @param start The starting character of the range (inclusive)
  * @param end   The ending character of the range (inclusive)
  */
-internal data class CollectionRange(val start: Char, val end: Char) {
-
-  /**
-   * Determines whether a character is inside the range
-   *
-   * @param char              The character to verify
-   * @param isCaseInsensitive Whether case should be ignored
-   *
-   * @return whether char is inside the range
-   */
-  internal fun inRange(char: Char, isCaseInsensitive: Boolean = false) : Boolean {
-    return if (isCaseInsensitive) char.lowercaseChar().code in start.lowercaseChar().code..end.lowercaseChar().code
-    else char.code in start.code..end.code
-  }
-}
\ No newline at end of file
+internal data class CollectionRange(val start: Char, val end: Char)
@@ -83,6 +83,10 @@ internal class AtColumnCursorMatcher : Matcher {
   override fun isEpsilon(): Boolean {
     return true
   }
+
+  override fun isPathDependent(): Boolean {
+    return true
+  }
 }
 
 internal class BeforeColumnCursorMatcher : Matcher {
@@ -105,6 +109,10 @@ internal class BeforeColumnCursorMatcher : Matcher {
   override fun isEpsilon(): Boolean {
     return true
   }
+
+  override fun isPathDependent(): Boolean {
+    return true
+  }
 }
 
 internal class AfterColumnCursorMatcher : Matcher {
@@ -127,4 +135,8 @@ internal class AfterColumnCursorMatcher : Matcher {
   override fun isEpsilon(): Boolean {
     return true
   }
+
+  override fun isPathDependent(): Boolean {
+    return true
+  }
 }
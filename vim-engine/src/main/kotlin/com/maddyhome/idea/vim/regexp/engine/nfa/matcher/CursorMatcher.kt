@@ -38,4 +38,8 @@ internal class CursorMatcher : Matcher {
   override fun isEpsilon(): Boolean {
     return true
   }
+
+  override fun isPathDependent(): Boolean {
+    return true
+  }
 }
\ No newline at end of file
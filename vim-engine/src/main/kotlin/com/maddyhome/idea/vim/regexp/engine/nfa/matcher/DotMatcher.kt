@@ -15,7 +15,7 @@ import com.maddyhome.idea.vim.regexp.match.VimMatchGroupCollection
 /**
  * Matcher that matches with any character
  */
-internal class DotMatcher(private val includeNewLine: Boolean) : Matcher {
+internal class DotMatcher(val includeNewLine: Boolean) : Matcher {
   override fun matches(
     editor: VimEditor,
     index: Int,
@@ -82,6 +82,10 @@ internal class AtLineCursorMatcher : Matcher {
   override fun isEpsilon(): Boolean {
     return true
   }
+
+  override fun isPathDependent(): Boolean {
+    return true
+  }
 }
 
 internal class BeforeLineCursorMatcher : Matcher {
@@ -104,6 +108,10 @@ internal class BeforeLineCursorMatcher : Matcher {
   override fun isEpsilon(): Boolean {
     return true
   }
+
+  override fun isPathDependent(): Boolean {
+    return true
+  }
 }
 
 internal class AfterLineCursorMatcher : Matcher {
@@ -126,4 +134,8 @@ internal class AfterLineCursorMatcher : Matcher {
   override fun isEpsilon(): Boolean {
     return true
   }
+
+  override fun isPathDependent(): Boolean {
+    return true
+  }
 }
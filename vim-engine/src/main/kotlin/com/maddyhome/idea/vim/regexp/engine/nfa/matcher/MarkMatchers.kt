@@ -22,6 +22,7 @@ internal abstract class BaseMarkMatcher(val mark: Char) : Matcher {
     } else MatcherResult.Failure
   }
   override fun isEpsilon(): Boolean = true
+  override fun isPathDependent(): Boolean = true
 
   abstract fun matchesCondition(index: Int, caret: VimCaret): Boolean
   protected fun getMarkOffset(caret: VimCaret): Int? = caret.markStorage.getMark(mark)?.offset(caret.editor)
@@ -41,4 +41,11 @@ internal interface Matcher {
    * Returns true if this matcher never consumes any input.
    */
   fun isEpsilon(): Boolean
+
+  /**
+   * Returns true if the result of this matcher depends on the path the simulation took to get to it, either by
+   * reading the groups captured so far, or by narrowing down the possible cursors. Such a matcher can only be used
+   * by a strategy that follows one path at a time.
+   */
+  fun isPathDependent(): Boolean = false
 }
\ No newline at end of file
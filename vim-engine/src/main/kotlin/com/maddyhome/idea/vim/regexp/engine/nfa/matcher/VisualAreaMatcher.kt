@@ -47,4 +47,8 @@ internal class VisualAreaMatcher : Matcher {
   override fun isEpsilon(): Boolean {
     return true
   }
+
+  override fun isPathDependent(): Boolean {
+    return true
+  }
 }
\ No newline at end of file
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2003-2023 The IdeaVim authors
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE.txt file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.maddyhome.idea.vim.regexp.engine.parallel
+
+import com.maddyhome.idea.vim.regexp.engine.nfa.NFA
+import com.maddyhome.idea.vim.regexp.engine.nfa.matcher.BackreferenceMatcher
+import com.maddyhome.idea.vim.regexp.engine.nfa.matcher.CharacterMatcher
+import com.maddyhome.idea.vim.regexp.engine.nfa.matcher.CollectionMatcher
+import com.maddyhome.idea.vim.regexp.engine.nfa.matcher.DotMatcher
+import com.maddyhome.idea.vim.regexp.engine.nfa.matcher.EndOfFileMatcher
+import com.maddyhome.idea.vim.regexp.engine.nfa.matcher.EndOfLineMatcher
+import com.maddyhome.idea.vim.regexp.engine.nfa.matcher.EpsilonMatcher
+import com.maddyhome.idea.vim.regexp.engine.nfa.matcher.Matcher
+import com.maddyhome.idea.vim.regexp.engine.nfa.matcher.PredicateMatcher
+import com.maddyhome.idea.vim.regexp.engine.nfa.matcher.StartOfFileMatcher
+import com.maddyhome.idea.vim.regexp.engine.nfa.matcher.StartOfLineMatcher
+import java.util.concurrent.CancellationException
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Future
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.TimeoutException
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Searches a text for all the matches of a pattern in chunks of whole lines. The chunks are searched concurrently
+ * by a small pool of threads of its own, and their matches are merged in order.
+ *
+ * This only works for patterns whose matches can't span more than one line. Searching for all the matches of such a
+ * pattern goes through the start of every line, so the search can be split at any line start without changing its
+ * result. The chunks are searched on other threads, which can't use the editor, so the pattern must also depend on
+ * nothing but the text. See [canSearch].
+ * This is a singleton.
+ */
+internal object ParallelLineSearch {
+  /**
+   * The minimum number of characters in a chunk. Chunks are extended to the end of their last line
+   */
+  internal const val CHUNK_SIZE: Int = 64 * 1024
+
+  /**
+   * The number of threads that search the chunks. The calling thread only waits for them, so one core is left to it
+   */
+  private val PARALLELISM: Int = (Runtime.getRuntime().availableProcessors() - 1).coerceIn(1, 4)
+
+  /**
+   * How long the calling thread waits for a chunk before it checks again whether the search was interrupted
+   */
+  private const val INTERRUPT_CHECK_INTERVAL_MS = 10L
+
+  /**
+   * The threads that search the chunks. They are daemon threads, and they stop when they have been idle for a while
+   */
+  private val executor: ExecutorService by lazy {
+    val threadCount = AtomicInteger()
+    ThreadPoolExecutor(PARALLELISM, PARALLELISM, 10, TimeUnit.SECONDS, LinkedBlockingQueue()) { runnable ->
+      Thread(runnable, "IdeaVim Search ${threadCount.incrementAndGet()}").apply { isDaemon = true }
+    }.apply { allowCoreThreadTimeOut(true) }
+  }
+
+  /**
+   * Whether a NFA can be searched in chunks of lines: none of its matchers can consume a new line, and all of them only
+   * read the text
+   */
+  internal fun canSearch(nfa: NFA): Boolean {
+    return nfa.states().all { state -> state.transitions.all { staysInLine(it.matcher) } }
+  }
+
+  /**
+   * Whether searching a range of a text in chunks is worth it, rather than searching it in the calling thread
+   */
+  internal fun isWorthIt(startIndex: Int, maxIndex: Int): Boolean {
+    return maxIndex - startIndex >= 2 * CHUNK_SIZE && PARALLELISM > 1
+  }
+
+  /**
+   * Splits the range of the text into chunks, and searches them concurrently. If searching any chunk throws, the
+   * exception of the first such chunk is rethrown as it is.
+   *
+   * While the calling thread waits for the chunks, it calls checkInterrupted every few milliseconds. When that throws,
+   * the chunks that are still searched are told to stop, and the exception is rethrown without waiting for them.
+   *
+   * @param text             The text to search in. It must not change while it is searched
+   * @param startIndex       The index where the search starts
+   * @param maxIndex         The index where the search stops
+   * @param checkInterrupted Throws if the search should stop. It is only called by the calling thread
+   * @param searchChunk      Finds all the matches starting in a chunk, from its start index to its end index
+   *                         (exclusive). Its last argument throws once the search was stopped, and it must be called
+   *                         from time to time
+   *
+   * @return The matches of all the chunks, in order
+   */
+  internal fun <T> search(
+    text: CharSequence,
+    startIndex: Int,
+    maxIndex: Int,
+    checkInterrupted: () -> Unit,
+    searchChunk: (chunkStart: Int, chunkEnd: Int, checkStopped: () -> Unit) -> List<T>,
+  ): List<T> {
+    val isStopped = AtomicBoolean()
+    val checkStopped = { if (isStopped.get()) throw CancellationException("The search was interrupted") }
+    val futures = mutableListOf<Future<Result<List<T>>>>()
+    var chunkStart = startIndex
+    while (chunkStart < maxIndex) {
+      val lineEnd = if (maxIndex - chunkStart <= CHUNK_SIZE) -1 else text.indexOf('\n', chunkStart + CHUNK_SIZE)
+      val chunkEnd = if (lineEnd < 0 || lineEnd + 1 >= maxIndex) maxIndex else lineEnd + 1
+      val start = chunkStart
+      // The pool would rethrow a copy of the exception, without its message, so the original one is kept instead
+      futures.add(executor.submit<Result<List<T>>> {
+        runCatching {
+          checkStopped()
+          searchChunk(start, chunkEnd, checkStopped)
+        }
+      })
+      chunkStart = chunkEnd
+    }
+
+    try {
+      return futures.flatMap { awaitChunk(it, checkInterrupted).getOrThrow() }
+    } finally {
+      isStopped.set(true)
+      futures.forEach { it.cancel(false) }
+    }
+  }
+
+  private fun <T> awaitChunk(future: Future<T>, checkInterrupted: () -> Unit): T {
+    while (true) {
+      checkInterrupted()
+      try {
+        return future.get(INTERRUPT_CHECK_INTERVAL_MS, TimeUnit.MILLISECONDS)
+      } catch (e: TimeoutException) {
+        // Still searching, check for an interruption again
+      }
+    }
+  }
+
+  private fun staysInLine(matcher: Matcher): Boolean {
+    return when (matcher) {
+      is CharacterMatcher -> matcher.char != '\n'
+      is CollectionMatcher -> !matcher.includesEOL
+      is DotMatcher -> !matcher.includeNewLine
+      is PredicateMatcher -> !matcher.predicate('\n')
+      is BackreferenceMatcher,
+      is EpsilonMatcher,
+      is StartOfLineMatcher,
+      is EndOfLineMatcher,
+      is StartOfFileMatcher,
+      is EndOfFileMatcher -> true
+      else -> false
+    }
+  }
+}
@@ -0,0 +1,360 @@
+/*
+ * Copyright 2003-2023 The IdeaVim authors
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE.txt file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.maddyhome.idea.vim.regexp.engine.prefilter
+
+import com.maddyhome.idea.vim.regexp.engine.nfa.NFA
+import com.maddyhome.idea.vim.regexp.engine.nfa.NFAState
+import com.maddyhome.idea.vim.regexp.engine.nfa.matcher.CharacterMatcher
+import com.maddyhome.idea.vim.regexp.engine.nfa.matcher.EpsilonMatcher
+import java.util.Collections
+import java.util.IdentityHashMap
+
+/**
+ * A literal string that every match of a pattern has to contain, used to skip the parts of the text where there
+ * can't be any match without simulating the NFA.
+ *
+ * When the literal is a prefix of every match, a match can only start where the literal occurs, so the simulation can
+ * start right there. Otherwise, the literal can only tell that there are no more matches after its last occurrence.
+ *
+ * @param literal  The literal that every match contains
+ * @param isPrefix Whether every match starts with the literal
+ */
+internal class LiteralPrefilter private constructor(
+  internal val literal: String,
+  internal val isPrefix: Boolean,
+) {
+  private val caseSensitiveSearcher = HorspoolSearcher(literal, false)
+  private val caseInsensitiveSearcher = HorspoolSearcher(literal, true)
+
+  /**
+   * Creates a scanner that finds where matches can start in a text
+   *
+   * @param text              The text that is being searched
+   * @param isCaseInsensitive Whether the search ignores case
+   * @param checkInterrupted  Called from time to time while the text is scanned, it throws to stop the scan
+   */
+  internal fun scanner(
+    text: CharSequence,
+    isCaseInsensitive: Boolean,
+    checkInterrupted: () -> Unit = {},
+  ): LiteralScanner {
+    val searcher = if (isCaseInsensitive) caseInsensitiveSearcher else caseSensitiveSearcher
+    return LiteralScanner(text, searcher, isPrefix, checkInterrupted)
+  }
+
+  internal companion object {
+    /**
+     * The maximum number of states of a NFA that is analysed for a required literal that isn't a prefix
+     */
+    private const val MAX_ANALYSED_STATES = 256
+
+    /**
+     * The minimum length of a prefix that is always preferred to a longer literal that isn't a prefix
+     */
+    private const val MIN_PREFERRED_PREFIX_LENGTH = 3
+
+    /**
+     * Finds a literal that every match of the NFA has to contain
+     *
+     * @param nfa The NFA of the pattern. It must be fully built
+     *
+     * @return The prefilter, or null if no literal was found
+     */
+    internal fun fromNFA(nfa: NFA): LiteralPrefilter? {
+      val states = nfa.states()
+      // Assertions can consume text outside the transitions of the NFA (e.g. atomic groups)
+      if (states.any { it.assertion != null }) return null
+
+      val prefix = findPrefix(nfa)
+      if (prefix.length >= MIN_PREFERRED_PREFIX_LENGTH) return LiteralPrefilter(prefix, true)
+
+      val required = if (states.size <= MAX_ANALYSED_STATES) findRequiredLiteral(nfa, states) else ""
+      return when {
+        prefix.isEmpty() && required.isEmpty() -> null
+        prefix.length >= required.length -> LiteralPrefilter(prefix, true)
+        else -> LiteralPrefilter(required, false)
+      }
+    }
+
+    /**
+     * Finds the only string that the NFA matches, if it matches a single literal string. The NFA may only go through
+     * empty transitions between its characters, so anchors, assertions, multis, branches, `\zs` and `\ze` make it not
+     * literal.
+     *
+     * @param nfa The NFA of the pattern. It must be fully built
+     *
+     * @return The literal, or null if the NFA matches anything else
+     */
+    internal fun findLiteral(nfa: NFA): String? {
+      val literal = StringBuilder()
+      var state = nfa.startState
+      while (true) {
+        // \zs and \ze move the start and the end of the match
+        if (state.assertion != null || (0 in state.startCapture && literal.isNotEmpty()) || 0 in state.forceEndCapture) {
+          return null
+        }
+        if (state === nfa.acceptState) return if (state.transitions.isEmpty()) literal.toString() else null
+        val transition = state.transitions.singleOrNull() ?: return null
+        when (val matcher = transition.matcher) {
+          is EpsilonMatcher -> {}
+          // '\n' also matches the end of the text without consuming anything
+          is CharacterMatcher -> if (matcher.char == '\n') return null else literal.append(matcher.char)
+          else -> return null
+        }
+        state = transition.destState
+      }
+    }
+
+    /**
+     * Finds the characters that every match starts with. The NFA is followed through all the zero-width transitions,
+     * for as long as all the transitions that consume a character consume the same literal character.
+     */
+    private fun findPrefix(nfa: NFA): String {
+      val prefix = StringBuilder()
+      var current: List<NFAState> = listOf(nfa.startState)
+      while (true) {
+        val closure = zeroWidthClosure(current)
+        if (closure.any { it === nfa.acceptState }) break
+
+        var char: Char? = null
+        val next = mutableListOf<NFAState>()
+        for (transition in closure.flatMap { it.transitions }) {
+          if (transition.matcher.isEpsilon()) continue
+          val matcher = transition.matcher as? CharacterMatcher ?: return prefix.toString()
+          // '\n' also matches the end of the text without consuming anything
+          if (matcher.char == '\n' || (char != null && char != matcher.char)) return prefix.toString()
+          char = matcher.char
+          next.add(transition.destState)
+        }
+        if (char == null) break
+        prefix.append(char)
+        current = next
+      }
+      return prefix.toString()
+    }
+
+    private fun zeroWidthClosure(states: List<NFAState>): List<NFAState> {
+      val visited: MutableSet<NFAState> = Collections.newSetFromMap(IdentityHashMap())
+      val stack = states.toMutableList()
+      while (stack.isNotEmpty()) {
+        val state = stack.removeLast()
+        if (!visited.add(state)) continue
+        for (transition in state.transitions) {
+          if (transition.matcher.isEpsilon()) stack.add(transition.destState)
+        }
+      }
+      return visited.toList()
+    }
+
+    /**
+     * Finds the longest chain of literal characters that every match goes through. A chain starts at a state that every
+     * path from the start state to the accept state goes through, and follows states that have a single transition.
+     */
+    private fun findRequiredLiteral(nfa: NFA, states: List<NFAState>): String {
+      var longest = ""
+      for (state in states) {
+        val chain = literalChain(state)
+        if (chain.length <= longest.length) continue
+        if (canReachAcceptWithout(nfa, state)) continue
+        longest = chain
+      }
+      return longest
+    }
+
+    private fun literalChain(start: NFAState): String {
+      val chain = StringBuilder()
+      val visited: MutableSet<NFAState> = Collections.newSetFromMap(IdentityHashMap())
+      var state = start
+      while (visited.add(state)) {
+        val transition = state.transitions.singleOrNull() ?: break
+        val matcher = transition.matcher
+        when {
+          matcher is CharacterMatcher && matcher.char != '\n' -> chain.append(matcher.char)
+          matcher !is EpsilonMatcher -> break
+        }
+        state = transition.destState
+      }
+      return chain.toString()
+    }
+
+    private fun canReachAcceptWithout(nfa: NFA, excluded: NFAState): Boolean {
+      if (nfa.startState === excluded) return false
+      val visited: MutableSet<NFAState> = Collections.newSetFromMap(IdentityHashMap())
+      visited.add(excluded)
+      val stack = mutableListOf(nfa.startState)
+      while (stack.isNotEmpty()) {
+        val state = stack.removeLast()
+        if (state === nfa.acceptState) return true
+        if (!visited.add(state)) continue
+        for (transition in state.transitions) stack.add(transition.destState)
+      }
+      return false
+    }
+  }
+}
+
+/**
+ * Finds the indexes where matches can start in a text. The last occurrence of the literal that was found is
+ * remembered, so that scanning the text from increasing indexes only reads it once, and the same goes for scanning it
+ * from decreasing indexes.
+ */
+internal class LiteralScanner internal constructor(
+  private val text: CharSequence,
+  private val searcher: HorspoolSearcher,
+  private val isPrefix: Boolean,
+  private val checkInterrupted: () -> Unit = {},
+) {
+  private var lastOccurrence = -1
+
+  /**
+   * The index that [lastOccurrence] was searched from. It is the first occurrence at or after any index between the two
+   */
+  private var lastSearchIndex = 0
+
+  /**
+   * The last occurrence found by [previousCandidate], and the index it was searched from. It is the last occurrence at
+   * or before any index between the two
+   */
+  private var previousOccurrence = -1
+  private var previousSearchIndex = -1
+
+  /**
+   * The last occurrence of the literal in the whole text, or -2 if it wasn't searched yet
+   */
+  private var lastOccurrenceInText = -2
+
+  /**
+   * Returns the first index, at or after the given index, where the simulation of the non-exact NFA can find a match.
+   * Simulating from that index gives the same result as simulating from the given index.
+   *
+   * @param index The index where the simulation would start
+   *
+   * @return The index where the simulation should start, or -1 if there are no matches at or after the index
+   */
+  internal fun nextCandidate(index: Int): Int {
+    if (lastOccurrence < index || index < lastSearchIndex) {
+      lastSearchIndex = index
+      lastOccurrence = searcher.indexOf(text, index, checkInterrupted)
+      if (lastOccurrence < 0) {
+        // Nothing left to find, make sure that the text is not searched again
+        lastOccurrence = Int.MAX_VALUE
+      }
+    }
+    if (lastOccurrence == Int.MAX_VALUE) return -1
+    return if (isPrefix) lastOccurrence else index
+  }
+
+  /**
+   * Returns the last index, at or before the given index, where a match can start. When the literal isn't a prefix,
+   * a match can start anywhere before its last occurrence.
+   *
+   * @param index The last index where a match could start
+   *
+   * @return The last index where a match can start, or -1 if there are no matches starting at or before the index
+   */
+  internal fun previousCandidate(index: Int): Int {
+    if (!isPrefix) {
+      if (lastOccurrenceInText == -2) lastOccurrenceInText = searcher.lastIndexOf(text, text.length, checkInterrupted)
+      return if (lastOccurrenceInText < 0) -1 else minOf(index, lastOccurrenceInText)
+    }
+
+    if (index < previousOccurrence || index > previousSearchIndex) {
+      previousSearchIndex = index
+      previousOccurrence = searcher.lastIndexOf(text, index, checkInterrupted)
+    }
+    return previousOccurrence
+  }
+}
+
+/**
+ * Finds a string in a text with the Boyer-Moore-Horspool algorithm. Case is ignored the same way that
+ * [CharacterMatcher] ignores it, by comparing lower case characters.
+ *
+ * @param pattern           The string to look for. It must not be empty
+ * @param isCaseInsensitive Whether case is ignored
+ */
+internal class HorspoolSearcher(pattern: String, private val isCaseInsensitive: Boolean) {
+  private val pattern = CharArray(pattern.length) { fold(pattern[it]) }
+
+  /**
+   * How far the search window can be moved, indexed by the low byte of the last character in the window. Characters
+   * that share the low byte share the shortest shift, so the table stays small even for non-Latin text.
+   */
+  private val shifts = IntArray(TABLE_SIZE) { this.pattern.size }.also { shifts ->
+    for (i in 0 until this.pattern.size - 1) shifts[this.pattern[i].code and TABLE_MASK] = this.pattern.size - 1 - i
+  }
+
+  /**
+   * The same as [shifts], for searching backward: indexed by the low byte of the first character in the window
+   */
+  private val reverseShifts = IntArray(TABLE_SIZE) { this.pattern.size }.also { shifts ->
+    for (i in this.pattern.size - 1 downTo 1) shifts[this.pattern[i].code and TABLE_MASK] = i
+  }
+
+  /**
+   * Returns the index of the first occurrence of the pattern in the text, at or after the start index, or -1
+   *
+   * @param checkInterrupted Called every [CHECK_INTERVAL] characters or so, it throws to stop the search
+   */
+  internal fun indexOf(text: CharSequence, startIndex: Int, checkInterrupted: () -> Unit = {}): Int {
+    val last = pattern.size - 1
+    var index = maxOf(startIndex, 0)
+    var nextCheck = index + CHECK_INTERVAL
+    while (index + last < text.length) {
+      if (index >= nextCheck) {
+        checkInterrupted()
+        nextCheck = index + CHECK_INTERVAL
+      }
+      val lastChar = fold(text[index + last])
+      if (lastChar == pattern[last]) {
+        var i = last - 1
+        while (i >= 0 && fold(text[index + i]) == pattern[i]) i--
+        if (i < 0) return index
+      }
+      index += shifts[lastChar.code and TABLE_MASK]
+    }
+    return -1
+  }
+
+  /**
+   * Returns the index of the last occurrence of the pattern in the text, at or before the end index, or -1
+   *
+   * @param checkInterrupted Called every [CHECK_INTERVAL] characters or so, it throws to stop the search
+   */
+  internal fun lastIndexOf(text: CharSequence, endIndex: Int, checkInterrupted: () -> Unit = {}): Int {
+    var index = minOf(endIndex, text.length - pattern.size)
+    var nextCheck = index - CHECK_INTERVAL
+    while (index >= 0) {
+      if (index <= nextCheck) {
+        checkInterrupted()
+        nextCheck = index - CHECK_INTERVAL
+      }
+      val firstChar = fold(text[index])
+      if (firstChar == pattern[0]) {
+        var i = 1
+        while (i < pattern.size && fold(text[index + i]) == pattern[i]) i++
+        if (i == pattern.size) return index
+      }
+      index -= reverseShifts[firstChar.code and TABLE_MASK]
+    }
+    return -1
+  }
+
+  private fun fold(char: Char): Char = if (isCaseInsensitive) char.lowercaseChar() else char
+
+  private companion object {
+    private const val TABLE_SIZE = 256
+    private const val TABLE_MASK = TABLE_SIZE - 1
+
+    /**
+     * The number of characters that are scanned between two checks for an interruption
+     */
+    private const val CHECK_INTERVAL = 64 * 1024
+  }
+}
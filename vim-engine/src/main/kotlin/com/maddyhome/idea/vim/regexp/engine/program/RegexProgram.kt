@@ -0,0 +1,293 @@
+/*
+ * Copyright 2003-2023 The IdeaVim authors
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE.txt file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.maddyhome.idea.vim.regexp.engine.program
+
+import com.maddyhome.idea.vim.regexp.engine.nfa.NFA
+import com.maddyhome.idea.vim.regexp.engine.nfa.NFAState
+import com.maddyhome.idea.vim.regexp.engine.nfa.matcher.BackreferenceMatcher
+import com.maddyhome.idea.vim.regexp.engine.nfa.matcher.CharacterMatcher
+import com.maddyhome.idea.vim.regexp.engine.nfa.matcher.DotMatcher
+import com.maddyhome.idea.vim.regexp.engine.nfa.matcher.EndOfFileMatcher
+import com.maddyhome.idea.vim.regexp.engine.nfa.matcher.EndOfLineMatcher
+import com.maddyhome.idea.vim.regexp.engine.nfa.matcher.EpsilonMatcher
+import com.maddyhome.idea.vim.regexp.engine.nfa.matcher.Matcher
+import com.maddyhome.idea.vim.regexp.engine.nfa.matcher.StartOfFileMatcher
+import com.maddyhome.idea.vim.regexp.engine.nfa.matcher.StartOfLineMatcher
+import java.util.IdentityHashMap
+
+/**
+ * A NFA lowered into flat arrays of ints, so that it can be simulated without following object references or
+ * allocating anything per step.
+ *
+ * States are numbered from 0 to [stateCount] - 1. The transitions of state `s` are the indexes from
+ * `transitionOffsets[s]` (inclusive) to `transitionOffsets[s + 1]` (exclusive) of [opcodes], [operands] and
+ * [targets], in priority order. The most common matchers get their own opcode and are run by the simulation itself;
+ * every other matcher is kept in [matchers] and called through [OP_MATCHER].
+ *
+ * Capture group updates work the same way: the updates of state `s` are the indexes from `captureOffsets[s]` to
+ * `captureOffsets[s + 1]` of [captureKinds] and [captureGroups], in the order they have to be applied.
+ *
+ * States that can't reach any capture group update are [memoizable]: whether the simulation reaches the target from
+ * them only depends on the index, so a simulation that already failed from a state at an index doesn't have to be
+ * tried again.
+ *
+ * The program is built from a NFA that must not be modified afterward.
+ */
+internal class RegexProgram private constructor(
+  /**
+   * The number of states
+   */
+  val stateCount: Int,
+  /**
+   * The start state
+   */
+  val startState: Int,
+  /**
+   * The accept state
+   */
+  val acceptState: Int,
+  val transitionOffsets: IntArray,
+  val opcodes: IntArray,
+  val operands: IntArray,
+  val targets: IntArray,
+  val matchers: Array<Matcher>,
+  val captureOffsets: IntArray,
+  val captureKinds: IntArray,
+  val captureGroups: IntArray,
+  /**
+   * The assertion of each state, as an index of [assertions], or -1 if the state has no assertion
+   */
+  val assertionIds: IntArray,
+  val assertions: Array<ProgramAssertion>,
+  /**
+   * Whether any of the matchers reads the captured groups while simulating (backreferences)
+   */
+  val readsGroups: Boolean,
+  /**
+   * Whether each state is memoizable, see [RegexProgram]. No state is memoizable if any matcher depends on the path
+   * taken to reach it
+   */
+  val memoizable: BooleanArray,
+) {
+  internal companion object {
+    /**
+     * Always matches, without consuming anything
+     */
+    internal const val OP_EPSILON: Int = 0
+
+    /**
+     * Matches the character in the operand. A new line also matches the end of the text, without consuming anything
+     */
+    internal const val OP_CHAR: Int = 1
+
+    /**
+     * Matches any character, except for a new line
+     */
+    internal const val OP_ANY: Int = 2
+
+    /**
+     * Matches any character, including a new line
+     */
+    internal const val OP_ANY_NL: Int = 3
+
+    /**
+     * Matches at the start of a line, without consuming anything
+     */
+    internal const val OP_START_OF_LINE: Int = 4
+
+    /**
+     * Matches at the end of a line, without consuming anything
+     */
+    internal const val OP_END_OF_LINE: Int = 5
+
+    /**
+     * Matches at the start of the text, without consuming anything
+     */
+    internal const val OP_START_OF_FILE: Int = 6
+
+    /**
+     * Matches at the end of the text, without consuming anything
+     */
+    internal const val OP_END_OF_FILE: Int = 7
+
+    /**
+     * Calls the matcher of [matchers] in the operand
+     */
+    internal const val OP_MATCHER: Int = 8
+
+    internal const val CAPTURE_START: Int = 0
+    internal const val CAPTURE_END: Int = 1
+    internal const val CAPTURE_FORCE_END: Int = 2
+
+    /**
+     * Lowers a NFA into a program
+     *
+     * @param nfa The NFA to lower. It must be fully built
+     */
+    internal fun compile(nfa: NFA): RegexProgram {
+      val states = nfa.states()
+      val ids = IdentityHashMap<NFAState, Int>()
+      states.forEachIndexed { id, state -> ids[state] = id }
+
+      val transitionOffsets = IntArray(states.size + 1)
+      val transitionCount = states.sumOf { it.transitions.size }
+      val opcodes = IntArray(transitionCount)
+      val operands = IntArray(transitionCount)
+      val targets = IntArray(transitionCount)
+      val matchers = mutableListOf<Matcher>()
+
+      val captureOffsets = IntArray(states.size + 1)
+      val captureCount = states.sumOf { it.startCapture.size + it.endCapture.size + it.forceEndCapture.size }
+      val captureKinds = IntArray(captureCount)
+      val captureGroups = IntArray(captureCount)
+
+      val assertionIds = IntArray(states.size) { -1 }
+      val assertions = mutableListOf<ProgramAssertion>()
+
+      var transition = 0
+      var capture = 0
+      for ((id, state) in states.withIndex()) {
+        transitionOffsets[id] = transition
+        for (nfaTransition in state.transitions) {
+          val matcher = nfaTransition.matcher
+          when (matcher) {
+            is EpsilonMatcher -> opcodes[transition] = OP_EPSILON
+            is CharacterMatcher -> {
+              opcodes[transition] = OP_CHAR
+              operands[transition] = matcher.char.code
+            }
+            is DotMatcher -> opcodes[transition] = if (matcher.includeNewLine) OP_ANY_NL else OP_ANY
+            is StartOfLineMatcher -> opcodes[transition] = OP_START_OF_LINE
+            is EndOfLineMatcher -> opcodes[transition] = OP_END_OF_LINE
+            is StartOfFileMatcher -> opcodes[transition] = OP_START_OF_FILE
+            is EndOfFileMatcher -> opcodes[transition] = OP_END_OF_FILE
+            else -> {
+              opcodes[transition] = OP_MATCHER
+              operands[transition] = matchers.size
+              matchers.add(matcher)
+            }
+          }
+          targets[transition] = ids.getValue(nfaTransition.destState)
+          transition++
+        }
+
+        captureOffsets[id] = capture
+        for (group in state.startCapture) {
+          captureKinds[capture] = CAPTURE_START
+          captureGroups[capture++] = group
+        }
+        for (group in state.endCapture) {
+          captureKinds[capture] = CAPTURE_END
+          captureGroups[capture++] = group
+        }
+        for (group in state.forceEndCapture) {
+          captureKinds[capture] = CAPTURE_FORCE_END
+          captureGroups[capture++] = group
+        }
+
+        state.assertion?.let {
+          assertionIds[id] = assertions.size
+          assertions.add(
+            ProgramAssertion(
+              it.shouldConsume,
+              it.isPositive,
+              it.isAhead,
+              ids.getValue(it.startState),
+              ids.getValue(it.endState),
+              ids.getValue(it.jumpTo),
+              it.limit,
+            )
+          )
+        }
+      }
+      transitionOffsets[states.size] = transition
+      captureOffsets[states.size] = capture
+
+      val acceptState = ids.getValue(nfa.acceptState)
+      val memoizable = if (matchers.any { it.isPathDependent() }) {
+        BooleanArray(states.size)
+      } else {
+        findMemoizableStates(states.size, acceptState, transitionOffsets, targets, captureOffsets, assertionIds, assertions)
+      }
+
+      return RegexProgram(
+        states.size,
+        ids.getValue(nfa.startState),
+        acceptState,
+        transitionOffsets,
+        opcodes,
+        operands,
+        targets,
+        matchers.toTypedArray(),
+        captureOffsets,
+        captureKinds,
+        captureGroups,
+        assertionIds,
+        assertions.toTypedArray(),
+        matchers.any { it is BackreferenceMatcher },
+        memoizable,
+      )
+    }
+
+    /**
+     * Finds the states that can't reach a state with capture group updates. The updates of the accept state don't
+     * count, since reaching it ends the simulation.
+     */
+    private fun findMemoizableStates(
+      stateCount: Int,
+      acceptState: Int,
+      transitionOffsets: IntArray,
+      targets: IntArray,
+      captureOffsets: IntArray,
+      assertionIds: IntArray,
+      assertions: List<ProgramAssertion>,
+    ): BooleanArray {
+      // Walks the edges backward, from the states with updates to all the states that can reach them
+      val predecessors = Array(stateCount) { mutableListOf<Int>() }
+      for (state in 0 until stateCount) {
+        for (transition in transitionOffsets[state] until transitionOffsets[state + 1]) {
+          predecessors[targets[transition]].add(state)
+        }
+        val assertionId = assertionIds[state]
+        if (assertionId >= 0) {
+          predecessors[assertions[assertionId].startState].add(state)
+          predecessors[assertions[assertionId].jumpTo].add(state)
+        }
+      }
+
+      val reachesCapture = BooleanArray(stateCount)
+      val stack = mutableListOf<Int>()
+      for (state in 0 until stateCount) {
+        if (state != acceptState && captureOffsets[state] < captureOffsets[state + 1]) stack.add(state)
+      }
+      while (stack.isNotEmpty()) {
+        val state = stack.removeLast()
+        if (reachesCapture[state]) continue
+        reachesCapture[state] = true
+        stack.addAll(predecessors[state])
+      }
+      return BooleanArray(stateCount) { !reachesCapture[it] }
+    }
+  }
+}
+
+/**
+ * An assertion of a [RegexProgram], with its states as state numbers
+ *
+ * @see com.maddyhome.idea.vim.regexp.engine.nfa.NFAAssertion
+ */
+internal class ProgramAssertion(
+  val shouldConsume: Boolean,
+  val isPositive: Boolean,
+  val isAhead: Boolean,
+  val startState: Int,
+  val endState: Int,
+  val jumpTo: Int,
+  val limit: Int,
+)
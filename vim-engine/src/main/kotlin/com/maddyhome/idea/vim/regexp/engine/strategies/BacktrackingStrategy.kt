@@ -10,11 +10,15 @@ package com.maddyhome.idea.vim.regexp.engine.strategies
 
 import com.maddyhome.idea.vim.api.VimCaret
 import com.maddyhome.idea.vim.api.VimEditor
+import com.maddyhome.idea.vim.api.globalOptions
+import com.maddyhome.idea.vim.api.injector
+import com.maddyhome.idea.vim.api.isInjectorInitialized
 import com.maddyhome.idea.vim.regexp.VimRegexErrors
+import com.maddyhome.idea.vim.regexp.VimRegexException
 import com.maddyhome.idea.vim.regexp.engine.nfa.NFA
-import com.maddyhome.idea.vim.regexp.engine.nfa.NFAAssertion
-import com.maddyhome.idea.vim.regexp.engine.nfa.NFAState
 import com.maddyhome.idea.vim.regexp.engine.nfa.matcher.MatcherResult
+import com.maddyhome.idea.vim.regexp.engine.program.ProgramAssertion
+import com.maddyhome.idea.vim.regexp.engine.program.RegexProgram
 import com.maddyhome.idea.vim.regexp.match.VimMatchGroupCollection
 import com.maddyhome.idea.vim.regexp.match.VimMatchResult
 import kotlin.math.max
@@ -22,220 +26,580 @@ import kotlin.math.max
 /**
  * Uses a backtracking based strategy to simulate the nfa. This strategy is very powerful, since it
  * can be used with any nfa, but comes at the cost of speed.
+ *
+ * The nfa is simulated through its [RegexProgram]. The backtracking stack, the lists of visited states and the
+ * capture groups are kept in primitive arrays that are reused between simulations, so that simulating doesn't
+ * allocate anything per step.
+ *
+ * Once the simulation failed to reach the accept state from a memoizable state (see [RegexProgram]) at some index, it
+ * doesn't try again when it gets back there through another path. This keeps nested repetitions like `\%(a*\)*` from
+ * taking exponential time, as long as they don't capture anything.
+ *
+ * The memory used by a simulation is limited by a [SimulationBudget], and a pattern that is still too slow can be
+ * interrupted, instead of hanging the editor.
  */
 internal class BacktrackingStrategy : SimulationStrategy {
 
   /**
-   * Memory used to store capture groups
+   * Memory used by the simulations. Each thread has its own, reused by all of its simulations
    */
-  private val groups: VimMatchGroupCollection = VimMatchGroupCollection()
+  private val memory: ThreadLocal<BacktrackingMemory> = ThreadLocal.withInitial { BacktrackingMemory() }
 
-  override fun simulate(nfa: NFA, editor: VimEditor, startIndex: Int, isCaseInsensitive: Boolean): SimulationResult {
-    groups.clear()
-    if (simulate(editor, startIndex, nfa.startState, nfa.acceptState, isCaseInsensitive, editor.carets().toMutableList()).simulationResult) {
-      return SimulationResult.Complete(
-        groups.get(0)?.let {
-          VimMatchResult.Success(
-            it.range,
-            it.value,
-            groups
-          )
-        } ?: run { VimMatchResult.Failure(VimRegexErrors.E486) }
+  override fun simulate(
+    nfa: NFA,
+    editor: VimEditor,
+    startIndex: Int,
+    isCaseInsensitive: Boolean,
+    checkInterrupted: () -> Unit,
+  ): SimulationResult {
+    val program = nfa.program
+    val memory = memory.get()
+    memory.reset()
+    try {
+      val simulation = ProgramSimulation(
+        program,
+        editor,
+        isCaseInsensitive,
+        editor.carets().toMutableList(),
+        memory,
+        SimulationBudget.fromOptions(checkInterrupted),
       )
+      if (simulation.simulate(startIndex, program.startState, program.acceptState) >= 0) {
+        val groups = memory.captures.toGroupCollection(editor.text())
+        return SimulationResult.Complete(
+          groups.get(0)?.let {
+            VimMatchResult.Success(
+              it.range,
+              it.value,
+              groups
+            )
+          } ?: run { VimMatchResult.Failure(VimRegexErrors.E486) }
+        )
+      }
+      return SimulationResult.Complete(VimMatchResult.Failure(VimRegexErrors.E486))
+    } finally {
+      memory.trim()
     }
-    return SimulationResult.Complete(VimMatchResult.Failure(VimRegexErrors.E486))
   }
+}
+
+/**
+ * A single simulation of a program
+ *
+ * @param program           The program to simulate
+ * @param editor            The editor that is used for the simulation
+ * @param isCaseInsensitive Whether the simulation should ignore case
+ * @param possibleCursors   The cursors that are allowed to match
+ * @param memory            The memory used by the simulation
+ * @param budget            The limits of the work done by the simulation
+ */
+private class ProgramSimulation(
+  private val program: RegexProgram,
+  private val editor: VimEditor,
+  private val isCaseInsensitive: Boolean,
+  private val possibleCursors: MutableList<VimCaret>,
+  private val memory: BacktrackingMemory,
+  private val budget: SimulationBudget,
+) {
+  private val text = editor.text()
 
   /**
-   * Simulates the NFA in a depth-first search fashion.
+   * The capture groups as seen by matchers that read them. Only kept up to date when the program has such matchers,
+   * since building the groups allocates.
+   */
+  private val groups: VimMatchGroupCollection = VimMatchGroupCollection()
+
+  /**
+   * Simulates the program in a depth-first search fashion.
+   *
+   * @param index       The current index of the text in the simulation
+   * @param state       The current state in the simulation
+   * @param targetState The state that needs to be found for a successful match
+   * @param maxIndex    The maximum index of the text that the simulation is allowed to go to
    *
-   * @param editor            The editor that is used for the simulation
-   * @param index             The current index of the text in the simulation
-   * @param state             The current NFA state in the simulation
-   * @param targetState       The NFA state that needs to be found for a successful match
-   * @param isCaseInsensitive Whether the simulation should ignore case
-   * @param maxIndex          The maximum index of the text that the simulation is allowed to go to
-   * @param possibleCursors   The cursors that are allowed to match
+   * @return The index at which the simulation reached the target state, or -1 if it didn't
    *
-   * @return The result of the simulation. It tells whether it was successful, and at what index it stopped.
+   * @throws VimRegexException if the simulation went over its budget, or was interrupted
    */
-  private fun simulate(
-    editor: VimEditor,
-    index: Int,
-    state: NFAState,
-    targetState: NFAState,
-    isCaseInsensitive: Boolean,
-    possibleCursors: MutableList<VimCaret>,
-    maxIndex: Int = editor.text().length
-  ): NFASimulationResult {
-    val stack = mutableListOf<SimulationStackFrame>()
-    stack.add(SimulationStackFrame(index, state, NfaStateList.empty))
-
-    while (stack.isNotEmpty()) {
-      val currFrame = stack.removeLast()
-      if (currFrame.currentIndex > maxIndex) continue
-      updateCaptureGroups(editor, currFrame.currentIndex, currFrame.currentState)
-      if (currFrame.currentState === targetState) return NFASimulationResult(true, currFrame.currentIndex)
-      currFrame.currentState.assertion?.let {
-        val assertionResult = handleAssertion(editor, currFrame.currentIndex, isCaseInsensitive, it, possibleCursors)
-        if (assertionResult.simulationResult) stack.add(SimulationStackFrame(assertionResult.index, currFrame.currentState.assertion!!.jumpTo, NfaStateList.empty))
-      }
+  fun simulate(index: Int, state: Int, targetState: Int, maxIndex: Int = text.length): Int {
+    val stack = memory.stack
+    // simulations of assertions run on top of the frames of the simulation that started them
+    val base = stack.size
+    // the visited states are only valid for a single target and max index, so only the outermost simulation uses them
+    val isMemoized = base == 0
+    stack.push(index, state, EMPTY_LIST, memory.lists.size)
 
+    try {
+      while (stack.size > base) {
+        stack.pop()
+        val currentIndex = stack.poppedIndex
+        val currentState = stack.poppedState
+        val epsilonVisited = stack.poppedList
+        // the nodes added after this frame was pushed were only used by the frames above it, that are all gone
+        memory.lists.size = stack.poppedListsSize
+        budget.step(memory)
+        if (currentIndex > maxIndex) continue
+        // the state was already tried at this index, and it didn't lead to the target
+        if (isMemoized && program.memoizable[currentState] && !memory.visited.add(currentState, currentIndex)) continue
+        updateCaptureGroups(currentIndex, currentState)
+        if (currentState == targetState) return currentIndex
 
-      for (i in currFrame.currentState.transitions.lastIndex downTo 0) {
-        val transition = currFrame.currentState.transitions[i]
-        val transitionMatcherResult = transition.matcher.matches(editor, currFrame.currentIndex, groups, isCaseInsensitive, possibleCursors)
-        if (transitionMatcherResult !is MatcherResult.Success) continue
-        val destState = transition.destState
-        if (transitionMatcherResult.consumed == 0 && currFrame.epsilonVisited.contains(destState)) continue
-        val nextIndex = currFrame.currentIndex + transitionMatcherResult.consumed
-        val epsilonVisitedCopy = if (transitionMatcherResult.consumed == 0 && !currFrame.epsilonVisited.contains(destState)) NfaStateList(currFrame.currentState, currFrame.epsilonVisited) else NfaStateList.empty
-        stack.add(SimulationStackFrame(nextIndex, destState, epsilonVisitedCopy))
+        val assertionId = program.assertionIds[currentState]
+        if (assertionId >= 0) {
+          val assertion = program.assertions[assertionId]
+          val assertionIndex = handleAssertion(currentIndex, assertion)
+          if (assertionIndex >= 0) stack.push(assertionIndex, assertion.jumpTo, EMPTY_LIST, memory.lists.size)
+        }
+
+        for (transition in program.transitionOffsets[currentState + 1] - 1 downTo program.transitionOffsets[currentState]) {
+          val consumed = matches(transition, currentIndex)
+          if (consumed < 0) continue
+          val destState = program.targets[transition]
+          if (consumed == 0 && memory.lists.contains(epsilonVisited, destState)) continue
+          val nextList = if (consumed == 0) memory.lists.add(currentState, epsilonVisited) else EMPTY_LIST
+          stack.push(currentIndex + consumed, destState, nextList, memory.lists.size)
+        }
+      }
+      return -1
+    } finally {
+      stack.size = base
+    }
+  }
+
+  /**
+   * Checks whether a transition can be taken at an index
+   *
+   * @return The number of characters consumed by the transition, or -1 if it can't be taken
+   */
+  private fun matches(transition: Int, index: Int): Int {
+    val operand = program.operands[transition]
+    return when (program.opcodes[transition]) {
+      RegexProgram.OP_EPSILON -> 0
+      RegexProgram.OP_CHAR -> when {
+        // Vim always matches a new line with the end of the buffer, see CharacterMatcher
+        index == text.length && operand == '\n'.code -> 0
+        index >= text.length -> -1
+        isCaseInsensitive -> if (text[index].lowercaseChar() == operand.toChar().lowercaseChar()) 1 else -1
+        else -> if (text[index].code == operand) 1 else -1
+      }
+      RegexProgram.OP_ANY -> if (index < text.length && text[index] != '\n') 1 else -1
+      RegexProgram.OP_ANY_NL -> if (index < text.length) 1 else -1
+      RegexProgram.OP_START_OF_LINE -> if (index == 0 || text[index - 1] == '\n') 0 else -1
+      RegexProgram.OP_END_OF_LINE -> if (index == text.length || text[index] == '\n') 0 else -1
+      RegexProgram.OP_START_OF_FILE -> if (index == 0) 0 else -1
+      RegexProgram.OP_END_OF_FILE -> if (index == text.length) 0 else -1
+      else -> {
+        val result = program.matchers[operand].matches(editor, index, groups, isCaseInsensitive, possibleCursors)
+        if (result is MatcherResult.Success) result.consumed else -1
       }
     }
-    return NFASimulationResult(false, index)
   }
 
   /**
-   * Handles a state of the NFA that has an assertion. Determines if the assertion
+   * Handles a state of the program that has an assertion. Determines if the assertion
    * was successful or not, and where the normal simulation should resume.
    *
-   * @param editor            The editor that is used for the simulation
-   * @param currentIndex      The current index of the text in the simulation
-   * @param isCaseInsensitive Whether the simulation should ignore case
-   * @param assertion         The assertion that is to be handled
-   * @param possibleCursors   The cursors that are allowed to match
+   * @param currentIndex The current index of the text in the simulation
+   * @param assertion    The assertion that is to be handled
    *
-   * @return The result of the assertion. It tells whether it was successful, and at what index it stopped.
+   * @return The index where the normal simulation should resume, or -1 if the assertion failed
    */
-  private fun handleAssertion(
-    editor: VimEditor,
-    currentIndex: Int,
-    isCaseInsensitive: Boolean,
-    assertion: NFAAssertion,
-    possibleCursors: MutableList<VimCaret>
-  ): NFASimulationResult {
-    return if (assertion.isAhead) handleAheadAssertion(editor, currentIndex, isCaseInsensitive, assertion, possibleCursors)
-    else handleBehindAssertion(editor, currentIndex, isCaseInsensitive, assertion, possibleCursors)
+  private fun handleAssertion(currentIndex: Int, assertion: ProgramAssertion): Int {
+    return if (assertion.isAhead) handleAheadAssertion(currentIndex, assertion)
+    else handleBehindAssertion(currentIndex, assertion)
   }
 
   /**
-   * Handles a state of the NFA that has an assertion ahead. Determines if the assertion
+   * Handles a state of the program that has an assertion ahead. Determines if the assertion
    * was successful or not, and where the normal simulation should resume.
    *
-   * @param editor            The editor that is used for the simulation
-   * @param currentIndex      The current index of the text in the simulation
-   * @param isCaseInsensitive Whether the simulation should ignore case
-   * @param assertion         The assertion that is to be handled
-   * @param possibleCursors   The cursors that are allowed to match
+   * @param currentIndex The current index of the text in the simulation
+   * @param assertion    The assertion that is to be handled
    *
-   * @return The result of the assertion. It tells whether it was successful, and at what index it stopped.
+   * @return The index where the normal simulation should resume, or -1 if the assertion failed
    */
-  private fun handleAheadAssertion(
-    editor: VimEditor,
-    currentIndex: Int,
-    isCaseInsensitive: Boolean,
-    assertion: NFAAssertion,
-    possibleCursors: MutableList<VimCaret>
-  ): NFASimulationResult {
-    val assertionResult = simulate(editor, currentIndex, assertion.startState, assertion.endState, isCaseInsensitive, possibleCursors)
-    if (assertionResult.simulationResult != assertion.isPositive) {
-      return NFASimulationResult(false, currentIndex)
-    }
+  private fun handleAheadAssertion(currentIndex: Int, assertion: ProgramAssertion): Int {
+    val assertionIndex = simulate(currentIndex, assertion.startState, assertion.endState)
+    if ((assertionIndex >= 0) != assertion.isPositive) return -1
 
     /**
      * If the assertion should consume input, the normal simulation resumes at the index where the
      * assertion stopped, else it resumes at the index that the simulation was at before the assertion.
      */
-    val newIndex = if (assertion.shouldConsume) assertionResult.index else currentIndex
-    return NFASimulationResult(true, newIndex)
+    return if (assertion.shouldConsume) assertionIndex else currentIndex
   }
 
   /**
-   * Handles a state of the NFA that has an assertion behind. Determines if the assertion
+   * Handles a state of the program that has an assertion behind. Determines if the assertion
    * was successful or not, and where the normal simulation should resume.
    *
-   * @param editor            The editor that is used for the simulation
-   * @param currentIndex      The current index of the text in the simulation
-   * @param isCaseInsensitive Whether the simulation should ignore case
-   * @param assertion         The assertion that is to be handled
-   * @param possibleCursors   The cursors that are allowed to match
+   * @param currentIndex The current index of the text in the simulation
+   * @param assertion    The assertion that is to be handled
    *
-   * @return The result of the assertion. It tells whether it was successful, and at what index it stopped.
+   * @return The index where the normal simulation should resume, or -1 if the assertion failed
    */
-  private fun handleBehindAssertion(
-    editor: VimEditor,
-    currentIndex: Int,
-    isCaseInsensitive: Boolean,
-    assertion: NFAAssertion,
-    possibleCursors: MutableList<VimCaret>
-  ): NFASimulationResult {
+  private fun handleBehindAssertion(currentIndex: Int, assertion: ProgramAssertion): Int {
     var lookBehindStartIndex = currentIndex - 1
     val minIndex = if (assertion.limit == 0) 0 else max(0, currentIndex - assertion.limit)
     var seenNewLine = false
-    while (lookBehindStartIndex >= minIndex && !(seenNewLine && editor.text()[lookBehindStartIndex] != '\n')) {
+    while (lookBehindStartIndex >= minIndex && !(seenNewLine && text[lookBehindStartIndex] != '\n')) {
       // the lookbehind is allowed to look back as far as to the start of the previous line
-      if (editor.text()[lookBehindStartIndex] == '\n') seenNewLine = true
+      if (text[lookBehindStartIndex] == '\n') seenNewLine = true
 
-      val result = simulate(editor, lookBehindStartIndex, assertion.startState, assertion.endState, isCaseInsensitive, possibleCursors, maxIndex = currentIndex)
+      val result = simulate(lookBehindStartIndex, assertion.startState, assertion.endState, maxIndex = currentIndex)
       // found a match that ends before the "currentIndex"
-      if (result.simulationResult && result.index == currentIndex) {
-        return if (assertion.isPositive) NFASimulationResult(
-          true,
-          currentIndex
-        )
-        else NFASimulationResult(false, currentIndex)
+      if (result == currentIndex) {
+        return if (assertion.isPositive) currentIndex else -1
       }
       lookBehindStartIndex--
     }
-    return if (assertion.isPositive) NFASimulationResult(false, currentIndex)
-    else NFASimulationResult(true, currentIndex)
+    return if (assertion.isPositive) -1 else currentIndex
   }
 
   /**
    * Updates the results of capture groups' matches
    *
-   * @param editor The editor that is used for the simulation
-   * @param index  The current index of the text in the simulation
-   * @param state  The current state in the simulation
+   * @param index The current index of the text in the simulation
+   * @param state The current state in the simulation
    */
-  private fun updateCaptureGroups(editor: VimEditor, index: Int, state: NFAState) {
-    for (groupNumber in state.startCapture) groups.setGroupStart(groupNumber, index)
-    for (groupNumber in state.endCapture) groups.setGroupEnd(groupNumber, index, editor.text())
-    for (groupNumber in state.forceEndCapture) groups.setForceGroupEnd(groupNumber, index, editor.text())
+  private fun updateCaptureGroups(index: Int, state: Int) {
+    for (capture in program.captureOffsets[state] until program.captureOffsets[state + 1]) {
+      val groupNumber = program.captureGroups[capture]
+      when (program.captureKinds[capture]) {
+        RegexProgram.CAPTURE_START -> {
+          memory.captures.setGroupStart(groupNumber, index)
+          if (program.readsGroups) groups.setGroupStart(groupNumber, index)
+        }
+        RegexProgram.CAPTURE_END -> {
+          memory.captures.setGroupEnd(groupNumber, index)
+          if (program.readsGroups) groups.setGroupEnd(groupNumber, index, text)
+        }
+        RegexProgram.CAPTURE_FORCE_END -> {
+          memory.captures.setForceGroupEnd(groupNumber, index)
+          if (program.readsGroups) groups.setForceGroupEnd(groupNumber, index, text)
+        }
+      }
+    }
+  }
+
+  private companion object {
+    private const val EMPTY_LIST = -1
   }
 }
 
 /**
- * Represents the result of simulating a NFA
+ * The memory used by backtracking simulations, made of primitive arrays that grow as needed
  */
-private data class NFASimulationResult(
+private class BacktrackingMemory {
+  val stack = FrameStack()
+  val lists = StateLists()
+  val captures = CaptureRegisters()
+  val visited = VisitedStates()
+
+  fun reset() {
+    stack.size = 0
+    lists.size = 0
+    captures.clear()
+    visited.clear()
+  }
+
   /**
-   * Whether the simulation reached a target state successfully
+   * The approximate number of bytes in use by the current simulation
    */
-  val simulationResult: Boolean,
+  fun usedBytes(): Long {
+    return stack.size.toLong() * FrameStack.FRAME_BYTES +
+      lists.size.toLong() * StateLists.NODE_BYTES +
+      visited.size.toLong() * VisitedStates.ENTRY_BYTES
+  }
 
   /**
-   * The index of the input editor text at which the simulation stopped
+   * Releases the memory that was grown by an unusually large simulation
    */
-  val index: Int
-)
-
-private data class SimulationStackFrame(
-  val currentIndex: Int,
-  val currentState: NFAState,
-  val epsilonVisited: NfaStateList,
-)
+  fun trim() {
+    stack.trim()
+    lists.trim()
+    visited.trim()
+  }
+}
 
-private class NfaStateList(
-  val item: NFAState,
-  val tail: NfaStateList?,
+/**
+ * Limits the work done by a simulation. Like in Vim, the memory it uses is limited by 'maxmempattern', and going over
+ * it ends the search with E363. There is no limit on the time the simulation takes, but from time to time the budget
+ * checks whether the search was interrupted, so that a slow pattern can be stopped by the user.
+ *
+ * @param maxBytes         The maximum number of bytes the simulation can use
+ * @param checkInterrupted Throws if the search was interrupted
+ */
+private class SimulationBudget(
+  private val maxBytes: Long,
+  private val checkInterrupted: () -> Unit,
 ) {
-  fun contains(item: NFAState): Boolean {
-    return this.item == item || this.tail?.contains(item) == true
+  private var steps = 0L
+
+  /**
+   * Counts a step of the simulation
+   *
+   * @throws VimRegexException if the simulation went over its budget, or was interrupted
+   */
+  fun step(memory: BacktrackingMemory) {
+    steps++
+    if (steps and CHECK_INTERVAL_MASK != 0L) return
+    if (memory.usedBytes() > maxBytes) throw VimRegexException(VimRegexErrors.E363.toString())
+    checkInterrupted()
+  }
+
+  companion object {
+    /**
+     * The limit and the interrupt are only checked once every this many steps
+     */
+    private const val CHECK_INTERVAL_MASK = (1L shl 10) - 1
+
+    /**
+     * The default value of 'maxmempattern', used when the options aren't available
+     */
+    private const val DEFAULT_MAX_MEM_PATTERN = 1000
+
+    fun fromOptions(checkInterrupted: () -> Unit): SimulationBudget {
+      val maxMemPattern =
+        if (isInjectorInitialized()) injector.globalOptions().maxmempattern else DEFAULT_MAX_MEM_PATTERN
+      return SimulationBudget(maxMemPattern * 1024L, checkInterrupted)
+    }
+  }
+}
+
+/**
+ * The backtracking stack. Each frame is an index of the text, a state, the list of the states visited without
+ * consuming any character since the last one that was consumed, and the number of list nodes in use when the frame
+ * was pushed.
+ */
+private class FrameStack {
+  private var frames = IntArray(INITIAL_CAPACITY * FRAME_SIZE)
+
+  /**
+   * The number of frames in the stack
+   */
+  var size = 0
+
+  var poppedIndex = 0
+    private set
+  var poppedState = 0
+    private set
+  var poppedList = 0
+    private set
+  var poppedListsSize = 0
+    private set
+
+  fun push(index: Int, state: Int, list: Int, listsSize: Int) {
+    val offset = size * FRAME_SIZE
+    if (offset + FRAME_SIZE > frames.size) frames = frames.copyOf(frames.size * 2)
+    frames[offset] = index
+    frames[offset + 1] = state
+    frames[offset + 2] = list
+    frames[offset + 3] = listsSize
+    size++
+  }
+
+  fun pop() {
+    size--
+    val offset = size * FRAME_SIZE
+    poppedIndex = frames[offset]
+    poppedState = frames[offset + 1]
+    poppedList = frames[offset + 2]
+    poppedListsSize = frames[offset + 3]
+  }
+
+  fun trim() {
+    if (frames.size > MAX_RETAINED_CAPACITY * FRAME_SIZE) frames = IntArray(INITIAL_CAPACITY * FRAME_SIZE)
+  }
+
+  companion object {
+    const val FRAME_BYTES = 16
+    private const val FRAME_SIZE = 4
+    private const val INITIAL_CAPACITY = 64
+    private const val MAX_RETAINED_CAPACITY = 1 shl 16
+  }
+}
+
+/**
+ * Persistent linked lists of states, stored as nodes in primitive arrays. A list is referenced by the index of its
+ * first node, or -1 for the empty list. Lists share their tails, which are always older nodes, so nodes can be freed
+ * in the same order as the frames of the stack that use them.
+ */
+private class StateLists {
+  private var states = IntArray(INITIAL_CAPACITY)
+  private var tails = IntArray(INITIAL_CAPACITY)
+
+  /**
+   * The number of nodes in use
+   */
+  var size = 0
+
+  /**
+   * Returns a list made of a state followed by another list
+   */
+  fun add(state: Int, tail: Int): Int {
+    if (size == states.size) {
+      states = states.copyOf(size * 2)
+      tails = tails.copyOf(size * 2)
+    }
+    states[size] = state
+    tails[size] = tail
+    return size++
+  }
+
+  fun contains(list: Int, state: Int): Boolean {
+    var node = list
+    while (node >= 0) {
+      if (states[node] == state) return true
+      node = tails[node]
+    }
+    return false
+  }
+
+  fun trim() {
+    if (states.size > MAX_RETAINED_CAPACITY) {
+      states = IntArray(INITIAL_CAPACITY)
+      tails = IntArray(INITIAL_CAPACITY)
+    }
+  }
+
+  companion object {
+    const val NODE_BYTES = 8
+    private const val INITIAL_CAPACITY = 256
+    private const val MAX_RETAINED_CAPACITY = 1 shl 16
+  }
+}
+
+/**
+ * A hash set of (state, index) pairs, stored in primitive arrays. Clearing it is constant time: each entry is stamped
+ * with the generation it was added in, and only the entries of the current generation are in the set.
+ */
+private class VisitedStates {
+  private var keys = LongArray(INITIAL_CAPACITY)
+  private var stamps = IntArray(INITIAL_CAPACITY)
+  private var generation = 1
+
+  /**
+   * The number of pairs in the set
+   */
+  var size = 0
+    private set
+
+  /**
+   * Adds a pair to the set
+   *
+   * @return False if the pair was already in the set
+   */
+  fun add(state: Int, index: Int): Boolean {
+    val key = (index.toLong() shl 32) or state.toLong()
+    var slot = slotOf(key, keys.size)
+    while (stamps[slot] == generation) {
+      if (keys[slot] == key) return false
+      slot = (slot + 1) and (keys.size - 1)
+    }
+    keys[slot] = key
+    stamps[slot] = generation
+    size++
+    if (size * 2 > keys.size) grow()
+    return true
+  }
+
+  fun clear() {
+    size = 0
+    generation++
+    if (generation == Int.MAX_VALUE) {
+      stamps.fill(0)
+      generation = 1
+    }
+  }
+
+  fun trim() {
+    if (keys.size > MAX_RETAINED_CAPACITY) {
+      keys = LongArray(INITIAL_CAPACITY)
+      stamps = IntArray(INITIAL_CAPACITY)
+      size = 0
+    }
+  }
+
+  private fun grow() {
+    val oldKeys = keys
+    val oldStamps = stamps
+    keys = LongArray(oldKeys.size * 2)
+    stamps = IntArray(oldKeys.size * 2)
+    for (i in oldKeys.indices) {
+      if (oldStamps[i] != generation) continue
+      var slot = slotOf(oldKeys[i], keys.size)
+      while (stamps[slot] == generation) slot = (slot + 1) and (keys.size - 1)
+      keys[slot] = oldKeys[i]
+      stamps[slot] = generation
+    }
+  }
+
+  private fun slotOf(key: Long, capacity: Int): Int {
+    return ((key * HASH_MULTIPLIER) ushr 32).toInt() and (capacity - 1)
   }
 
   companion object {
-    val empty = NfaStateList(NFAState(), null)
+    const val ENTRY_BYTES = 12
+    private const val INITIAL_CAPACITY = 256
+    private const val MAX_RETAINED_CAPACITY = 1 shl 16
+    private const val HASH_MULTIPLIER = -0x61c8864680b583ebL
+  }
+}
+
+/**
+ * The capture groups of a simulation, as indexes of the text. They are updated with the same rules as
+ * [VimMatchGroupCollection], but without building the matched strings, which is only done once, at the end.
+ */
+private class CaptureRegisters(private val size: Int = 10) {
+  private val groupStarts = IntArray(size)
+  private val rangeStarts = IntArray(size)
+  private val rangeEnds = IntArray(size)
+  private val hasRange = BooleanArray(size)
+  private val completedGroups = BooleanArray(size)
+  private val forceEnded = BooleanArray(size)
+  private var groupCount = 0
+
+  fun setGroupStart(groupNumber: Int, startIndex: Int) {
+    groupStarts[groupNumber] = startIndex
+    if (groupNumber == 0) completedGroups[groupNumber] = false
+  }
+
+  fun setGroupEnd(groupNumber: Int, endIndex: Int) {
+    if (completedGroups[groupNumber] && forceEnded[groupNumber]) return
+    setRange(groupNumber, endIndex)
+  }
+
+  fun setForceGroupEnd(groupNumber: Int, endIndex: Int) {
+    setRange(groupNumber, endIndex)
+    forceEnded[groupNumber] = true
+  }
+
+  private fun setRange(groupNumber: Int, endIndex: Int) {
+    rangeStarts[groupNumber] = groupStarts[groupNumber]
+    rangeEnds[groupNumber] = endIndex
+    hasRange[groupNumber] = true
+    groupCount = maxOf(groupCount, groupNumber + 1)
+    completedGroups[groupNumber] = true
+  }
+
+  fun clear() {
+    groupCount = 0
+    hasRange.fill(false)
+    completedGroups.fill(false)
+    forceEnded.fill(false)
+  }
+
+  /**
+   * Builds the matched groups
+   */
+  fun toGroupCollection(text: CharSequence): VimMatchGroupCollection {
+    val groups = VimMatchGroupCollection(size)
+    for (groupNumber in 0 until groupCount) {
+      if (!hasRange[groupNumber]) continue
+      groups.setGroupStart(groupNumber, rangeStarts[groupNumber])
+      groups.setGroupEnd(groupNumber, rangeEnds[groupNumber], text)
+    }
+    return groups
   }
 }
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2003-2023 The IdeaVim authors
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE.txt file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.maddyhome.idea.vim.regexp.engine.strategies
+
+import com.maddyhome.idea.vim.api.VimEditor
+import com.maddyhome.idea.vim.regexp.VimRegexErrors
+import com.maddyhome.idea.vim.regexp.engine.dfa.LazyDFAResult
+import com.maddyhome.idea.vim.regexp.engine.nfa.NFA
+import com.maddyhome.idea.vim.regexp.match.VimMatchResult
+
+/**
+ * Uses the lazy DFA of the nfa to quickly find out whether there is a match at all.
+ *
+ * Most of the time, there is no match at the start index, and the DFA can tell that with a single linear scan of the
+ * text, without following any paths. When there is a match, the DFA can't tell where it ends nor what its capture
+ * groups are, so [SimulationResult.Incomplete] is returned and the next strategy finds the actual match.
+ *
+ * [SimulationResult.Incomplete] is also returned when the nfa can't be turned into a DFA, or when the DFA gave up.
+ */
+internal class LazyDFAStrategy : SimulationStrategy {
+  override fun simulate(
+    nfa: NFA,
+    editor: VimEditor,
+    startIndex: Int,
+    isCaseInsensitive: Boolean,
+    checkInterrupted: () -> Unit,
+  ): SimulationResult {
+    val dfa = nfa.acquireLazyDFA() ?: return SimulationResult.Incomplete
+    try {
+      return when (dfa.run(editor, startIndex, isCaseInsensitive, checkInterrupted)) {
+        LazyDFAResult.NO_MATCH -> SimulationResult.Complete(VimMatchResult.Failure(VimRegexErrors.E486))
+        LazyDFAResult.MATCH, LazyDFAResult.UNKNOWN -> SimulationResult.Incomplete
+      }
+    } finally {
+      nfa.releaseLazyDFA(dfa)
+    }
+  }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2003-2023 The IdeaVim authors
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE.txt file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.maddyhome.idea.vim.regexp.engine.strategies
+
+import com.maddyhome.idea.vim.api.VimEditor
+import com.maddyhome.idea.vim.regexp.VimRegexErrors
+import com.maddyhome.idea.vim.regexp.engine.nfa.NFA
+import com.maddyhome.idea.vim.regexp.engine.nfa.NFAState
+import com.maddyhome.idea.vim.regexp.engine.nfa.matcher.MatcherResult
+import com.maddyhome.idea.vim.regexp.match.VimMatchGroupCollection
+import com.maddyhome.idea.vim.regexp.match.VimMatchResult
+import java.util.Collections
+import java.util.IdentityHashMap
+
+/**
+ * Simulates the nfa with a Pike VM: all the possible paths are followed at the same time, in lockstep, one character
+ * at a time. A state is never visited twice for the same index, so the simulation runs in O(states × text) time,
+ * regardless of the pattern. This avoids the exponential blow up of backtracking on patterns like `\(a*\)*b`.
+ *
+ * Paths (threads) are kept in priority order, the order in which backtracking would try them, so the match found,
+ * including its capture groups, is the same one that backtracking would find. Each thread keeps track of the capture
+ * groups along its own path.
+ *
+ * This strategy can't deal with assertions or with matchers that depend on the path taken (e.g. backreferences), and
+ * returns [SimulationResult.Incomplete] for nfas that have any of them.
+ */
+internal class PikeVMStrategy : SimulationStrategy {
+  override fun simulate(
+    nfa: NFA,
+    editor: VimEditor,
+    startIndex: Int,
+    isCaseInsensitive: Boolean,
+    checkInterrupted: () -> Unit,
+  ): SimulationResult {
+    if (nfa.requiresBacktracking) return SimulationResult.Incomplete
+
+    // None of the matchers are path dependent, so they never read the groups or narrow down the cursors
+    val groups = VimMatchGroupCollection()
+    val possibleCursors = editor.carets().toMutableList()
+    val text = editor.text()
+
+    val visited: MutableSet<NFAState> = Collections.newSetFromMap(IdentityHashMap())
+    val stack = mutableListOf<SimulationThread>()
+    var threads = mutableListOf(SimulationThread(nfa.startState, null))
+    var nextThreads = mutableListOf<SimulationThread>()
+    var matchFound = false
+    var matchTrail: CaptureTrail? = null
+
+    var index = startIndex
+    while (threads.isNotEmpty()) {
+      visited.clear()
+      step@ for (thread in threads) {
+        stack.add(thread)
+        while (stack.isNotEmpty()) {
+          val current = stack.removeLast()
+          if (current.consumes) {
+            // the transition consumes the character at index, the thread continues on the next step
+            nextThreads.add(SimulationThread(current.state, current.trail))
+            continue
+          }
+
+          val state = current.state
+          if (!visited.add(state)) continue
+          val trail = if (state.hasCaptures()) CaptureTrail(state, index, current.trail) else current.trail
+
+          if (state === nfa.acceptState) {
+            // this is the best match so far. All the threads left in this step have a lower priority, so drop them
+            matchFound = true
+            matchTrail = trail
+            stack.clear()
+            break@step
+          }
+
+          // push in reverse order, so that transitions with a higher priority are followed first
+          for (i in state.transitions.lastIndex downTo 0) {
+            val transition = state.transitions[i]
+            val result = transition.matcher.matches(editor, index, groups, isCaseInsensitive, possibleCursors)
+            if (result !is MatcherResult.Success) continue
+            stack.add(SimulationThread(transition.destState, trail, result.consumed > 0))
+          }
+        }
+      }
+
+      threads = nextThreads.also { nextThreads = threads }
+      nextThreads.clear()
+      if (index < text.length && text[index] == '\n') checkInterrupted()
+      index++
+    }
+
+    if (!matchFound) return SimulationResult.Complete(VimMatchResult.Failure(VimRegexErrors.E486))
+
+    val matchGroups = buildCaptureGroups(editor, matchTrail)
+    return SimulationResult.Complete(
+      matchGroups.get(0)?.let {
+        VimMatchResult.Success(it.range, it.value, matchGroups)
+      } ?: VimMatchResult.Failure(VimRegexErrors.E486)
+    )
+  }
+
+  /**
+   * Replays the capture group updates along the path of the matching thread, in the same order that
+   * backtracking would have done them.
+   */
+  private fun buildCaptureGroups(editor: VimEditor, trail: CaptureTrail?): VimMatchGroupCollection {
+    val steps = generateSequence(trail) { it.previous }.toList()
+    val groups = VimMatchGroupCollection()
+    for (step in steps.asReversed()) updateCaptureGroups(editor, step.index, step.state, groups)
+    return groups
+  }
+
+  /**
+   * Updates the results of capture groups' matches
+   *
+   * @param editor The editor that is used for the simulation
+   * @param index  The current index of the text in the simulation
+   * @param state  The current state in the simulation
+   * @param groups The groups being captured
+   */
+  private fun updateCaptureGroups(editor: VimEditor, index: Int, state: NFAState, groups: VimMatchGroupCollection) {
+    for (groupNumber in state.startCapture) groups.setGroupStart(groupNumber, index)
+    for (groupNumber in state.endCapture) groups.setGroupEnd(groupNumber, index, editor.text())
+    for (groupNumber in state.forceEndCapture) groups.setForceGroupEnd(groupNumber, index, editor.text())
+  }
+
+  private fun NFAState.hasCaptures(): Boolean {
+    return startCapture.isNotEmpty() || endCapture.isNotEmpty() || forceEndCapture.isNotEmpty()
+  }
+}
+
+/**
+ * A path being followed by the simulation
+ *
+ * @param state    The state the path is currently at
+ * @param trail    The states with capture group updates visited so far by this path
+ * @param consumes Whether the path still has to consume the current character to get to the state
+ */
+private class SimulationThread(
+  val state: NFAState,
+  val trail: CaptureTrail?,
+  val consumes: Boolean = false,
+)
+
+/**
+ * A persistent list of the states with capture group updates that a path visited, and at what index,
+ * from the most recent to the oldest. Paths that split share the part of the trail they have in common.
+ */
+private class CaptureTrail(
+  val state: NFAState,
+  val index: Int,
+  val previous: CaptureTrail?,
+)
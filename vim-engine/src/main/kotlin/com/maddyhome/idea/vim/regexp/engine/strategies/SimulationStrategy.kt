@@ -23,8 +23,16 @@ internal interface SimulationStrategy {
    * @param editor            The editor that is used for the simulation
    * @param startIndex        The index where the simulation should start
    * @param isCaseInsensitive Whether the simulation should ignore case
+   * @param checkInterrupted  Throws if the simulation should stop, e.g. because it was cancelled. Long simulations
+   *                          must call it from time to time
    *
    * @return The resulting match result
    */
-  fun simulate(nfa: NFA, editor: VimEditor, startIndex: Int, isCaseInsensitive: Boolean): SimulationResult
+  fun simulate(
+    nfa: NFA,
+    editor: VimEditor,
+    startIndex: Int,
+    isCaseInsensitive: Boolean,
+    checkInterrupted: () -> Unit,
+  ): SimulationResult
 }
\ No newline at end of file
@@ -8,6 +8,7 @@
 package com.maddyhome.idea.vim.register
 
 import com.maddyhome.idea.vim.api.injector
+import com.maddyhome.idea.vim.key.PackedKeyList
 import com.maddyhome.idea.vim.state.mode.SelectionType
 import org.jetbrains.annotations.NonNls
 import java.awt.event.KeyEvent
@@ -36,7 +37,7 @@ class Register {
   ) {
     this.name = name
     this.type = type
-    this.keys = injector.parser.stringToKeys(text).toMutableList()
+    this.keys = injector.parser.stringToKeys(text).toKeyList()
     this.transferableData = transferableData
     this.rawText = text
   }
@@ -50,13 +51,15 @@ class Register {
   ) {
     this.name = name
     this.type = type
-    this.keys = injector.parser.stringToKeys(text).toMutableList()
+    this.keys = injector.parser.stringToKeys(text).toKeyList()
     this.transferableData = transferableData
     this.rawText = rawText
   }
 
   val text: String?
     get() {
+      // The text of a yank is kept as packed keys, and can be read without creating their key strokes
+      (keys as? PackedKeyList)?.let { return it.getText() }
       val builder = StringBuilder()
       for (key in keys) {
         val c = key.keyChar
@@ -80,6 +83,12 @@ class Register {
     this.keys.addAll(keys)
   }
 
+  /**
+   * Returns a mutable list of the keys, keeping them packed if they are
+   */
+  private fun List<KeyStroke>.toKeyList(): MutableList<KeyStroke> =
+    if (this is PackedKeyList) this else PackedKeyList(this)
+
   object KeySorter : Comparator<Register> {
     @NonNls
     private const val ORDER = "\"0123456789abcdefghijklmnopqrstuvwxyz-*+.:%#/="
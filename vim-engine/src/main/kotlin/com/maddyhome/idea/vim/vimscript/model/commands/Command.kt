@@ -14,6 +14,8 @@ import com.maddyhome.idea.vim.api.VimEditor
 import com.maddyhome.idea.vim.api.injector
 import com.maddyhome.idea.vim.command.OperatorArguments
 import com.maddyhome.idea.vim.common.TextRange
+import com.maddyhome.idea.vim.diagnostic.LatencyStatistics
+import com.maddyhome.idea.vim.diagnostic.measure
 import com.maddyhome.idea.vim.diagnostic.vimLogger
 import com.maddyhome.idea.vim.ex.ExException
 import com.maddyhome.idea.vim.ex.MissingRangeException
@@ -58,6 +60,12 @@ sealed class Command(private val commandRange: Range, val commandArgument: Strin
 
   @Throws(ExException::class)
   override fun execute(editor: VimEditor, context: ExecutionContext): ExecutionResult {
+    return LatencyStatistics.getHistogram(LatencyStatistics.Kind.EX_COMMAND, javaClass.simpleName).measure {
+      executeCommand(editor, context)
+    }
+  }
+
+  private fun executeCommand(editor: VimEditor, context: ExecutionContext): ExecutionResult {
     validate(editor)
 
     StrictMode.assert(editor.inNormalMode, "Command execution should only occur in normal mode")
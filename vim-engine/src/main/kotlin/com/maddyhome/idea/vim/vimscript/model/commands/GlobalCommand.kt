@@ -11,17 +11,20 @@ package com.maddyhome.idea.vim.vimscript.model.commands
 import com.intellij.vim.annotations.ExCommand
 import com.maddyhome.idea.vim.api.ExecutionContext
 import com.maddyhome.idea.vim.api.VimEditor
-import com.maddyhome.idea.vim.api.VimRangeMarker
 import com.maddyhome.idea.vim.api.VimSearchGroupBase
 import com.maddyhome.idea.vim.api.globalOptions
 import com.maddyhome.idea.vim.api.injector
 import com.maddyhome.idea.vim.command.OperatorArguments
+import com.maddyhome.idea.vim.common.TextRange
 import com.maddyhome.idea.vim.ex.ranges.LineRange
 import com.maddyhome.idea.vim.ex.ranges.Range
+import com.maddyhome.idea.vim.ex.ranges.toTextRange
 import com.maddyhome.idea.vim.helper.enumSetOf
+import com.maddyhome.idea.vim.regexp.VimRegex
 import com.maddyhome.idea.vim.regexp.VimRegexException
 import com.maddyhome.idea.vim.regexp.VimRegexOptions
 import com.maddyhome.idea.vim.regexp.match.VimMatchResult
+import com.maddyhome.idea.vim.state.mode.SelectionType
 import com.maddyhome.idea.vim.vimscript.model.ExecutionResult
 
 /**
@@ -67,7 +70,10 @@ data class GlobalCommand(val range: Range, val argument: String, val invert: Boo
     val globalCommandArguments = search.parseGlobalCommand(argument) ?: return false
 
     val regex = try {
-      search.prepareRegex(globalCommandArguments.pattern, globalCommandArguments.whichPattern, 2)
+      search.prepareRegex(globalCommandArguments.pattern, globalCommandArguments.whichPattern, 2) {
+        if (gotInt) throw VimRegexException(messages.message("e_interr"))
+        VimRegex.CHECK_CANCELED()
+      }
     } catch (e: VimRegexException) {
       messages.showStatusBarMessage(editor, e.message)
       return false
@@ -78,7 +84,12 @@ data class GlobalCommand(val range: Range, val argument: String, val invert: Boo
     if (injector.globalOptions().ignorecase) options.add(VimRegexOptions.IGNORE_CASE)
 
     if (globalBusy) {
-      val match = regex.findInLine(editor, editor.currentCaret().getLine(), 0, options)
+      val match = try {
+        regex.findInLine(editor, editor.currentCaret().getLine(), 0, options)
+      } catch (e: VimRegexException) {
+        messages.showStatusBarMessage(editor, e.message)
+        return false
+      }
       if (match is VimMatchResult.Success == !invert) {
         globalExecuteOne(editor, context, editor.getLineStartOffset(editor.currentCaret().getLine()), globalCommandArguments.command)
       }
@@ -88,30 +99,35 @@ data class GlobalCommand(val range: Range, val argument: String, val invert: Boo
       if (line1 < 0 || line2 < 0) {
         return false
       }
-      val matches = regex.findAll(
-        editor,
-        editor.getLineStartOffset(line1),
-        editor.getLineEndOffset(line2),
-        options,
-      )
+      val matches = try {
+        regex.findAll(
+          editor,
+          editor.getLineStartOffset(line1),
+          editor.getLineEndOffset(line2),
+          options,
+        )
+      } catch (e: VimRegexException) {
+        // The pattern was too expensive, or the search was interrupted
+        messages.showStatusBarMessage(editor, e.message)
+        return false
+      }
       val matchesLines = matches.map { it.getLine(editor) }.toSet()
       val linesForGlobalCommand = if (invert) {
         ((line1 .. line2).toSet() - matchesLines).toList().sorted()
       } else {
         matchesLines.toList().sorted()
       }
-      val marks = linesForGlobalCommand.map { injector.engineEditorHelper.createRangeMarker(editor, editor.getLineStartOffset(it), editor.getLineStartOffset(it)) }
 
       if (gotInt) {
         messages.showStatusBarMessage(null, messages.message("e_interr"))
-      } else if (marks.isEmpty()) {
+      } else if (linesForGlobalCommand.isEmpty()) {
         if (invert) {
           messages.showStatusBarMessage(null, messages.message("global.command.not.found.v", globalCommandArguments.pattern.toString()))
         } else {
           messages.showStatusBarMessage(null, messages.message("global.command.not.found.g", globalCommandArguments.pattern.toString()))
         }
       } else {
-        globalExe(editor, context, linesForGlobalCommand, marks, globalCommandArguments.command, getOriginalCommandString())
+        globalExe(editor, context, linesForGlobalCommand, globalCommandArguments.command, getOriginalCommandString())
       }
     }
     injector.searchGroup.updateSearchHighlightsAfterGlobalCommand()
@@ -127,32 +143,148 @@ data class GlobalCommand(val range: Range, val argument: String, val invert: Boo
     return editor.offsetToBufferPosition(range.startOffset).line
   }
 
-  private fun globalExe(editor: VimEditor, context: ExecutionContext, lines: List<Int>, marks: List<VimRangeMarker>, cmd: String, originalCommandString: String) {
+  private fun globalExe(editor: VimEditor, context: ExecutionContext, lines: List<Int>, cmd: String, originalCommandString: String) {
     globalBusy = true
+    var updater: MarkedLinesUpdater? = null
     try {
       if (cmd.isEmpty() || (cmd.length == 1 && cmd[0] == '\n')) {
         injector.outputPanel.output(editor, context, originalCommandString + '\n' + PrintCommand.getText(editor, lines))
       } else {
-        for (mark in marks) {
+        val script = injector.vimscriptParser.parse(cmd)
+        val command = script.units.singleOrNull() as? Command
+        if (command != null && executeForAllLines(editor, command, lines)) return
+
+        val markedLines = MarkedLines(lines)
+        updater = MarkedLinesUpdater(editor, markedLines)
+        editor.document.addChangeListener(updater)
+        while (true) {
           if (gotInt) break
           if (!globalBusy) break
-          val startOffset = mark.startOffset
-          val isValid = mark.isValid
-          mark.dispose()
-          if (!isValid) continue
-          editor.currentCaret().moveToOffset(startOffset)
-          injector.vimscriptExecutor.execute(cmd, editor, context, skipHistory = true, indicateErrors = true, this.vimContext)
+          val line = markedLines.nextLine()
+          if (line < 0 || line >= editor.lineCount()) break
+          editor.currentCaret().moveToOffset(editor.getLineStartOffset(line))
+          if (command is NormalCommand) {
+            // The keys don't depend on the line, so the command is only parsed once
+            injector.vimscriptExecutor.execute(script, editor, context, indicateErrors = true, this.vimContext)
+          } else {
+            injector.vimscriptExecutor.execute(cmd, editor, context, skipHistory = true, indicateErrors = true, this.vimContext)
+          }
           // TODO: 26.05.2021 break check
         }
       }
     } catch (e: Exception) {
       throw e
     } finally {
+      updater?.let { editor.document.removeChangeListener(it) }
       globalBusy = false
     }
     // TODO: 26.05.2021 Add other staff
   }
 
+  /**
+   * Runs the common forms of the command on all the marked lines at once, rather than on each line in turn
+   *
+   * `:g/pat/d`, `:g/pat/m0` and `:g/pat/t$` are a single set of replacements in the document, and `:g/pat/s//…/` is
+   * one bulk substitution. The result is the same as running the command on each line.
+   *
+   * @return False if the command has to run on each line in turn
+   */
+  private fun executeForAllLines(editor: VimEditor, command: Command, lines: List<Int>): Boolean {
+    if (!editor.isDocumentWritable()) return false
+    val argument = command.commandArgument.trim()
+    return when {
+      command is DeleteLinesCommand && command.range.size() == 0 && argument.isEmpty() -> {
+        injector.application.runWriteAction { deleteLines(editor, lines) }
+        true
+      }
+      command is MoveTextCommand && command.range.size() == 0 && argument == "0" -> {
+        injector.application.runWriteAction { moveLinesToTop(editor, lines) }
+        true
+      }
+      command is CopyTextCommand && command.range.size() == 0 && argument == "$" -> {
+        injector.application.runWriteAction { copyLinesToEnd(editor, lines) }
+        true
+      }
+      command is SubstituteCommand && command.range.size() == 0 -> {
+        val search = injector.searchGroup as VimSearchGroupBase
+        search.processGlobalSubstituteCommand(editor, editor.currentCaret(), lines, command.command, command.argument)
+      }
+      else -> false
+    }
+  }
+
+  private fun deleteLines(editor: VimEditor, lines: List<Int>) {
+    val caret = editor.currentCaret()
+    // Each :delete shifts the numbered registers, so the last nine deleted lines are left in "1 to "9, and the last one
+    // in the unnamed register. Storing the lines before them would only shift them out again
+    for (line in lines.takeLast(9)) {
+      injector.registerGroup.selectRegister(injector.registerGroup.defaultRegister)
+      injector.registerGroup.storeText(editor, caret, LineRange(line, line).toTextRange(editor), SelectionType.LINE_WISE, true)
+    }
+    val lastLine = lines.last()
+
+    val search = injector.searchGroup as VimSearchGroupBase
+    search.replaceStrings(editor, getLineBlocks(lines).map { (first, last) -> getTextRangeOfLines(editor, first, last) to "" })
+
+    // The caret ends on the line after the last deleted one, like after the last :delete
+    val line = (lastLine - lines.size + 1).coerceIn(0, editor.lineCount() - 1)
+    caret.moveToOffset(injector.motion.moveCaretToLineWithStartOfLineOption(editor, line, caret))
+  }
+
+  private fun moveLinesToTop(editor: VimEditor, lines: List<Int>) {
+    // Each line is moved above the previous one, so they end up in reverse order
+    val movedText = lines.asReversed().joinToString("") { editor.getLineText(it) + "\n" }
+    val replacements = getLineBlocks(lines).map { (first, last) -> getTextRangeOfLines(editor, first, last) to "" }
+      .toMutableList()
+    val (firstRange, _) = replacements.first()
+    when {
+      firstRange.startOffset != 0 -> replacements.add(0, TextRange(0, 0) to movedText)
+      // All the lines are moved, so there is no line after them to end with a line break
+      firstRange.endOffset == editor.fileSize().toInt() -> replacements[0] = firstRange to movedText.dropLast(1)
+      else -> replacements[0] = firstRange to movedText
+    }
+    (injector.searchGroup as VimSearchGroupBase).replaceStrings(editor, replacements)
+    editor.currentCaret().moveToOffset(0)
+  }
+
+  private fun copyLinesToEnd(editor: VimEditor, lines: List<Int>) {
+    // The copies aren't marked, and each one is put after the previous one, so they keep their order
+    val copiedText = lines.joinToString("") { "\n" + editor.getLineText(it) }
+    val endOffset = editor.fileSize().toInt()
+    (injector.searchGroup as VimSearchGroupBase).replaceStrings(editor, listOf(TextRange(endOffset, endOffset) to copiedText))
+    val caret = editor.currentCaret()
+    caret.moveToOffset(injector.motion.moveCaretToLineStartSkipLeading(editor, editor.lineCount() - 1))
+  }
+
+  /**
+   * Returns the runs of consecutive lines, as pairs of their first and last lines
+   */
+  private fun getLineBlocks(lines: List<Int>): List<Pair<Int, Int>> {
+    val blocks = mutableListOf<Pair<Int, Int>>()
+    var first = lines.first()
+    var last = first
+    for (line in lines) {
+      if (line > last + 1) {
+        blocks.add(first to last)
+        first = line
+      }
+      last = line
+    }
+    blocks.add(first to last)
+    return blocks
+  }
+
+  /**
+   * Returns the text range of the lines with a line break, which is the one before them at the end of the document
+   */
+  private fun getTextRangeOfLines(editor: VimEditor, first: Int, last: Int): TextRange {
+    return when {
+      last < editor.lineCount() - 1 -> TextRange(editor.getLineStartOffset(first), editor.getLineStartOffset(last + 1))
+      first > 0 -> TextRange(editor.getLineEndOffset(first - 1), editor.fileSize().toInt())
+      else -> TextRange(0, editor.fileSize().toInt())
+    }
+  }
+
   private fun globalExecuteOne(editor: VimEditor, context: ExecutionContext, lineStartOffset: Int, cmd: String?) {
     // TODO: 26.05.2021 What about folds?
     editor.currentCaret().moveToOffset(lineStartOffset)
@@ -166,7 +298,7 @@ data class GlobalCommand(val range: Range, val argument: String, val invert: Boo
   companion object {
     private var globalBusy = false
 
-    // Interrupted. Not used at the moment
+    // Interrupted. Checked by the searches of the command, but not set at the moment
     var gotInt: Boolean = false
   }
 }
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2003-2023 The IdeaVim authors
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE.txt file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.maddyhome.idea.vim.vimscript.model.commands
+
+import com.intellij.vim.annotations.ExCommand
+import com.maddyhome.idea.vim.api.ExecutionContext
+import com.maddyhome.idea.vim.api.VimEditor
+import com.maddyhome.idea.vim.api.injector
+import com.maddyhome.idea.vim.command.OperatorArguments
+import com.maddyhome.idea.vim.diagnostic.LatencyStatistics
+import com.maddyhome.idea.vim.ex.exExceptionMessage
+import com.maddyhome.idea.vim.ex.ranges.Range
+import com.maddyhome.idea.vim.vimscript.model.ExecutionResult
+
+/**
+ * Shows the time spent in each key consumer, command and Ex command, to find what makes typing slow
+ *
+ * `:IdeaVimStats reset` clears the statistics.
+ */
+@ExCommand(command = "IdeaVimStats")
+data class IdeaVimStatsCommand(val range: Range, val argument: String) : Command.SingleExecution(range, argument) {
+  override val argFlags: CommandHandlerFlags = flags(
+    RangeFlag.RANGE_FORBIDDEN,
+    ArgumentFlag.ARGUMENT_OPTIONAL,
+    Access.READ_ONLY,
+  )
+
+  override fun processCommand(
+    editor: VimEditor,
+    context: ExecutionContext,
+    operatorArguments: OperatorArguments,
+  ): ExecutionResult {
+    when (argument.trim()) {
+      "" -> injector.outputPanel.output(editor, context, LatencyStatistics.report())
+      "reset" -> LatencyStatistics.reset()
+      else -> throw exExceptionMessage("E474", argument)
+    }
+    return ExecutionResult.Success
+  }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2003-2023 The IdeaVim authors
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE.txt file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.maddyhome.idea.vim.vimscript.model.commands
+
+import com.maddyhome.idea.vim.api.VimEditor
+import com.maddyhome.idea.vim.common.ChangesListener
+
+/**
+ * The lines marked by `:global`, kept up to date while the command runs on each of them
+ *
+ * Vim marks the matching lines, and then runs the command for each marked line in turn. A line that is deleted by the
+ * command loses its mark, and the lines after a change move with the text. Rather than a range marker per line, which
+ * the document would update on every change, the line numbers are kept in a sorted array. Only the lines that are
+ * still to be processed are tracked, and a change that moves all of them (the usual case, since the command changes
+ * the current line or the ones after it) only updates a single shift.
+ *
+ * @param lines The marked lines, in ascending order
+ */
+internal class MarkedLines(lines: List<Int>) {
+  private val lines = lines.toIntArray()
+  private var size = this.lines.size
+
+  /**
+   * The index of the next line to process. Lines before it are no longer tracked
+   */
+  private var next = 0
+
+  /**
+   * The amount to add to the lines that are still to be processed
+   */
+  private var shift = 0
+
+  /**
+   * Returns the next marked line to process, or -1 if there are none left
+   */
+  fun nextLine(): Int = if (next < size) lines[next++] + shift else -1
+
+  /**
+   * Updates the marked lines after a change to the document
+   *
+   * Like a range marker at the start of the line, a mark is lost when the start of the line is inside the changed
+   * text, and is kept when it's at the start or end of the change.
+   *
+   * @param line                 The line of the start of the change
+   * @param atLineStart          Whether the change starts at the start of the line
+   * @param removedLines         The number of line breaks in the replaced text
+   * @param addedLines           The number of line breaks in the new text
+   * @param removedWholeLastLine Whether the replaced text ends with a line break
+   */
+  fun linesChanged(line: Int, atLineStart: Boolean, removedLines: Int, addedLines: Int, removedWholeLastLine: Boolean) {
+    if (removedLines == 0 && addedLines == 0) return
+    removeLines(line + 1, if (removedWholeLastLine) line + removedLines - 1 else line + removedLines)
+    // Text inserted at the start of a line pushes it down, but text inserted inside it doesn't
+    val shiftFrom = if (removedLines == 0 && !atLineStart) line + 1 else line + removedLines
+    shiftLines(shiftFrom, addedLines - removedLines)
+  }
+
+  /**
+   * Removes the marks of the lines from [first] to [last], in the numbering before the change
+   */
+  private fun removeLines(first: Int, last: Int) {
+    if (first > last) return
+    val from = indexOf(first)
+    val to = indexOf(last + 1)
+    if (from == to) return
+    if (from == next) {
+      next = to
+    } else {
+      System.arraycopy(lines, to, lines, from, size - to)
+      size -= to - from
+    }
+  }
+
+  /**
+   * Moves the marks of the lines from [from] onwards by [delta], in the numbering before the change
+   */
+  private fun shiftLines(from: Int, delta: Int) {
+    if (delta == 0) return
+    val index = indexOf(from)
+    if (index == next) {
+      shift += delta
+    } else {
+      for (i in index until size) {
+        lines[i] += delta
+      }
+    }
+  }
+
+  /**
+   * Returns the index of the first line to process that is at or after [line], or the size if there is none
+   */
+  private fun indexOf(line: Int): Int {
+    var low = next
+    var high = size
+    while (low < high) {
+      val mid = (low + high) ushr 1
+      if (lines[mid] + shift < line) low = mid + 1 else high = mid
+    }
+    return low
+  }
+}
+
+/**
+ * Updates the marked lines from the changes to the document of the editor
+ */
+internal class MarkedLinesUpdater(private val editor: VimEditor, private val markedLines: MarkedLines) : ChangesListener {
+  override fun documentChanged(change: ChangesListener.Change) {
+    // The listener is called after the change, but the text before its offset is still the same
+    val line = editor.offsetToBufferPosition(change.offset).line
+    markedLines.linesChanged(
+      line,
+      change.offset == editor.getLineStartOffset(line),
+      change.oldFragment.count { it == '\n' },
+      change.newFragment.count { it == '\n' },
+      change.oldFragment.endsWith('\n'),
+    )
+  }
+}
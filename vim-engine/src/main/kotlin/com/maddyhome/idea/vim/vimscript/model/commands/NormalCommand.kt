@@ -54,6 +54,7 @@ data class NormalCommand(val range: Range, val argument: String) : Command.Singl
       is Mode.OP_PENDING, is Mode.NORMAL -> Unit
     }
     val range = getLineRange(editor, editor.primaryCaret())
+    val keys = injector.parser.stringToKeys(argument)
 
     for (line in range.startLine..range.endLine) {
       if (rangeUsed) {
@@ -66,7 +67,6 @@ data class NormalCommand(val range: Range, val argument: String) : Command.Singl
       }
 
       // Perform operations
-      val keys = injector.parser.stringToKeys(argument)
       val keyHandler = KeyHandler.getInstance()
       keyHandler.reset(editor)
       for (key in keys) {
@@ -15,6 +15,7 @@ import com.maddyhome.idea.vim.api.VimEditor
 import com.maddyhome.idea.vim.api.injector
 import com.maddyhome.idea.vim.command.OperatorArguments
 import com.maddyhome.idea.vim.ex.ExException
+import com.maddyhome.idea.vim.ex.exExceptionMessage
 import com.maddyhome.idea.vim.ex.ranges.LineRange
 import com.maddyhome.idea.vim.ex.ranges.Range
 import com.maddyhome.idea.vim.vimscript.model.ExecutionResult
@@ -32,11 +33,10 @@ data class SortCommand(val range: Range, val argument: String) : Command.SingleE
   @Throws(ExException::class)
   override fun processCommand(editor: VimEditor, context: ExecutionContext, operatorArguments: OperatorArguments): ExecutionResult {
     val sortOption = parseSortOption(argument)
-    val lineComparator = LineComparator(sortOption.ignoreCase, sortOption.numeric, sortOption.reverse)
     var worked = true
     for (caret in editor.carets()) {
       val range = getSortLineRange(editor, caret)
-      if (!injector.changeGroup.sortRange(editor, caret, range, lineComparator, sortOption)) {
+      if (!injector.changeGroup.sortRange(editor, caret, range, sortOption)) {
         worked = false
       }
       caret.moveToInlayAwareOffset(injector.motion.moveCaretToLineStartSkipLeading(editor, range.startLine))
@@ -72,10 +72,15 @@ data class SortCommand(val range: Range, val argument: String) : Command.SingleE
     val patternRange = extractPattern(arg)
     val pattern = patternRange?.let { arg.substring(it) }
     val flags = patternRange?.let { arg.removeRange(patternRange)} ?: arg
+    val numberTypes = SortNumberType.entries.filter { it.flag in flags }
+    if (numberTypes.size > 1) {
+      // Only one kind of number can be sorted on
+      throw exExceptionMessage("E474", arg)
+    }
     return SortOption(
       reverse = "!" in flags,
       ignoreCase = "i" in flags,
-      numeric = "n" in flags,
+      numberType = numberTypes.singleOrNull(),
       unique = "u" in flags,
       sortOnPattern = "r" in flags,
       pattern = pattern
@@ -90,49 +95,89 @@ data class SortCommand(val range: Range, val argument: String) : Command.SingleE
     }
     return null
   }
-
-  private class LineComparator(
-    private val ignoreCase: Boolean,
-    private val numeric: Boolean,
-    private val reverse: Boolean,
-  ) : Comparator<String> {
-
-    override fun compare(o1: String, o2: String): Int {
-      var o1ToCompare = o1
-      var o2ToCompare = o2
-      if (reverse) {
-        val tmp = o2ToCompare
-        o2ToCompare = o1ToCompare
-        o1ToCompare = tmp
-      }
-      if (ignoreCase) {
-        o1ToCompare = o1ToCompare.uppercase(Locale.getDefault())
-        o2ToCompare = o2ToCompare.uppercase(Locale.getDefault())
-      }
-      return if (numeric) {
-        // About natural sort order - https://blog.codinghorror.com/sorting-for-humans-natural-sort-order/
-        val n1 = injector.searchGroup.findDecimalNumber(o1ToCompare)
-        val n2 = injector.searchGroup.findDecimalNumber(o2ToCompare)
-        if (n1 == null) {
-          if (n2 == null) {
-            // no number, fallback to default
-            o1ToCompare.compareTo(o2ToCompare)
-          } else -1
-        } else {
-          if (n2 == null) 1 else n1.compareTo(n2) // what if tied?
-        }
-      } else {
-        o1ToCompare.compareTo(o2ToCompare)
-      }
-    }
-  }
 }
 
+/**
+ * The flags and the pattern of a `:sort` command
+ *
+ * @param numberType The kind of number the lines are sorted on, or null to sort them on their text
+ */
 data class SortOption(
   val ignoreCase: Boolean,
-  val numeric: Boolean,
   val reverse: Boolean,
   val unique: Boolean,
   val sortOnPattern: Boolean,
-  val pattern: String? = null
-)
+  val pattern: String? = null,
+  val numberType: SortNumberType? = null,
+) {
+  /**
+   * Computes the key of a line, which is then compared with [keyComparator] without parsing the line again
+   *
+   * @param text The text of the line that is sorted on, i.e. after or inside the match of the pattern
+   */
+  fun getSortKey(text: String): SortKey {
+    val foldedText = if (ignoreCase) text.uppercase(Locale.getDefault()) else text
+    return when (numberType) {
+      null -> SortKey(foldedText, null, 0.0)
+      SortNumberType.FLOAT -> SortKey(foldedText, null, parseFloat(text))
+      else -> SortKey(foldedText, parseNumber(text, numberType), 0.0)
+    }
+  }
+
+  /**
+   * Compares the keys of two lines. The order is reversed with the `!` flag, but lines with equal keys keep their order
+   */
+  val keyComparator: Comparator<SortKey>
+    get() {
+      val comparator = Comparator<SortKey> { key1, key2 ->
+        when (numberType) {
+          null -> key1.text.compareTo(key2.text)
+          SortNumberType.FLOAT -> key1.float.compareTo(key2.float)
+          // About natural sort order - https://blog.codinghorror.com/sorting-for-humans-natural-sort-order/
+          // Lines without a number come first
+          else -> when {
+            key1.number == null -> if (key2.number == null) key1.text.compareTo(key2.text) else -1
+            key2.number == null -> 1
+            else -> key1.number.compareTo(key2.number)
+          }
+        }
+      }
+      return if (reverse) Comparator { key1, key2 -> comparator.compare(key2, key1) } else comparator
+    }
+
+  private fun parseNumber(text: String, numberType: SortNumberType): Long? {
+    val match = numberType.regex.find(text) ?: return null
+    // A number that doesn't fit is larger than all the others
+    return match.groupValues[1].toLongOrNull(numberType.radix) ?: Long.MAX_VALUE
+  }
+
+  /**
+   * Parses the float at the start of the text, like Vim's `str2float()`. The lines without one are sorted as zero
+   */
+  private fun parseFloat(text: String): Double {
+    val match = SortNumberType.FLOAT.regex.find(text) ?: return 0.0
+    return match.groupValues[1].toDoubleOrNull() ?: 0.0
+  }
+}
+
+/**
+ * The kinds of numbers that `:sort` can sort on, with the flag that selects them
+ *
+ * The first number in the line is used, except for floats, which have to be at the start of it.
+ */
+enum class SortNumberType(val flag: Char, val radix: Int, internal val regex: Regex) {
+  DECIMAL('n', 10, Regex("(\\d+)")),
+  HEXADECIMAL('x', 16, Regex("(?:0[xX])?([0-9a-fA-F]+)")),
+  OCTAL('o', 8, Regex("([0-7]+)")),
+  BINARY('b', 2, Regex("(?:0[bB])?([01]+)")),
+  FLOAT('f', 10, Regex("^\\s*\\+?\\s*([-+]?(?:\\d+\\.?\\d*|\\.\\d+)(?:[eE][-+]?\\d+)?)")),
+}
+
+/**
+ * The key that a line is sorted on
+ *
+ * @param text   The text of the line, case folded with the `i` flag
+ * @param number The number in the line, or null if there is none or the lines aren't sorted on an integer
+ * @param float  The float at the start of the line, when sorting with the `f` flag
+ */
+class SortKey(val text: String, val number: Long?, val float: Double)
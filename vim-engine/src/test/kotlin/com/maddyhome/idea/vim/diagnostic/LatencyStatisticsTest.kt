@@ -0,0 +1,53 @@
+/*
+ * Copyright 2003-2023 The IdeaVim authors
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE.txt file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.maddyhome.idea.vim.diagnostic
+
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertTrue
+
+class LatencyStatisticsTest {
+  @AfterEach
+  fun tearDown() {
+    LatencyStatistics.reset()
+  }
+
+  @Test
+  fun `test percentiles are the upper bounds of the buckets`() {
+    val histogram = LatencyStatistics.getHistogram(LatencyStatistics.Kind.COMMAND, "TestAction")
+    repeat(98) { histogram.record(3_000) }
+    histogram.record(100_000)
+    histogram.record(500)
+
+    val snapshot = histogram.snapshot()
+    assertEquals(100, snapshot.count)
+    assertEquals(100_000, snapshot.maxNanos)
+    assertEquals(4, snapshot.percentileMicros(0.5))
+    assertEquals(4, snapshot.percentileMicros(0.99))
+    assertEquals(128, snapshot.percentileMicros(1.0))
+  }
+
+  @Test
+  fun `test measure records the time of the action`() {
+    val histogram = LatencyStatistics.getHistogram(LatencyStatistics.Kind.EX_COMMAND, "TestCommand")
+    assertEquals(42, histogram.measure { 42 })
+    assertEquals(1, histogram.snapshot().count)
+    assertTrue(LatencyStatistics.report().contains("TestCommand"))
+  }
+
+  @Test
+  fun `test reset clears the histograms`() {
+    val histogram = LatencyStatistics.getHistogram(LatencyStatistics.Kind.KEY_CONSUMER, "TestConsumer")
+    histogram.record(1_000)
+    LatencyStatistics.reset()
+    assertEquals(0, histogram.snapshot().count)
+    assertEquals("No statistics", LatencyStatistics.report())
+  }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2003-2023 The IdeaVim authors
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE.txt file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.maddyhome.idea.vim.key
+
+import org.junit.jupiter.api.Test
+import java.awt.event.InputEvent
+import java.awt.event.KeyEvent
+import javax.swing.KeyStroke
+import kotlin.test.assertEquals
+import kotlin.test.assertNull
+import kotlin.test.assertSame
+
+class PackedKeyListTest {
+  @Test
+  fun `test keys are unpacked to the same key strokes`() {
+    val keys = listOf(
+      KeyStroke.getKeyStroke('a'),
+      KeyStroke.getKeyStroke('ж'),
+      KeyStroke.getKeyStroke(KeyEvent.VK_ESCAPE, 0),
+      KeyStroke.getKeyStroke('W'.code, InputEvent.CTRL_DOWN_MASK or InputEvent.SHIFT_DOWN_MASK),
+      KeyStroke.getKeyStroke(Character.valueOf('x'), InputEvent.ALT_DOWN_MASK),
+      KeyStroke.getKeyStroke(KeyEvent.VK_ENTER, 0, true),
+    )
+    val packed = PackedKeyList(keys)
+    assertEquals(keys, packed)
+    keys.forEachIndexed { index, key -> assertSame(key, packed[index]) }
+  }
+
+  @Test
+  fun `test text is packed like the keys of its chars`() {
+    val expected = listOf(
+      KeyStroke.getKeyStroke('a'),
+      KeyStroke.getKeyStroke('\n'),
+      KeyStroke.getKeyStroke('\t'),
+      KeyStroke.getKeyStroke('J'.code, InputEvent.CTRL_DOWN_MASK),
+      KeyStroke.getKeyStroke('A'.code, InputEvent.CTRL_DOWN_MASK),
+    )
+    assertEquals(expected, PackedKeyList.fromText("a\n\t\u0000\u0001"))
+  }
+
+  @Test
+  fun `test text of keys`() {
+    val keys = PackedKeyList.fromText("foo\tbar\n")
+    assertEquals("foo\tbar\n", keys.getText())
+    keys.add(KeyStroke.getKeyStroke(KeyEvent.VK_ESCAPE, 0))
+    assertNull(keys.getText())
+    assertNull(PackedKeyList.fromText("a\u0001").getText())
+  }
+
+  @Test
+  fun `test adding and removing keys`() {
+    val keys = PackedKeyList.fromText("ac")
+    keys.add(1, KeyStroke.getKeyStroke('b'))
+    keys.addAll(PackedKeyList.fromText("de"))
+    keys.removeAt(0)
+    assertEquals("bcde", keys.getText())
+    assertEquals(PackedKeyList.fromText("bcde").hashCode(), keys.toMutableList().hashCode())
+  }
+
+  @Test
+  fun `test keys that can't be packed are kept by the list`() {
+    val release = KeyStroke.getKeyStroke(KeyEvent.VK_ENTER, 0, true)
+    assertEquals(PackedKeys.NOT_PACKED, PackedKeys.pack(release))
+    val keys = PackedKeyList.fromText("a")
+    keys.add(release)
+    val copy = PackedKeyList.fromText("b")
+    copy.addAll(keys)
+    assertEquals(listOf(KeyStroke.getKeyStroke('b'), KeyStroke.getKeyStroke('a'), release), copy)
+    keys.clear()
+    keys.add(KeyStroke.getKeyStroke('c'))
+    assertEquals("c", keys.getText())
+  }
+
+  @Test
+  fun `test pressed keys are unpacked to the same key strokes`() {
+    val key = KeyStroke.getKeyStroke(KeyEvent.VK_F5, InputEvent.CTRL_DOWN_MASK)
+    val packed = PackedKeys.pack(key)
+    assertSame(key, PackedKeys.unpack(packed))
+    assertSame(PackedKeys.unpack(packed), PackedKeys.unpack(packed))
+  }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2003-2023 The IdeaVim authors
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE.txt file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.maddyhome.idea.vim.key
+
+import org.junit.jupiter.api.Test
+import java.awt.event.InputEvent
+import java.awt.event.KeyEvent
+import javax.swing.KeyStroke
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertNull
+import kotlin.test.assertTrue
+
+class PackedKeyMapTest {
+  private val keys = listOf(
+    KeyStroke.getKeyStroke('j'),
+    KeyStroke.getKeyStroke('g'),
+    KeyStroke.getKeyStroke(KeyEvent.VK_ESCAPE, 0),
+    KeyStroke.getKeyStroke('W'.code, InputEvent.CTRL_DOWN_MASK),
+    KeyStroke.getKeyStroke(KeyEvent.VK_ENTER, 0, true),
+  )
+
+  @Test
+  fun `test map has the same entries as a hash map`() {
+    val expected = HashMap<KeyStroke, Int>()
+    val map = PackedKeyMap<Int>()
+    keys.forEachIndexed { index, key ->
+      expected[key] = index
+      map[key] = index
+    }
+    assertEquals<Map<KeyStroke, Int>>(expected, map)
+    assertEquals(expected.hashCode(), map.hashCode())
+    keys.forEachIndexed { index, key -> assertEquals(index, map[key]) }
+    assertNull(map[KeyStroke.getKeyStroke('x')])
+  }
+
+  @Test
+  fun `test keys are replaced and removed`() {
+    val map = PackedKeyMap<String>()
+    keys.forEach { map[it] = "a" }
+    assertEquals("a", map.put(keys[0], "b"))
+    assertEquals("b", map[keys[0]])
+    assertEquals("a", map.remove(keys[1]))
+    assertEquals("a", map.remove(keys[4]))
+    assertFalse(map.containsKey(keys[1]))
+    assertFalse(map.containsKey(keys[4]))
+    assertEquals(keys.size - 2, map.size)
+    map.clear()
+    assertTrue(map.isEmpty())
+  }
+
+  @Test
+  fun `test entries are removed while iterating`() {
+    val map = PackedKeyMap<Int>()
+    keys.forEachIndexed { index, key -> map[key] = index }
+    map.entries.removeIf { it.value % 2 == 0 }
+    assertEquals<Map<KeyStroke, Int>>(mapOf(keys[1] to 1, keys[3] to 3), map)
+  }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2003-2023 The IdeaVim authors
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE.txt file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.maddyhome.idea.vim.key.notation
+
+import com.maddyhome.idea.vim.action.CommandBean
+import com.maddyhome.idea.vim.key.PackedKeys
+import kotlinx.serialization.ExperimentalSerializationApi
+import kotlinx.serialization.json.Json
+import kotlinx.serialization.json.decodeFromStream
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.assertThrows
+import java.awt.event.InputEvent
+import java.awt.event.KeyEvent
+import javax.swing.KeyStroke
+import kotlin.test.assertEquals
+
+class KeyNotationTest {
+  @Test
+  fun `test special keys are parsed`() {
+    assertKeys(
+      listOf(
+        KeyStroke.getKeyStroke('W'.code, InputEvent.CTRL_DOWN_MASK),
+        KeyStroke.getKeyStroke('j'),
+        KeyStroke.getKeyStroke(KeyEvent.VK_ESCAPE, 0),
+        KeyStroke.getKeyStroke(KeyEvent.VK_LEFT, InputEvent.SHIFT_DOWN_MASK),
+        KeyStroke.getKeyStroke('A'),
+        KeyStroke.getKeyStroke('<'),
+        KeyStroke.getKeyStroke(' '),
+      ),
+      "<C-W>j<Esc><S-Left><S-a><lt><Space>",
+    )
+  }
+
+  @Test
+  fun `test keys that are not special keys are kept`() {
+    assertKeys("<foo>".map { KeyStroke.getKeyStroke(it) }, "<foo>")
+    assertKeys("<a".map { KeyStroke.getKeyStroke(it) }, "<a")
+    assertKeys("'<-2".map { KeyStroke.getKeyStroke(it) }, "'<-2")
+  }
+
+  @Test
+  fun `test nop, comma and leader are parsed`() {
+    assertKeys(emptyList(), "<Nop>")
+    assertKeys(listOf(KeyStroke.getKeyStroke(',')), "<comma>")
+    assertEquals(
+      listOf(KeyStroke.getKeyStroke(' '), KeyStroke.getKeyStroke('x')),
+      KeyNotation.packKeys("<Leader>x") { " " }.map { PackedKeys.unpack(it) },
+    )
+  }
+
+  @Test
+  fun `test sid is rejected`() {
+    assertThrows<IllegalArgumentException> { KeyNotation.packKeys("<SID>x") { "\\" } }
+  }
+
+  @OptIn(ExperimentalSerializationApi::class)
+  @Test
+  fun `test packed keys of the commands are up to date`() {
+    val stream = javaClass.classLoader.getResourceAsStream("ksp-generated/engine_commands.json")!!
+    val commands: List<CommandBean> = stream.use { Json.decodeFromStream(it) }
+    for (command in commands) {
+      val expected = command.keys.map { keys -> KeyNotation.packKeys(keys) { error("leader") }.toList() }
+      assertEquals(expected, command.packedKeys, command.`class`)
+    }
+  }
+
+  private fun assertKeys(expected: List<KeyStroke>, notation: String) {
+    assertEquals(expected, KeyNotation.packKeys(notation) { "\\" }.map { PackedKeys.unpack(it) })
+  }
+}
@@ -8,9 +8,11 @@
 
 package com.maddyhome.idea.vim.regexp.api
 
+import com.maddyhome.idea.vim.common.TextRange
 import com.maddyhome.idea.vim.helper.enumSetOf
 import com.maddyhome.idea.vim.helper.noneOfEnum
 import com.maddyhome.idea.vim.regexp.VimRegex
+import com.maddyhome.idea.vim.regexp.VimRegexException
 import com.maddyhome.idea.vim.regexp.VimRegexOptions
 import com.maddyhome.idea.vim.regexp.VimRegexTestUtils.END
 import com.maddyhome.idea.vim.regexp.VimRegexTestUtils.START
@@ -19,6 +21,7 @@ import com.maddyhome.idea.vim.regexp.VimRegexTestUtils.mockEditorFromText
 import com.maddyhome.idea.vim.regexp.match.VimMatchResult
 import org.junit.jupiter.api.Nested
 import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.assertThrows
 import java.util.EnumSet
 import kotlin.test.assertEquals
 import kotlin.test.fail
@@ -198,6 +201,38 @@ class VimRegexTest {
       )
     }
 
+    @Test
+    fun `test find previous last occurrence of pattern with literal prefix in line`() {
+      doTest(
+        """
+      	|Lorem Ipsum
+        |
+        |Lorem ipsum dolor sit amet, ${START}dolor${END} sit amet
+        |consectetur adipiscing elit
+        |Sed in orci mauris.
+        |Cras id tellus in ex imperdiet egestas.
+      """.trimMargin(),
+        "dolor",
+        80
+      )
+    }
+
+    @Test
+    fun `test find previous pattern with required literal in next line`() {
+      doTest(
+        """
+      	|Lorem Ipsum
+        |
+        |Lorem ipsum dolor sit ${START}amet,
+        |cons${END}ectetur adipiscing elit
+        |Sed in orci mauris.
+        |Cras id tellus in ex imperdiet egestas.
+      """.trimMargin(),
+        "\\a\\+,\\ncons",
+        80
+      )
+    }
+
     @Test
     fun `test find previous single word doesn't warp around`() {
       assertFailure(
@@ -321,6 +356,79 @@ class VimRegexTest {
       )
     }
 
+    @Test
+    fun `test find all occurrences of pattern with literal prefix`() {
+      doTest(
+        """
+      	|Lorem Ipsum
+        |
+        |Lorem ipsum ${START}dolor sit${END} amet,
+        |consectetur adipiscing elit
+        |Sed in orci mauris ${START}dolor  sit${END}.
+        |Cras id tellus in ex imperdiet egestas dolor.
+      """.trimMargin(),
+        "dolor \\+sit",
+      )
+    }
+
+    @Test
+    fun `test find all occurrences of pattern with required literal`() {
+      doTest(
+        """
+      	|Lorem Ipsum
+        |
+        |Lorem ipsum dolor sit ${START}amet${END},
+        |consectetur adipiscing elit
+        |Sed in ${START}orci mauris amet${END}.
+        |Cras id tellus in ex imperdiet egestas.
+      """.trimMargin(),
+        "\\%(orci\\_s\\+mauris \\)\\=amet",
+      )
+    }
+
+    @Test
+    fun `test find all occurrences in long text`() {
+      val text = "Lorem ipsum dolor sit amet,\n".repeat(10_000)
+      val matchResults = VimRegex("dolor \\+sit").findAll(text)
+      assertEquals((0 until 10_000).map { TextRange(it * 28 + 12, it * 28 + 21) }, matchResults.map { it.range })
+    }
+
+    @Test
+    fun `test find all occurrences spanning lines in long text`() {
+      val text = "Lorem ipsum dolor sit amet,\n".repeat(10_000)
+      val matchResults = VimRegex("amet,\\nLorem").findAll(text)
+      assertEquals((0 until 9_999).map { TextRange(it * 28 + 22, it * 28 + 33) }, matchResults.map { it.range })
+    }
+
+    @Test
+    fun `test interrupted find all stops with the error of the interrupt check`() {
+      val text = "Lorem ipsum dolor sit amet,\n".repeat(10_000)
+      val regex = VimRegex("amet,\\nLorem") { throw VimRegexException("Interrupted") }
+      val exception = assertThrows<VimRegexException> { regex.findAll(text) }
+      assertEquals("Interrupted", exception.message)
+    }
+
+    @Test
+    fun `test lazily find first occurrences`() {
+      val text = "Lorem ipsum dolor sit amet,\n".repeat(10_000)
+      val matchResults = VimRegex("dolor \\+sit").findAllLazily(text).take(3).toList()
+      assertEquals((0 until 3).map { TextRange(it * 28 + 12, it * 28 + 21) }, matchResults.map { it.range })
+    }
+
+    @Test
+    fun `test lazily find all occurrences`() {
+      val text = """
+        |Lorem Ipsum
+        |
+        |Lorem ipsum dolor sit amet,
+        |consectetur adipiscing elit
+        |Sed in orci mauris amet.
+        |Cras id tellus in ex imperdiet egestas.
+      """.trimMargin()
+      val regex = VimRegex("\\%(orci\\_s\\+mauris \\)\\=amet\\|^")
+      assertEquals(regex.findAll(text).map { it.range }, regex.findAllLazily(text).map { it.range }.toList())
+    }
+
     private fun doTest(
       text: CharSequence,
       pattern: String,
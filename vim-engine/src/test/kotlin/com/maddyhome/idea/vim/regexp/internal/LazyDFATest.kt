@@ -0,0 +1,85 @@
+/*
+ * Copyright 2003-2023 The IdeaVim authors
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE.txt file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.maddyhome.idea.vim.regexp.internal
+
+import com.maddyhome.idea.vim.regexp.CompiledPattern
+import com.maddyhome.idea.vim.regexp.VimRegexTestUtils.mockEditorFromText
+import com.maddyhome.idea.vim.regexp.engine.dfa.LazyDFA
+import com.maddyhome.idea.vim.regexp.engine.dfa.LazyDFAResult
+import org.junit.jupiter.api.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertNotNull
+import kotlin.test.assertNull
+import kotlin.test.assertTrue
+
+class LazyDFATest {
+  @Test
+  fun `test match is found`() {
+    val dfa = buildDFA("foo\\w\\+bar")
+    assertEquals(LazyDFAResult.MATCH, dfa.run(mockEditorFromText("Lorem foo_1bar ipsum"), 0, false))
+  }
+
+  @Test
+  fun `test match is not found`() {
+    val dfa = buildDFA("foo\\w\\+bar")
+    assertEquals(LazyDFAResult.NO_MATCH, dfa.run(mockEditorFromText("Lorem foo bar ipsum"), 0, false))
+  }
+
+  @Test
+  fun `test case insensitive match is found`() {
+    val dfa = buildDFA("FOO")
+    val editor = mockEditorFromText("Lorem foo ipsum")
+    assertEquals(LazyDFAResult.NO_MATCH, dfa.run(editor, 0, false))
+    assertEquals(LazyDFAResult.MATCH, dfa.run(editor, 0, true))
+  }
+
+  @Test
+  fun `test start of line depends on start index`() {
+    val dfa = buildDFA("^bar", exact = true)
+    val editor = mockEditorFromText("foo\nbar")
+    assertEquals(LazyDFAResult.MATCH, dfa.run(editor, 4, false))
+    assertEquals(LazyDFAResult.NO_MATCH, dfa.run(editor, 5, false))
+  }
+
+  @Test
+  fun `test end of line matches at end of text`() {
+    val dfa = buildDFA("bar$")
+    assertEquals(LazyDFAResult.MATCH, dfa.run(mockEditorFromText("foo bar"), 0, false))
+    assertEquals(LazyDFAResult.NO_MATCH, dfa.run(mockEditorFromText("foo bar baz"), 0, false))
+  }
+
+  @Test
+  fun `test dfa is not built for patterns with assertions`() {
+    assertNull(LazyDFA.fromNFA(CompiledPattern.compile("foo\\(bar\\)\\@=").nfa))
+  }
+
+  @Test
+  fun `test dfa is not built for patterns with backreferences`() {
+    assertNull(LazyDFA.fromNFA(CompiledPattern.compile("\\(a\\)\\1").nfa))
+  }
+
+  @Test
+  fun `test dfa gives up when cache thrashes`() {
+    // the DFA has to remember the last 12 characters, so it needs thousands of states
+    val dfa = buildDFA("a\\%(a\\|b\\)\\{12}c")
+    val text = StringBuilder()
+    var seed = 42
+    repeat(50000) {
+      seed = seed * 1103515245 + 12345
+      text.append(if ((seed shr 16) and 1 == 0) 'a' else 'b')
+    }
+    assertEquals(LazyDFAResult.UNKNOWN, dfa.run(mockEditorFromText(text), 0, false))
+    assertTrue(dfa.hasGivenUp)
+  }
+
+  private fun buildDFA(pattern: String, exact: Boolean = false): LazyDFA {
+    val compiled = CompiledPattern.compile(pattern)
+    return assertNotNull(LazyDFA.fromNFA(if (exact) compiled.nfa else compiled.nonExactNFA))
+  }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2003-2023 The IdeaVim authors
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE.txt file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.maddyhome.idea.vim.regexp.internal
+
+import com.maddyhome.idea.vim.regexp.CompiledPattern
+import com.maddyhome.idea.vim.regexp.engine.prefilter.HorspoolSearcher
+import com.maddyhome.idea.vim.regexp.engine.prefilter.LiteralPrefilter
+import org.junit.jupiter.api.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertNotNull
+import kotlin.test.assertNull
+import kotlin.test.assertTrue
+
+class LiteralPrefilterTest {
+  @Test
+  fun `test literal pattern is a prefix`() {
+    val prefilter = assertNotNull(buildPrefilter("Lorem"))
+    assertEquals("Lorem", prefilter.literal)
+    assertTrue(prefilter.isPrefix)
+  }
+
+  @Test
+  fun `test prefix stops at first non literal`() {
+    val prefilter = assertNotNull(buildPrefilter("^foo\\w\\+bar"))
+    assertEquals("foo", prefilter.literal)
+    assertTrue(prefilter.isPrefix)
+  }
+
+  @Test
+  fun `test prefix goes through groups`() {
+    val prefilter = assertNotNull(buildPrefilter("\\(foo\\)\\zsbar"))
+    assertEquals("foobar", prefilter.literal)
+    assertTrue(prefilter.isPrefix)
+  }
+
+  @Test
+  fun `test common prefix of alternatives`() {
+    val prefilter = assertNotNull(buildPrefilter("foo\\%(bar\\|baz\\)"))
+    assertEquals("fooba", prefilter.literal)
+    assertTrue(prefilter.isPrefix)
+  }
+
+  @Test
+  fun `test required literal that is not a prefix`() {
+    val prefilter = assertNotNull(buildPrefilter("\\w\\+bar\\d*"))
+    assertEquals("bar", prefilter.literal)
+    assertFalse(prefilter.isPrefix)
+  }
+
+  @Test
+  fun `test literal patterns`() {
+    assertEquals("foo.bar", findLiteral("foo\\.bar"))
+    assertEquals("foo.bar", findLiteral("\\Mfoo.bar"))
+    assertEquals("foo=bar", findLiteral("\\vfoo\\=bar"))
+    assertEquals("Foo", findLiteral("\\cFoo"))
+    assertEquals("foo", findLiteral("\\(foo\\)"))
+  }
+
+  @Test
+  fun `test patterns that are not literal`() {
+    assertNull(findLiteral("foo.bar"))
+    assertNull(findLiteral("^foo"))
+    assertNull(findLiteral("foo$"))
+    assertNull(findLiteral("\\vfoo=bar"))
+    assertNull(findLiteral("foo\\zsbar"))
+    assertNull(findLiteral("foo\\|bar"))
+    assertNull(findLiteral("foo\\n"))
+  }
+
+  @Test
+  fun `test optional literal is not required`() {
+    assertNull(buildPrefilter("\\w\\+\\%(bar\\)\\="))
+  }
+
+  @Test
+  fun `test no literal in alternatives`() {
+    assertNull(buildPrefilter("foo\\|bar"))
+  }
+
+  @Test
+  fun `test newline is not part of the literal`() {
+    val prefilter = assertNotNull(buildPrefilter("foo\\nbar"))
+    assertEquals("foo", prefilter.literal)
+  }
+
+  @Test
+  fun `test no prefilter with assertions`() {
+    assertNull(buildPrefilter("\\(foo\\)\\@>bar"))
+  }
+
+  @Test
+  fun `test scanner finds candidates`() {
+    val scanner = assertNotNull(buildPrefilter("bar")).scanner("foo bar baz bar", false)
+    assertEquals(4, scanner.nextCandidate(0))
+    assertEquals(4, scanner.nextCandidate(4))
+    assertEquals(12, scanner.nextCandidate(5))
+    assertEquals(-1, scanner.nextCandidate(13))
+  }
+
+  @Test
+  fun `test horspool search`() {
+    val searcher = HorspoolSearcher("abcab", false)
+    assertEquals(5, searcher.indexOf("abcaxabcab", 0))
+    assertEquals(-1, searcher.indexOf("abcaxabca", 0))
+    assertEquals(-1, searcher.indexOf("abcab", 1))
+  }
+
+  @Test
+  fun `test horspool search ignoring case`() {
+    assertEquals(6, HorspoolSearcher("LOREM", true).indexOf("ipsum lOrEm", 0))
+    assertEquals(-1, HorspoolSearcher("LOREM", false).indexOf("ipsum lOrEm", 0))
+  }
+
+  @Test
+  fun `test horspool search with non latin characters`() {
+    // 'ā' (U+0101) shares the low byte with U+0001
+    assertEquals(3, HorspoolSearcher("āb", false).indexOf("\u0001bāāb", 0))
+  }
+
+  private fun buildPrefilter(pattern: String): LiteralPrefilter? {
+    return CompiledPattern.compile(pattern).prefilter
+  }
+
+  private fun findLiteral(pattern: String): String? {
+    return CompiledPattern.compile(pattern).literal
+  }
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright 2003-2023 The IdeaVim authors
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE.txt file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.maddyhome.idea.vim.regexp.internal
+
+import com.maddyhome.idea.vim.regexp.VimRegexException
+import com.maddyhome.idea.vim.regexp.engine.parallel.ParallelLineSearch
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.assertThrows
+import kotlin.test.assertEquals
+
+class ParallelLineSearchTest {
+  @Test
+  fun `test chunks are split at line starts and merged in order`() {
+    val text = "Lorem ipsum dolor sit amet,\n".repeat(10_000)
+    val lineStarts = ParallelLineSearch.search(text, 0, text.length, {}) { chunkStart, chunkEnd, _ ->
+      (chunkStart until chunkEnd).filter { it == 0 || text[it - 1] == '\n' }
+    }
+    assertEquals((0 until 10_000).map { it * 28 }, lineStarts)
+  }
+
+  @Test
+  fun `test interrupted search stops the chunks`() {
+    val text = "Lorem ipsum dolor sit amet,\n".repeat(10_000)
+    val exception = assertThrows<VimRegexException> {
+      ParallelLineSearch.search(text, 0, text.length, { throw VimRegexException("Interrupted") }) { _, _, checkStopped ->
+        // Only stops when the search tells it to
+        while (true) {
+          checkStopped()
+          Thread.sleep(1)
+        }
+        @Suppress("UNREACHABLE_CODE")
+        emptyList<Int>()
+      }
+    }
+    assertEquals("Interrupted", exception.message)
+  }
+}
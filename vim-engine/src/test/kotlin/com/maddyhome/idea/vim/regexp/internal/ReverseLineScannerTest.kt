@@ -0,0 +1,83 @@
+/*
+ * Copyright 2003-2023 The IdeaVim authors
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE.txt file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.maddyhome.idea.vim.regexp.internal
+
+import com.maddyhome.idea.vim.regexp.CompiledPattern
+import com.maddyhome.idea.vim.regexp.VimRegex
+import com.maddyhome.idea.vim.regexp.VimRegexTestUtils.mockEditorFromText
+import com.maddyhome.idea.vim.regexp.engine.dfa.ReverseLineScanner
+import com.maddyhome.idea.vim.regexp.match.VimMatchResult
+import org.junit.jupiter.api.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertIs
+import kotlin.test.assertNotNull
+import kotlin.test.assertNull
+
+class ReverseLineScannerTest {
+  @Test
+  fun `test last match start is found`() {
+    val scanner = buildScanner("\\d\\+")
+    val editor = mockEditorFromText("ab 12 cd 345 ef")
+    assertEquals(11, scanner.findLastStart(editor, 0, 15, 15, false))
+    assertEquals(10, scanner.findLastStart(editor, 0, 15, 10, false))
+    assertEquals(4, scanner.findLastStart(editor, 0, 15, 8, false))
+    assertEquals(-1, scanner.findLastStart(editor, 0, 15, 2, false))
+  }
+
+  @Test
+  fun `test line without match is rejected`() {
+    val scanner = buildScanner("\\d\\+")
+    assertEquals(-1, scanner.findLastStart(mockEditorFromText("no digits here"), 0, 14, 14, false))
+  }
+
+  @Test
+  fun `test case insensitive match start is found`() {
+    val scanner = buildScanner("FOO")
+    val editor = mockEditorFromText("a foo b")
+    assertEquals(-1, scanner.findLastStart(editor, 0, 7, 7, false))
+    assertEquals(2, scanner.findLastStart(editor, 0, 7, 7, true))
+  }
+
+  @Test
+  fun `test line anchors are checked`() {
+    val editor = mockEditorFromText("bar foo\nfoo bar")
+    assertEquals(-1, buildScanner("^foo").findLastStart(editor, 0, 7, 7, false))
+    assertEquals(8, buildScanner("^foo").findLastStart(editor, 8, 15, 15, false))
+    assertEquals(4, buildScanner("foo$").findLastStart(editor, 0, 7, 7, false))
+    assertEquals(-1, buildScanner("foo$").findLastStart(editor, 8, 15, 15, false))
+  }
+
+  @Test
+  fun `test empty match at end of line is found`() {
+    assertEquals(3, buildScanner("$").findLastStart(mockEditorFromText("foo\nbar"), 0, 3, 3, false))
+  }
+
+  @Test
+  fun `test scanner is not built for patterns that span lines`() {
+    assertNull(ReverseLineScanner.fromNFA(CompiledPattern.compile("foo\\nbar").nfa))
+  }
+
+  @Test
+  fun `test scanner is not built for patterns with backreferences`() {
+    assertNull(ReverseLineScanner.fromNFA(CompiledPattern.compile("\\(a\\)\\1").nfa))
+  }
+
+  @Test
+  fun `test backward search skips lines without a match`() {
+    val text = (1..2000).joinToString("\n") { if (it % 500 == 0) "line $it" else "x".repeat(40) }
+    val editor = mockEditorFromText(text)
+    val result = VimRegex("\\d\\+").findPrevious(editor, text.length)
+    assertIs<VimMatchResult.Success>(result)
+    assertEquals("2000", result.value)
+  }
+
+  private fun buildScanner(pattern: String): ReverseLineScanner {
+    return assertNotNull(ReverseLineScanner.fromNFA(CompiledPattern.compile(pattern).nfa))
+  }
+}
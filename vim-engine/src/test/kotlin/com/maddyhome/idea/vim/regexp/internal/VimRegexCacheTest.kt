@@ -0,0 +1,87 @@
+/*
+ * Copyright 2003-2023 The IdeaVim authors
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE.txt file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.maddyhome.idea.vim.regexp.internal
+
+import com.maddyhome.idea.vim.regexp.VimRegex
+import com.maddyhome.idea.vim.regexp.VimRegexCache
+import com.maddyhome.idea.vim.regexp.VimRegexException
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.assertThrows
+import kotlin.test.assertEquals
+import kotlin.test.assertSame
+
+class VimRegexCacheTest {
+  @BeforeEach
+  fun setUp() {
+    VimRegexCache.clear()
+  }
+
+  @Test
+  fun `test same pattern is compiled only once`() {
+    val first = VimRegexCache.getOrCompile("foo\\w\\+bar")
+    val second = VimRegexCache.getOrCompile("foo\\w\\+bar")
+    assertSame(first, second)
+    assertEquals(1, VimRegexCache.misses)
+    assertEquals(1, VimRegexCache.hits)
+  }
+
+  @Test
+  fun `test regex instances share compiled pattern`() {
+    VimRegex("Lorem")
+    VimRegex("Lorem")
+    VimRegex("ipsum")
+    assertEquals(2, VimRegexCache.misses)
+    assertEquals(1, VimRegexCache.hits)
+  }
+
+  @Test
+  fun `test cached regex still matches`() {
+    VimRegex("dolor")
+    assertEquals(true, VimRegex("dolor").containsMatchIn("Lorem ipsum dolor sit amet"))
+    assertEquals(false, VimRegex("dolor").containsMatchIn("Lorem ipsum sit amet"))
+  }
+
+  @Test
+  fun `test editor dependent patterns are path dependent`() {
+    assertEquals(false, VimRegex("foo\\w\\+bar").isPathDependent)
+    assertEquals(true, VimRegex("\\%Vfoo").isPathDependent)
+    assertEquals(true, VimRegex("\\%#foo").isPathDependent)
+    assertEquals(true, VimRegex("\\%'mfoo").isPathDependent)
+    assertEquals(true, VimRegex("\\(foo\\)\\1").isPathDependent)
+  }
+
+  @Test
+  fun `test cache is bounded`() {
+    for (i in 0..VimRegexCache.MAX_SIZE * 2) VimRegexCache.getOrCompile("pattern$i")
+    assertEquals(VimRegexCache.MAX_SIZE, VimRegexCache.size)
+  }
+
+  @Test
+  fun `test least recently used pattern is evicted`() {
+    val first = VimRegexCache.getOrCompile("first")
+    for (i in 1 until VimRegexCache.MAX_SIZE) VimRegexCache.getOrCompile("pattern$i")
+    // touch "first" so that "pattern1" is now the eldest entry
+    VimRegexCache.getOrCompile("first")
+    VimRegexCache.getOrCompile("new")
+
+    assertSame(first, VimRegexCache.getOrCompile("first"))
+    val misses = VimRegexCache.misses
+    VimRegexCache.getOrCompile("pattern1")
+    assertEquals(misses + 1, VimRegexCache.misses)
+  }
+
+  @Test
+  fun `test invalid pattern is not cached`() {
+    assertThrows<VimRegexException> { VimRegex("\\(") }
+    assertThrows<VimRegexException> { VimRegex("\\(") }
+    assertEquals(0, VimRegexCache.size)
+    assertEquals(2, VimRegexCache.misses)
+  }
+}
@@ -9,6 +9,8 @@
 package com.maddyhome.idea.vim.regexp.internal
 
 import com.maddyhome.idea.vim.api.VimCaret
+import com.maddyhome.idea.vim.regexp.VimRegexErrors
+import com.maddyhome.idea.vim.regexp.VimRegexException
 import com.maddyhome.idea.vim.regexp.VimRegexTestUtils.CARET
 import com.maddyhome.idea.vim.regexp.VimRegexTestUtils.END
 import com.maddyhome.idea.vim.regexp.VimRegexTestUtils.MARK
@@ -24,6 +26,7 @@ import com.maddyhome.idea.vim.regexp.parser.VimRegexParser
 import com.maddyhome.idea.vim.regexp.parser.VimRegexParserResult
 import com.maddyhome.idea.vim.regexp.parser.visitors.PatternVisitor
 import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.assertThrows
 import kotlin.test.assertEquals
 import kotlin.test.assertTrue
 import kotlin.test.fail
@@ -587,6 +590,42 @@ class VimRegexEngineTest {
     )
   }
 
+  @Test
+  fun `test case insensitive collection with upper case range`() {
+    doTest(
+      "${START}IdeaVim$END",
+      "[A-Z]\\+",
+      ignoreCase = true
+    )
+  }
+
+  @Test
+  fun `test case insensitive negated collection`() {
+    doTest(
+      "${START}123$END IdeaVim",
+      "[^a-z ]\\+",
+      ignoreCase = true
+    )
+  }
+
+  @Test
+  fun `test case insensitive collection with non ascii characters`() {
+    doTest(
+      "${START}ÀÉÎõü$END",
+      "[à-ÿ]\\+",
+      ignoreCase = true
+    )
+  }
+
+  @Test
+  fun `test case insensitive collection with character class expression`() {
+    doTest(
+      "${START}IdeaVim$END",
+      "[[:lower:]]\\+",
+      ignoreCase = true
+    )
+  }
+
   @Test
   fun `test character classes never ignore case`() {
     assertFailure(
@@ -1642,6 +1681,66 @@ class VimRegexEngineTest {
     )
   }
 
+  @Test
+  fun `test nested multi does not take exponential time`() {
+    assertFailure(
+      "a".repeat(100),
+      "\\(a*\\)*b"
+    )
+  }
+
+  @Test
+  fun `test nested multi matches`() {
+    doTest(
+      "${"a".repeat(100)}${START}b${END}",
+      "\\(a*\\)*\\zsb"
+    )
+  }
+
+  @Test
+  fun `test group is not updated by failed iteration`() {
+    doTest(
+      "${START}a${END}ab",
+      "\\(a\\)*ab",
+      groupNumber = 1
+    )
+  }
+
+  @Test
+  fun `test end of match is not updated by failed iteration`() {
+    doTest(
+      "ba${START} ${END} \n",
+      "\\(\\ze.\\)\\+",
+      offset = 2
+    )
+  }
+
+  @Test
+  fun `test nested repetition before lookahead does not backtrack exponentially`() {
+    assertFailure(
+      "a".repeat(40),
+      "\\%(a*\\)*\\%(b\\)\\@="
+    )
+  }
+
+  @Test
+  fun `test pattern that uses too much memory fails with an error`() {
+    val editor = mockEditorFromText("a".repeat(200_000))
+    val nfa = buildNFA("\\(a\\|b\\)*\\%(c\\)\\@=")
+    val exception = assertThrows<VimRegexException> { VimRegexEngine.simulate(nfa, editor) }
+    assertEquals(VimRegexErrors.E363.toString(), exception.message)
+  }
+
+  @Test
+  fun `test interrupted backtracking stops with the error of the interrupt check`() {
+    val editor = mockEditorFromText("a".repeat(40))
+    val nfa = buildNFA("\\(a*\\)*\\%(b\\)\\@=")
+    val exception = assertThrows<VimRegexException> {
+      VimRegexEngine.simulate(nfa, editor) { throw VimRegexException("Interrupted") }
+    }
+    assertEquals("Interrupted", exception.message)
+  }
+
   companion object {
     private fun assertFailure(
       text: CharSequence,
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2003-2023 The IdeaVim authors
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE.txt file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.maddyhome.idea.vim.vimscript.model.commands
+
+import org.junit.jupiter.api.Test
+import kotlin.test.assertEquals
+
+class MarkedLinesTest {
+  @Test
+  fun `test lines are returned in order`() {
+    val markedLines = MarkedLines(listOf(1, 4, 7))
+    assertEquals(listOf(1, 4, 7), markedLines.remaining())
+  }
+
+  @Test
+  fun `test deleting the current line moves the next lines up`() {
+    val markedLines = MarkedLines(listOf(1, 2, 5))
+    assertEquals(1, markedLines.nextLine())
+    // dd on line 1
+    markedLines.linesChanged(1, atLineStart = true, removedLines = 1, addedLines = 0, removedWholeLastLine = true)
+    assertEquals(listOf(1, 4), markedLines.remaining())
+  }
+
+  @Test
+  fun `test deleted lines lose their mark`() {
+    val markedLines = MarkedLines(listOf(1, 2, 3, 5))
+    assertEquals(1, markedLines.nextLine())
+    // .,+2d on line 1
+    markedLines.linesChanged(1, atLineStart = true, removedLines = 3, addedLines = 0, removedWholeLastLine = true)
+    assertEquals(listOf(2), markedLines.remaining())
+  }
+
+  @Test
+  fun `test inserted lines move the next lines down`() {
+    val markedLines = MarkedLines(listOf(0, 1, 3))
+    assertEquals(0, markedLines.nextLine())
+    // t. on line 0 inserts a line at the start of line 1
+    markedLines.linesChanged(1, atLineStart = true, removedLines = 0, addedLines = 1, removedWholeLastLine = false)
+    assertEquals(listOf(2, 4), markedLines.remaining())
+  }
+
+  @Test
+  fun `test text inserted inside a line doesn't move it`() {
+    val markedLines = MarkedLines(listOf(0, 1, 3))
+    assertEquals(0, markedLines.nextLine())
+    markedLines.linesChanged(1, atLineStart = false, removedLines = 0, addedLines = 2, removedWholeLastLine = false)
+    assertEquals(listOf(1, 5), markedLines.remaining())
+  }
+
+  @Test
+  fun `test joining lines removes the joined mark`() {
+    val markedLines = MarkedLines(listOf(0, 1, 2, 4))
+    assertEquals(0, markedLines.nextLine())
+    // J on line 1 replaces the line break at its end
+    markedLines.linesChanged(1, atLineStart = false, removedLines = 1, addedLines = 0, removedWholeLastLine = false)
+    assertEquals(listOf(1, 3), markedLines.remaining())
+  }
+
+  @Test
+  fun `test changes after some of the next lines only move the later ones`() {
+    val markedLines = MarkedLines(listOf(0, 2, 4, 6, 8))
+    assertEquals(0, markedLines.nextLine())
+    markedLines.linesChanged(5, atLineStart = true, removedLines = 2, addedLines = 0, removedWholeLastLine = true)
+    assertEquals(listOf(2, 4, 6), markedLines.remaining())
+  }
+
+  @Test
+  fun `test moving the current line to the top`() {
+    val markedLines = MarkedLines(listOf(1, 3, 4))
+    assertEquals(1, markedLines.nextLine())
+    // m0 on line 1 deletes it, then inserts it at the start of the document
+    markedLines.linesChanged(1, atLineStart = true, removedLines = 1, addedLines = 0, removedWholeLastLine = true)
+    markedLines.linesChanged(0, atLineStart = true, removedLines = 0, addedLines = 1, removedWholeLastLine = false)
+    assertEquals(3, markedLines.nextLine())
+    markedLines.linesChanged(3, atLineStart = true, removedLines = 1, addedLines = 0, removedWholeLastLine = true)
+    markedLines.linesChanged(0, atLineStart = true, removedLines = 0, addedLines = 1, removedWholeLastLine = false)
+    assertEquals(listOf(4), markedLines.remaining())
+  }
+
+  private fun MarkedLines.remaining(): List<Int> = generateSequence { nextLine().takeIf { it >= 0 } }.toList()
+}